@@ -7,6 +7,7 @@ import java.net.URI;
 import java.util.Map;
 import javax.ws.rs.core.MediaType;
 import org.opengis.cite.gml32.data.util.ClientUtils;
+import org.opengis.cite.gml32.data.util.DocumentTree;
 import org.testng.ITestContext;
 import org.testng.SkipException;
 import org.testng.annotations.BeforeClass;
@@ -27,6 +28,11 @@ public class CommonFixture {
      * HTTP client component (JAX-RS Client API).
      */
     protected Client client;
+    /**
+     * A compact, read-only tree representing the test subject; it is shared by
+     * all tests and built when first used.
+     */
+    protected DocumentTree testSubjectTree;
     /**
      * An HTTP request message.
      */
@@ -38,7 +44,7 @@ public class CommonFixture {
 
     /**
      * Initializes the common test fixture with a client component for
-     * interacting with HTTP endpoints.
+     * interacting with HTTP endpoints and the shared test subject tree.
      *
      * @param testContext
      *            The test context that contains all the information for a test
@@ -54,6 +60,10 @@ public class CommonFixture {
         if (null == obj) {
             throw new SkipException("Test subject (File) not found in ITestContext.");
         }
+        obj = testContext.getSuite().getAttribute(SuiteAttribute.TEST_SUBJ_TREE.getName());
+        if (obj instanceof DocumentTree) {
+            this.testSubjectTree = (DocumentTree) obj;
+        }
     }
 
     @BeforeMethod
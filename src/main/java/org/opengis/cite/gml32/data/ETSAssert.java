@@ -1,6 +1,8 @@
 package org.opengis.cite.gml32.data;
 
+import java.net.URI;
 import java.net.URL;
+import java.util.Collections;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -8,16 +10,29 @@ import java.util.logging.Logger;
 import javax.xml.namespace.QName;
 import javax.xml.transform.Source;
 import javax.xml.transform.dom.DOMResult;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
 import javax.xml.validation.Validator;
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
+import net.sf.saxon.s9api.Axis;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmNodeKind;
+import net.sf.saxon.s9api.XdmSequenceIterator;
+
+import org.opengis.cite.gml32.data.util.CompiledSchematron;
+import org.opengis.cite.gml32.data.util.CompiledSchematronValidator;
+import org.opengis.cite.gml32.data.util.DocumentTree;
 import org.opengis.cite.gml32.data.util.NamespaceBindings;
+import org.opengis.cite.gml32.data.util.SaxonCache;
+import org.opengis.cite.gml32.data.util.SchematronCache;
+import org.opengis.cite.gml32.data.util.StreamingXPath;
+import org.opengis.cite.gml32.data.util.ValidationUtils;
+import org.opengis.cite.gml32.data.util.ValidatorPool;
 import org.opengis.cite.gml32.data.util.XMLUtils;
-import org.opengis.cite.validation.SchematronValidator;
+import org.opengis.cite.gml32.data.util.XPathCache;
 import org.opengis.cite.validation.ValidationErrorHandler;
 import org.testng.Assert;
 import org.w3c.dom.Document;
@@ -62,6 +77,7 @@ public class ETSAssert {
      * <li>xlink: {@value org.opengis.cite.gml32.data.Namespaces#XLINK}</li>
      * <li>gml: {@value org.opengis.cite.gml32.data.Namespaces#GML}</li>
      * </ul>
+     * The compiled expression is cached (see {@link XPathCache}).
      * 
      * @param expr
      *            A valid XPath 1.0 expression.
@@ -76,13 +92,9 @@ public class ETSAssert {
         if (null == context) {
             throw new NullPointerException("Context node is null.");
         }
-        NamespaceBindings bindings = NamespaceBindings.withStandardBindings();
-        bindings.addAllBindings(namespaceBindings);
-        XPath xpath = XPathFactory.newInstance().newXPath();
-        xpath.setNamespaceContext(bindings);
         Boolean result;
         try {
-            result = (Boolean) xpath.evaluate(expr, context, XPathConstants.BOOLEAN);
+            result = (Boolean) XPathCache.compile(expr, namespaceBindings).evaluate(context, XPathConstants.BOOLEAN);
         } catch (XPathExpressionException xpe) {
             String msg = ErrorMessage.format(ErrorMessageKeys.XPATH_ERROR, expr);
             LOGR.log(Level.WARNING, msg, xpe);
@@ -97,6 +109,86 @@ public class ETSAssert {
         Assert.assertTrue(result, ErrorMessage.format(ErrorMessageKeys.XPATH_RESULT, elemNode.getNodeName(), expr));
     }
 
+    /**
+     * Asserts that an XPath 1.0 expression holds true for the test subject
+     * (the document node is the context node). An expression that belongs to
+     * the subset supported by {@link StreamingXPath} is evaluated by reading
+     * the document in a single pass, unless the tree has already been built;
+     * otherwise it is evaluated against the tree.
+     *
+     * @param expr
+     *            A valid XPath 1.0 expression.
+     * @param subject
+     *            The tree representing the test subject.
+     * @param namespaceBindings
+     *            A collection of namespace bindings for the XPath expression,
+     *            where each entry maps a namespace URI (key) to a prefix
+     *            (value). It may be {@code null}.
+     */
+    public static void assertXPath(String expr, DocumentTree subject, Map<String, String> namespaceBindings) {
+        if (null == subject) {
+            throw new NullPointerException("Test subject is null.");
+        }
+        Boolean result;
+        try {
+            result = (Boolean) XMLUtils.evaluateXPath(subject, expr, namespaceBindings, XPathConstants.BOOLEAN);
+        } catch (XPathExpressionException xpe) {
+            String msg = ErrorMessage.format(ErrorMessageKeys.XPATH_ERROR, expr);
+            LOGR.log(Level.WARNING, msg, xpe);
+            throw new AssertionError(msg);
+        }
+        Assert.assertTrue(result, ErrorMessage.format(ErrorMessageKeys.XPATH_RESULT, subject.getSystemId(), expr));
+    }
+
+    /**
+     * Asserts that an XPath 2.0 expression holds true for the given evaluation
+     * context, typically a node in the shared test subject tree (see
+     * {@link org.opengis.cite.gml32.data.util.DocumentTree DocumentTree}).
+     * The standard namespace bindings declared by
+     * {@link NamespaceBindings#withStandardBindings()} do not need to be
+     * explicitly declared. The compiled expression is cached (see
+     * {@link SaxonCache}).
+     *
+     * @param expr
+     *            A valid XPath 2.0 expression.
+     * @param context
+     *            The context node.
+     * @param namespaceBindings
+     *            A collection of namespace bindings for the XPath expression,
+     *            where each entry maps a namespace URI (key) to a prefix
+     *            (value). It may be {@code null}.
+     */
+    public static void assertXPath2(String expr, XdmNode context, Map<String, String> namespaceBindings) {
+        if (null == context) {
+            throw new NullPointerException("Context node is null.");
+        }
+        NamespaceBindings bindings = NamespaceBindings.withStandardBindings();
+        bindings.addAllBindings(namespaceBindings);
+        boolean result;
+        try {
+            XPathSelector selector = SaxonCache.getInstance().getXPath(expr, bindings.getAllBindings()).load();
+            selector.setContextItem(context);
+            result = selector.effectiveBooleanValue();
+        } catch (SaxonApiException e) {
+            String msg = ErrorMessage.format(ErrorMessageKeys.XPATH_ERROR, expr);
+            LOGR.log(Level.WARNING, msg, e);
+            throw new AssertionError(msg);
+        }
+        XdmNode elemNode = context;
+        if (context.getNodeKind() == XdmNodeKind.DOCUMENT) {
+            XdmSequenceIterator children = context.axisIterator(Axis.CHILD);
+            while (children.hasNext()) {
+                XdmNode child = (XdmNode) children.next();
+                if (child.getNodeKind() == XdmNodeKind.ELEMENT) {
+                    elemNode = child;
+                    break;
+                }
+            }
+        }
+        Assert.assertTrue(result,
+                ErrorMessage.format(ErrorMessageKeys.XPATH_RESULT, elemNode.getNodeName(), expr));
+    }
+
     /**
      * Asserts that an XML resource is schema-valid.
      * 
@@ -117,6 +209,25 @@ public class ETSAssert {
                 errHandler.getErrorCount(), errHandler.toString()));
     }
 
+    /**
+     * Asserts that an XML resource is valid with respect to the given schema.
+     * A pooled validator is used (see {@link ValidatorPool}).
+     * 
+     * @param schema
+     *            The compiled schema.
+     * @param source
+     *            The XML Source to be validated.
+     */
+    public static void assertSchemaValid(Schema schema, Source source) {
+        ValidatorPool validatorPool = ValidatorPool.getInstance();
+        Validator validator = validatorPool.acquire(schema);
+        try {
+            assertSchemaValid(validator, source);
+        } finally {
+            validatorPool.release(schema, validator);
+        }
+    }
+
     /**
      * Asserts that an XML resource satisfies all applicable constraints defined
      * for the specified phase in a Schematron (ISO 19757-3) schema. The "xslt2"
@@ -128,6 +239,13 @@ public class ETSAssert {
      * schema element should be used.</li>
      * </ul>
      * 
+     * <p>
+     * The schema reference is resolved using the Schematron entity catalog; a
+     * stylesheet that was generated from the schema at build time is used if
+     * one is available (see
+     * {@link ValidationUtils#findPrecompiledSchematron(String, String)}).
+     * </p>
+     * 
      * @param schemaRef
      *            A URL that denotes the location of a Schematron schema.
      * @param xmlSource
@@ -138,9 +256,14 @@ public class ETSAssert {
      */
     public static void assertSchematronValid(URL schemaRef, Source xmlSource, String activePhase) {
         String phase = (null == activePhase || activePhase.isEmpty()) ? "#ALL" : activePhase;
-        SchematronValidator validator;
+        CompiledSchematronValidator validator;
         try {
-            validator = new SchematronValidator(new StreamSource(schemaRef.toString()), phase);
+            CompiledSchematron schema = ValidationUtils.findPrecompiledSchematron(schemaRef.toString(), phase);
+            if (null == schema) {
+                URI schemaURI = ValidationUtils.resolveSchematronReference(schemaRef.toURI());
+                schema = SchematronCache.getInstance().get(schemaURI, phase);
+            }
+            validator = schema.newValidator();
         } catch (Exception e) {
             StringBuilder msg = new StringBuilder("Failed to process Schematron schema at ");
             msg.append(schemaRef).append('\n');
@@ -169,6 +292,32 @@ public class ETSAssert {
                 String.format("Unexpected number of %s descendant elements.", elementName));
     }
 
+    /**
+     * Asserts that the test subject contains the expected number of descendant
+     * elements having the specified name. The elements are counted in
+     * streaming mode unless the tree has already been built.
+     *
+     * @param subject
+     *            The tree representing the test subject.
+     * @param elementName
+     *            The qualified name of the element.
+     * @param expectedCount
+     *            The expected number of occurrences.
+     */
+    public static void assertDescendantElementCount(DocumentTree subject, QName elementName, int expectedCount) {
+        String nsURI = elementName.getNamespaceURI();
+        String expr = String.format("count(//%s%s)", nsURI.isEmpty() ? "" : "ns1:", elementName.getLocalPart());
+        Map<String, String> nsBindings = nsURI.isEmpty() ? null : Collections.singletonMap(nsURI, "ns1");
+        Number count;
+        try {
+            count = (Number) XMLUtils.evaluateXPath(subject, expr, nsBindings, XPathConstants.NUMBER);
+        } catch (XPathExpressionException xpe) {
+            throw new AssertionError(ErrorMessage.format(ErrorMessageKeys.XML_ERROR, xpe.getMessage()));
+        }
+        Assert.assertEquals(count.intValue(), expectedCount,
+                String.format("Unexpected number of %s descendant elements.", elementName));
+    }
+
     /**
      * Asserts that the given response message contains an OGC exception report.
      * The message body must contain an XML document that has a document element
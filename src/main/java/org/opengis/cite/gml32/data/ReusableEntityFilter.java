@@ -1,26 +1,220 @@
 package org.opengis.cite.gml32.data;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import org.opengis.cite.gml32.data.util.TestSuiteLogger;
+
 import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientRequest;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.filter.ClientFilter;
 
 /**
- * Buffers the (response) entity so it can be read multiple times.
+ * Buffers the (response) entity so it can be read multiple times. An entity
+ * no larger than {@value #THRESHOLD_PROPERTY} bytes (default:
+ * {@value #DEFAULT_THRESHOLD}) is held in memory; a larger one is written to a
+ * temporary file that is read as required. Either way the entity InputStream
+ * supports mark/reset. Temporary files are deleted by invoking
+ * {@link #deleteTempFiles()}.
  *
  * <p><strong>WARNING:</strong> The entity InputStream must be reset after each
  * read attempt.</p>
  */
 public class ReusableEntityFilter extends ClientFilter {
 
+    /**
+     * Name of the system property that specifies the maximum size (in bytes)
+     * of an entity that is buffered in memory.
+     */
+    public static final String THRESHOLD_PROPERTY = "org.opengis.cite.gml32.data.http.maxBufferedEntity";
+    /**
+     * The default threshold: 1 MiB.
+     */
+    public static final int DEFAULT_THRESHOLD = 1048576;
+    private static final int BUFFER_SIZE = 8192;
+    private final int threshold;
+    private final Set<File> tempFiles = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+    /**
+     * Creates a filter that uses the configured threshold.
+     */
+    public ReusableEntityFilter() {
+        this(Integer.getInteger(THRESHOLD_PROPERTY, DEFAULT_THRESHOLD));
+    }
+
+    /**
+     * Creates a filter that uses the given threshold.
+     *
+     * @param threshold
+     *            The maximum size (in bytes) of an entity held in memory.
+     */
+    public ReusableEntityFilter(int threshold) {
+        this.threshold = Math.max(0, threshold);
+    }
+
     @Override
     public ClientResponse handle(ClientRequest req) throws ClientHandlerException {
         // leave request entity--it can usually be read multiple times
         ClientResponse rsp = getNext().handle(req);
         if (rsp.hasEntity()) {
-            rsp.bufferEntity();
+            try {
+                rsp.setEntityInputStream(bufferEntity(rsp.getEntityInputStream(), rsp.getLength()));
+            } catch (IOException e) {
+                throw new ClientHandlerException(e);
+            }
         }
         return rsp;
     }
 
+    /**
+     * Reads an entity into memory or, if it exceeds the threshold, into a
+     * temporary file. The original stream is closed.
+     *
+     * @param entity
+     *            The entity InputStream.
+     * @param length
+     *            The declared length of the entity (-1 if unknown).
+     * @return An InputStream that supports mark/reset.
+     * @throws IOException
+     *             If the entity cannot be read or written to a file.
+     */
+    InputStream bufferEntity(InputStream entity, int length) throws IOException {
+        try (InputStream input = entity) {
+            ByteArrayOutputStream memBuffer = new ByteArrayOutputStream(
+                    (length >= 0 && length <= this.threshold) ? length : BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n = 0;
+            if (length <= this.threshold) {
+                while (memBuffer.size() <= this.threshold && (n = input.read(buffer)) != -1) {
+                    memBuffer.write(buffer, 0, n);
+                }
+                if (n == -1) {
+                    return new ByteArrayInputStream(memBuffer.toByteArray());
+                }
+            }
+            File file = File.createTempFile("entity-", ".tmp");
+            this.tempFiles.add(file);
+            file.deleteOnExit();
+            try (OutputStream output = new FileOutputStream(file)) {
+                memBuffer.writeTo(output);
+                memBuffer = null;
+                while ((n = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, n);
+                }
+            }
+            TestSuiteLogger.log(Level.FINE,
+                    String.format("Buffered %d byte entity in file %s", file.length(), file));
+            return new FileEntityInputStream(file);
+        }
+    }
+
+    /**
+     * Deletes the temporary files that hold buffered entities; such entities
+     * can no longer be read.
+     */
+    public void deleteTempFiles() {
+        for (File file : this.tempFiles) {
+            if (!file.delete() && file.exists()) {
+                TestSuiteLogger.log(Level.FINE, "Failed to delete temporary file " + file);
+            }
+            this.tempFiles.remove(file);
+        }
+    }
+
+    /**
+     * Reads an entity stored in a file. Closing the stream releases the file
+     * handle, but (like a ByteArrayInputStream) it can still be reset and read
+     * again afterwards; the file is reopened as needed.
+     */
+    static class FileEntityInputStream extends InputStream {
+
+        private final File file;
+        private RandomAccessFile raf;
+        private long position;
+        private long mark;
+
+        FileEntityInputStream(File file) {
+            this.file = file;
+        }
+
+        File getFile() {
+            return this.file;
+        }
+
+        private RandomAccessFile file() throws IOException {
+            if (null == this.raf) {
+                this.raf = new RandomAccessFile(this.file, "r");
+                this.raf.seek(this.position);
+            }
+            return this.raf;
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            int b = file().read();
+            if (b != -1) {
+                this.position++;
+            }
+            return b;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            int n = file().read(b, off, len);
+            if (n > 0) {
+                this.position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public synchronized long skip(long n) throws IOException {
+            long skipped = Math.max(0, Math.min(n, available()));
+            this.position += skipped;
+            file().seek(this.position);
+            return skipped;
+        }
+
+        @Override
+        public synchronized int available() throws IOException {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, this.file.length() - this.position));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            this.mark = this.position;
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            this.position = this.mark;
+            if (null != this.raf) {
+                this.raf.seek(this.position);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (null != this.raf) {
+                this.raf.close();
+                this.raf = null;
+            }
+        }
+    }
 }
@@ -2,6 +2,10 @@ package org.opengis.cite.gml32.data;
 
 import java.io.File;
 import java.net.URI;
+import java.util.Set;
+
+import org.opengis.cite.gml32.data.util.DocumentTree;
+import org.opengis.cite.gml32.data.util.SpooledDownload;
 
 import com.sun.jersey.api.client.Client;
 
@@ -27,7 +31,23 @@ public enum SuiteAttribute {
     /**
      * A File containing the test subject or a description of it.
      */
-    TEST_SUBJ_FILE("testSubjectFile", File.class);
+    TEST_SUBJ_FILE("testSubjectFile", File.class),
+    /**
+     * A download of the test subject that may still be in progress; the
+     * content of the test subject file is incomplete until it is done.
+     */
+    TEST_SUBJ_DOWNLOAD("testSubjectDownload", SpooledDownload.class),
+    /**
+     * A compact, read-only tree representing the test subject; it is built
+     * once, when first needed, and shared by all tests.
+     */
+    TEST_SUBJ_TREE("testSubjectTree", DocumentTree.class),
+    /**
+     * A (thread-safe) set of temporary files created by tests, such as the
+     * files listing all validation errors; they are deleted when the suite
+     * finishes.
+     */
+    TEMP_FILES("tempFiles", Set.class);
     private final Class attrType;
     private final String attrName;
 
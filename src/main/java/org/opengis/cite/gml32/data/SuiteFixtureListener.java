@@ -1,17 +1,18 @@
 package org.opengis.cite.gml32.data;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URI;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamReader;
-
 import org.opengis.cite.gml32.data.util.ClientUtils;
+import org.opengis.cite.gml32.data.util.DocumentTree;
+import org.opengis.cite.gml32.data.util.SpooledDownload;
 import org.opengis.cite.gml32.data.util.TestSuiteLogger;
 import org.opengis.cite.gml32.data.util.URIUtils;
 import org.testng.ISuite;
@@ -39,6 +40,8 @@ public class SuiteFixtureListener implements ISuiteListener {
         processSuiteParameters(suite);
         getSchematronSchema(suite);
         registerClientComponent(suite);
+        suite.setAttribute(SuiteAttribute.TEMP_FILES.getName(),
+                Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>()));
     }
 
     @Override
@@ -50,7 +53,15 @@ public class SuiteFixtureListener implements ISuiteListener {
      * Processes test suite arguments and sets suite attributes accordingly. The
      * entity referenced by the {@link TestRunArg#IUT iut} argument is retrieved
      * and written to a File that is set as the value of the suite attribute
-     * {@link SuiteAttribute#TEST_SUBJ_FILE testSubjectFile}.
+     * {@link SuiteAttribute#TEST_SUBJ_FILE testSubjectFile}. A remote entity is
+     * retrieved in the background (see {@link SpooledDownload}) so that tests
+     * can start reading it right away; the download is set as the value of the
+     * suite attribute {@link SuiteAttribute#TEST_SUBJ_DOWNLOAD
+     * testSubjectDownload}. The entity may be a single GML document or a ZIP
+     * archive containing several of them. A {@link DocumentTree} that is shared
+     * by all tests is set as the value of the suite attribute
+     * {@link SuiteAttribute#TEST_SUBJ_TREE testSubjectTree}; the document is
+     * not parsed until a test needs it.
      * 
      * @param suite
      *            An ISuite object representing a TestNG test suite.
@@ -65,14 +76,23 @@ public class SuiteFixtureListener implements ISuiteListener {
         URI iutRef = URI.create(iutParam.trim());
         suite.setAttribute(SuiteAttribute.TEST_SUBJ_URI.getName(), iutRef);
         File entityFile = null;
+        DocumentTree tree;
         try {
-            entityFile = URIUtils.dereferenceURI(iutRef);
+            if (SpooledDownload.isTeeEnabled(iutRef)) {
+                SpooledDownload download = SpooledDownload.start(iutRef);
+                suite.setAttribute(SuiteAttribute.TEST_SUBJ_DOWNLOAD.getName(), download);
+                entityFile = download.getFile();
+                tree = new DocumentTree(download, iutRef);
+            } else {
+                entityFile = URIUtils.dereferenceURI(iutRef);
+                tree = new DocumentTree(entityFile, iutRef);
+            }
         } catch (IOException iox) {
             throw new RuntimeException("Failed to dereference resource located at " + iutRef, iox);
         }
-        TestSuiteLogger.log(Level.FINE, String.format("Wrote test subject to file: %s (%d bytes)",
-                entityFile.getAbsolutePath(), entityFile.length()));
+        TestSuiteLogger.log(Level.FINE, String.format("Writing test subject to file: %s", entityFile.getAbsolutePath()));
         suite.setAttribute(SuiteAttribute.TEST_SUBJ_FILE.getName(), entityFile);
+        suite.setAttribute(SuiteAttribute.TEST_SUBJ_TREE.getName(), tree);
         if (TestSuiteLogger.isLoggable(Level.FINE)) {
             StringBuilder logMsg = new StringBuilder("Parsed resource retrieved from ");
             logMsg.append(iutRef).append("\n");
@@ -82,20 +102,12 @@ public class SuiteFixtureListener implements ISuiteListener {
     }
 
     /**
-     * Adds a URI reference specifying the location of a Schematron schema; this
-     * may be given by (a) the test run argument {@link TestRunArg#SCH sch}, or
-     * (b) an <code>xml-model</code> processing instruction in the instance
-     * document. The processing instruction takes precedence if both references
-     * are found.
-     * 
-     * <pre>
-    * {@code
-    * <?xml version="1.0" encoding="UTF-8"?>
-    * <?xml-model href="http://www.example.org/constraints.sch" 
-    *             schematypens="http://purl.oclc.org/dsdl/schematron" 
-    *             phase="#ALL"?>
-    * }
-     * </pre>
+     * Adds a URI reference specifying the location of a Schematron schema as
+     * given by the test run argument {@link TestRunArg#SCH sch}. An
+     * <code>xml-model</code> processing instruction in the instance document
+     * takes precedence; it is detected when the document is read by a
+     * {@link org.opengis.cite.gml32.data.document.DocumentPipeline
+     * DocumentPipeline}.
      * 
      * @param suite
      *            An ISuite object representing a TestNG test suite.
@@ -106,21 +118,6 @@ public class SuiteFixtureListener implements ISuiteListener {
         if ((null != schRef) && !schRef.isEmpty()) {
             suite.setAttribute(SuiteAttribute.SCHEMATRON_URI.getName(), URI.create(schRef));
         }
-        File gmlFile = (File) suite.getAttribute(SuiteAttribute.TEST_SUBJ_FILE.getName());
-        if (null == gmlFile) {
-            return;
-        }
-        Map<String, String> piData = getXmlModelPIData(gmlFile);
-        if (null != piData) {
-            URI schURI = URI.create(piData.get("href"));
-            if (!schURI.isAbsolute()) {
-                // resolve relative URI against location of GML data
-                String dataURI = suite.getParameter(TestRunArg.IUT.toString());
-                URI baseURI = URI.create(dataURI);
-                schURI = baseURI.resolve(schURI);
-            }
-            suite.setAttribute(SuiteAttribute.SCHEMATRON_URI.getName(), schURI);
-        }
     }
 
     /**
@@ -141,12 +138,34 @@ public class SuiteFixtureListener implements ISuiteListener {
     /**
      * Deletes temporary files created during the test run if TestSuiteLogger is
      * enabled at the INFO level or higher (they are left intact at the CONFIG
-     * level or lower).
+     * level or lower). A download of the test subject that is still in
+     * progress is cancelled. Response entities buffered in files by the client
+     * component and the files registered by tests (suite attribute
+     * {@link SuiteAttribute#TEMP_FILES tempFiles}) are always deleted.
      *
      * @param suite
      *            The test suite.
      */
     void deleteTempFiles(ISuite suite) {
+        Object download = suite.getAttribute(SuiteAttribute.TEST_SUBJ_DOWNLOAD.getName());
+        if (null != download) {
+            ((SpooledDownload) download).close();
+        }
+        Object client = suite.getAttribute(SuiteAttribute.CLIENT.getName());
+        if (null != client) {
+            ClientUtils.deleteTempFiles((Client) client);
+        }
+        @SuppressWarnings("unchecked")
+        Set<File> tempFiles = (Set<File>) suite.getAttribute(SuiteAttribute.TEMP_FILES.getName());
+        if (null != tempFiles) {
+            for (Iterator<File> itr = tempFiles.iterator(); itr.hasNext();) {
+                File file = itr.next();
+                if (!file.delete() && file.exists()) {
+                    TestSuiteLogger.log(Level.FINE, "Failed to delete temporary file " + file);
+                }
+                itr.remove();
+            }
+        }
         if (TestSuiteLogger.isLoggable(Level.CONFIG)) {
             return;
         }
@@ -155,45 +174,4 @@ public class SuiteFixtureListener implements ISuiteListener {
             testSubjFile.delete();
         }
     }
-
-    /**
-     * Extracts the data items from the {@code xml-model} processing
-     * instruction. The PI must appear before the document element.
-     * 
-     * @param dataFile
-     *            A File containing the GML instance.
-     * @return A Map containing the supplied pseudo-attributes, or {@code null}
-     *         if the PI is not present.
-     */
-    Map<String, String> getXmlModelPIData(File dataFile) {
-        Map<String, String> piData = null;
-        try (FileInputStream input = new FileInputStream(dataFile)) {
-            // input = new FileInputStream(dataFile);
-            XMLInputFactory factory = XMLInputFactory.newInstance();
-            XMLStreamReader reader = factory.createXMLStreamReader(input);
-            int event = reader.getEventType();
-            // Now in START_DOCUMENT state. Stop at document element.
-            while (event != XMLStreamReader.START_ELEMENT) {
-                event = reader.next();
-                if (event == XMLStreamReader.PROCESSING_INSTRUCTION) {
-                    if (reader.getPITarget().equals("xml-model")) {
-                        String[] pseudoAttrs = reader.getPIData().split("\\s+");
-                        piData = new HashMap<String, String>();
-                        for (String pseudoAttr : pseudoAttrs) {
-                            String[] nv = pseudoAttr.split("=");
-                            piData.put(nv[0].trim(), nv[1].replace('"', ' ').trim());
-                        }
-                        break;
-                    }
-                }
-            }
-        } catch (Exception e) {
-            TestSuiteLogger.log(Level.WARNING, "Failed to parse document at " + dataFile.getAbsolutePath(), e);
-            return null; // not an XML document
-        }
-        if (null == piData || !piData.get("schematypens").equals(Namespaces.SCH.toString())) {
-            piData = null;
-        }
-        return piData;
-    }
 }
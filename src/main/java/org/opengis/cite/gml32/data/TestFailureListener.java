@@ -4,6 +4,7 @@ import com.sun.jersey.api.client.ClientRequest;
 import com.sun.jersey.api.client.ClientResponse;
 import java.nio.charset.StandardCharsets;
 import javax.ws.rs.core.MediaType;
+import org.opengis.cite.gml32.data.util.BoundedOutputStream;
 import org.opengis.cite.gml32.data.util.ClientUtils;
 import org.opengis.cite.gml32.data.util.XMLUtils;
 import org.testng.ITestResult;
@@ -22,7 +23,8 @@ public class TestFailureListener extends TestListenerAdapter {
      * of these attributes is a string that contains information about the
      * content of an outgoing or incoming message: target resource, status code,
      * headers, entity (if present). The entity is represented as a String with
-     * UTF-8 character encoding.
+     * UTF-8 character encoding; it is truncated if it exceeds the length given
+     * by the system property {@value XMLUtils#MAX_OUTPUT_PROPERTY}.
      *
      * @param result A description of a test result (with a fail verdict).
      */
@@ -87,7 +89,11 @@ public class TestFailureListener extends TestListenerAdapter {
                 msgInfo.append(XMLUtils.writeNodeToString(doc));
             } else {
                 byte[] body = rsp.getEntity(byte[].class);
-                msgInfo.append(new String(body, StandardCharsets.UTF_8));
+                int maxLength = Integer.getInteger(XMLUtils.MAX_OUTPUT_PROPERTY, XMLUtils.DEFAULT_MAX_OUTPUT);
+                msgInfo.append(new String(body, 0, Math.min(body.length, maxLength), StandardCharsets.UTF_8));
+                if (body.length > maxLength) {
+                    msgInfo.append(String.format(BoundedOutputStream.TRUNCATION_MARKER, maxLength));
+                }
             }
             msgInfo.append('\n');
         }
@@ -3,6 +3,7 @@ package org.opengis.cite.gml32.data;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
@@ -12,7 +13,11 @@ import java.util.logging.Level;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
 
+import org.opengis.cite.gml32.data.util.BaseGrammarPool;
+import org.opengis.cite.gml32.data.util.ResultCache;
+import org.opengis.cite.gml32.data.util.SpooledDownload;
 import org.opengis.cite.gml32.data.util.TestSuiteLogger;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -31,6 +36,7 @@ public class TestNGController implements TestSuiteController {
 
     private TestRunExecutor executor;
     private Properties etsProperties = new Properties();
+    private File resultsDir;
 
     /**
      * A convenience method for running the test suite using a command-line
@@ -94,11 +100,13 @@ public class TestNGController implements TestSuiteController {
             TestSuiteLogger.log(Level.WARNING, "Unable to load ets.properties. " + ex.getMessage());
         }
         URL tngSuite = TestNGController.class.getResource("testng.xml");
-        File resultsDir = new File(outputDir);
+        this.resultsDir = new File(outputDir);
         TestSuiteLogger.log(Level.CONFIG, "Using TestNG config: " + tngSuite);
         TestSuiteLogger.log(Level.CONFIG, "Using outputDirPath: " + resultsDir.getAbsolutePath());
         // NOTE: setting third argument to 'true' enables the default listeners
         this.executor = new TestNGExecutor(tngSuite.toString(), resultsDir.getAbsolutePath(), false);
+        // preparse the bundled GML and ISO schemas once, before any test run
+        BaseGrammarPool.getInstance();
     }
 
     @Override
@@ -116,10 +124,55 @@ public class TestNGController implements TestSuiteController {
         return etsProperties.getProperty("ets-title");
     }
 
+    /**
+     * Executes a test run. If the same test subject (along with the schemas it
+     * refers to) was tested before using the same arguments, the results of
+     * that run are returned instead (see {@link ResultCache}).
+     *
+     * @param testRunArgs
+     *            A DOM Document containing a set of XML properties (key-value
+     *            pairs).
+     * @return A Source for reading the test results.
+     * @throws Exception
+     *             If the test run cannot be executed.
+     */
     @Override
     public Source doTestRun(Document testRunArgs) throws Exception {
-        validateTestRunArgs(testRunArgs);
-        return executor.execute(testRunArgs);
+        Map<String, String> args = validateTestRunArgs(testRunArgs);
+        ResultCache resultCache = ResultCache.getInstance();
+        String cacheKey = null;
+        if (resultCache.isEnabled()) {
+            cacheKey = createResultKey(resultCache, args);
+        }
+        if (null != cacheKey) {
+            File results = resultCache.get(cacheKey, this.resultsDir);
+            if (null != results) {
+                SpooledDownload.discard(URI.create(args.get(TestRunArg.IUT.toString()).trim()));
+                TestSuiteLogger.log(Level.INFO, "Using cached test results: " + resultCache);
+                return new StreamSource(results);
+            }
+        }
+        Source results = executor.execute(testRunArgs);
+        if (null != cacheKey && null != results && null != results.getSystemId()) {
+            resultCache.put(cacheKey, new File(URI.create(results.getSystemId())));
+        }
+        return results;
+    }
+
+    /**
+     * Creates a key for looking up the results of a previous test run.
+     *
+     * @return A cache key, or {@code null} if one could not be created (in
+     *         which case the results are not cached).
+     */
+    private String createResultKey(ResultCache resultCache, Map<String, String> args) {
+        URL entityCatalog = getClass().getResource(CommonFixture.ROOT_PKG_PATH + "schema-catalog.xml");
+        try {
+            return resultCache.createKey(getCode() + ' ' + getVersion(), args, entityCatalog);
+        } catch (IOException | RuntimeException e) {
+            TestSuiteLogger.log(Level.FINE, "Unable to create result cache key: " + e.getMessage());
+            return null;
+        }
     }
 
     /**
@@ -129,10 +182,11 @@ public class TestNGController implements TestSuiteController {
      * @param testRunArgs
      *            A DOM Document containing a set of XML properties (key-value
      *            pairs).
+     * @return A Map containing the test run arguments.
      * @throws IllegalArgumentException
      *             If any arguments are missing or invalid for some reason.
      */
-    void validateTestRunArgs(Document testRunArgs) {
+    Map<String, String> validateTestRunArgs(Document testRunArgs) {
         if (null == testRunArgs || !testRunArgs.getDocumentElement().getNodeName().equals("properties")) {
             throw new IllegalArgumentException("Input is not an XML properties document.");
         }
@@ -149,5 +203,6 @@ public class TestNGController implements TestSuiteController {
             throw new IllegalArgumentException(
                     String.format("Missing argument: '%s' must be present.", TestRunArg.IUT));
         }
+        return args;
     }
 }
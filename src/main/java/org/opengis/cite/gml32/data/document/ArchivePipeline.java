@@ -0,0 +1,136 @@
+package org.opengis.cite.gml32.data.document;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.opengis.cite.gml32.data.util.ArchiveCatalog;
+import org.opengis.cite.gml32.data.util.TestSuiteLogger;
+
+/**
+ * Reads the GML documents contained in a ZIP archive. Each data entry is read
+ * directly from the archive by its own {@link DocumentPipeline}; the entries
+ * are processed concurrently by a shared pool of worker threads. Compiled
+ * schemas are shared by way of the usual caches, so schemas packaged in the
+ * archive (or referenced by it) are compiled only once.
+ *
+ * <p>
+ * The size of the worker pool is given by the system property
+ * {@value #THREADS_PROPERTY} (default: the number of available processors).
+ * </p>
+ */
+public class ArchivePipeline {
+
+    /**
+     * Name of the system property that specifies the number of entries that
+     * are processed concurrently.
+     */
+    public static final String THREADS_PROPERTY = "org.opengis.cite.gml32.data.archive.threads";
+    private static ExecutorService sharedPool;
+    private final File archiveFile;
+    private final URI schematronRef;
+    private final Map<String, DocumentPipeline> pipelines = new LinkedHashMap<String, DocumentPipeline>();
+    private Exception readFailure;
+    private boolean done;
+
+    /**
+     * Constructs a pipeline for the given archive.
+     *
+     * @param archiveFile
+     *            A ZIP file containing GML data.
+     * @param schematronRef
+     *            A reference to a Schematron schema given as a test run
+     *            argument (may be null); an <code>xml-model</code> processing
+     *            instruction in a document takes precedence.
+     */
+    public ArchivePipeline(File archiveFile, URI schematronRef) {
+        this.archiveFile = archiveFile;
+        this.schematronRef = schematronRef;
+    }
+
+    private static synchronized ExecutorService getSharedPool() {
+        if (null == sharedPool) {
+            int threads = Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+            sharedPool = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+                private final AtomicInteger threadCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "archive-entry-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sharedPool;
+    }
+
+    /**
+     * Reads all data entries in the archive. The archive is only read once;
+     * subsequent invocations have no effect.
+     */
+    public synchronized void run() {
+        if (this.done) {
+            return;
+        }
+        this.done = true;
+        try (ArchiveCatalog archive = new ArchiveCatalog(this.archiveFile)) {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (String entryName : archive.getDataEntries()) {
+                final DocumentPipeline pipeline = new DocumentPipeline(archive, entryName, this.schematronRef);
+                this.pipelines.put(entryName, pipeline);
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        pipeline.run();
+                        return null;
+                    }
+                });
+            }
+            TestSuiteLogger.log(Level.FINE, String.format("Reading %d entries in %s", tasks.size(), archive));
+            for (Future<Void> result : getSharedPool().invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (IOException e) {
+            this.readFailure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.readFailure = e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            this.readFailure = (cause instanceof Exception) ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Returns the pipelines that read the data entries.
+     *
+     * @return An unmodifiable map of pipelines, keyed by entry name (in
+     *         alphabetical order).
+     */
+    public Map<String, DocumentPipeline> getEntryPipelines() {
+        return Collections.unmodifiableMap(this.pipelines);
+    }
+
+    /**
+     * Returns the exception that prevented the archive from being read.
+     *
+     * @return An Exception, or {@code null} if none occurred.
+     */
+    public Exception getReadFailure() {
+        return this.readFailure;
+    }
+}
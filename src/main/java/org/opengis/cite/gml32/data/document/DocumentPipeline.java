@@ -0,0 +1,531 @@
+package org.opengis.cite.gml32.data.document;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+
+import org.opengis.cite.gml32.data.CommonFixture;
+import org.opengis.cite.gml32.data.util.AppSchemaCompiler;
+import org.opengis.cite.gml32.data.util.ArchiveCatalog;
+import org.opengis.cite.gml32.data.util.BoundedErrorHandler;
+import org.opengis.cite.gml32.data.util.CompiledSchematron;
+import org.opengis.cite.gml32.data.util.ContentEncoding;
+import org.opengis.cite.gml32.data.util.DocumentTree;
+import org.opengis.cite.gml32.data.util.PartitionedValidator;
+import org.opengis.cite.gml32.data.util.SchemaCache;
+import org.opengis.cite.gml32.data.util.SpooledDownload;
+import org.opengis.cite.gml32.data.util.StaxFactories;
+import org.opengis.cite.gml32.data.util.StreamingSchematronValidator;
+import org.opengis.cite.gml32.data.util.TeeStreamReader;
+import org.opengis.cite.gml32.data.util.TestSuiteLogger;
+import org.opengis.cite.gml32.data.util.ValidationUtils;
+import org.opengis.cite.gml32.data.util.ValidatorPool;
+import org.opengis.cite.gml32.data.util.XMLStreamListener;
+import org.opengis.cite.gml32.data.util.XdmStreamBuilder;
+import org.opengis.cite.validation.ValidationErrorHandler;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Reads a GML document in a single pass and fans the stream of parsing events
+ * out to several consumers:
+ * <ul>
+ * <li>prolog inspection: the <code>xml-model</code> processing instruction and
+ * the xsi:schemaLocation attribute on the document element;</li>
+ * <li>XML Schema validation against the referenced application schema, which
+ * is compiled as soon as the document element has been read;</li>
+ * <li>rule checking against a Schematron schema, if one applies; a compact
+ * document tree is built only if some rules cannot be evaluated in streaming
+ * mode (see {@link StreamingSchematronValidator}), and is then supplied to the
+ * shared {@link DocumentTree} of the test subject (if any) so that the
+ * document is not parsed again.</li>
+ * </ul>
+ * The outcomes are retained so that they can be reported by the individual
+ * tests.
+ */
+public class DocumentPipeline {
+
+    private static final Object[] COMPILE_LOCKS = new Object[16];
+    static {
+        for (int i = 0; i < COMPILE_LOCKS.length; i++) {
+            COMPILE_LOCKS[i] = new Object();
+        }
+    }
+    private final File dataFile;
+    private final SpooledDownload download;
+    private final ArchiveCatalog archive;
+    private final URI entryURI;
+    private final URI baseURI;
+    private URI schematronRef;
+    private Set<URI> schemaRefs;
+    private Schema appSchema;
+    private ValidationErrorHandler schemaErrors;
+    private Exception compileFailure;
+    private ValidationErrorHandler validationErrors;
+    private Exception readFailure;
+    private StreamingSchematronValidator schematronValidator;
+    private DOMResult schematronResult;
+    private Exception schematronFailure;
+    private DocumentTree documentTree;
+    private XdmNode tree;
+    private boolean done;
+
+    /**
+     * Constructs a pipeline for the given GML document.
+     *
+     * @param dataFile
+     *            A File containing GML data.
+     * @param baseURI
+     *            The URI used to retrieve the document; relative references
+     *            are resolved against it if necessary (may be null).
+     * @param schematronRef
+     *            A reference to a Schematron schema given as a test run
+     *            argument (may be null); an <code>xml-model</code> processing
+     *            instruction in the document takes precedence.
+     */
+    public DocumentPipeline(File dataFile, URI baseURI, URI schematronRef) {
+        this.dataFile = dataFile;
+        this.download = null;
+        this.archive = null;
+        this.entryURI = null;
+        this.baseURI = baseURI;
+        this.schematronRef = schematronRef;
+    }
+
+    /**
+     * Constructs a pipeline for a GML document that may still be in the
+     * process of being retrieved. The document is read as it arrives, so that
+     * it is validated while the transfer is in progress.
+     *
+     * @param download
+     *            A (possibly incomplete) download of a GML document.
+     * @param baseURI
+     *            The URI used to retrieve the document; relative references
+     *            are resolved against it if necessary (may be null).
+     * @param schematronRef
+     *            A reference to a Schematron schema given as a test run
+     *            argument (may be null); an <code>xml-model</code> processing
+     *            instruction in the document takes precedence.
+     */
+    public DocumentPipeline(SpooledDownload download, URI baseURI, URI schematronRef) {
+        this.dataFile = download.getFile();
+        this.download = download;
+        this.archive = null;
+        this.entryURI = null;
+        this.baseURI = baseURI;
+        this.schematronRef = schematronRef;
+    }
+
+    /**
+     * Constructs a pipeline for a GML document contained in an archive. The
+     * entry is read directly from the archive; relative references to schemas
+     * (and to a Schematron schema) packaged in the archive are resolved
+     * against the location of the entry.
+     *
+     * @param archive
+     *            An archive containing GML data.
+     * @param entryName
+     *            The name of the entry to read.
+     * @param schematronRef
+     *            A reference to a Schematron schema given as a test run
+     *            argument (may be null); an <code>xml-model</code> processing
+     *            instruction in the document takes precedence.
+     */
+    public DocumentPipeline(ArchiveCatalog archive, String entryName, URI schematronRef) {
+        this.dataFile = null;
+        this.download = null;
+        this.archive = archive;
+        this.entryURI = archive.getEntryURI(entryName);
+        this.baseURI = this.entryURI;
+        this.schematronRef = schematronRef;
+    }
+
+    /**
+     * Sets the shared tree representing the document. If the tree has already
+     * been built it is used as required; otherwise any tree built by this
+     * pipeline is supplied to it.
+     *
+     * @param documentTree
+     *            A DocumentTree for the same document.
+     */
+    public void setDocumentTree(DocumentTree documentTree) {
+        this.documentTree = documentTree;
+    }
+
+    /**
+     * Opens the document for reading.
+     */
+    private InputStream openStream() throws IOException {
+        InputStream input;
+        if (null != this.archive) {
+            input = this.archive.openStream(this.entryURI);
+        } else if (null != this.download) {
+            input = this.download.openStream();
+        } else {
+            input = new FileInputStream(this.dataFile);
+        }
+        return ContentEncoding.decode(input);
+    }
+
+    /**
+     * Reads the document and feeds all consumers. The document is only read
+     * once; subsequent invocations have no effect.
+     */
+    public synchronized void run() {
+        if (this.done) {
+            return;
+        }
+        this.done = true;
+        String systemId = (null != this.entryURI) ? this.entryURI.toString() : this.dataFile.toURI().toString();
+        try (InputStream input = openStream()) {
+            XMLStreamReader reader = StaxFactories.getInputFactory().createXMLStreamReader(systemId, input);
+            try {
+                processProlog(reader);
+                this.schemaRefs = ValidationUtils.extractSchemaReferences(reader, systemId,
+                        (null != this.baseURI) ? this.baseURI.toString() : null);
+                compileAppSchema();
+                List<XMLStreamListener> listeners = new ArrayList<XMLStreamListener>();
+                initSchematronValidator();
+                XdmStreamBuilder treeBuilder = null;
+                if (null != this.schematronValidator) {
+                    listeners.add(this.schematronValidator);
+                    if (this.schematronValidator.requiresDocument()) {
+                        if (null != this.documentTree && this.documentTree.isBuilt()) {
+                            this.tree = this.documentTree.getNode();
+                        } else {
+                            treeBuilder = new XdmStreamBuilder((null != this.documentTree)
+                                    ? this.documentTree.getSystemId().toString() : systemId);
+                            listeners.add(treeBuilder);
+                        }
+                    }
+                }
+                TeeStreamReader teeReader = new TeeStreamReader(reader, listeners);
+                // report the document element, which has already been read
+                teeReader.notifyListeners();
+                boolean validated = (null == this.appSchema) || validate(teeReader);
+                // no need to read any further if validation was stopped early
+                if (validated || !listeners.isEmpty()) {
+                    while (teeReader.hasNext()) {
+                        teeReader.next();
+                    }
+                }
+                if (null != treeBuilder) {
+                    this.tree = treeBuilder.getNode();
+                    if (null != this.documentTree) {
+                        this.documentTree.offer(this.tree);
+                    }
+                }
+                checkRules();
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException | IOException | SAXException | SaxonApiException | RuntimeException e) {
+            TestSuiteLogger.log(Level.FINE, "Failed to read GML document at " + systemId, e);
+            this.readFailure = e;
+        }
+    }
+
+    /**
+     * Reads the prolog, up to and including the start tag of the document
+     * element. A reference to a Schematron schema is obtained from an
+     * <code>xml-model</code> processing instruction if one is present.
+     */
+    private void processProlog(XMLStreamReader reader) throws XMLStreamException {
+        // a leading PI may be the initial event if there is no XML declaration
+        for (int event = reader.getEventType(); event != XMLStreamConstants.START_ELEMENT; event = reader.next()) {
+            if (event == XMLStreamConstants.PROCESSING_INSTRUCTION
+                    && reader.getPITarget().equals("xml-model")) {
+                // resolve relative URI against location of GML data
+                URI schURI = ValidationUtils.getSchematronReference(reader.getPIData(), this.baseURI);
+                if (null != schURI) {
+                    this.schematronRef = schURI;
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtains the application schema from the shared {@link SchemaCache} or
+     * compiles it.
+     */
+    private void compileAppSchema() {
+        if (null == this.schemaRefs) {
+            return;
+        }
+        URL entityCatalog = getClass().getResource(CommonFixture.ROOT_PKG_PATH + "schema-catalog.xml");
+        SchemaCache schemaCache = SchemaCache.getInstance();
+        String cacheKey = SchemaCache.createKey(this.schemaRefs, entityCatalog);
+        // documents that refer to the same schema (e.g. in an archive) wait
+        // for it to be compiled once
+        synchronized (COMPILE_LOCKS[(cacheKey.hashCode() & 0x7fffffff) % COMPILE_LOCKS.length]) {
+            this.appSchema = schemaCache.get(cacheKey);
+            if (null != this.appSchema) {
+                TestSuiteLogger.log(Level.FINE, "Using cached application schema: " + schemaCache);
+                this.schemaErrors = new ValidationErrorHandler();
+                return;
+            }
+            AppSchemaCompiler xsdCompiler = new AppSchemaCompiler(entityCatalog, this.archive);
+            try {
+                this.appSchema = xsdCompiler.compileXmlSchema(
+                        this.schemaRefs.toArray(new URI[this.schemaRefs.size()]));
+            } catch (SAXException | IOException e) {
+                this.compileFailure = e;
+                this.appSchema = null;
+                return;
+            }
+            this.schemaErrors = xsdCompiler.getErrorHandler();
+            if (this.schemaErrors.errorsDetected()) {
+                this.appSchema = null;
+            } else {
+                schemaCache.put(cacheKey, this.appSchema);
+            }
+        }
+    }
+
+    /**
+     * Compiles the Schematron schema that applies to the document, if any. A
+     * reference to a standard schema is resolved using the Schematron entity
+     * catalog; a stylesheet generated from it at build time is used for any
+     * rules that cannot be checked in streaming mode.
+     */
+    private void initSchematronValidator() {
+        if (null == this.schematronRef) {
+            return;
+        }
+        StreamSource source;
+        CompiledSchematron precompiled = null;
+        boolean inArchive = null != this.archive && this.archive.contains(this.schematronRef);
+        if (inArchive) {
+            source = new StreamSource(this.schematronRef.toString());
+        } else {
+            source = new StreamSource(ValidationUtils.resolveSchematronReference(this.schematronRef).toString());
+            precompiled = ValidationUtils.findPrecompiledSchematron(this.schematronRef.toString(), null);
+        }
+        try {
+            if (inArchive) {
+                source.setInputStream(this.archive.openStream(this.schematronRef));
+            }
+            this.schematronValidator = new StreamingSchematronValidator(source, null, precompiled);
+        } catch (SAXException | IOException e) {
+            this.schematronFailure = e;
+        } finally {
+            closeQuietly(source.getInputStream());
+        }
+    }
+
+    /**
+     * Completes rule checking once the document has been read.
+     */
+    private void checkRules() {
+        if (null == this.schematronValidator) {
+            return;
+        }
+        try {
+            this.schematronResult = this.schematronValidator.complete(getDocument());
+        } catch (SAXException | RuntimeException e) {
+            this.schematronFailure = e;
+        }
+    }
+
+    /**
+     * Validates the remainder of the document (starting with the document
+     * element) against the application schema. Validation stops early if the
+     * error limit is reached (see {@link BoundedErrorHandler}). The members of
+     * a feature collection are validated concurrently if partitioning is
+     * enabled (see {@link PartitionedValidator}); otherwise a pooled validator
+     * is used (see {@link ValidatorPool}).
+     *
+     * @return {@code true} if the entire document was validated;
+     *         {@code false} if validation was stopped.
+     */
+    private boolean validate(XMLStreamReader reader) throws SAXException, IOException {
+        BoundedErrorHandler errHandler = new BoundedErrorHandler();
+        this.validationErrors = errHandler;
+        try {
+            if (PartitionedValidator.getParallelism() > 1) {
+                new PartitionedValidator(this.appSchema).validate(reader, errHandler);
+            } else {
+                ValidatorPool validatorPool = ValidatorPool.getInstance();
+                Validator validator = validatorPool.acquire(this.appSchema);
+                try {
+                    validator.setErrorHandler(errHandler);
+                    validator.validate(new StAXSource(reader));
+                } finally {
+                    validatorPool.release(this.appSchema, validator);
+                }
+            }
+        } catch (BoundedErrorHandler.ErrorLimitException e) {
+            TestSuiteLogger.log(Level.FINE, e.getMessage());
+            return false;
+        } finally {
+            errHandler.close();
+        }
+        return true;
+    }
+
+    private static void closeQuietly(InputStream input) {
+        if (null != input) {
+            try {
+                input.close();
+            } catch (IOException e) {
+                TestSuiteLogger.log(Level.FINEST, "Failed to close stream: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Parses the content of a processing instruction that consists of
+     * pseudo-attributes.
+     *
+     * @param piData
+     *            The PI data.
+     * @return A Map containing the pseudo-attributes (name-value pairs).
+     */
+    static Map<String, String> parsePseudoAttributes(String piData) {
+        return ValidationUtils.parsePseudoAttributes(piData);
+    }
+
+    /**
+     * Returns the schema references found on the document element.
+     *
+     * @return A set of absolute URIs, or {@code null} if the xsi:schemaLocation
+     *         attribute is absent (or the document could not be read).
+     */
+    public Set<URI> getSchemaReferences() {
+        return schemaRefs;
+    }
+
+    /**
+     * Returns the compiled application schema.
+     *
+     * @return A Schema object, or {@code null} if it could not be compiled
+     *         without error.
+     */
+    public Schema getAppSchema() {
+        return appSchema;
+    }
+
+    /**
+     * Returns the errors detected while compiling the application schema.
+     *
+     * @return An error handler, or {@code null} if no schema was compiled.
+     */
+    public ValidationErrorHandler getSchemaErrors() {
+        return schemaErrors;
+    }
+
+    /**
+     * Returns the exception that prevented the application schema from being
+     * compiled.
+     *
+     * @return An Exception, or {@code null} if none occurred.
+     */
+    public Exception getCompileFailure() {
+        return compileFailure;
+    }
+
+    /**
+     * Returns the errors detected while validating the document against the
+     * application schema. If there were many errors, only some of them are
+     * retained in memory (see {@link BoundedErrorHandler}).
+     *
+     * @return An error handler, or {@code null} if the document was not
+     *         validated.
+     */
+    public ValidationErrorHandler getValidationErrors() {
+        return validationErrors;
+    }
+
+    /**
+     * Returns the exception that prevented the document from being read
+     * completely.
+     *
+     * @return An Exception, or {@code null} if none occurred.
+     */
+    public Exception getReadFailure() {
+        return readFailure;
+    }
+
+    /**
+     * Returns a reference to the Schematron schema that applies to the
+     * document.
+     *
+     * @return An absolute URI, or {@code null} if no Schematron schema applies.
+     */
+    public URI getSchematronReference() {
+        return schematronRef;
+    }
+
+    /**
+     * Returns the validator that checked the document against the applicable
+     * Schematron schema.
+     *
+     * @return A StreamingSchematronValidator, or {@code null} if no Schematron
+     *         schema applies (or it could not be compiled).
+     */
+    public StreamingSchematronValidator getSchematronValidator() {
+        return schematronValidator;
+    }
+
+    /**
+     * Returns the results of checking the document against the applicable
+     * Schematron schema.
+     *
+     * @return A DOMResult containing an SVRL report, or {@code null} if rule
+     *         checking was not completed.
+     */
+    public DOMResult getSchematronResult() {
+        return schematronResult;
+    }
+
+    /**
+     * Returns the exception that prevented the document from being checked
+     * against the Schematron schema.
+     *
+     * @return An Exception, or {@code null} if none occurred.
+     */
+    public Exception getSchematronFailure() {
+        return schematronFailure;
+    }
+
+    /**
+     * Returns a read-only DOM view of the document tree, which is only built if
+     * some Schematron rules cannot be evaluated in streaming mode.
+     *
+     * @return An immutable Document, or {@code null} if no tree was built.
+     */
+    public Document getDocument() {
+        return (null != this.tree) ? XdmStreamBuilder.asDocument(this.tree) : null;
+    }
+
+    /**
+     * Returns the compact tree representation of the document, which is only
+     * built if some Schematron rules cannot be evaluated in streaming mode.
+     *
+     * @return The document node of an immutable tree, or {@code null} if no
+     *         tree was built.
+     */
+    public XdmNode getTree() {
+        return this.tree;
+    }
+}
@@ -3,46 +3,44 @@ package org.opengis.cite.gml32.data.document;
 import static org.testng.Assert.*;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
-import javax.xml.transform.Source;
-import javax.xml.transform.dom.DOMResult;
-import javax.xml.transform.stax.StAXSource;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.Validator;
-
 import org.opengis.cite.gml32.data.CommonFixture;
 import org.opengis.cite.gml32.data.ErrorMessage;
 import org.opengis.cite.gml32.data.ErrorMessageKeys;
 import org.opengis.cite.gml32.data.SuiteAttribute;
-import org.opengis.cite.gml32.data.util.ValidationUtils;
+import org.opengis.cite.gml32.data.util.ArchiveCatalog;
+import org.opengis.cite.gml32.data.util.BoundedErrorHandler;
+import org.opengis.cite.gml32.data.util.SpooledDownload;
+import org.opengis.cite.gml32.data.util.StreamingSchematronValidator;
 import org.opengis.cite.gml32.data.util.XMLUtils;
-import org.opengis.cite.validation.SchematronValidator;
 import org.opengis.cite.validation.ValidationErrorHandler;
-import org.opengis.cite.validation.XmlSchemaCompiler;
 import org.testng.ITestContext;
 import org.testng.SkipException;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
-import org.xml.sax.SAXException;
 
 /**
- * Includes tests that apply to a GML instance document as a whole.
+ * Includes tests that apply to a GML instance document as a whole. The
+ * document is read only once by a {@link DocumentPipeline}; each test reports
+ * some outcome of that pass. The test subject may also be a ZIP archive, in
+ * which case every GML document it contains is checked (see
+ * {@link ArchivePipeline}).
  */
 public class GmlDocumentTests extends CommonFixture {
 
     private URI gmlDataUri;
     private File gmlDataFile;
-    private Schema appSchema;
-    private XMLInputFactory staxFactory;
+    private URI schematronUri;
+    private SpooledDownload gmlDownload;
+    private DocumentPipeline pipeline;
+    private ArchivePipeline archivePipeline;
+    private Set<File> tempFiles;
 
     /**
      * Sets the test subject. This method is intended to facilitate unit
@@ -59,7 +57,10 @@ public class GmlDocumentTests extends CommonFixture {
     /**
      * Obtains the test subject from the ISuite context. The suite attribute
      * {@link org.opengis.cite.gml32.data.SuiteAttribute#TEST_SUBJ_FILE} should
-     * evaluate to a File object that contains a GML document.
+     * evaluate to a File object that contains a GML document. If the document
+     * is still being retrieved (suite attribute
+     * {@link org.opengis.cite.gml32.data.SuiteAttribute#TEST_SUBJ_DOWNLOAD}),
+     * it is read while it arrives.
      * 
      * @param testContext
      *            The test (group) context.
@@ -71,68 +72,227 @@ public class GmlDocumentTests extends CommonFixture {
             this.gmlDataFile = File.class.cast(obj);
         }
         this.gmlDataUri = (URI) testContext.getSuite().getAttribute(SuiteAttribute.TEST_SUBJ_URI.getName());
-        this.staxFactory = XMLInputFactory.newInstance();
-        staxFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
-        staxFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
-        staxFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
-        staxFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        obj = testContext.getSuite().getAttribute(SuiteAttribute.SCHEMATRON_URI.getName());
+        if (null != obj) {
+            this.schematronUri = URI.create(obj.toString());
+        }
+        obj = testContext.getSuite().getAttribute(SuiteAttribute.TEST_SUBJ_DOWNLOAD.getName());
+        if (obj instanceof SpooledDownload) {
+            this.gmlDownload = (SpooledDownload) obj;
+        }
+        obj = testContext.getSuite().getAttribute(SuiteAttribute.TEMP_FILES.getName());
+        if (obj instanceof Set) {
+            @SuppressWarnings("unchecked")
+            Set<File> files = (Set<File>) obj;
+            this.tempFiles = files;
+        }
+    }
+
+    /**
+     * Returns the pipeline that reads the test subject, running it first if
+     * necessary.
+     *
+     * @return A DocumentPipeline that has been run.
+     */
+    DocumentPipeline getPipeline() {
+        if (null == this.pipeline) {
+            this.pipeline = (null != this.gmlDownload)
+                    ? new DocumentPipeline(this.gmlDownload, this.gmlDataUri, this.schematronUri)
+                    : new DocumentPipeline(this.gmlDataFile, this.gmlDataUri, this.schematronUri);
+            this.pipeline.setDocumentTree(this.testSubjectTree);
+        }
+        this.pipeline.run();
+        registerTempFiles(this.pipeline);
+        return this.pipeline;
+    }
+
+    /**
+     * Registers the file listing all validation errors (if one was created)
+     * so that it is deleted when the suite finishes.
+     */
+    private void registerTempFiles(DocumentPipeline result) {
+        ValidationErrorHandler errHandler = result.getValidationErrors();
+        if (null != this.tempFiles && errHandler instanceof BoundedErrorHandler) {
+            File spillFile = ((BoundedErrorHandler) errHandler).getSpillFile();
+            if (null != spillFile) {
+                this.tempFiles.add(spillFile);
+            }
+        }
+    }
+
+    /**
+     * Returns the pipelines that read the test subject, running them first if
+     * necessary. If the test subject is a ZIP archive, there is one pipeline
+     * for each GML document it contains (see {@link ArchivePipeline});
+     * otherwise there is only one.
+     *
+     * @return A map of DocumentPipeline objects that have been run, keyed by
+     *         archive entry name (the empty string for a single document).
+     */
+    Map<String, DocumentPipeline> getPipelines() {
+        if (!isArchive()) {
+            return Collections.singletonMap("", getPipeline());
+        }
+        if (null == this.archivePipeline) {
+            File archiveFile = this.gmlDataFile;
+            try {
+                if (null != this.gmlDownload) {
+                    // the central directory is at the end of the archive
+                    archiveFile = this.gmlDownload.await();
+                }
+            } catch (IOException e) {
+                throw new AssertionError("Failed to retrieve archive: " + e.getMessage());
+            }
+            this.archivePipeline = new ArchivePipeline(archiveFile, this.schematronUri);
+        }
+        this.archivePipeline.run();
+        if (null != this.archivePipeline.getReadFailure()) {
+            throw new AssertionError("Failed to read archive: " + this.archivePipeline.getReadFailure().getMessage());
+        }
+        Map<String, DocumentPipeline> pipelines = this.archivePipeline.getEntryPipelines();
+        if (pipelines.isEmpty()) {
+            throw new AssertionError("Archive does not contain any GML documents: " + this.gmlDataUri);
+        }
+        for (DocumentPipeline entryPipeline : pipelines.values()) {
+            registerTempFiles(entryPipeline);
+        }
+        return pipelines;
+    }
+
+    /**
+     * Indicates whether or not the test subject is a ZIP archive.
+     */
+    private boolean isArchive() {
+        if (null != this.archivePipeline) {
+            return true;
+        }
+        if (null != this.pipeline) {
+            return false;
+        }
+        try {
+            if (null != this.gmlDownload) {
+                try (InputStream input = this.gmlDownload.openStream()) {
+                    return ArchiveCatalog.isArchive(input);
+                }
+            }
+            return ArchiveCatalog.isArchive(this.gmlDataFile);
+        } catch (IOException e) {
+            // the document pipeline will report the problem
+            return false;
+        }
+    }
+
+    /**
+     * A check that applies to a single GML document.
+     *
+     * @param <E>
+     *            The type of exception thrown if the check cannot be performed.
+     */
+    interface DocumentCheck<E extends Exception> {
+
+        /**
+         * Checks a document.
+         *
+         * @param result
+         *            A pipeline that has read the document.
+         * @throws E
+         *             If the check cannot be performed.
+         */
+        void check(DocumentPipeline result) throws E;
+    }
+
+    /**
+     * Applies a check to each GML document in the test subject. If the test
+     * subject is an archive, all documents are checked and the failures are
+     * reported together, labelled by entry name; the check is skipped only if
+     * it does not apply to any document.
+     */
+    private <E extends Exception> void checkEachDocument(DocumentCheck<E> check) throws E {
+        Map<String, DocumentPipeline> pipelines = getPipelines();
+        if (null == this.archivePipeline) {
+            check.check(pipelines.get(""));
+            return;
+        }
+        StringBuilder failures = new StringBuilder();
+        int failCount = 0;
+        int skipCount = 0;
+        SkipException skip = null;
+        for (Map.Entry<String, DocumentPipeline> entry : pipelines.entrySet()) {
+            try {
+                check.check(entry.getValue());
+            } catch (SkipException e) {
+                skipCount++;
+                skip = e;
+            } catch (AssertionError | Exception e) {
+                failCount++;
+                failures.append("\n[").append(entry.getKey()).append("] ").append(e.getMessage());
+            }
+        }
+        if (failCount > 0) {
+            throw new AssertionError(String.format("%d of %d GML documents in archive failed:%s", failCount,
+                    pipelines.size(), failures));
+        }
+        if (skipCount == pipelines.size()) {
+            throw skip;
+        }
     }
 
     /**
      * Verify the existence of a reference to a GML application schema, as
      * indicated by the value of the xsi:schemaLocation attribute on the
-     * document element.
+     * document element. A schema that was previously compiled from the same
+     * set of references is obtained from the shared
+     * {@link org.opengis.cite.gml32.data.util.SchemaCache SchemaCache}.
      */
     @Test(description = "See ATC: A.3.1, A.3.2")
     public void hasAppSchemaReference() {
-        String baseURI = this.gmlDataUri.toString();
-        Set<URI> schemaRefs;
-        try {
-            schemaRefs = ValidationUtils.extractSchemaReferences(new StreamSource(this.gmlDataFile), baseURI);
-        } catch (XMLStreamException e) {
-            throw new AssertionError("Failed to read GML document: " + e.getMessage());
-        }
-        assertNotNull(schemaRefs, ErrorMessage.get(ErrorMessageKeys.MISSING_SCHEMA_LOC));
-        URL entityCatalog = ValidationUtils.class.getResource(ROOT_PKG_PATH + "schema-catalog.xml");
-        XmlSchemaCompiler xsdCompiler = new XmlSchemaCompiler(entityCatalog);
-        try {
-            this.appSchema = xsdCompiler.compileXmlSchema(schemaRefs.toArray(new URI[schemaRefs.size()]));
-        } catch (SAXException | IOException e) {
-            throw new AssertionError("Failed to compile GML app schema: " + e.getMessage());
-        }
-        ValidationErrorHandler errHandler = xsdCompiler.getErrorHandler();
-        assertFalse(errHandler.errorsDetected(),
-                ErrorMessage.format(ErrorMessageKeys.XSD_INVALID, errHandler.getErrorCount(), errHandler.toString()));
+        checkEachDocument(new DocumentCheck<RuntimeException>() {
+            @Override
+            public void check(DocumentPipeline result) {
+                Set<URI> schemaRefs = result.getSchemaReferences();
+                if (null == schemaRefs && null != result.getReadFailure()) {
+                    throw new AssertionError("Failed to read GML document: " + result.getReadFailure().getMessage());
+                }
+                assertNotNull(schemaRefs, ErrorMessage.get(ErrorMessageKeys.MISSING_SCHEMA_LOC));
+                if (null != result.getCompileFailure()) {
+                    throw new AssertionError(
+                            "Failed to compile GML app schema: " + result.getCompileFailure().getMessage());
+                }
+                ValidationErrorHandler errHandler = result.getSchemaErrors();
+                assertFalse(errHandler.errorsDetected(), ErrorMessage.format(ErrorMessageKeys.XSD_INVALID,
+                        errHandler.getErrorCount(), errHandler.toString()));
+            }
+        });
     }
 
     /**
      * Verify that the GML document is valid with respect to the referenced
-     * application schema(s).
-     *
-     * @throws SAXException
-     *             If the resource cannot be parsed.
-     * @throws IOException
-     *             If the resource is not accessible.
+     * application schema(s). If there are many errors, the assertion message
+     * includes only the first few; the rest are written to a file (see
+     * {@link org.opengis.cite.gml32.data.util.BoundedErrorHandler
+     * BoundedErrorHandler}).
      */
     @Test(description = "See ATC: A.3.4", dependsOnMethods = "hasAppSchemaReference")
-    public void checkXMLSchemaValidity() throws SAXException, IOException {
-        Validator validator = this.appSchema.newValidator();
-        ValidationErrorHandler errHandler = new ValidationErrorHandler();
-        validator.setErrorHandler(errHandler);
-        FileInputStream fis = new FileInputStream(this.gmlDataFile);
-        try {
-            XMLStreamReader reader = this.staxFactory.createXMLStreamReader(fis, "UTF-8");
-            validator.validate(new StAXSource(reader));
-        } catch (XMLStreamException e) {
-            throw new AssertionError("Error reading GML document: " + e.getMessage());
-        }
-        assertFalse(errHandler.errorsDetected(), ErrorMessage.format(ErrorMessageKeys.NOT_SCHEMA_VALID,
-                errHandler.getErrorCount(), errHandler.toString()));
+    public void checkXMLSchemaValidity() {
+        checkEachDocument(new DocumentCheck<RuntimeException>() {
+            @Override
+            public void check(DocumentPipeline result) {
+                if (null != result.getReadFailure()) {
+                    throw new AssertionError("Error reading GML document: " + result.getReadFailure().getMessage());
+                }
+                ValidationErrorHandler errHandler = result.getValidationErrors();
+                assertNotNull(errHandler, "GML document was not validated.");
+                assertFalse(errHandler.errorsDetected(), ErrorMessage.format(ErrorMessageKeys.NOT_SCHEMA_VALID,
+                        errHandler.getErrorCount(), errHandler.toString()));
+            }
+        });
     }
 
     /**
      * Verify that the GML document satisfies the additional constraints defined
-     * in a Schematron schema. All phases are active.
+     * in a Schematron schema. All phases are active. The schema reference is
+     * given by an <code>xml-model</code> processing instruction in the
+     * document or else by the test run argument {@code sch}.
      * 
      * <p style="margin-bottom: 0.5em">
      * <strong>Sources</strong>
@@ -153,16 +313,25 @@ public class GmlDocumentTests extends CommonFixture {
      */
     @Test(description = "ISO 19757-3")
     public void checkSchematronConstraints(ITestContext testContext) throws Exception {
-        Object schRef = testContext.getSuite().getAttribute(SuiteAttribute.SCHEMATRON_URI.getName());
-        if (null == schRef) {
-            throw new SkipException("No Schematron schema reference for data resource at " + this.gmlDataUri);
-        }
-        Source schema = new StreamSource(schRef.toString());
-        SchematronValidator validator = new SchematronValidator(schema, null);
-        Source gmlSource = new StreamSource(this.gmlDataFile);
-        DOMResult result = validator.validate(gmlSource);
-        assertFalse(validator.ruleViolationsDetected(), ErrorMessage.format(ErrorMessageKeys.NOT_SCHEMA_VALID,
-                validator.getRuleViolationCount(), XMLUtils.writeNodeToString(result.getNode())));
+        checkEachDocument(new DocumentCheck<Exception>() {
+            @Override
+            public void check(DocumentPipeline result) throws Exception {
+                URI schRef = result.getSchematronReference();
+                if (null == schRef) {
+                    throw new SkipException("No Schematron schema reference for data resource at " + gmlDataUri);
+                }
+                if (null != result.getSchematronFailure()) {
+                    throw result.getSchematronFailure();
+                }
+                if (null == result.getSchematronResult()) {
+                    throw new AssertionError("Error reading GML document: " + result.getReadFailure().getMessage());
+                }
+                StreamingSchematronValidator validator = result.getSchematronValidator();
+                assertFalse(validator.ruleViolationsDetected(), ErrorMessage.format(
+                        ErrorMessageKeys.NOT_SCHEMA_VALID, validator.getRuleViolationCount(),
+                        XMLUtils.writeNodeToString(result.getSchematronResult().getNode())));
+            }
+        });
     }
 
 }
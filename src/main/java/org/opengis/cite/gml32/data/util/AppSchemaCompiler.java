@@ -0,0 +1,315 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.validation.Schema;
+
+import org.apache.xerces.impl.Constants;
+import org.apache.xerces.impl.XMLEntityManager;
+import org.apache.xerces.impl.xs.XMLSchemaLoader;
+import org.apache.xerces.jaxp.validation.XMLSchemaFactory;
+import org.apache.xerces.util.ErrorHandlerWrapper;
+import org.apache.xerces.util.XMLCatalogResolver;
+import org.apache.xerces.util.XMLGrammarPoolImpl;
+import org.apache.xerces.xni.XMLResourceIdentifier;
+import org.apache.xerces.xni.XNIException;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
+import org.apache.xerces.xni.grammars.XMLSchemaDescription;
+import org.apache.xerces.xni.parser.XMLEntityResolver;
+import org.apache.xerces.xni.parser.XMLInputSource;
+import org.opengis.cite.validation.ValidationErrorHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Compiles GML application schemas. Components defined in the standard schemas
+ * bundled with the test suite, or in remote schemas imported by a previously
+ * compiled application schema, are obtained from the {@link SharedGrammarPool}
+ * rather than being parsed again. Schema references are resolved using an OASIS entity
+ * catalog; other remote schema documents are retrieved concurrently by a
+ * {@link SchemaPrefetcher} before compilation begins.
+ */
+public class AppSchemaCompiler {
+
+    private final XMLCatalogResolver resolver;
+    private final SchemaDocumentCache docCache;
+    private final SharedGrammarPool sharedPool;
+    private final ValidationErrorHandler errHandler;
+    private final ArchiveCatalog archive;
+
+    /**
+     * Constructs a compiler that uses the given entity catalog.
+     *
+     * @param entityCatalog
+     *            The location of an OASIS entity catalog.
+     */
+    public AppSchemaCompiler(URL entityCatalog) {
+        this(entityCatalog, SharedGrammarPool.getInstance(), null);
+    }
+
+    /**
+     * Constructs a compiler that uses the given entity catalog and reads
+     * schema documents packaged in an archive.
+     *
+     * @param entityCatalog
+     *            The location of an OASIS entity catalog.
+     * @param archive
+     *            An archive that contains some schema documents (may be null).
+     */
+    public AppSchemaCompiler(URL entityCatalog, ArchiveCatalog archive) {
+        this(entityCatalog, SharedGrammarPool.getInstance(), archive);
+    }
+
+    /**
+     * Constructs a compiler that uses the given entity catalog and shared
+     * grammar pool.
+     *
+     * @param entityCatalog
+     *            The location of an OASIS entity catalog.
+     * @param sharedPool
+     *            A pool of reusable grammars.
+     */
+    AppSchemaCompiler(URL entityCatalog, SharedGrammarPool sharedPool) {
+        this(entityCatalog, sharedPool, null);
+    }
+
+    private AppSchemaCompiler(URL entityCatalog, SharedGrammarPool sharedPool, ArchiveCatalog archive) {
+        this.resolver = new XMLCatalogResolver(new String[] { entityCatalog.toString() });
+        this.docCache = SchemaDocumentCache.getInstance();
+        this.sharedPool = sharedPool;
+        this.errHandler = new ValidationErrorHandler();
+        this.archive = archive;
+    }
+
+    /**
+     * Returns the error handler that collects any problems detected while
+     * compiling a schema.
+     *
+     * @return A ValidationErrorHandler.
+     */
+    public ValidationErrorHandler getErrorHandler() {
+        return errHandler;
+    }
+
+    /**
+     * Compiles a set of schema documents into an immutable Schema object.
+     * Errors are reported to the error handler.
+     *
+     * @param schemaRefs
+     *            A list of absolute URIs that refer to XML Schema documents.
+     * @return A Schema object representing the combined schema.
+     * @throws SAXException
+     *             If a fatal error occurs while compiling the schema.
+     * @throws IOException
+     *             If a schema document cannot be read.
+     */
+    public Schema compileXmlSchema(URI... schemaRefs) throws SAXException, IOException {
+        this.errHandler.reset();
+        LayeredGrammarPool pool = new LayeredGrammarPool(this.sharedPool);
+        XMLSchemaLoader loader = new XMLSchemaLoader();
+        loader.setProperty(Constants.XERCES_PROPERTY_PREFIX + Constants.XMLGRAMMAR_POOL_PROPERTY, pool);
+        loader.setFeature(Constants.XERCES_FEATURE_PREFIX + Constants.SCHEMA_FULL_CHECKING, true);
+        BaseGrammarPool basePool = this.sharedPool.getBaseGrammars();
+        List<URI> appSchemaRefs = new ArrayList<URI>();
+        for (URI schemaRef : schemaRefs) {
+            if (!basePool.contains(schemaRef.toString()) && !basePool.contains(resolveLocation(schemaRef))) {
+                appSchemaRefs.add(schemaRef);
+            }
+        }
+        Map<String, byte[]> documents = new SchemaPrefetcher(this.resolver, this.docCache, this.sharedPool,
+                this.archive).prefetch(appSchemaRefs);
+        SchemaResolver schemaResolver = new SchemaResolver(this.resolver, this.docCache, documents, this.archive);
+        loader.setEntityResolver(schemaResolver);
+        loader.setErrorHandler(new ErrorHandlerWrapper(this.errHandler));
+        List<XMLInputSource> inputs = new ArrayList<XMLInputSource>();
+        for (URI schemaRef : appSchemaRefs) {
+            inputs.add(schemaResolver.createInputSource(null, resolveLocation(schemaRef), null));
+        }
+        try {
+            loader.loadGrammar(inputs.toArray(new XMLInputSource[inputs.size()]));
+        } catch (XNIException e) {
+            Exception cause = e.getException();
+            throw (cause instanceof SAXException) ? (SAXException) cause : new SAXException(e.getMessage(), cause);
+        }
+        pool.lockPool();
+        if (!this.errHandler.errorsDetected()) {
+            this.sharedPool.promote(pool.getLocalGrammars());
+        }
+        return new XMLSchemaFactory().newSchema(pool);
+    }
+
+    /**
+     * Resolves a schema reference using the entity catalog.
+     *
+     * @param schemaRef
+     *            An absolute URI.
+     * @return The (expanded) location of a bundled resource if the reference
+     *         is listed in the catalog; otherwise the original reference.
+     * @throws IOException
+     *             If the catalog cannot be read.
+     */
+    String resolveLocation(URI schemaRef) throws IOException {
+        String uri = schemaRef.toString();
+        String location = this.resolver.resolveSystem(uri);
+        if (null == location) {
+            location = this.resolver.resolveURI(uri);
+        }
+        if (null == location) {
+            return uri;
+        }
+        try {
+            return XMLEntityManager.expandSystemId(location, null, false);
+        } catch (IOException e) {
+            return location;
+        }
+    }
+
+    /**
+     * Resolves schema references using an entity catalog. A remote schema
+     * document that is not listed in the catalog is read from the set of
+     * prefetched documents or else obtained from the
+     * {@link SchemaDocumentCache}; a document packaged in an archive is read
+     * from the archive.
+     */
+    static class SchemaResolver implements XMLEntityResolver {
+
+        private final XMLCatalogResolver catalogResolver;
+        private final SchemaDocumentCache docCache;
+        private final Map<String, byte[]> documents;
+        private final ArchiveCatalog archive;
+
+        SchemaResolver(XMLCatalogResolver catalogResolver, SchemaDocumentCache docCache,
+                Map<String, byte[]> documents) {
+            this(catalogResolver, docCache, documents, null);
+        }
+
+        SchemaResolver(XMLCatalogResolver catalogResolver, SchemaDocumentCache docCache,
+                Map<String, byte[]> documents, ArchiveCatalog archive) {
+            this.catalogResolver = catalogResolver;
+            this.docCache = docCache;
+            this.documents = documents;
+            this.archive = archive;
+        }
+
+        @Override
+        public XMLInputSource resolveEntity(XMLResourceIdentifier resourceId) throws XNIException, IOException {
+            XMLInputSource input = this.catalogResolver.resolveEntity(resourceId);
+            if (null != input) {
+                return input;
+            }
+            String systemId = resourceId.getExpandedSystemId();
+            if (null == systemId && null != resourceId.getLiteralSystemId()) {
+                systemId = XMLEntityManager.expandSystemId(resourceId.getLiteralSystemId(),
+                        resourceId.getBaseSystemId(), false);
+            }
+            if (null == systemId) {
+                return null;
+            }
+            return createInputSource(resourceId.getPublicId(), systemId, resourceId.getBaseSystemId());
+        }
+
+        /**
+         * Creates an input source for a schema document. The content of a
+         * remote document is read from memory or from the document cache; the
+         * system identifier is retained so that relative references are
+         * resolved against the original location.
+         */
+        XMLInputSource createInputSource(String publicId, String systemId, String baseSystemId)
+                throws IOException {
+            XMLInputSource input = new XMLInputSource(publicId, systemId, baseSystemId);
+            URI uri;
+            try {
+                uri = new URI(systemId);
+            } catch (URISyntaxException e) {
+                return input;
+            }
+            byte[] content = this.documents.get(uri.normalize().toString());
+            if (null != content) {
+                input.setByteStream(new ByteArrayInputStream(content));
+            } else if (null != this.archive && this.archive.contains(uri)) {
+                input.setByteStream(this.archive.openStream(uri));
+            } else if (uri.isAbsolute() && this.docCache.isCacheable(uri)) {
+                input.setByteStream(this.docCache.openStream(uri));
+            }
+            return input;
+        }
+    }
+
+    /**
+     * A grammar pool that holds the grammars produced by a single compilation
+     * and delegates to a shared parent pool for grammars that can be reused.
+     */
+    static class LayeredGrammarPool implements XMLGrammarPool {
+
+        private final XMLGrammarPool parent;
+        private final XMLGrammarPoolImpl local = new XMLGrammarPoolImpl();
+
+        LayeredGrammarPool(XMLGrammarPool parent) {
+            this.parent = parent;
+        }
+
+        /**
+         * Returns the grammars that have been added to this pool, including
+         * any obtained from the parent pool.
+         *
+         * @return An array of schema grammars.
+         */
+        Grammar[] getLocalGrammars() {
+            return this.local.retrieveInitialGrammarSet(XMLGrammarDescription.XML_SCHEMA);
+        }
+
+        @Override
+        public Grammar[] retrieveInitialGrammarSet(String grammarType) {
+            Map<String, Grammar> grammars = new LinkedHashMap<String, Grammar>();
+            for (Grammar grammar : this.parent.retrieveInitialGrammarSet(grammarType)) {
+                grammars.put(targetNamespace(grammar), grammar);
+            }
+            for (Grammar grammar : this.local.retrieveInitialGrammarSet(grammarType)) {
+                grammars.put(targetNamespace(grammar), grammar);
+            }
+            return grammars.values().toArray(new Grammar[grammars.size()]);
+        }
+
+        @Override
+        public void cacheGrammars(String grammarType, Grammar[] grammars) {
+            this.local.cacheGrammars(grammarType, grammars);
+        }
+
+        @Override
+        public Grammar retrieveGrammar(XMLGrammarDescription desc) {
+            Grammar grammar = this.local.retrieveGrammar(desc);
+            return (null != grammar) ? grammar : this.parent.retrieveGrammar(desc);
+        }
+
+        @Override
+        public void lockPool() {
+            this.local.lockPool();
+        }
+
+        @Override
+        public void unlockPool() {
+            this.local.unlockPool();
+        }
+
+        @Override
+        public void clear() {
+            this.local.clear();
+        }
+
+        private static String targetNamespace(Grammar grammar) {
+            XMLGrammarDescription desc = grammar.getGrammarDescription();
+            String ns = (desc instanceof XMLSchemaDescription) ? ((XMLSchemaDescription) desc).getTargetNamespace()
+                    : desc.getNamespace();
+            return (null != ns) ? ns : "";
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Provides access to the content of a ZIP archive without extracting it. Each
+ * entry is identified by a URI formed by appending "!/" and the entry name to
+ * the location of the archive file (e.g.
+ * <code>file:/tmp/data.zip!/xsd/app.xsd</code>); relative references between
+ * entries are resolved in the usual way, so that a GML document in the archive
+ * can refer to schemas packaged with it. The archive thus serves as a local
+ * catalog for such references.
+ *
+ * <p>
+ * Entries may be read concurrently.
+ * </p>
+ */
+public class ArchiveCatalog implements Closeable {
+
+    private static final String[] DATA_SUFFIXES = { ".gml", ".xml", ".gml.gz", ".xml.gz" };
+    private final ZipFile zipFile;
+    private final String baseURI;
+
+    /**
+     * Opens a ZIP archive.
+     *
+     * @param archiveFile
+     *            A ZIP file.
+     * @throws IOException
+     *             If the file cannot be read or is not a ZIP archive.
+     */
+    public ArchiveCatalog(File archiveFile) throws IOException {
+        this.zipFile = new ZipFile(archiveFile);
+        this.baseURI = archiveFile.toURI().toString() + "!/";
+    }
+
+    /**
+     * Indicates whether or not the given file is a ZIP archive, as determined
+     * by its leading bytes (a local file header signature).
+     *
+     * @param file
+     *            A File.
+     * @return {@code true} if the file begins with a ZIP signature;
+     *         {@code false} otherwise.
+     * @throws IOException
+     *             If the file cannot be read.
+     */
+    public static boolean isArchive(File file) throws IOException {
+        try (InputStream input = new FileInputStream(file)) {
+            return isArchive(input);
+        }
+    }
+
+    /**
+     * Indicates whether or not the given stream supplies a ZIP archive. The
+     * first four bytes are consumed.
+     *
+     * @param input
+     *            An InputStream positioned at the beginning of some content.
+     * @return {@code true} if the content begins with a ZIP signature;
+     *         {@code false} otherwise.
+     * @throws IOException
+     *             If the stream cannot be read.
+     */
+    public static boolean isArchive(InputStream input) throws IOException {
+        return input.read() == 'P' && input.read() == 'K' && input.read() == 3 && input.read() == 4;
+    }
+
+    /**
+     * Returns the base URI of the archive content.
+     *
+     * @return An absolute URI ending with "!/".
+     */
+    public URI getBaseURI() {
+        return URI.create(this.baseURI);
+    }
+
+    /**
+     * Returns the URI that identifies an entry.
+     *
+     * @param entryName
+     *            The name of an entry.
+     * @return An absolute URI.
+     */
+    public URI getEntryURI(String entryName) {
+        try {
+            return URI.create(this.baseURI + new URI(null, null, entryName, null).getRawPath());
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid entry name: " + entryName, e);
+        }
+    }
+
+    /**
+     * Returns the name of the entry identified by the given URI.
+     *
+     * @param uri
+     *            An absolute URI.
+     * @return The name of an entry in the archive, or {@code null} if the URI
+     *         does not refer to one.
+     */
+    public String getEntryName(URI uri) {
+        String location = uri.normalize().toString();
+        if (location.startsWith("file:///")) {
+            location = "file:/" + location.substring(8);
+        }
+        if (!location.startsWith(this.baseURI)) {
+            return null;
+        }
+        String entryName;
+        try {
+            entryName = new URI(location.substring(this.baseURI.length())).getPath();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        ZipEntry entry = this.zipFile.getEntry(entryName);
+        return (null != entry && !entry.isDirectory()) ? entryName : null;
+    }
+
+    /**
+     * Indicates whether or not the given URI refers to an entry in the
+     * archive.
+     *
+     * @param uri
+     *            An absolute URI (may be null).
+     * @return {@code true} if the archive contains the resource;
+     *         {@code false} otherwise.
+     */
+    public boolean contains(URI uri) {
+        return null != uri && null != getEntryName(uri);
+    }
+
+    /**
+     * Opens a stream for reading an entry.
+     *
+     * @param uri
+     *            A URI that refers to an entry (see
+     *            {@link #getEntryURI(String)}).
+     * @return An InputStream.
+     * @throws IOException
+     *             If there is no such entry or it cannot be read.
+     */
+    public InputStream openStream(URI uri) throws IOException {
+        String entryName = getEntryName(uri);
+        if (null == entryName) {
+            throw new FileNotFoundException("Archive entry not found: " + uri);
+        }
+        return this.zipFile.getInputStream(this.zipFile.getEntry(entryName));
+    }
+
+    /**
+     * Reads the entire content of an entry.
+     *
+     * @param uri
+     *            A URI that refers to an entry.
+     * @return The content of the entry.
+     * @throws IOException
+     *             If there is no such entry or it cannot be read.
+     */
+    public byte[] read(URI uri) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (InputStream input = openStream(uri)) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = input.read(buffer)) != -1) {
+                content.write(buffer, 0, n);
+            }
+        }
+        return content.toByteArray();
+    }
+
+    /**
+     * Returns the names of the entries that contain (possibly compressed) XML
+     * data, excluding catalog files and operating system metadata.
+     *
+     * @return A list of entry names in alphabetical order.
+     */
+    public List<String> getDataEntries() {
+        List<String> names = new ArrayList<String>();
+        Enumeration<? extends ZipEntry> entries = this.zipFile.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            String name = entry.getName();
+            String fileName = name.substring(name.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+            if (entry.isDirectory() || name.startsWith("__MACOSX/") || fileName.startsWith(".")
+                    || fileName.equals("catalog.xml")) {
+                continue;
+            }
+            for (String suffix : DATA_SUFFIXES) {
+                if (fileName.endsWith(suffix)) {
+                    names.add(name);
+                    break;
+                }
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.zipFile.close();
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveCatalog[" + this.zipFile.getName() + "]";
+    }
+}
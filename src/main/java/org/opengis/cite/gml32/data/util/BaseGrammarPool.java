@@ -0,0 +1,214 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+
+import org.apache.xerces.impl.Constants;
+import org.apache.xerces.impl.XMLEntityManager;
+import org.apache.xerces.impl.xs.XMLSchemaLoader;
+import org.apache.xerces.util.ErrorHandlerWrapper;
+import org.apache.xerces.util.XMLCatalogResolver;
+import org.apache.xerces.util.XMLGrammarPoolImpl;
+import org.apache.xerces.xni.XNIException;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
+import org.apache.xerces.xni.parser.XMLInputSource;
+import org.opengis.cite.validation.ValidationErrorHandler;
+
+/**
+ * A read-only pool containing the grammars for the standard schemas that are
+ * bundled with the test suite (GML 3.2.1, ISO 19139, XLink, and XML). The
+ * schemas are parsed only once in the lifetime of the JVM; the resulting pool
+ * is locked and may be shared by any number of concurrent schema compilations.
+ *
+ * <p>
+ * If a bundled schema cannot be parsed without error the pool is left empty,
+ * in which case all schema components are compiled from source as before.
+ * </p>
+ *
+ * <p>
+ * The grammars cannot be compiled at build time and packaged in the jar:
+ * Xerces schema grammars (and the components they contain) are not
+ * serializable, and there is no other external form from which a grammar can
+ * be restored without parsing the schema documents. The cost of parsing them
+ * is therefore incurred once per JVM, when the pool is first used (see
+ * {@link #getLoadTime()}), rather than once per schema compilation.
+ * </p>
+ */
+public final class BaseGrammarPool {
+
+    /**
+     * The location of the entity catalog that maps standard schema locations
+     * to bundled resources.
+     */
+    public static final String SCHEMA_CATALOG = "/org/opengis/cite/gml32/data/schema-catalog.xml";
+    /**
+     * Schema locations that are preparsed. All other bundled schemas are
+     * imported (directly or indirectly) from these.
+     */
+    static final String[] BASE_SCHEMA_REFS = { "http://schemas.opengis.net/gml/3.2.1/gml.xsd",
+            "http://schemas.opengis.net/iso/19139/20070417/gmd/gmd.xsd" };
+    private static final BaseGrammarPool INSTANCE = new BaseGrammarPool(
+            BaseGrammarPool.class.getResource(SCHEMA_CATALOG));
+    private final XMLGrammarPool grammarPool;
+    private final Set<String> systemIds;
+    private final long loadTime;
+
+    /**
+     * Returns the shared pool of base grammars, which are loaded when this
+     * method is first invoked.
+     *
+     * @return The process-wide BaseGrammarPool.
+     */
+    public static BaseGrammarPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Constructs a pool of grammars obtained by parsing the base schemas.
+     *
+     * @param catalog
+     *            The location of the entity catalog used to resolve schema
+     *            references.
+     */
+    BaseGrammarPool(URL catalog) {
+        long startTime = System.currentTimeMillis();
+        XMLGrammarPoolImpl pool = new XMLGrammarPoolImpl();
+        Set<String> ids = new HashSet<String>();
+        int grammarCount = 0;
+        if (!preparse(catalog, pool)) {
+            pool.clear();
+        } else {
+            XMLCatalogResolver resolver = new XMLCatalogResolver(new String[] { catalog.toString() });
+            for (String schemaRef : BASE_SCHEMA_REFS) {
+                addSystemId(ids, schemaRef, resolver);
+            }
+            for (Grammar grammar : pool.retrieveInitialGrammarSet(XMLGrammarDescription.XML_SCHEMA)) {
+                addSystemId(ids, grammar.getGrammarDescription().getLiteralSystemId(), resolver);
+                grammarCount++;
+            }
+        }
+        pool.lockPool();
+        this.grammarPool = pool;
+        this.systemIds = Collections.unmodifiableSet(ids);
+        this.loadTime = System.currentTimeMillis() - startTime;
+        TestSuiteLogger.log(Level.CONFIG,
+                String.format("Preparsed %d base grammars in %d ms", grammarCount, this.loadTime));
+    }
+
+    /**
+     * Adds a schema location and the bundled resource it resolves to (if any)
+     * to the given set of system identifiers.
+     *
+     * @param ids
+     *            The set of known system identifiers.
+     * @param systemId
+     *            The literal location of a schema document.
+     * @param resolver
+     *            The catalog resolver.
+     */
+    private static void addSystemId(Set<String> ids, String systemId, XMLCatalogResolver resolver) {
+        if (null == systemId) {
+            return;
+        }
+        ids.add(systemId);
+        try {
+            String location = resolver.resolveSystem(systemId);
+            if (null != location) {
+                ids.add(XMLEntityManager.expandSystemId(location, null, false));
+            }
+        } catch (IOException e) {
+            TestSuiteLogger.log(Level.FINE, "Failed to resolve " + systemId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses the base schemas and adds the resulting grammars to the given
+     * pool.
+     *
+     * @param catalog
+     *            The location of the entity catalog.
+     * @param pool
+     *            The grammar pool to populate.
+     * @return {@code true} if all schemas were parsed without error;
+     *         {@code false} otherwise.
+     */
+    private static boolean preparse(URL catalog, XMLGrammarPool pool) {
+        if (null == catalog) {
+            return false;
+        }
+        XMLCatalogResolver resolver = new XMLCatalogResolver(new String[] { catalog.toString() });
+        ValidationErrorHandler errHandler = new ValidationErrorHandler();
+        XMLSchemaLoader loader = new XMLSchemaLoader();
+        loader.setProperty(Constants.XERCES_PROPERTY_PREFIX + Constants.XMLGRAMMAR_POOL_PROPERTY, pool);
+        loader.setFeature(Constants.XERCES_FEATURE_PREFIX + Constants.SCHEMA_FULL_CHECKING, true);
+        loader.setEntityResolver(resolver);
+        loader.setErrorHandler(new ErrorHandlerWrapper(errHandler));
+        try {
+            for (String schemaRef : BASE_SCHEMA_REFS) {
+                String location = resolver.resolveSystem(schemaRef);
+                if (null == location) {
+                    TestSuiteLogger.log(Level.WARNING, "Base schema is not bundled: " + schemaRef);
+                    return false;
+                }
+                loader.loadGrammar(new XMLInputSource(null, location, null));
+            }
+        } catch (IOException | XNIException e) {
+            TestSuiteLogger.log(Level.WARNING, "Failed to preparse base schemas: " + e.getMessage());
+            return false;
+        }
+        if (errHandler.errorsDetected()) {
+            TestSuiteLogger.log(Level.WARNING,
+                    "Errors detected in base schemas; grammars will be compiled from source.\n" + errHandler.toString());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the (locked) pool of base grammars.
+     *
+     * @return A read-only XMLGrammarPool; it is empty if the base schemas
+     *         could not be preparsed.
+     */
+    public XMLGrammarPool getGrammarPool() {
+        return grammarPool;
+    }
+
+    /**
+     * Indicates whether or not the given system identifier refers to a schema
+     * document that is already present in the pool.
+     *
+     * @param systemId
+     *            An absolute URI (either the standard schema location or the
+     *            expanded location of the bundled resource).
+     * @return {@code true} if a grammar was loaded from the referenced
+     *         document; {@code false} otherwise.
+     */
+    public boolean contains(String systemId) {
+        return systemIds.contains(systemId);
+    }
+
+    /**
+     * Indicates whether or not the pool contains any grammars.
+     *
+     * @return {@code true} if the pool is empty.
+     */
+    public boolean isEmpty() {
+        return systemIds.isEmpty();
+    }
+
+    /**
+     * Returns the time taken to preparse the base schemas.
+     *
+     * @return The elapsed time (ms).
+     */
+    public long getLoadTime() {
+        return loadTime;
+    }
+}
@@ -0,0 +1,258 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+
+import org.opengis.cite.validation.ErrorSeverity;
+import org.opengis.cite.validation.ValidationError;
+import org.opengis.cite.validation.ValidationErrorHandler;
+import org.xml.sax.SAXParseException;
+
+/**
+ * An error handler that bounds the resources consumed when validating a
+ * seriously broken document. Only the first few errors are retained in
+ * memory; if more are reported, all of them are written to a spill file
+ * instead. Validation can also be stopped once a given number of errors
+ * (including fatal errors but not warnings) has been reported, in which case
+ * an {@link ErrorLimitException} is thrown (and propagated by the validator).
+ *
+ * <p>
+ * The default limits are set using the following system properties:
+ * </p>
+ * <ul>
+ * <li>{@value #MAX_ERRORS_PROPERTY}: the number of errors after which
+ * validation stops (default: {@value #DEFAULT_MAX_ERRORS}, meaning no limit; a
+ * value of 1 stops at the first error);</li>
+ * <li>{@value #RETAINED_ERRORS_PROPERTY}: the number of errors kept in memory
+ * (default: {@value #DEFAULT_RETAINED_ERRORS}).</li>
+ * </ul>
+ */
+public class BoundedErrorHandler extends ValidationErrorHandler {
+
+    /**
+     * Name of the system property that specifies the number of errors after
+     * which validation stops.
+     */
+    public static final String MAX_ERRORS_PROPERTY = "org.opengis.cite.gml32.data.validation.maxErrors";
+    /**
+     * The default maximum number of errors (no limit).
+     */
+    public static final int DEFAULT_MAX_ERRORS = 0;
+    /**
+     * Name of the system property that specifies the number of errors that
+     * are kept in memory.
+     */
+    public static final String RETAINED_ERRORS_PROPERTY = "org.opengis.cite.gml32.data.validation.retainedErrors";
+    /**
+     * The default number of errors kept in memory.
+     */
+    public static final int DEFAULT_RETAINED_ERRORS = 50;
+    private final int maxErrors;
+    private final int retainedErrors;
+    private int reportCount;
+    private int errorCount;
+    private boolean limitReached;
+    private File spillFile;
+    private Writer spillWriter;
+
+    /**
+     * Constructs an error handler using the limits given by system properties.
+     */
+    public BoundedErrorHandler() {
+        this(Integer.getInteger(MAX_ERRORS_PROPERTY, DEFAULT_MAX_ERRORS),
+                Integer.getInteger(RETAINED_ERRORS_PROPERTY, DEFAULT_RETAINED_ERRORS));
+    }
+
+    /**
+     * Constructs an error handler using the given limits.
+     *
+     * @param maxErrors
+     *            The number of errors after which validation stops (a value
+     *            less than 1 means no limit).
+     * @param retainedErrors
+     *            The number of errors kept in memory.
+     */
+    public BoundedErrorHandler(int maxErrors, int retainedErrors) {
+        this.maxErrors = Math.max(0, maxErrors);
+        this.retainedErrors = Math.max(0, retainedErrors);
+    }
+
+    @Override
+    public void warning(SAXParseException spe) {
+        if (retain(ErrorSeverity.WARNING, spe)) {
+            super.warning(spe);
+        }
+    }
+
+    @Override
+    public void error(SAXParseException spe) {
+        if (retain(ErrorSeverity.ERROR, spe)) {
+            super.error(spe);
+        }
+        checkLimit();
+    }
+
+    @Override
+    public void fatalError(SAXParseException spe) {
+        if (retain(ErrorSeverity.CRITICAL, spe)) {
+            super.fatalError(spe);
+        }
+        checkLimit();
+    }
+
+    /**
+     * Records a reported problem. Once the number of reports exceeds the
+     * number of retained errors, the spill file is created and all reports
+     * are written to it.
+     *
+     * @return {@code true} if the report should be kept in memory.
+     */
+    private boolean retain(ErrorSeverity severity, SAXParseException spe) {
+        this.reportCount++;
+        if (severity != ErrorSeverity.WARNING) {
+            this.errorCount++;
+        }
+        ValidationError error = new ValidationError(severity, spe.getMessage(), spe.getLineNumber(),
+                spe.getColumnNumber(), null);
+        if (this.reportCount > this.retainedErrors && null == this.spillFile) {
+            openSpillFile();
+        }
+        if (null != this.spillWriter) {
+            try {
+                this.spillWriter.write(error.toString());
+                this.spillWriter.write('\n');
+            } catch (IOException e) {
+                TestSuiteLogger.log(Level.WARNING, "Failed to write validation error to " + this.spillFile, e);
+                closeSpillFile();
+            }
+        }
+        return this.reportCount <= this.retainedErrors;
+    }
+
+    private void openSpillFile() {
+        try {
+            this.spillFile = File.createTempFile("validation-errors-", ".txt");
+            this.spillFile.deleteOnExit();
+            this.spillWriter = new BufferedWriter(
+                    new OutputStreamWriter(new FileOutputStream(this.spillFile), StandardCharsets.UTF_8));
+            for (ValidationError error : this) {
+                this.spillWriter.write(error.toString());
+                this.spillWriter.write('\n');
+            }
+        } catch (IOException e) {
+            TestSuiteLogger.log(Level.WARNING, "Failed to create spill file for validation errors.", e);
+            closeSpillFile();
+        }
+    }
+
+    private void checkLimit() {
+        if (this.maxErrors > 0 && this.errorCount >= this.maxErrors) {
+            this.limitReached = true;
+            close();
+            throw new ErrorLimitException(this.maxErrors);
+        }
+    }
+
+    private void closeSpillFile() {
+        if (null == this.spillWriter) {
+            return;
+        }
+        try {
+            this.spillWriter.close();
+        } catch (IOException e) {
+            TestSuiteLogger.log(Level.FINE, "Failed to close " + this.spillFile, e);
+        }
+        this.spillWriter = null;
+    }
+
+    /**
+     * Flushes and closes the spill file, if one was created. This should be
+     * invoked when validation is complete.
+     */
+    public void close() {
+        closeSpillFile();
+    }
+
+    /**
+     * Returns the total number of problems reported, including those that
+     * were not retained in memory.
+     *
+     * @return The number of reported problems.
+     */
+    @Override
+    public int getErrorCount() {
+        return this.reportCount;
+    }
+
+    @Override
+    public boolean errorsDetected() {
+        return this.reportCount > 0;
+    }
+
+    /**
+     * Indicates whether or not validation was stopped because the maximum
+     * number of errors was reached.
+     *
+     * @return {@code true} if the limit was reached; {@code false} otherwise.
+     */
+    public boolean isLimitReached() {
+        return this.limitReached;
+    }
+
+    /**
+     * Returns the file containing the details of all reported problems.
+     *
+     * @return A File, or {@code null} if all problems were retained in memory.
+     */
+    public File getSpillFile() {
+        return this.spillFile;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        close();
+        this.reportCount = 0;
+        this.errorCount = 0;
+        this.limitReached = false;
+        this.spillFile = null;
+    }
+
+    /**
+     * Returns a summary of the reported problems. It includes the details of
+     * the retained errors only; the spill file (if any) contains the complete
+     * list.
+     */
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder(super.toString());
+        if (null != this.spillFile) {
+            str.append(String.format("%nOnly the first %d of %d problems are shown; all are listed in %s",
+                    this.retainedErrors, this.reportCount, this.spillFile.getAbsolutePath()));
+        }
+        if (this.limitReached) {
+            str.append(String.format("%nValidation was stopped after %d error(s).", this.maxErrors));
+        }
+        return str.toString();
+    }
+
+    /**
+     * Signals that validation was stopped because the maximum number of errors
+     * was reached. It is unchecked since the overridden handler methods do not
+     * declare any exceptions.
+     */
+    public static class ErrorLimitException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        ErrorLimitException(int maxErrors) {
+            super("Validation stopped after " + maxErrors + " error(s).");
+        }
+    }
+}
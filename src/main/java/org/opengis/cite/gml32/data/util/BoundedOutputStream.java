@@ -0,0 +1,82 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An OutputStream that passes at most a given number of bytes to another
+ * stream. When the limit is reached a truncation marker (in US-ASCII) is
+ * written in place of the remaining content and an IOException is thrown, so
+ * that the producer stops at once. The underlying stream is not closed.
+ *
+ * @see BoundedWriter
+ */
+public class BoundedOutputStream extends OutputStream {
+
+    /**
+     * The marker that is appended to truncated output (the argument is the
+     * limit).
+     */
+    public static final String TRUNCATION_MARKER = "\n... [output truncated after %d bytes]";
+    private final OutputStream out;
+    private final long maxLength;
+    private long length;
+    private boolean truncated;
+
+    /**
+     * Constructs a stream with the given limit.
+     *
+     * @param out
+     *            The underlying OutputStream.
+     * @param maxLength
+     *            The maximum number of bytes to write (not counting the
+     *            truncation marker).
+     */
+    public BoundedOutputStream(OutputStream out, long maxLength) {
+        this.out = out;
+        this.maxLength = maxLength;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.truncated) {
+            throw new IOException("Output limit reached: " + this.maxLength);
+        }
+        long room = this.maxLength - this.length;
+        if (len <= room) {
+            this.out.write(b, off, len);
+            this.length += len;
+            return;
+        }
+        this.out.write(b, off, (int) room);
+        this.length = this.maxLength;
+        this.truncated = true;
+        this.out.write(String.format(TRUNCATION_MARKER, this.maxLength).getBytes(StandardCharsets.US_ASCII));
+        throw new IOException("Output limit reached: " + this.maxLength);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * Indicates whether or not the output was truncated.
+     *
+     * @return {@code true} if the limit was exceeded; {@code false} otherwise.
+     */
+    public boolean isTruncated() {
+        return this.truncated;
+    }
+}
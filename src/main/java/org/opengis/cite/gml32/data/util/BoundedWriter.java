@@ -0,0 +1,75 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A Writer that passes at most a given number of characters to another writer.
+ * When the limit is reached a truncation marker is written in place of the
+ * remaining content and an IOException is thrown, so that the producer (e.g. a
+ * serializer) stops at once instead of generating output that would be
+ * discarded. The underlying writer is not closed.
+ */
+public class BoundedWriter extends Writer {
+
+    /**
+     * The marker that is appended to truncated output (the argument is the
+     * limit).
+     */
+    public static final String TRUNCATION_MARKER = "\n... [output truncated after %d characters]";
+    private final Writer out;
+    private final int maxLength;
+    private int length;
+    private boolean truncated;
+
+    /**
+     * Constructs a writer with the given limit.
+     *
+     * @param out
+     *            The underlying Writer.
+     * @param maxLength
+     *            The maximum number of characters to write (not counting the
+     *            truncation marker).
+     */
+    public BoundedWriter(Writer out, int maxLength) {
+        this.out = out;
+        this.maxLength = maxLength;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        if (this.truncated) {
+            throw new IOException("Output limit reached: " + this.maxLength);
+        }
+        int room = this.maxLength - this.length;
+        if (len <= room) {
+            this.out.write(cbuf, off, len);
+            this.length += len;
+            return;
+        }
+        this.out.write(cbuf, off, room);
+        this.length = this.maxLength;
+        this.truncated = true;
+        this.out.write(String.format(TRUNCATION_MARKER, this.maxLength));
+        throw new IOException("Output limit reached: " + this.maxLength);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * Indicates whether or not the output was truncated.
+     *
+     * @return {@code true} if the limit was exceeded; {@code false} otherwise.
+     */
+    public boolean isTruncated() {
+        return this.truncated;
+    }
+}
@@ -1,11 +1,15 @@
 package org.opengis.cite.gml32.data.util;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.SocketAddress;
 import java.net.URL;
+import java.net.URLConnection;
 
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientRequest;
@@ -16,7 +20,14 @@ import com.sun.jersey.api.client.filter.LoggingFilter;
 import com.sun.jersey.client.urlconnection.HttpURLConnectionFactory;
 import com.sun.jersey.client.urlconnection.URLConnectionClientHandler;
 import java.net.URI;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.ws.rs.HttpMethod;
@@ -30,29 +41,317 @@ import org.w3c.dom.Document;
 /**
  * Provides various utility methods for creating and configuring HTTP client
  * components.
+ *
+ * <p>
+ * All resources retrieved by the test suite (the test subject, schema
+ * documents and Schematron schemas) are obtained by way of
+ * {@link #openConnection(URI)} or {@link #openStream(URI)}, which act as a
+ * shared HTTP client: connections are taken from the pool of persistent
+ * (keep-alive) connections maintained by the JDK URL connection handler, and
+ * the number of connections that may be in use at the same time is limited
+ * for each host (and port). A request waits for a connection to become available for at
+ * most the connection timeout. The following system properties apply:
+ * </p>
+ * <ul>
+ * <li>{@value #CONNECT_TIMEOUT_PROPERTY}: connection timeout in milliseconds
+ * (default: {@value #DEFAULT_CONNECT_TIMEOUT})</li>
+ * <li>{@value #READ_TIMEOUT_PROPERTY}: read timeout in milliseconds (default:
+ * {@value #DEFAULT_READ_TIMEOUT})</li>
+ * <li>{@value #MAX_CONNECTIONS_PROPERTY}: maximum number of connections in
+ * use per host (default: {@value #DEFAULT_MAX_CONNECTIONS})</li>
+ * </ul>
+ * <p>
+ * The number of idle connections the JDK keeps alive per host is governed by
+ * the standard "http.maxConnections" system property (default: 5), which is
+ * left to the deployment. HTTP/2 is not supported by the JDK connection
+ * handler.
+ * </p>
  */
 public class ClientUtils {
 
     /**
-     * Builds a client component for interacting with HTTP endpoints. The client
-     * will automatically redirect to the URI declared in 3xx responses. The
-     * connection timeout is 10 s. Request and response messages may be logged
-     * to a JDK logger (in the namespace "com.sun.jersey.api.client").
+     * Name of the system property that specifies the connection timeout.
+     */
+    public static final String CONNECT_TIMEOUT_PROPERTY = "org.opengis.cite.gml32.data.http.connectTimeout";
+    /**
+     * Name of the system property that specifies the read timeout.
+     */
+    public static final String READ_TIMEOUT_PROPERTY = "org.opengis.cite.gml32.data.http.readTimeout";
+    /**
+     * Name of the system property that specifies the maximum number of
+     * connections in use per host.
+     */
+    public static final String MAX_CONNECTIONS_PROPERTY = "org.opengis.cite.gml32.data.http.maxConnectionsPerHost";
+    private static final String ENTITY_FILTER_PROPERTY = ReusableEntityFilter.class.getName();
+    /**
+     * The default connection timeout: 10 s.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    /**
+     * The default read timeout: 60 s.
+     */
+    public static final int DEFAULT_READ_TIMEOUT = 60000;
+    /**
+     * The default maximum number of connections in use per host.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+    private static final int DRAIN_LIMIT = 65536;
+    private static final ConcurrentMap<String, Semaphore> HOST_PERMITS = new ConcurrentHashMap<String, Semaphore>();
+    /** The permits held by open connections. */
+    private static final Map<HttpURLConnection, Semaphore> LEASES = Collections
+            .synchronizedMap(new IdentityHashMap<HttpURLConnection, Semaphore>());
+
+    /**
+     * Returns the connection timeout.
      *
-     * @return A Client component.
+     * @return The connection timeout in milliseconds.
      */
-    public static Client buildClient() {
+    public static int getConnectTimeout() {
+        return Integer.getInteger(CONNECT_TIMEOUT_PROPERTY, DEFAULT_CONNECT_TIMEOUT);
+    }
+
+    /**
+     * Returns the read timeout.
+     *
+     * @return The read timeout in milliseconds.
+     */
+    public static int getReadTimeout() {
+        return Integer.getInteger(READ_TIMEOUT_PROPERTY, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Returns the maximum number of connections to a single host (and port)
+     * that may be in use at the same time. The value in effect when the first
+     * connection to a host is opened applies to that host.
+     *
+     * @return The per-host connection limit.
+     */
+    public static int getMaxConnectionsPerHost() {
+        return Math.max(1, Integer.getInteger(MAX_CONNECTIONS_PROPERTY, DEFAULT_MAX_CONNECTIONS));
+    }
+
+    private static ClientConfig newClientConfig() {
         ClientConfig config = new DefaultClientConfig();
         config.getProperties().put(
                 ClientConfig.PROPERTY_FOLLOW_REDIRECTS, true);
         config.getProperties().put(
-                ClientConfig.PROPERTY_CONNECT_TIMEOUT, 10000);
-        Client client = Client.create(config);
-        client.addFilter(new ReusableEntityFilter());
+                ClientConfig.PROPERTY_CONNECT_TIMEOUT, getConnectTimeout());
+        config.getProperties().put(
+                ClientConfig.PROPERTY_READ_TIMEOUT, getReadTimeout());
+        return config;
+    }
+
+    /**
+     * Builds a client component for interacting with HTTP endpoints. The client
+     * will automatically redirect to the URI declared in 3xx responses. The
+     * connection and read timeouts are configurable (default: 10 s and 60 s).
+     * Response entities are buffered so that they can be read more than once
+     * (large ones in temporary files; see {@link #deleteTempFiles(Client)}).
+     * Request and response messages may be logged to a JDK logger (in the
+     * namespace "com.sun.jersey.api.client").
+     *
+     * @return A Client component.
+     */
+    public static Client buildClient() {
+        Client client = Client.create(newClientConfig());
+        ReusableEntityFilter entityFilter = new ReusableEntityFilter();
+        client.getProperties().put(ENTITY_FILTER_PROPERTY, entityFilter);
+        client.addFilter(entityFilter);
         client.addFilter(new LoggingFilter());
         return client;
     }
 
+    /**
+     * Deletes the temporary files holding response entities that were
+     * buffered by a client component; such entities can no longer be read.
+     *
+     * @param client
+     *            A Client component created by {@link #buildClient()}.
+     */
+    public static void deleteTempFiles(Client client) {
+        Object entityFilter = client.getProperties().get(ENTITY_FILTER_PROPERTY);
+        if (entityFilter instanceof ReusableEntityFilter) {
+            ((ReusableEntityFilter) entityFilter).deleteTempFiles();
+        }
+    }
+
+    /**
+     * Opens a connection to the given HTTP(S) resource using the configured
+     * timeouts. The caller must invoke {@link #release(HttpURLConnection)} or
+     * {@link #disconnect(HttpURLConnection)} when done with it, so that
+     * another connection to the same host may be opened.
+     *
+     * @param uri
+     *            An absolute http or https URI.
+     * @return An HttpURLConnection (not yet connected).
+     * @throws IOException
+     *             If the connection cannot be opened, or if no connection to
+     *             the host becomes available within the connection timeout.
+     */
+    public static HttpURLConnection openConnection(URI uri) throws IOException {
+        if (!isHttp(uri)) {
+            throw new IOException("Not an HTTP resource: " + uri);
+        }
+        Semaphore permits = acquirePermit(uri);
+        try {
+            URLConnection conn = uri.toURL().openConnection();
+            if (!(conn instanceof HttpURLConnection)) {
+                throw new IOException("Not an HTTP resource: " + uri);
+            }
+            conn.setConnectTimeout(getConnectTimeout());
+            conn.setReadTimeout(getReadTimeout());
+            LEASES.put((HttpURLConnection) conn, permits);
+            return (HttpURLConnection) conn;
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a stream for reading the content of the given resource. The
+     * configured timeouts and the per-host connection limit apply to HTTP(S)
+     * resources.
+     *
+     * @param uri
+     *            An absolute URI.
+     * @return An InputStream; closing it returns the connection (if any) to the
+     *         pool.
+     * @throws IOException
+     *             If the resource cannot be read.
+     */
+    public static InputStream openStream(URI uri) throws IOException {
+        final Semaphore permits = isHttp(uri) ? acquirePermit(uri) : null;
+        InputStream input;
+        try {
+            URLConnection conn = uri.toURL().openConnection();
+            conn.setConnectTimeout(getConnectTimeout());
+            conn.setReadTimeout(getReadTimeout());
+            input = conn.getInputStream();
+        } catch (IOException | RuntimeException e) {
+            if (null != permits) {
+                permits.release();
+            }
+            throw e;
+        }
+        if (null == permits) {
+            return input;
+        }
+        return new FilterInputStream(input) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!closed) {
+                        closed = true;
+                        permits.release();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Releases a connection so that it can be reused for subsequent requests
+     * to the same host. Any remaining (small) response body is read and
+     * discarded; the connection is closed if the body is too large. Unlike
+     * {@link HttpURLConnection#disconnect()}, this does not close a persistent
+     * connection.
+     *
+     * @param conn
+     *            An HttpURLConnection (may be null).
+     */
+    public static void release(HttpURLConnection conn) {
+        if (null == conn) {
+            return;
+        }
+        try {
+            InputStream body = (conn.getResponseCode() >= 400) ? conn.getErrorStream() : conn.getInputStream();
+            if (null != body) {
+                try {
+                    byte[] buffer = new byte[8192];
+                    long total = 0;
+                    int n;
+                    while (total <= DRAIN_LIMIT && (n = body.read(buffer)) != -1) {
+                        total += n;
+                    }
+                    if (total > DRAIN_LIMIT) {
+                        conn.disconnect();
+                    }
+                } finally {
+                    body.close();
+                }
+            }
+        } catch (IOException e) {
+            // body already consumed and closed, or no response was received
+            Logger.getLogger(ClientUtils.class.getName()).log(Level.FINEST,
+                    "Nothing to release: " + e.getMessage());
+        } finally {
+            returnPermit(conn);
+        }
+    }
+
+    /**
+     * Closes a connection that cannot be reused (for example, because the
+     * response body was not read in full).
+     *
+     * @param conn
+     *            An HttpURLConnection (may be null).
+     */
+    public static void disconnect(HttpURLConnection conn) {
+        if (null == conn) {
+            return;
+        }
+        try {
+            conn.disconnect();
+        } finally {
+            returnPermit(conn);
+        }
+    }
+
+    private static boolean isHttp(URI uri) {
+        String scheme = uri.getScheme();
+        return "http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme);
+    }
+
+    /**
+     * Waits (for at most the connection timeout) until another connection to
+     * the host of the given resource may be used.
+     */
+    private static Semaphore acquirePermit(URI uri) throws IOException {
+        int port = (uri.getPort() != -1) ? uri.getPort() : ("https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80);
+        String host = ((null != uri.getHost()) ? uri.getHost().toLowerCase(Locale.ROOT) : "") + ":" + port;
+        Semaphore permits = HOST_PERMITS.get(host);
+        if (null == permits) {
+            HOST_PERMITS.putIfAbsent(host, new Semaphore(getMaxConnectionsPerHost()));
+            permits = HOST_PERMITS.get(host);
+        }
+        try {
+            if (!permits.tryAcquire(getConnectTimeout(), TimeUnit.MILLISECONDS)) {
+                throw new IOException(String.format("No connection to %s available within %d ms", host,
+                        getConnectTimeout()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + host);
+        }
+        return permits;
+    }
+
+    /**
+     * Returns the permit held by a connection; this has no effect if it was
+     * already returned.
+     */
+    private static void returnPermit(HttpURLConnection conn) {
+        Semaphore permits = LEASES.remove(conn);
+        if (null != permits) {
+            permits.release();
+        }
+    }
+
     /**
      * Constructs a client component that uses a specified web proxy. Proxy
      * authentication is not supported. Configuring the client to use an
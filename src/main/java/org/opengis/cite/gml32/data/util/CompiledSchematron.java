@@ -0,0 +1,256 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.File;
+import java.net.URL;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Source;
+import javax.xml.transform.SourceLocator;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.MessageListener;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.Serializer;
+import net.sf.saxon.s9api.XPathExecutable;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmDestination;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XsltCompiler;
+import net.sf.saxon.s9api.XsltExecutable;
+import net.sf.saxon.s9api.XsltTransformer;
+
+import org.opengis.cite.validation.SchematronValidator;
+import org.xml.sax.SAXException;
+
+/**
+ * A Schematron schema that has been compiled (using the ISO skeleton
+ * implementation) into an executable XSLT stylesheet for some phase. A
+ * compiled schema is immutable and thread-safe; it can be used to create any
+ * number of {@link CompiledSchematronValidator} instances.
+ *
+ * @see SchematronCache
+ */
+public class CompiledSchematron {
+
+    private static final String INCLUDE_XSLT = "iso_dsdl_include.xsl";
+    private static final String ABSTRACT_EXPAND_XSLT = "iso_abstract_expand.xsl";
+    private static final String SVRL_REPORT_XSLT = "iso_svrl_xslt2.xsl";
+    private static final Processor PROCESSOR = SaxonCache.getProcessor();
+    private static final XPathExecutable VIOLATION_COUNT = initViolationCount();
+    /**
+     * Skeleton stylesheets: include, abstract expansion, SVRL report.
+     */
+    private static final XsltExecutable[] SKELETON = initSkeleton();
+    private final String systemId;
+    private final String phase;
+    private final XsltExecutable executable;
+
+    private static XsltExecutable[] initSkeleton() {
+        XsltCompiler compiler = newXsltCompiler();
+        try {
+            return new XsltExecutable[] { compiler.compile(skeletonSource(INCLUDE_XSLT)),
+                    compiler.compile(skeletonSource(ABSTRACT_EXPAND_XSLT)),
+                    compiler.compile(skeletonSource(SVRL_REPORT_XSLT)) };
+        } catch (SaxonApiException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates an XSLT compiler that recovers silently from recoverable errors
+     * (the processor is shared, so this is not set in its configuration).
+     */
+    private static XsltCompiler newXsltCompiler() {
+        XsltCompiler compiler = PROCESSOR.newXsltCompiler();
+        compiler.getUnderlyingCompilerInfo().setRecoveryPolicy(Configuration.RECOVER_SILENTLY);
+        return compiler;
+    }
+
+    /**
+     * Loads an executable stylesheet, recovering silently from recoverable
+     * dynamic errors.
+     */
+    static XsltTransformer load(XsltExecutable executable) {
+        XsltTransformer transformer = executable.load();
+        transformer.getUnderlyingController().setRecoveryPolicy(Configuration.RECOVER_SILENTLY);
+        return transformer;
+    }
+
+    private static XPathExecutable initViolationCount() {
+        net.sf.saxon.s9api.XPathCompiler compiler = PROCESSOR.newXPathCompiler();
+        compiler.declareNamespace("svrl", SchematronValidator.ISO_SCHEMATRON_SVRL_NS);
+        try {
+            return compiler.compile("count(//svrl:failed-assert) + count(//svrl:successful-report)");
+        } catch (SaxonApiException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Compiles a Schematron schema.
+     *
+     * @param schema
+     *            A Source for reading the schema; its system identifier is
+     *            used to resolve relative references.
+     * @param phase
+     *            The phase to invoke (if null or empty, the default phase
+     *            applies).
+     * @throws SAXException
+     *             If the schema cannot be compiled.
+     */
+    public CompiledSchematron(Source schema, String phase) throws SAXException {
+        this(schema.getSystemId(), phase, compileStylesheet(generateStylesheet(schema, phase).asSource()));
+    }
+
+    private CompiledSchematron(String systemId, String phase, XsltExecutable executable) {
+        this.systemId = systemId;
+        this.phase = (null != phase) ? phase : "";
+        this.executable = executable;
+    }
+
+    /**
+     * Creates a compiled schema from a stylesheet that was previously
+     * generated from a Schematron schema (see {@link SchematronCompiler}).
+     * Only the stylesheet itself needs to be compiled.
+     *
+     * @param stylesheet
+     *            A Source for reading the generated XSLT stylesheet.
+     * @param phase
+     *            The phase for which the stylesheet was generated.
+     * @return A CompiledSchematron object.
+     * @throws SAXException
+     *             If the stylesheet cannot be read or compiled.
+     */
+    public static CompiledSchematron fromStylesheet(Source stylesheet, String phase) throws SAXException {
+        return new CompiledSchematron(stylesheet.getSystemId(), phase, compileStylesheet(stylesheet));
+    }
+
+    /**
+     * Transforms a Schematron schema to an XSLT stylesheet using the ISO
+     * skeleton implementation (include, abstract expansion, SVRL report).
+     */
+    static XdmNode generateStylesheet(Source schema, String phase) throws SAXException {
+        DiagnosticCollector diagnostics = new DiagnosticCollector();
+        try {
+            XsltTransformer include = load(SKELETON[0]);
+            XsltTransformer expand = load(SKELETON[1]);
+            XsltTransformer report = load(SKELETON[2]);
+            // the skeleton reports problems using xsl:message
+            for (XsltTransformer transformer : new XsltTransformer[] { include, expand, report }) {
+                transformer.setMessageListener(diagnostics);
+                transformer.getUnderlyingController().setErrorListener(diagnostics);
+            }
+            XdmDestination stylesheet = new XdmDestination();
+            include.setSource(schema);
+            include.setDestination(expand);
+            expand.setDestination(report);
+            report.setDestination(stylesheet);
+            if (null != phase && !phase.isEmpty()) {
+                report.setParameter(new QName("phase"), new XdmAtomicValue(phase));
+            }
+            include.transform();
+            return stylesheet.getXdmNode();
+        } catch (SaxonApiException e) {
+            throw new SAXException(diagnostics.toString() + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes a generated stylesheet to a file.
+     */
+    static void writeStylesheet(XdmNode stylesheet, File file) throws SAXException {
+        Serializer serializer = PROCESSOR.newSerializer(file);
+        try {
+            PROCESSOR.writeXdmValue(stylesheet, serializer);
+        } catch (SaxonApiException e) {
+            throw new SAXException("Failed to write stylesheet to " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static XsltExecutable compileStylesheet(Source stylesheet) throws SAXException {
+        XsltCompiler compiler = newXsltCompiler();
+        DiagnosticCollector errors = new DiagnosticCollector();
+        compiler.setErrorListener(errors);
+        try {
+            return compiler.compile(stylesheet);
+        } catch (SaxonApiException e) {
+            throw new SAXException("Failed to compile stylesheet: " + errors + e.getMessage(), e);
+        }
+    }
+
+    private static Source skeletonSource(String name) {
+        URL url = SchematronValidator.class.getResource(name);
+        return new StreamSource(url.toString());
+    }
+
+    /**
+     * Returns the system identifier of the schema.
+     *
+     * @return A URI reference (may be null).
+     */
+    public String getSystemId() {
+        return systemId;
+    }
+
+    /**
+     * Returns the phase that was compiled.
+     *
+     * @return The phase name, or an empty string if the default phase
+     *         applies.
+     */
+    public String getPhase() {
+        return phase;
+    }
+
+    /**
+     * Creates a new validator that uses this schema. A validator must not be
+     * used by more than one thread at a time.
+     *
+     * @return A CompiledSchematronValidator.
+     */
+    public CompiledSchematronValidator newValidator() {
+        return new CompiledSchematronValidator(load(this.executable), VIOLATION_COUNT.load());
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledSchematron[" + this.systemId + (this.phase.isEmpty() ? "" : ", phase=" + this.phase) + ']';
+    }
+
+    /**
+     * Collects the errors and messages reported while generating or compiling
+     * a stylesheet (warnings are ignored). Each is written on a separate line.
+     */
+    private static class DiagnosticCollector implements ErrorListener, MessageListener {
+
+        private final StringBuilder diagnostics = new StringBuilder();
+
+        @Override
+        public void warning(TransformerException exception) {
+        }
+
+        @Override
+        public void error(TransformerException exception) {
+            diagnostics.append(exception.getMessageAndLocation()).append('\n');
+        }
+
+        @Override
+        public void fatalError(TransformerException exception) {
+            diagnostics.append(exception.getMessageAndLocation()).append('\n');
+        }
+
+        @Override
+        public void message(XdmNode content, boolean terminate, SourceLocator locator) {
+            diagnostics.append(content.getStringValue()).append('\n');
+        }
+
+        @Override
+        public String toString() {
+            return diagnostics.toString();
+        }
+    }
+}
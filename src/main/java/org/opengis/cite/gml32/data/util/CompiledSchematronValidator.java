@@ -0,0 +1,116 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.util.Map;
+import java.util.logging.Level;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+
+import net.sf.saxon.dom.NodeOverNodeInfo;
+import net.sf.saxon.s9api.QName;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmAtomicValue;
+import net.sf.saxon.s9api.XdmDestination;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XsltTransformer;
+
+import org.w3c.dom.Node;
+
+/**
+ * Checks XML resources against the rules in a {@link CompiledSchematron}
+ * schema. It offers the same operations as
+ * {@link org.opengis.cite.validation.SchematronValidator SchematronValidator}
+ * but does not compile the schema. A validator is not thread-safe, but it may
+ * be used repeatedly.
+ */
+public class CompiledSchematronValidator {
+
+    private final XsltTransformer transformer;
+    private final XPathSelector violationCount;
+    private int ruleViolations;
+
+    CompiledSchematronValidator(XsltTransformer transformer, XPathSelector violationCount) {
+        this.transformer = transformer;
+        this.violationCount = violationCount;
+    }
+
+    /**
+     * Sets stylesheet parameters that are passed to the compiled schema.
+     *
+     * @param params
+     *            A collection of parameters (name-value pairs).
+     */
+    public void setParameters(Map<String, String> params) {
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            this.transformer.setParameter(new QName(param.getKey()), new XdmAtomicValue(param.getValue()));
+        }
+    }
+
+    /**
+     * Validates an XML resource. The number of rule violations can be obtained
+     * afterwards by calling {@link #getRuleViolationCount()}.
+     *
+     * @param source
+     *            The XML Source to be validated.
+     * @return A DOMResult containing the validation results (SVRL).
+     */
+    public DOMResult validate(Source source) {
+        if (null == source) {
+            throw new IllegalArgumentException("Nothing to validate.");
+        }
+        this.ruleViolations = 0;
+        XdmDestination results = new XdmDestination();
+        try {
+            this.transformer.setSource(unwrap(source));
+            this.transformer.setDestination(results);
+            this.transformer.transform();
+            this.violationCount.setContextItem(results.getXdmNode());
+            XdmItem count = this.violationCount.evaluateSingle();
+            this.ruleViolations = Integer.parseInt(count.getStringValue());
+        } catch (SaxonApiException e) {
+            TestSuiteLogger.log(Level.WARNING, "Failed to apply Schematron rules: " + e.getMessage());
+        }
+        if (null == results.getXdmNode()) {
+            return new DOMResult();
+        }
+        return new DOMResult(NodeOverNodeInfo.wrap(results.getXdmNode().getUnderlyingNode()));
+    }
+
+    /**
+     * Returns the underlying tree if the source is a DOM view of a Saxon
+     * document (see {@link XdmStreamBuilder#asDocument}), so that it is
+     * processed directly instead of being copied.
+     */
+    private static Source unwrap(Source source) {
+        if (source instanceof DOMSource) {
+            Node node = ((DOMSource) source).getNode();
+            if (node instanceof NodeOverNodeInfo) {
+                return ((NodeOverNodeInfo) node).getUnderlyingNodeInfo();
+            }
+        }
+        return source;
+    }
+
+    /**
+     * Returns the number of rule violations (failed assertions and successful
+     * reports) detected by the last validation.
+     *
+     * @return The number of rule violations.
+     */
+    public int getRuleViolationCount() {
+        return ruleViolations;
+    }
+
+    /**
+     * Indicates whether or not the last validation detected any rule
+     * violations.
+     *
+     * @return {@code true} if at least one rule was violated; {@code false}
+     *         otherwise.
+     */
+    public boolean ruleViolationsDetected() {
+        return this.ruleViolations > 0;
+    }
+}
@@ -0,0 +1,91 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Handles compressed content. A compressed resource is stored as received
+ * (or as found, in the case of a local file such as <code>data.gml.gz</code>)
+ * and is decompressed as it is read, so an inflated copy is never written to
+ * disk.
+ *
+ * <p>
+ * The following codings are recognized by their leading bytes, irrespective
+ * of the file name or the Content-Encoding header:
+ * </p>
+ * <ul>
+ * <li>gzip (<a href="https://tools.ietf.org/html/rfc1952">RFC 1952</a>);</li>
+ * <li>deflate, which uses the zlib format
+ * (<a href="https://tools.ietf.org/html/rfc1950">RFC 1950</a>).</li>
+ * </ul>
+ * <p>
+ * An XML document cannot begin with the same bytes, so other content is
+ * passed through unchanged.
+ * </p>
+ */
+public class ContentEncoding {
+
+    /**
+     * The value of the Accept-Encoding request header.
+     */
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+    private static final int BUFFER_SIZE = 65536;
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * Returns a stream that reads the decompressed content of the given
+     * stream.
+     *
+     * @param input
+     *            An InputStream that supplies (possibly compressed) content.
+     * @return An InputStream for reading the decoded content; this is a
+     *         buffered stream if the content is not compressed.
+     * @throws IOException
+     *             If the stream cannot be read or the gzip header is invalid.
+     */
+    public static InputStream decode(InputStream input) throws IOException {
+        InputStream buffered = new BufferedInputStream(input, BUFFER_SIZE);
+        buffered.mark(2);
+        int b0 = buffered.read();
+        int b1 = buffered.read();
+        buffered.reset();
+        if (isGzip(b0, b1)) {
+            TestSuiteLogger.log(Level.FINE, "Reading gzip-compressed content.");
+            return new GZIPInputStream(buffered, BUFFER_SIZE);
+        }
+        if (isZlib(b0, b1)) {
+            TestSuiteLogger.log(Level.FINE, "Reading deflate-compressed content.");
+            final Inflater inflater = new Inflater();
+            return new InflaterInputStream(buffered, inflater, BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+        return buffered;
+    }
+
+    private static boolean isGzip(int b0, int b1) {
+        return b0 == 0x1f && b1 == 0x8b;
+    }
+
+    /**
+     * Checks for a zlib header: the compression method is 8 (deflate) with a
+     * window size of at most 32 KiB, and the header check bits are valid.
+     */
+    private static boolean isZlib(int b0, int b1) {
+        return b0 >= 0 && b1 >= 0 && (b0 & 0x0f) == 8 && (b0 >> 4) <= 7 && ((b0 << 8) | b1) % 31 == 0;
+    }
+}
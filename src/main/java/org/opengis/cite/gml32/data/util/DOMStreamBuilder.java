@@ -0,0 +1,117 @@
+package org.opengis.cite.gml32.data.util;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * A listener that builds a (namespace-aware) DOM Document from the events
+ * reported by a stream reader. Namespace declarations are retained as
+ * attributes.
+ */
+public class DOMStreamBuilder implements XMLStreamListener {
+
+    private final Document document;
+    private Node currentNode;
+
+    /**
+     * Constructs a builder for a new document.
+     *
+     * @param documentURI
+     *            The location of the document (may be null).
+     */
+    public DOMStreamBuilder(String documentURI) {
+        this(newDocument());
+        this.document.setDocumentURI(documentURI);
+    }
+
+    /**
+     * Constructs a builder that adds content to the given (empty) document.
+     *
+     * @param document
+     *            A DOM Document that has no children.
+     */
+    public DOMStreamBuilder(Document document) {
+        this.document = document;
+        this.currentNode = document;
+    }
+
+    private static Document newDocument() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        try {
+            return factory.newDocumentBuilder().newDocument();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the document that has been built so far.
+     *
+     * @return A DOM Document.
+     */
+    public Document getDocument() {
+        return document;
+    }
+
+    @Override
+    public void handleEvent(XMLStreamReader reader) throws XMLStreamException {
+        switch (reader.getEventType()) {
+        case XMLStreamConstants.START_ELEMENT:
+            Element elem = this.document.createElementNS(emptyToNull(reader.getNamespaceURI()),
+                    qualifiedName(reader.getPrefix(), reader.getLocalName()));
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                String prefix = emptyToNull(reader.getNamespacePrefix(i));
+                String nsURI = reader.getNamespaceURI(i);
+                elem.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                        (null == prefix) ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ':' + prefix,
+                        (null != nsURI) ? nsURI : "");
+            }
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                elem.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+                        qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                        reader.getAttributeValue(i));
+            }
+            this.currentNode.appendChild(elem);
+            this.currentNode = elem;
+            break;
+        case XMLStreamConstants.END_ELEMENT:
+            this.currentNode = this.currentNode.getParentNode();
+            break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.SPACE:
+            if (this.currentNode != this.document) {
+                this.currentNode.appendChild(this.document.createTextNode(reader.getText()));
+            }
+            break;
+        case XMLStreamConstants.CDATA:
+            this.currentNode.appendChild(this.document.createCDATASection(reader.getText()));
+            break;
+        case XMLStreamConstants.COMMENT:
+            this.currentNode.appendChild(this.document.createComment(reader.getText()));
+            break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            this.currentNode.appendChild(
+                    this.document.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+            break;
+        default:
+            break;
+        }
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return (null == prefix || prefix.isEmpty()) ? localName : prefix + ':' + localName;
+    }
+
+    private static String emptyToNull(String value) {
+        return (null == value || value.isEmpty()) ? null : value;
+    }
+}
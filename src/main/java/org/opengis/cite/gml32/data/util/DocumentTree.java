@@ -0,0 +1,161 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.logging.Level;
+
+import javax.xml.transform.stream.StreamSource;
+
+import net.sf.saxon.s9api.DocumentBuilder;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+
+import org.w3c.dom.Document;
+
+/**
+ * A compact, read-only representation of the test subject that is shared by
+ * all tests in a run. The document is parsed at most once, when the tree is
+ * first requested, into a Saxon TinyTree; this requires several times less
+ * memory than a W3C DOM Document. If the document is read for some other
+ * purpose beforehand (see
+ * {@link org.opengis.cite.gml32.data.document.DocumentPipeline
+ * DocumentPipeline}), a tree built while doing so may be supplied instead.
+ *
+ * <p>
+ * The tree is immutable and may be queried concurrently, using either the
+ * Saxon s9api interfaces or a read-only DOM view. Since it belongs to the
+ * shared Saxon configuration (see {@link SaxonCache}), it can be passed to any
+ * compiled XPath expression, query or stylesheet without being copied.
+ * </p>
+ */
+public class DocumentTree {
+
+    private final File file;
+    private final SpooledDownload download;
+    private final URI systemId;
+    private XdmNode node;
+    private SaxonApiException buildFailure;
+
+    /**
+     * Creates a tree for the document in the given file.
+     *
+     * @param file
+     *            A file containing an XML document (possibly compressed).
+     * @param systemId
+     *            The location of the document; this is used to resolve
+     *            relative references (if null, the file location is used).
+     */
+    public DocumentTree(File file, URI systemId) {
+        this.file = file;
+        this.download = null;
+        this.systemId = (null != systemId) ? systemId : file.toURI();
+    }
+
+    /**
+     * Creates a tree for a document that may still be arriving.
+     *
+     * @param download
+     *            A download of an XML document.
+     * @param systemId
+     *            The location of the document.
+     */
+    public DocumentTree(SpooledDownload download, URI systemId) {
+        this.file = null;
+        this.download = download;
+        this.systemId = systemId;
+    }
+
+    /**
+     * Returns the document node, parsing the document if necessary.
+     *
+     * @return The document node of an immutable tree.
+     * @throws SaxonApiException
+     *             If the document cannot be read or is not well-formed (the
+     *             same exception is thrown by subsequent invocations).
+     */
+    public synchronized XdmNode getNode() throws SaxonApiException {
+        if (null == this.node && null == this.buildFailure) {
+            DocumentBuilder builder = SaxonCache.getProcessor().newDocumentBuilder();
+            try (InputStream input = openStream()) {
+                this.node = builder.build(new StreamSource(input, this.systemId.toString()));
+                TestSuiteLogger.log(Level.FINE, "Built document tree for " + this.systemId);
+            } catch (IOException e) {
+                this.buildFailure = new SaxonApiException(e);
+            } catch (SaxonApiException e) {
+                this.buildFailure = e;
+            }
+        }
+        if (null != this.buildFailure) {
+            throw this.buildFailure;
+        }
+        return this.node;
+    }
+
+    /**
+     * Opens a stream for reading the (decompressed) document, so that it can
+     * be processed in streaming mode without building the tree.
+     *
+     * @return An InputStream; the caller is responsible for closing it.
+     * @throws IOException
+     *             If the document cannot be read.
+     */
+    public InputStream openStream() throws IOException {
+        return ContentEncoding
+                .decode((null != this.download) ? this.download.openStream() : new FileInputStream(this.file));
+    }
+
+    /**
+     * Returns a read-only DOM view of the tree, parsing the document if
+     * necessary. Any attempt to modify it raises a DOMException.
+     *
+     * @return An immutable DOM Document.
+     * @throws SaxonApiException
+     *             If the document cannot be read or is not well-formed.
+     */
+    public Document getDocument() throws SaxonApiException {
+        return XdmStreamBuilder.asDocument(getNode());
+    }
+
+    /**
+     * Supplies a tree that was built while reading the document for some other
+     * purpose. It is used only if the tree has not already been built.
+     *
+     * @param tree
+     *            The document node of a tree built from the same document.
+     * @return {@code true} if the tree was accepted; {@code false} otherwise.
+     */
+    public synchronized boolean offer(XdmNode tree) {
+        if (null != this.node || null != this.buildFailure) {
+            return false;
+        }
+        this.node = tree;
+        return true;
+    }
+
+    /**
+     * Returns the location of the document.
+     *
+     * @return An absolute URI.
+     */
+    public URI getSystemId() {
+        return this.systemId;
+    }
+
+    /**
+     * Indicates whether or not the tree has been built (or supplied).
+     *
+     * @return {@code true} if the tree is available without parsing;
+     *         {@code false} otherwise.
+     */
+    public synchronized boolean isBuilt() {
+        return null != this.node;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentTree[" + this.systemId + (isBuilt() ? ", built" : "") + "]";
+    }
+}
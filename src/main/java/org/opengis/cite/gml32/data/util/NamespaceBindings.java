@@ -10,22 +10,17 @@ import org.opengis.cite.gml32.data.Namespaces;
 
 /**
  * Provides namespace bindings for evaluating XPath 1.0 expressions using the
- * JAXP XPath API. A namespace name (URI) may be bound to only one prefix.
+ * JAXP XPath API. A namespace name (URI) may be bound to only one prefix. Both
+ * prefix and namespace name lookups take constant time.
  */
 public class NamespaceBindings implements NamespaceContext {
 
     private Map<String, String> bindings = new HashMap<String, String>();
+    private Map<String, String> namespaces = new HashMap<String, String>();
 
     @Override
     public String getNamespaceURI(String prefix) {
-        String nsName = null;
-        for (Map.Entry<String, String> binding : bindings.entrySet()) {
-            if (binding.getValue().equals(prefix)) {
-                nsName = binding.getKey();
-                break;
-            }
-        }
-        return nsName;
+        return namespaces.get(prefix);
     }
 
     @Override
@@ -49,7 +44,11 @@ public class NamespaceBindings implements NamespaceContext {
      *            A prefix associated with the namespace name.
      */
     public void addNamespaceBinding(String namespaceURI, String prefix) {
-        bindings.put(namespaceURI, prefix);
+        String oldPrefix = bindings.put(namespaceURI, prefix);
+        if (null != oldPrefix && namespaceURI.equals(namespaces.get(oldPrefix))) {
+            namespaces.remove(oldPrefix);
+        }
+        namespaces.put(prefix, namespaceURI);
     }
 
     /**
@@ -62,8 +61,12 @@ public class NamespaceBindings implements NamespaceContext {
      *            value denotes the associated prefix.
      */
     public void addAllBindings(Map<String, String> nsBindings) {
-        if (null != nsBindings)
-            bindings.putAll(nsBindings);
+        if (null == nsBindings) {
+            return;
+        }
+        for (Map.Entry<String, String> binding : nsBindings.entrySet()) {
+            addNamespaceBinding(binding.getKey(), binding.getValue());
+        }
     }
 
     /**
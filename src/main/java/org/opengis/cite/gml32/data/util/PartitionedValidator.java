@@ -0,0 +1,726 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.validation.Schema;
+import javax.xml.validation.ValidatorHandler;
+
+import org.opengis.cite.gml32.data.Namespaces;
+import org.opengis.cite.validation.ValidationErrorHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Validates a (large) feature collection by splitting it into partitions that
+ * are validated concurrently. The content of every member property element
+ * (<code>gml:featureMember</code>, <code>wfs:member</code>) that is a child of
+ * the document element forms a partition; it is validated against the shared
+ * {@link Schema} as if it were a document by itself. The remaining content
+ * (the container "envelope", with empty member properties) is validated by
+ * the calling thread while the document is being read. Errors are merged and
+ * reported in document order.
+ *
+ * <p>
+ * Since partitions are validated separately, ID values that occur in more than
+ * one partition are detected by the partitioner (for <code>gml:id</code>
+ * attributes only). Other document-wide constraints such as IDREF bindings or
+ * identity constraints defined for the container cannot be checked across
+ * partitions.
+ * </p>
+ *
+ * <p>
+ * The number of worker threads is set using the system property
+ * {@value #PARALLELISM_PROPERTY}; partitioning is enabled only if the value is
+ * greater than 1 (default: {@value #DEFAULT_PARALLELISM}).
+ * </p>
+ */
+public class PartitionedValidator {
+
+    /**
+     * Name of the system property that specifies the number of threads used
+     * to validate partitions.
+     */
+    public static final String PARALLELISM_PROPERTY = "org.opengis.cite.gml32.data.validation.parallelism";
+    /**
+     * The default number of threads (partitioning is disabled).
+     */
+    public static final int DEFAULT_PARALLELISM = 1;
+    private static final Set<QName> MEMBER_ELEMENTS = new HashSet<QName>(
+            Arrays.asList(new QName(Namespaces.GML, "featureMember"), new QName(Namespaces.WFS, "member")));
+    private static final QName GML_ID = new QName(Namespaces.GML, "id");
+    /** Approximate number of events in a batch of partitions. */
+    static final int BATCH_SIZE = 8192;
+    private static ForkJoinPool sharedPool;
+    private final Schema schema;
+    private final ForkJoinPool pool;
+    private final int maxPendingBatches;
+
+    /**
+     * Returns the configured number of threads used to validate partitions.
+     *
+     * @return The parallelism level (partitioning is disabled if the value is
+     *         less than 2).
+     */
+    public static int getParallelism() {
+        return Integer.getInteger(PARALLELISM_PROPERTY, DEFAULT_PARALLELISM);
+    }
+
+    private static synchronized ForkJoinPool getSharedPool() {
+        if (null == sharedPool) {
+            sharedPool = new ForkJoinPool(Math.max(1, getParallelism()));
+        }
+        return sharedPool;
+    }
+
+    /**
+     * Constructs a validator that uses the shared worker pool.
+     *
+     * @param schema
+     *            The (thread-safe) schema to validate against.
+     */
+    public PartitionedValidator(Schema schema) {
+        this(schema, getSharedPool());
+    }
+
+    /**
+     * Constructs a validator that uses the given worker pool.
+     *
+     * @param schema
+     *            The (thread-safe) schema to validate against.
+     * @param pool
+     *            The pool used to validate partitions.
+     */
+    PartitionedValidator(Schema schema, ForkJoinPool pool) {
+        this.schema = schema;
+        this.pool = pool;
+        this.maxPendingBatches = 2 * pool.getParallelism();
+    }
+
+    /**
+     * Validates the document read by the given reader, which must be
+     * positioned at the start tag of the document element. The reader is
+     * advanced to the end tag of the document element (or to the point where
+     * validation was stopped).
+     *
+     * @param reader
+     *            An XMLStreamReader positioned at the document element.
+     * @param errHandler
+     *            The handler to which all errors are reported in document
+     *            order; it may stop validation by throwing an unchecked
+     *            exception (see {@link BoundedErrorHandler}).
+     * @throws SAXException
+     *             If the document cannot be read or validated.
+     */
+    public void validate(XMLStreamReader reader, ValidationErrorHandler errHandler) throws SAXException {
+        if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+            throw new IllegalArgumentException("Reader is not positioned at the document element.");
+        }
+        Partitioner partitioner = new Partitioner(reader, errHandler);
+        try {
+            partitioner.run();
+        } catch (XMLStreamException e) {
+            throw new SAXException("Failed to read document: " + e.getMessage(), e);
+        } finally {
+            partitioner.cancel();
+        }
+    }
+
+    /**
+     * Validates the partitions in a batch (on a worker thread). A single
+     * validator handler is used for all partitions in the batch; the locator
+     * must be set for each one since it is cleared at the end of a document.
+     */
+    private List<Report> validateBatch(Batch batch) throws SAXException {
+        List<Report> reports = new ArrayList<Report>();
+        ValidatorHandler handler = this.schema.newValidatorHandler();
+        handler.setErrorHandler(new ReportCollector(reports));
+        MutableLocator locator = new MutableLocator(batch.systemId);
+        AttributesImpl attributes = new AttributesImpl();
+        for (Partition partition : batch.partitions) {
+            handler.setDocumentLocator(locator);
+            handler.startDocument();
+            partition.replay(handler, locator, attributes, true);
+            handler.endDocument();
+        }
+        return reports;
+    }
+
+    static String qualifiedName(QName name) {
+        String prefix = name.getPrefix();
+        return (null == prefix || prefix.isEmpty()) ? name.getLocalPart() : prefix + ':' + name.getLocalPart();
+    }
+
+    /**
+     * Returns a value that orders locations in a document.
+     */
+    static long position(int line, int column) {
+        return ((long) Math.max(0, line) << 32) | Math.max(0, column);
+    }
+
+    /**
+     * Reads the document, validates the envelope, and dispatches partitions
+     * to the worker pool. SAX events are pushed directly to the validator
+     * handlers in order to avoid creating intermediate event objects.
+     */
+    private final class Partitioner {
+
+        private final XMLStreamReader reader;
+        private final ValidationErrorHandler target;
+        private final ValidatorHandler envelope;
+        private final MutableLocator locator;
+        private final Deque<List<String>> nsStack = new ArrayDeque<List<String>>();
+        private final Deque<Batch> pending = new ArrayDeque<Batch>();
+        private final List<Report> envelopeReports = new ArrayList<Report>();
+        private final Set<String> envelopeIds = new HashSet<String>();
+        private final Set<String> partitionIds = new HashSet<String>();
+        private final Set<String> currentIds = new HashSet<String>();
+        private final AttributesImpl attributes = new AttributesImpl();
+        private Batch openBatch;
+
+        Partitioner(XMLStreamReader reader, ValidationErrorHandler target) {
+            this.reader = reader;
+            this.target = target;
+            this.locator = new MutableLocator(reader.getLocation().getSystemId());
+            this.envelope = schema.newValidatorHandler();
+            this.envelope.setErrorHandler(new ReportCollector(this.envelopeReports));
+            this.envelope.setDocumentLocator(this.locator);
+        }
+
+        void run() throws XMLStreamException, SAXException {
+            setLocation();
+            this.envelope.startDocument();
+            startEnvelopeElement();
+            int depth = 1;
+            while (depth > 0) {
+                switch (this.reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    startEnvelopeElement();
+                    if (depth == 2 && MEMBER_ELEMENTS.contains(this.reader.getName())) {
+                        readMember();
+                        depth--;
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    endEnvelopeElement();
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    setLocation();
+                    this.envelope.characters(this.reader.getTextCharacters(), this.reader.getTextStart(),
+                            this.reader.getTextLength());
+                    break;
+                default:
+                    // comments and processing instructions are not relevant
+                    break;
+                }
+                drain(false);
+            }
+            this.envelope.endDocument();
+            flushBatch();
+            drain(true);
+            forwardEnvelopeReports(Long.MAX_VALUE);
+        }
+
+        private void startEnvelopeElement() throws SAXException {
+            List<String> declared = declaredNamespaces();
+            this.nsStack.push(declared);
+            for (int i = 0; i < declared.size(); i += 2) {
+                this.envelope.startPrefixMapping(declared.get(i), declared.get(i + 1));
+            }
+            this.attributes.clear();
+            for (int i = 0; i < this.reader.getAttributeCount(); i++) {
+                QName attrName = this.reader.getAttributeName(i);
+                String value = this.reader.getAttributeValue(i);
+                this.attributes.addAttribute(attrName.getNamespaceURI(), attrName.getLocalPart(),
+                        qualifiedName(attrName), "CDATA", value);
+                if (attrName.equals(GML_ID)) {
+                    checkId(value, false, attrName);
+                }
+            }
+            setLocation();
+            QName name = this.reader.getName();
+            this.envelope.startElement(name.getNamespaceURI(), name.getLocalPart(), qualifiedName(name),
+                    this.attributes);
+        }
+
+        private void endEnvelopeElement() throws SAXException {
+            setLocation();
+            QName name = this.reader.getName();
+            this.envelope.endElement(name.getNamespaceURI(), name.getLocalPart(), qualifiedName(name));
+            List<String> declared = this.nsStack.pop();
+            for (int i = 0; i < declared.size(); i += 2) {
+                this.envelope.endPrefixMapping(declared.get(i));
+            }
+        }
+
+        /**
+         * Records the content of a member property element, which becomes a
+         * partition if it consists of a single element. Otherwise the content
+         * is passed on to the envelope validator, which reports the problem.
+         */
+        private void readMember() throws XMLStreamException, SAXException {
+            Partition partition = new Partition(this.nsStack);
+            int elementCount = 0;
+            boolean hasText = false;
+            int memberDepth = 0;
+            while (true) {
+                int eventType = this.reader.next();
+                if (eventType == XMLStreamConstants.START_ELEMENT) {
+                    if (memberDepth == 0) {
+                        elementCount++;
+                    }
+                    memberDepth++;
+                    partition.startElement(this.reader, declaredNamespaces());
+                    for (int i = 0; i < this.reader.getAttributeCount(); i++) {
+                        QName attrName = this.reader.getAttributeName(i);
+                        if (attrName.equals(GML_ID)) {
+                            checkId(this.reader.getAttributeValue(i), true, attrName);
+                        }
+                    }
+                } else if (eventType == XMLStreamConstants.END_ELEMENT) {
+                    if (memberDepth == 0) {
+                        break;
+                    }
+                    memberDepth--;
+                    partition.endElement(this.reader);
+                } else if (eventType == XMLStreamConstants.CHARACTERS || eventType == XMLStreamConstants.CDATA
+                        || eventType == XMLStreamConstants.SPACE) {
+                    boolean ignorable = memberDepth == 0 && this.reader.isWhiteSpace();
+                    if (memberDepth == 0 && !ignorable) {
+                        hasText = true;
+                    }
+                    if (!ignorable) {
+                        partition.characters(this.reader);
+                    }
+                }
+            }
+            this.partitionIds.addAll(this.currentIds);
+            this.currentIds.clear();
+            if (elementCount == 1 && !hasText) {
+                addPartition(partition);
+            } else {
+                partition.replay(this.envelope, this.locator, this.attributes, false);
+            }
+            // end tag of member property element
+            endEnvelopeElement();
+        }
+
+        private List<String> declaredNamespaces() {
+            int count = this.reader.getNamespaceCount();
+            if (count == 0) {
+                return Partition.NO_NAMESPACES;
+            }
+            List<String> declared = new ArrayList<String>(2 * count);
+            for (int i = 0; i < count; i++) {
+                String prefix = this.reader.getNamespacePrefix(i);
+                declared.add((null != prefix) ? prefix : XMLConstants.DEFAULT_NS_PREFIX);
+                String nsURI = this.reader.getNamespaceURI(i);
+                declared.add((null != nsURI) ? nsURI : XMLConstants.NULL_NS_URI);
+            }
+            return declared;
+        }
+
+        private void addPartition(Partition partition) throws SAXException {
+            if (null == this.openBatch) {
+                this.openBatch = new Batch(this.locator.systemId, partition.start());
+            }
+            this.openBatch.partitions.add(partition);
+            this.openBatch.size += partition.size();
+            this.openBatch.end = partition.end();
+            if (this.openBatch.size >= BATCH_SIZE) {
+                flushBatch();
+            }
+        }
+
+        private void flushBatch() throws SAXException {
+            if (null == this.openBatch) {
+                return;
+            }
+            while (this.pending.size() >= maxPendingBatches) {
+                drainHead();
+            }
+            final Batch batch = this.openBatch;
+            this.openBatch = null;
+            batch.future = pool.submit(new Callable<List<Report>>() {
+                @Override
+                public List<Report> call() throws Exception {
+                    return validateBatch(batch);
+                }
+            });
+            this.pending.add(batch);
+        }
+
+        /**
+         * Forwards the reports that can be placed in document order: those
+         * from completed batches (or all batches if wait is true), and those
+         * from the envelope that precede any unfinished partition.
+         */
+        private void drain(boolean wait) throws SAXException {
+            while (!this.pending.isEmpty() && (wait || this.pending.peek().future.isDone())) {
+                drainHead();
+            }
+            if (this.pending.isEmpty() && !this.envelopeReports.isEmpty()) {
+                long bound = position(this.locator.line, this.locator.column);
+                if (null != this.openBatch) {
+                    bound = Math.min(bound, this.openBatch.start - 1);
+                }
+                forwardEnvelopeReports(bound);
+            }
+        }
+
+        private void drainHead() throws SAXException {
+            Batch batch = this.pending.poll();
+            List<Report> reports;
+            try {
+                reports = batch.future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SAXException("Interrupted while validating partitions.", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SAXException) {
+                    throw (SAXException) cause;
+                }
+                throw new SAXException("Failed to validate partition: " + cause.getMessage(),
+                        (cause instanceof Exception) ? (Exception) cause : e);
+            }
+            for (Report report : reports) {
+                forwardEnvelopeReports(report.position);
+                report.replay(this.target);
+            }
+            forwardEnvelopeReports(batch.end);
+        }
+
+        private void forwardEnvelopeReports(long bound) throws SAXException {
+            Iterator<Report> itr = this.envelopeReports.iterator();
+            while (itr.hasNext()) {
+                Report report = itr.next();
+                if (report.position > bound) {
+                    break;
+                }
+                itr.remove();
+                report.replay(this.target);
+            }
+        }
+
+        void cancel() {
+            for (Batch batch : this.pending) {
+                batch.future.cancel(false);
+            }
+            this.pending.clear();
+        }
+
+        /**
+         * Checks for gml:id values that occur in more than one partition (or
+         * in a partition and the envelope). Duplicates within the envelope or
+         * within a single partition are detected by the validators.
+         */
+        private void checkId(String id, boolean inPartition, QName attrName) {
+            boolean duplicate = inPartition
+                    ? !this.currentIds.contains(id) && (this.partitionIds.contains(id) || this.envelopeIds.contains(id))
+                    : this.partitionIds.contains(id);
+            if (duplicate) {
+                Location loc = this.reader.getLocation();
+                // same errors as reported by Xerces
+                String msg = String.format("cvc-id.2: There are multiple occurrences of ID value '%s'.", id);
+                addEnvelopeReport(new SAXParseException(msg, null, loc.getSystemId(), loc.getLineNumber(),
+                        loc.getColumnNumber()));
+                msg = String.format(
+                        "cvc-attribute.3: The value '%s' of attribute '%s' on element '%s' is not valid with respect to its type, 'ID'.",
+                        id, qualifiedName(attrName), qualifiedName(this.reader.getName()));
+                addEnvelopeReport(new SAXParseException(msg, null, loc.getSystemId(), loc.getLineNumber(),
+                        loc.getColumnNumber()));
+            }
+            if (inPartition) {
+                this.currentIds.add(id);
+            } else {
+                this.envelopeIds.add(id);
+            }
+        }
+
+        private void addEnvelopeReport(SAXParseException spe) {
+            Report report = new Report(Report.ERROR, spe);
+            int index = this.envelopeReports.size();
+            while (index > 0 && this.envelopeReports.get(index - 1).position > report.position) {
+                index--;
+            }
+            this.envelopeReports.add(index, report);
+        }
+
+        private void setLocation() {
+            Location loc = this.reader.getLocation();
+            this.locator.line = loc.getLineNumber();
+            this.locator.column = loc.getColumnNumber();
+        }
+    }
+
+    /**
+     * The recorded content of a member property element. Only the information
+     * needed to replay it to a {@link ValidatorHandler} is kept.
+     */
+    private static final class Partition {
+
+        static final List<String> NO_NAMESPACES = new ArrayList<String>(0);
+        private static final Object END = new Object();
+        /** Namespace bindings in scope at the member property element. */
+        private final List<String> inScope = new ArrayList<String>();
+        /** Start tags, END markers, and text (char[]). */
+        private final List<Object> items = new ArrayList<Object>();
+        private int[] lines = new int[16];
+        private int[] columns = new int[16];
+
+        Partition(Deque<List<String>> nsStack) {
+            Iterator<List<String>> itr = nsStack.descendingIterator();
+            while (itr.hasNext()) {
+                this.inScope.addAll(itr.next());
+            }
+        }
+
+        int size() {
+            return this.items.size();
+        }
+
+        long start() {
+            return this.items.isEmpty() ? 0 : position(this.lines[0], this.columns[0]);
+        }
+
+        long end() {
+            int last = this.items.size() - 1;
+            return (last < 0) ? 0 : position(this.lines[last], this.columns[last]);
+        }
+
+        void startElement(XMLStreamReader reader, List<String> declared) {
+            QName name = reader.getName();
+            int attrCount = reader.getAttributeCount();
+            String[] atts = new String[4 * attrCount];
+            for (int i = 0; i < attrCount; i++) {
+                QName attrName = reader.getAttributeName(i);
+                atts[4 * i] = attrName.getNamespaceURI();
+                atts[4 * i + 1] = attrName.getLocalPart();
+                atts[4 * i + 2] = qualifiedName(attrName);
+                atts[4 * i + 3] = reader.getAttributeValue(i);
+            }
+            add(new Tag(name.getNamespaceURI(), name.getLocalPart(), qualifiedName(name), declared, atts),
+                    reader.getLocation());
+        }
+
+        void endElement(XMLStreamReader reader) {
+            add(END, reader.getLocation());
+        }
+
+        void characters(XMLStreamReader reader) {
+            int start = reader.getTextStart();
+            char[] text = Arrays.copyOfRange(reader.getTextCharacters(), start, start + reader.getTextLength());
+            add(text, reader.getLocation());
+        }
+
+        private void add(Object item, Location loc) {
+            int index = this.items.size();
+            if (index == this.lines.length) {
+                this.lines = Arrays.copyOf(this.lines, 2 * index);
+                this.columns = Arrays.copyOf(this.columns, 2 * index);
+            }
+            this.lines[index] = loc.getLineNumber();
+            this.columns[index] = loc.getColumnNumber();
+            this.items.add(item);
+        }
+
+        /**
+         * Replays the recorded content. If it is replayed as a separate
+         * document, the namespace bindings that are in scope at the member
+         * property element are declared on the root element.
+         */
+        void replay(ValidatorHandler handler, MutableLocator locator, AttributesImpl attributes,
+                boolean asDocument) throws SAXException {
+            Deque<Tag> openTags = new ArrayDeque<Tag>();
+            for (int i = 0; i < this.items.size(); i++) {
+                Object item = this.items.get(i);
+                locator.line = this.lines[i];
+                locator.column = this.columns[i];
+                if (item instanceof Tag) {
+                    Tag tag = (Tag) item;
+                    if (asDocument && openTags.isEmpty()) {
+                        for (int j = 0; j < this.inScope.size(); j += 2) {
+                            handler.startPrefixMapping(this.inScope.get(j), this.inScope.get(j + 1));
+                        }
+                    }
+                    for (int j = 0; j < tag.namespaces.size(); j += 2) {
+                        handler.startPrefixMapping(tag.namespaces.get(j), tag.namespaces.get(j + 1));
+                    }
+                    attributes.clear();
+                    for (int j = 0; j < tag.attributes.length; j += 4) {
+                        attributes.addAttribute(tag.attributes[j], tag.attributes[j + 1], tag.attributes[j + 2],
+                                "CDATA", tag.attributes[j + 3]);
+                    }
+                    handler.startElement(tag.uri, tag.localName, tag.qName, attributes);
+                    openTags.push(tag);
+                } else if (item == END) {
+                    Tag tag = openTags.pop();
+                    handler.endElement(tag.uri, tag.localName, tag.qName);
+                    for (int j = 0; j < tag.namespaces.size(); j += 2) {
+                        handler.endPrefixMapping(tag.namespaces.get(j));
+                    }
+                    if (asDocument && openTags.isEmpty()) {
+                        for (int j = 0; j < this.inScope.size(); j += 2) {
+                            handler.endPrefixMapping(this.inScope.get(j));
+                        }
+                    }
+                } else {
+                    char[] text = (char[]) item;
+                    handler.characters(text, 0, text.length);
+                }
+            }
+        }
+    }
+
+    /**
+     * A recorded start tag.
+     */
+    private static final class Tag {
+        final String uri;
+        final String localName;
+        final String qName;
+        final List<String> namespaces;
+        final String[] attributes;
+
+        Tag(String uri, String localName, String qName, List<String> namespaces, String[] attributes) {
+            this.uri = uri;
+            this.localName = localName;
+            this.qName = qName;
+            this.namespaces = namespaces;
+            this.attributes = attributes;
+        }
+    }
+
+    /**
+     * A group of partitions that is validated by a single task.
+     */
+    private static final class Batch {
+        final String systemId;
+        final long start;
+        long end;
+        int size;
+        final List<Partition> partitions = new ArrayList<Partition>();
+        Future<List<Report>> future;
+
+        Batch(String systemId, long start) {
+            this.systemId = systemId;
+            this.start = start;
+            this.end = start;
+        }
+    }
+
+    /**
+     * A reported problem.
+     */
+    private static final class Report {
+        static final int WARNING = 0;
+        static final int ERROR = 1;
+        static final int FATAL = 2;
+        final int severity;
+        final SAXParseException exception;
+        final long position;
+
+        Report(int severity, SAXParseException exception) {
+            this.severity = severity;
+            this.exception = exception;
+            this.position = position(exception.getLineNumber(), exception.getColumnNumber());
+        }
+
+        void replay(ErrorHandler handler) throws SAXException {
+            switch (this.severity) {
+            case WARNING:
+                handler.warning(this.exception);
+                break;
+            case ERROR:
+                handler.error(this.exception);
+                break;
+            default:
+                handler.fatalError(this.exception);
+            }
+        }
+    }
+
+    /**
+     * Collects reported problems.
+     */
+    private static final class ReportCollector implements ErrorHandler {
+        private final List<Report> reports;
+
+        ReportCollector(List<Report> reports) {
+            this.reports = reports;
+        }
+
+        @Override
+        public void warning(SAXParseException exception) {
+            this.reports.add(new Report(Report.WARNING, exception));
+        }
+
+        @Override
+        public void error(SAXParseException exception) {
+            this.reports.add(new Report(Report.ERROR, exception));
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception) {
+            this.reports.add(new Report(Report.FATAL, exception));
+        }
+    }
+
+    /**
+     * A locator whose position is set by the code that supplies events to a
+     * validator handler.
+     */
+    private static final class MutableLocator implements Locator {
+        final String systemId;
+        int line;
+        int column;
+
+        MutableLocator(String systemId) {
+            this.systemId = systemId;
+        }
+
+        @Override
+        public String getPublicId() {
+            return null;
+        }
+
+        @Override
+        public String getSystemId() {
+            return this.systemId;
+        }
+
+        @Override
+        public int getLineNumber() {
+            return this.line;
+        }
+
+        @Override
+        public int getColumnNumber() {
+            return this.column;
+        }
+    }
+}
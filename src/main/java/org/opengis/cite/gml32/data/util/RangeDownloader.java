@@ -0,0 +1,383 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Retrieves an HTTP resource and writes it to a file, computing its SHA-256
+ * digest as the content is transferred. If the connection fails before the
+ * entire response body has been received, the transfer is resumed by means of
+ * a range request (see <a href="https://tools.ietf.org/html/rfc7233">RFC
+ * 7233</a>); the If-Range header is used to make sure the resource has not
+ * changed in the meantime. If the server does not honor the range request, the
+ * transfer starts over (unless this is disallowed).
+ *
+ * <p>
+ * Compressed content is accepted (see {@link ContentEncoding}); it is written
+ * to the file as received, and the digest applies to the encoded content.
+ * </p>
+ *
+ * <p>
+ * Content is copied from the network channel to the file channel through a
+ * direct buffer taken from a shared pool. The maximum number of attempts to
+ * resume a transfer is given by the system property
+ * {@value #MAX_RETRIES_PROPERTY} (default: {@value #DEFAULT_MAX_RETRIES}).
+ * </p>
+ *
+ * <p>
+ * An instance is not thread-safe and may be used for only one transfer.
+ * </p>
+ */
+public class RangeDownloader implements Closeable {
+
+    /**
+     * Name of the system property that specifies the maximum number of
+     * attempts to resume a transfer.
+     */
+    public static final String MAX_RETRIES_PROPERTY = "org.opengis.cite.gml32.data.download.maxRetries";
+    /**
+     * The default maximum number of attempts to resume a transfer.
+     */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    static final int BUFFER_SIZE = 65536;
+    private static final int MAX_POOLED_BUFFERS = 8;
+    private static final long RETRY_DELAY = 200;
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-\\d+/(\\d+|\\*)");
+    private static final Queue<ByteBuffer> BUFFER_POOL = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final URI uri;
+    private final int maxRetries;
+    private final MessageDigest digest;
+    private HttpURLConnection conn;
+    private String contentType;
+    private String validator;
+    private long length;
+    private long expectedLength = -1;
+    private int retryCount;
+    private boolean restartAllowed = true;
+    private boolean transferring;
+
+    /**
+     * Receives notice of the progress of a transfer.
+     */
+    public interface Listener {
+
+        /**
+         * Invoked after content has been written to the file. An exception
+         * thrown by this method aborts the transfer.
+         *
+         * @param length
+         *            The total number of bytes written so far (it decreases
+         *            only if the transfer starts over).
+         * @throws IOException
+         *             To abort the transfer.
+         */
+        void transferred(long length) throws IOException;
+    }
+
+    /**
+     * Creates a downloader for the given resource.
+     *
+     * @param uri
+     *            An absolute http or https URI.
+     */
+    public RangeDownloader(URI uri) {
+        this(uri, Integer.getInteger(MAX_RETRIES_PROPERTY, DEFAULT_MAX_RETRIES));
+    }
+
+    RangeDownloader(URI uri, int maxRetries) {
+        this.uri = uri;
+        this.maxRetries = maxRetries;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Specifies whether or not the transfer may start over if it cannot be
+     * resumed. A reader that consumes the file while it is being written
+     * cannot cope with content being replaced.
+     *
+     * @param restartAllowed
+     *            {@code false} if a transfer that cannot be resumed should
+     *            fail (default: {@code true}).
+     */
+    public void setRestartAllowed(boolean restartAllowed) {
+        this.restartAllowed = restartAllowed;
+    }
+
+    /**
+     * Sends the request and checks the response status.
+     *
+     * @return The media type of the resource (may be null).
+     * @throws IOException
+     *             If the request fails or an error status is returned.
+     */
+    public String connect() throws IOException {
+        this.conn = ClientUtils.openConnection(this.uri);
+        this.conn.setRequestProperty("Accept-Encoding", ContentEncoding.ACCEPT_ENCODING);
+        int status;
+        try {
+            status = this.conn.getResponseCode();
+        } catch (IOException e) {
+            ClientUtils.disconnect(this.conn);
+            throw e;
+        }
+        if (status >= 400 || status < 200) {
+            ClientUtils.release(this.conn);
+            throw new IOException(String.format("Unexpected response status %d from %s", status, this.uri));
+        }
+        this.contentType = this.conn.getContentType();
+        this.expectedLength = this.conn.getContentLengthLong();
+        String etag = this.conn.getHeaderField("ETag");
+        if (null != etag && !etag.startsWith("W/")) {
+            this.validator = etag;
+        } else {
+            this.validator = this.conn.getHeaderField("Last-Modified");
+        }
+        return this.contentType;
+    }
+
+    /**
+     * Writes the response body to the given file, resuming the transfer if the
+     * connection fails.
+     *
+     * @param file
+     *            The destination file (any existing content is replaced).
+     * @param listener
+     *            A listener to notify of progress (may be null).
+     * @return The number of bytes written.
+     * @throws IOException
+     *             If the transfer fails and cannot be resumed.
+     */
+    public long transferTo(File file, Listener listener) throws IOException {
+        if (null == this.conn) {
+            connect();
+        }
+        this.transferring = true;
+        ByteBuffer buffer = acquireBuffer();
+        boolean complete = false;
+        ReadableByteChannel in = null;
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            in = Channels.newChannel(this.conn.getInputStream());
+            while (true) {
+                int n;
+                try {
+                    n = in.read(buffer);
+                    if (n == -1 && this.expectedLength >= 0 && this.length < this.expectedLength) {
+                        throw new IOException(String.format("Premature end of content (%d of %d bytes)",
+                                this.length, this.expectedLength));
+                    }
+                } catch (IOException e) {
+                    closeQuietly(in);
+                    ClientUtils.disconnect(this.conn);
+                    buffer.clear();
+                    in = resume(e, out, listener);
+                    continue;
+                }
+                if (n == -1) {
+                    break;
+                }
+                buffer.flip();
+                this.digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+                this.length += n;
+                if (null != listener) {
+                    listener.transferred(this.length);
+                }
+            }
+            in.close();
+            complete = true;
+            ClientUtils.release(this.conn);
+        } finally {
+            releaseBuffer(buffer);
+            if (!complete) {
+                closeQuietly(in);
+                ClientUtils.disconnect(this.conn);
+            }
+        }
+        if (this.retryCount > 0) {
+            TestSuiteLogger.log(Level.INFO, String.format("Retrieved %s after %d retries", this.uri, this.retryCount));
+        }
+        return this.length;
+    }
+
+    /**
+     * Requests the remainder of the resource after a failure. The transfer
+     * starts over if the server returns the entire resource (and this is
+     * allowed).
+     *
+     * @return A channel for reading the rest of the content.
+     */
+    private ReadableByteChannel resume(IOException cause, FileChannel out, Listener listener) throws IOException {
+        while (true) {
+            if (this.retryCount >= this.maxRetries) {
+                throw cause;
+            }
+            this.retryCount++;
+            TestSuiteLogger.log(Level.FINE, String.format("Resuming transfer of %s at byte %d (attempt %d): %s",
+                    this.uri, this.length, this.retryCount, cause.getMessage()));
+            try {
+                Thread.sleep(RETRY_DELAY * this.retryCount);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while retrieving " + this.uri);
+            }
+            int status;
+            try {
+                this.conn = ClientUtils.openConnection(this.uri);
+                this.conn.setRequestProperty("Accept-Encoding", ContentEncoding.ACCEPT_ENCODING);
+                if (this.length > 0) {
+                    this.conn.setRequestProperty("Range", "bytes=" + this.length + "-");
+                    if (null != this.validator) {
+                        this.conn.setRequestProperty("If-Range", this.validator);
+                    }
+                }
+                status = this.conn.getResponseCode();
+            } catch (IOException e) {
+                ClientUtils.disconnect(this.conn);
+                cause = e;
+                continue;
+            }
+            if (status == HttpURLConnection.HTTP_PARTIAL && this.length == rangeStart()) {
+                // Content-Length may be absent (e.g. chunked transfer coding)
+                this.expectedLength = rangeTotal();
+                return Channels.newChannel(this.conn.getInputStream());
+            }
+            if (status == HttpURLConnection.HTTP_OK && (this.restartAllowed || this.length == 0)) {
+                out.truncate(0);
+                out.position(0);
+                this.digest.reset();
+                this.length = 0;
+                this.expectedLength = this.conn.getContentLengthLong();
+                if (null != listener) {
+                    listener.transferred(0);
+                }
+                return Channels.newChannel(this.conn.getInputStream());
+            }
+            ClientUtils.release(this.conn);
+            if (status == HttpURLConnection.HTTP_OK) {
+                throw new IOException("Transfer cannot be resumed (range request not honored): " + this.uri, cause);
+            }
+            cause = new IOException(String.format("Unexpected response status %d from %s", status, this.uri));
+        }
+    }
+
+    /**
+     * Returns the position of the first byte in a partial response, or -1 if
+     * the Content-Range header is missing or invalid.
+     */
+    private long rangeStart() {
+        Matcher matcher = matchContentRange();
+        return (null != matcher) ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Returns the complete length of the resource given in a partial
+     * response, or -1 if the Content-Range header is missing or invalid or
+     * the length is unknown ("*").
+     */
+    private long rangeTotal() {
+        Matcher matcher = matchContentRange();
+        return (null != matcher && !matcher.group(2).equals("*")) ? Long.parseLong(matcher.group(2)) : -1;
+    }
+
+    private Matcher matchContentRange() {
+        String range = this.conn.getHeaderField("Content-Range");
+        if (null == range) {
+            return null;
+        }
+        Matcher matcher = CONTENT_RANGE.matcher(range.trim());
+        return matcher.matches() ? matcher : null;
+    }
+
+    /**
+     * Returns the media type of the resource.
+     *
+     * @return The value of the Content-Type header (may be null).
+     */
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     *
+     * @return The length of the content.
+     */
+    public long getLength() {
+        return this.length;
+    }
+
+    /**
+     * Returns the number of times the transfer was resumed (or restarted).
+     *
+     * @return The number of retries.
+     */
+    public int getRetryCount() {
+        return this.retryCount;
+    }
+
+    /**
+     * Returns the SHA-256 digest of the content. This should be invoked only
+     * after the transfer is complete.
+     *
+     * @return The digest value.
+     */
+    public byte[] getDigest() {
+        return this.digest.digest();
+    }
+
+    /**
+     * Releases the connection if the transfer did not take place.
+     */
+    @Override
+    public void close() {
+        if (!this.transferring) {
+            ClientUtils.release(this.conn);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (null != closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                TestSuiteLogger.log(Level.FINEST, "Failed to close channel: " + e.getMessage());
+            }
+        }
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = BUFFER_POOL.poll();
+        return (null != buffer) ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        if (BUFFER_POOL.size() < MAX_POOLED_BUFFERS) {
+            BUFFER_POOL.offer(buffer);
+        }
+    }
+}
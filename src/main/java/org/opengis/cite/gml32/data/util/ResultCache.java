@@ -0,0 +1,535 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.xerces.util.XMLCatalogResolver;
+
+/**
+ * A persistent cache of test run results. An entry is keyed by a SHA-256
+ * digest of everything that determines the outcome of a test run:
+ * <ul>
+ * <li>the test suite version and all test run arguments;</li>
+ * <li>the content of the test subject;</li>
+ * <li>the content of the application schema documents referenced by the
+ * subject, and of all documents they import or include (whether remote, local,
+ * or packaged in an archive);</li>
+ * <li>the content of the Schematron schema that applies to the subject, if
+ * any: the one referenced by an <code>xml-model</code> processing instruction
+ * in the subject or else the one given by the <code>sch</code> argument.</li>
+ * </ul>
+ * When an unchanged subject is submitted again, the results of the previous
+ * run are returned without executing the test suite. Schema documents and
+ * Schematron schemas bundled with the test suite are covered by its version.
+ *
+ * <p>
+ * When the total size of the cached results exceeds the quota, the least
+ * recently used entries are removed. The cache is configured using the
+ * following system properties:
+ * </p>
+ * <ul>
+ * <li>{@value #CACHE_DIR_PROPERTY}: cache directory (default:
+ * <code>${java.io.tmpdir}/ets-gml32-data/results</code>)</li>
+ * <li>{@value #QUOTA_PROPERTY}: disk quota in bytes (default:
+ * {@value #DEFAULT_QUOTA}, meaning the cache is disabled)</li>
+ * </ul>
+ *
+ * <p>
+ * The cache is disabled by default because the key can only be computed once
+ * the entire test subject has been retrieved; a remote subject can then no
+ * longer be processed while it is being retrieved (see
+ * {@link SpooledDownload}).
+ * </p>
+ */
+public class ResultCache {
+
+    /**
+     * Name of the system property that specifies the cache directory.
+     */
+    public static final String CACHE_DIR_PROPERTY = "org.opengis.cite.gml32.data.resultCache.dir";
+    /**
+     * Name of the system property that specifies the disk quota (bytes).
+     */
+    public static final String QUOTA_PROPERTY = "org.opengis.cite.gml32.data.resultCache.quota";
+    /**
+     * The default disk quota (bytes).
+     */
+    public static final long DEFAULT_QUOTA = 0;
+    private static final String CONTENT_SUFFIX = ".dat";
+    private static final String METADATA_SUFFIX = ".properties";
+    private static final ResultCache INSTANCE = new ResultCache(
+            new File(System.getProperty(CACHE_DIR_PROPERTY,
+                    new File(System.getProperty("java.io.tmpdir"), "ets-gml32-data/results").getPath())),
+            Long.getLong(QUOTA_PROPERTY, DEFAULT_QUOTA));
+    private final File cacheDir;
+    private final long quota;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Returns the shared cache instance.
+     *
+     * @return The process-wide ResultCache.
+     */
+    public static ResultCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Constructs a cache that stores results in the given directory.
+     *
+     * @param cacheDir
+     *            The cache directory; it will be created if it does not exist.
+     * @param quota
+     *            The maximum total size (bytes) of all cached results.
+     */
+    ResultCache(File cacheDir, long quota) {
+        this.cacheDir = cacheDir;
+        this.quota = Math.max(0, quota);
+    }
+
+    /**
+     * Indicates whether or not caching is enabled.
+     *
+     * @return {@code true} if the quota is greater than zero; {@code false}
+     *         otherwise.
+     */
+    public boolean isEnabled() {
+        return this.quota > 0;
+    }
+
+    /**
+     * Creates a cache key for a test run. The test subject and the schemas it
+     * refers to are retrieved in order to compute their digests (remote schema
+     * documents are obtained via the {@link SchemaDocumentCache}, so they need
+     * not be retrieved again if the test suite is run). A remote test subject
+     * is retrieved in full before the test run starts; the copy is used by the
+     * test run (see {@link SpooledDownload#start(URI)}) unless it is discarded
+     * because cached results were found.
+     *
+     * @param etsVersion
+     *            The test suite version.
+     * @param testRunArgs
+     *            The test run arguments (name-value pairs); the "iut" argument
+     *            is required.
+     * @param entityCatalog
+     *            The location of the entity catalog used to resolve schema
+     *            references.
+     * @return A hexadecimal digest that identifies the test run.
+     * @throws IOException
+     *             If the test subject cannot be retrieved.
+     */
+    public String createKey(String etsVersion, Map<String, String> testRunArgs, URL entityCatalog)
+            throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, etsVersion);
+        for (Map.Entry<String, String> arg : new TreeMap<String, String>(testRunArgs).entrySet()) {
+            update(digest, arg.getKey());
+            update(digest, arg.getValue());
+        }
+        URI iutRef = URI.create(testRunArgs.get("iut").trim());
+        boolean isRemote = !"file".equalsIgnoreCase(iutRef.getScheme());
+        File subject;
+        if (!isRemote) {
+            subject = new File(iutRef);
+            digest.update(digestFile(subject));
+        } else {
+            // digest is computed as the content is retrieved
+            try (RangeDownloader downloader = new RangeDownloader(iutRef)) {
+                downloader.connect();
+                subject = File.createTempFile("entity-", null);
+                downloader.transferTo(subject, null);
+                digest.update(downloader.getDigest());
+            }
+        }
+        String schArg = testRunArgs.get("sch");
+        URI schRef = (null != schArg && !schArg.trim().isEmpty()) ? URI.create(schArg.trim()) : null;
+        Set<URI> schematronRefs = new TreeSet<URI>();
+        try {
+            Set<URI> schemaRefs = new HashSet<URI>();
+            if (ArchiveCatalog.isArchive(subject)) {
+                // packaged schemas are covered by the archive digest, but not what they refer to
+                try (ArchiveCatalog archive = new ArchiveCatalog(subject)) {
+                    for (String entryName : archive.getDataEntries()) {
+                        URI entryURI = archive.getEntryURI(entryName);
+                        try (InputStream in = ContentEncoding.decode(archive.openStream(entryURI))) {
+                            URI piRef = readProlog(in, entryURI, schemaRefs);
+                            if (null != piRef && !archive.contains(piRef)) {
+                                schematronRefs.add(piRef);
+                            }
+                        }
+                    }
+                    updateSchemaDigest(digest, schemaRefs, entityCatalog, archive);
+                } catch (IOException e) {
+                    TestSuiteLogger.log(Level.FINE, "Failed to read archive: " + e.getMessage());
+                }
+            } else {
+                try (InputStream in = ContentEncoding.decode(new FileInputStream(subject))) {
+                    URI piRef = readProlog(in, iutRef, schemaRefs);
+                    if (null != piRef) {
+                        // takes precedence over the sch argument
+                        schRef = piRef;
+                    }
+                }
+                updateSchemaDigest(digest, schemaRefs, entityCatalog, null);
+            }
+        } finally {
+            if (isRemote) {
+                if (SpooledDownload.isTeeEnabled(iutRef)) {
+                    // the test run need not retrieve it again
+                    SpooledDownload.offer(iutRef, subject);
+                } else {
+                    subject.delete();
+                }
+            }
+        }
+        if (null != schRef) {
+            schematronRefs.add(schRef);
+        }
+        for (URI ref : schematronRefs) {
+            updateSchematronDigest(digest, ref);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Reads the prolog of a document and the schema references given by its
+     * document element. A document that is not well-formed is not an error
+     * here; the test run will report it.
+     *
+     * @param in
+     *            An InputStream for reading the document.
+     * @param systemId
+     *            The location of the document.
+     * @param schemaRefs
+     *            A collection to which schema references are added.
+     * @return A reference to a Schematron schema given by an
+     *         <code>xml-model</code> processing instruction, or {@code null}
+     *         if there is none.
+     */
+    private static URI readProlog(InputStream in, URI systemId, Set<URI> schemaRefs) {
+        URI schRef = null;
+        try {
+            XMLStreamReader reader = StaxFactories.getInputFactory().createXMLStreamReader(systemId.toString(),
+                    in);
+            try {
+                // a leading PI may be the initial event if there is no XML declaration
+                int event = reader.getEventType();
+                while (event != XMLStreamConstants.START_ELEMENT) {
+                    if (event == XMLStreamConstants.PROCESSING_INSTRUCTION
+                            && reader.getPITarget().equals("xml-model")) {
+                        URI piRef = ValidationUtils.getSchematronReference(reader.getPIData(), systemId);
+                        if (null != piRef) {
+                            schRef = piRef;
+                        }
+                    }
+                    event = reader.next();
+                }
+                Set<URI> refs = ValidationUtils.extractSchemaReferences(reader, systemId.toString(),
+                        systemId.toString());
+                if (null != refs) {
+                    schemaRefs.addAll(refs);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException | RuntimeException e) {
+            TestSuiteLogger.log(Level.FINE, "Failed to read schema references: " + e.getMessage());
+        }
+        return schRef;
+    }
+
+    /**
+     * Adds the location and content of a Schematron schema to the digest. A
+     * schema bundled with the test suite (see
+     * {@link ValidationUtils#resolveSchematronReference(URI)}) is covered by
+     * its version, so it is not read.
+     */
+    private void updateSchematronDigest(MessageDigest digest, URI schRef) {
+        update(digest, schRef.toString());
+        if (!ValidationUtils.resolveSchematronReference(schRef).equals(schRef)) {
+            return;
+        }
+        try (InputStream in = ClientUtils.openStream(schRef)) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            TestSuiteLogger.log(Level.FINE, "Failed to read Schematron schema: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds the content of all schema documents in the import/include graph of
+     * the referenced schemas to the digest. The documents are retrieved by a
+     * {@link SchemaPrefetcher}, which also reads local files and documents
+     * packaged in the archive (if any). An archived document is identified by
+     * its entry name, since the archive itself may be a temporary copy.
+     */
+    private void updateSchemaDigest(MessageDigest digest, Set<URI> schemaRefs, URL entityCatalog,
+            ArchiveCatalog archive) {
+        if (schemaRefs.isEmpty()) {
+            return;
+        }
+        XMLCatalogResolver resolver = new XMLCatalogResolver(new String[] { entityCatalog.toString() });
+        Map<String, byte[]> documents = new SchemaPrefetcher(resolver, SchemaDocumentCache.getInstance(),
+                SharedGrammarPool.getInstance(), archive).collect(schemaRefs);
+        Map<String, byte[]> sortedDocs = new TreeMap<String, byte[]>();
+        for (Map.Entry<String, byte[]> doc : documents.entrySet()) {
+            String location = doc.getKey();
+            String entryName = (null != archive) ? archive.getEntryName(URI.create(location)) : null;
+            sortedDocs.put((null != entryName) ? "!/" + entryName : location, doc.getValue());
+        }
+        for (Map.Entry<String, byte[]> doc : sortedDocs.entrySet()) {
+            update(digest, doc.getKey());
+            digest.update(doc.getValue());
+        }
+    }
+
+    /**
+     * Gets the cached results of a test run. A copy of the results is written
+     * to a new subdirectory of the given output directory.
+     *
+     * @param key
+     *            A cache key (see {@link #createKey(String, Map, URL)}).
+     * @param outputDir
+     *            The directory in which test results are written.
+     * @return A File containing the test results, or {@code null} if there is
+     *         no such entry.
+     */
+    public File get(String key, File outputDir) {
+        File content = new File(this.cacheDir, key + CONTENT_SUFFIX);
+        Properties metadata = readMetadata(new File(this.cacheDir, key + METADATA_SUFFIX));
+        if (null == metadata || !content.isFile()) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        File runDir = new File(outputDir, "testng" + File.separator + UUID.randomUUID());
+        File results = new File(runDir, metadata.getProperty("name", "testng-results.xml"));
+        try {
+            if (!runDir.mkdirs()) {
+                throw new IOException("Unable to create directory " + runDir);
+            }
+            Files.copy(content.toPath(), results.toPath());
+        } catch (IOException e) {
+            TestSuiteLogger.log(Level.WARNING, "Failed to copy cached test results: " + e.getMessage());
+            missCount.incrementAndGet();
+            return null;
+        }
+        content.setLastModified(System.currentTimeMillis());
+        hitCount.incrementAndGet();
+        return results;
+    }
+
+    /**
+     * Adds the results of a test run to the cache. The least recently used
+     * entries may be evicted as a result.
+     *
+     * @param key
+     *            A cache key (see {@link #createKey(String, Map, URL)}).
+     * @param results
+     *            A File containing the test results.
+     */
+    public void put(String key, File results) {
+        if (!isEnabled() || !results.isFile()) {
+            return;
+        }
+        try {
+            if (!this.cacheDir.isDirectory() && !this.cacheDir.mkdirs()) {
+                throw new IOException("Unable to create cache directory " + this.cacheDir);
+            }
+            File tempFile = File.createTempFile("results-", ".tmp", this.cacheDir);
+            try {
+                Files.copy(results.toPath(), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                moveIntoPlace(tempFile, new File(this.cacheDir, key + CONTENT_SUFFIX));
+            } finally {
+                tempFile.delete();
+            }
+            Properties metadata = new Properties();
+            metadata.setProperty("name", results.getName());
+            metadata.setProperty("created", Long.toString(System.currentTimeMillis()));
+            writeMetadata(metadata, new File(this.cacheDir, key + METADATA_SUFFIX));
+        } catch (IOException e) {
+            TestSuiteLogger.log(Level.WARNING, "Failed to cache test results: " + e.getMessage());
+            return;
+        }
+        enforceQuota();
+    }
+
+    /**
+     * Removes the least recently used entries until the total size of the
+     * cached results does not exceed the quota.
+     */
+    void enforceQuota() {
+        File[] files = this.cacheDir.listFiles();
+        if (null == files) {
+            return;
+        }
+        long totalSize = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(CONTENT_SUFFIX)) {
+                totalSize += file.length();
+            }
+        }
+        if (totalSize <= this.quota) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (totalSize <= this.quota) {
+                break;
+            }
+            String name = file.getName();
+            if (name.endsWith(CONTENT_SUFFIX)) {
+                long length = file.length();
+                if (file.delete()) {
+                    totalSize -= length;
+                    String key = name.substring(0, name.length() - CONTENT_SUFFIX.length());
+                    new File(this.cacheDir, key + METADATA_SUFFIX).delete();
+                    TestSuiteLogger.log(Level.FINE, "Evicted cached test results " + key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of test runs whose results were found in the cache.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of test runs whose results were not found in the
+     * cache.
+     *
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ResultCache[");
+        sb.append("dir=").append(this.cacheDir).append(", quota=").append(this.quota);
+        sb.append(", hits=").append(hitCount.get()).append(", misses=").append(missCount.get()).append(']');
+        return sb.toString();
+    }
+
+    private static Properties readMetadata(File metadataFile) {
+        if (!metadataFile.isFile()) {
+            return null;
+        }
+        Properties metadata = new Properties();
+        try (InputStream in = new FileInputStream(metadataFile)) {
+            metadata.load(in);
+        } catch (IOException e) {
+            TestSuiteLogger.log(Level.FINE, "Failed to read cache metadata from " + metadataFile, e);
+            return null;
+        }
+        return metadata;
+    }
+
+    private static void writeMetadata(Properties metadata, File metadataFile) throws IOException {
+        File tempFile = File.createTempFile("meta-", ".tmp", metadataFile.getParentFile());
+        try {
+            try (OutputStream out = new FileOutputStream(tempFile)) {
+                metadata.store(out, null);
+            }
+            moveIntoPlace(tempFile, metadataFile);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Moves a file into place, replacing any existing file. An atomic move is
+     * attempted first; whether it may replace an existing target is
+     * implementation-specific.
+     */
+    private static void moveIntoPlace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException | FileAlreadyExistsException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Adds a string to the digest, followed by a separator so that adjacent
+     * values cannot run together.
+     */
+    private static void update(MessageDigest digest, String value) {
+        digest.update(((null != value) ? value : "").getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Computes the SHA-256 digest of the content of a file.
+     */
+    private static byte[] digestFile(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,269 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+
+import net.sf.saxon.s9api.DocumentBuilder;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.XPathExecutable;
+import net.sf.saxon.s9api.XQueryCompiler;
+import net.sf.saxon.s9api.XQueryExecutable;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XsltExecutable;
+
+/**
+ * Provides the Saxon {@link Processor} that is shared by all components in
+ * the JVM, along with a process-wide cache of compiled XPath 2.0 expressions,
+ * XQuery queries and XSLT stylesheets. Executables are immutable and
+ * thread-safe, so they may be shared by concurrent test runs. Since all trees
+ * are built using the same Configuration, nodes can be passed freely between
+ * components.
+ *
+ * <p>
+ * An XPath expression or query is keyed by its text and namespace bindings; a
+ * stylesheet is cached only if it is identified solely by its location (a
+ * StreamSource having a system identifier but no stream or reader). The
+ * number of entries is bounded; the least recently used entry is evicted when
+ * the limit is exceeded. The limit is set using the system property
+ * {@value #MAX_ENTRIES_PROPERTY} (default: {@value #DEFAULT_MAX_ENTRIES}); a
+ * value of zero disables caching.
+ * </p>
+ */
+public class SaxonCache {
+
+    /**
+     * Name of the system property that specifies the maximum number of cache
+     * entries.
+     */
+    public static final String MAX_ENTRIES_PROPERTY = "org.opengis.cite.gml32.data.saxonCache.maxEntries";
+    /**
+     * The default maximum number of cache entries.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 128;
+    private static final Processor PROCESSOR = new Processor(false);
+    private static final SaxonCache INSTANCE = new SaxonCache(
+            Integer.getInteger(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES));
+    private final int maxEntries;
+    private final Map<List<Object>, Object> entries;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Returns the shared cache instance.
+     *
+     * @return The process-wide SaxonCache.
+     */
+    public static SaxonCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the shared Saxon processor.
+     *
+     * @return A Processor (without licensed features).
+     */
+    public static Processor getProcessor() {
+        return PROCESSOR;
+    }
+
+    /**
+     * Constructs a cache that holds up to the given number of entries.
+     *
+     * @param maxEntries
+     *            The maximum number of entries (a value less than 1 disables
+     *            caching).
+     */
+    SaxonCache(int maxEntries) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.entries = new LinkedHashMap<List<Object>, Object>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+                return size() > SaxonCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Builds a Saxon tree from the given source. A DOM node is wrapped rather
+     * than copied.
+     *
+     * @param source
+     *            A Source for reading some XML content.
+     * @return An XdmNode.
+     * @throws SaxonApiException
+     *             If the source cannot be read.
+     */
+    public static XdmNode buildNode(Source source) throws SaxonApiException {
+        DocumentBuilder builder = PROCESSOR.newDocumentBuilder();
+        if (source instanceof DOMSource) {
+            return builder.wrap(((DOMSource) source).getNode());
+        }
+        return builder.build(source);
+    }
+
+    /**
+     * Gets a compiled XPath 2.0 expression, compiling it if necessary.
+     *
+     * @param expr
+     *            An XPath expression.
+     * @param nsBindings
+     *            A collection of namespace bindings, where each entry maps a
+     *            namespace URI (key) to a prefix (value); it may be
+     *            {@code null}.
+     * @return An XPathExecutable object.
+     * @throws SaxonApiException
+     *             If the expression cannot be compiled.
+     */
+    public XPathExecutable getXPath(String expr, Map<String, String> nsBindings) throws SaxonApiException {
+        List<Object> key = createKey("xpath", expr, nsBindings);
+        XPathExecutable exec = (XPathExecutable) lookup(key);
+        if (null == exec) {
+            XPathCompiler compiler = PROCESSOR.newXPathCompiler();
+            if (null != nsBindings) {
+                for (Map.Entry<String, String> binding : nsBindings.entrySet()) {
+                    compiler.declareNamespace(binding.getValue(), binding.getKey());
+                }
+            }
+            exec = compiler.compile(expr);
+            store(key, exec);
+        }
+        return exec;
+    }
+
+    /**
+     * Gets a compiled XQuery query, compiling it if necessary.
+     *
+     * @param query
+     *            The query expression.
+     * @param nsBindings
+     *            A collection of namespace bindings, where each entry maps a
+     *            namespace URI (key) to a prefix (value); it may be
+     *            {@code null}.
+     * @return An XQueryExecutable object.
+     * @throws SaxonApiException
+     *             If the query cannot be compiled.
+     */
+    public XQueryExecutable getXQuery(String query, Map<String, String> nsBindings) throws SaxonApiException {
+        List<Object> key = createKey("xquery", query, nsBindings);
+        XQueryExecutable exec = (XQueryExecutable) lookup(key);
+        if (null == exec) {
+            XQueryCompiler compiler = PROCESSOR.newXQueryCompiler();
+            if (null != nsBindings) {
+                for (Map.Entry<String, String> binding : nsBindings.entrySet()) {
+                    compiler.declareNamespace(binding.getValue(), binding.getKey());
+                }
+            }
+            exec = compiler.compile(query);
+            store(key, exec);
+        }
+        return exec;
+    }
+
+    /**
+     * Gets a compiled XSLT stylesheet, compiling it if necessary.
+     *
+     * @param stylesheet
+     *            A Source for reading the stylesheet (XSLT 1.0 or 2.0).
+     * @return An XsltExecutable object.
+     * @throws SaxonApiException
+     *             If the stylesheet cannot be read or compiled.
+     */
+    public XsltExecutable getXslt(Source stylesheet) throws SaxonApiException {
+        List<Object> key = null;
+        if (isLocationOnly(stylesheet)) {
+            key = createKey("xslt", stylesheet.getSystemId(), null);
+        }
+        XsltExecutable exec = (null != key) ? (XsltExecutable) lookup(key) : null;
+        if (null == exec) {
+            exec = PROCESSOR.newXsltCompiler().compile(stylesheet);
+            if (null != key) {
+                store(key, exec);
+            }
+        }
+        return exec;
+    }
+
+    private static boolean isLocationOnly(Source source) {
+        if (!(source instanceof StreamSource) || null == source.getSystemId()) {
+            return false;
+        }
+        StreamSource streamSource = (StreamSource) source;
+        return null == streamSource.getInputStream() && null == streamSource.getReader();
+    }
+
+    private static List<Object> createKey(String kind, String text, Map<String, String> nsBindings) {
+        Map<String, String> bindings = (null != nsBindings) ? new TreeMap<String, String>(nsBindings)
+                : Collections.<String, String> emptyMap();
+        return Arrays.<Object> asList(kind, text, bindings);
+    }
+
+    private Object lookup(List<Object> key) {
+        Object exec;
+        synchronized (entries) {
+            exec = entries.get(key);
+        }
+        if (null != exec) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+            TestSuiteLogger.log(Level.FINER, "Compiling " + key.get(0) + ": " + key.get(1));
+        }
+        return exec;
+    }
+
+    private void store(List<Object> key, Object exec) {
+        if (maxEntries > 0) {
+            synchronized (entries) {
+                entries.put(key, exec);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return The number of compiled executables.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found a compiled executable.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of lookups that required compilation.
+     *
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SaxonCache[size=" + size() + ", hits=" + hitCount + ", misses=" + missCount + "]";
+    }
+}
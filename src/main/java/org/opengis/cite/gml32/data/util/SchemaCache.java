@@ -0,0 +1,234 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import javax.xml.validation.Schema;
+
+/**
+ * A process-wide cache of compiled application schemas. An entry is keyed by
+ * the (normalized and sorted) set of schema references together with the
+ * location of the entity catalog used to resolve them. A compiled
+ * {@link Schema} object is immutable and thread-safe, so it may be shared by
+ * concurrent test runs.
+ *
+ * <p>
+ * The number of entries is bounded; the least recently used entry is evicted
+ * when the limit is exceeded. The limit is set using the system property
+ * {@value #MAX_ENTRIES_PROPERTY} (default: {@value #DEFAULT_MAX_ENTRIES}); a
+ * value of zero disables caching.
+ * </p>
+ *
+ * <p>
+ * Validators created from a cached schema are pooled by the
+ * {@link ValidatorPool}; they are discarded when the entry is evicted.
+ * </p>
+ */
+public class SchemaCache {
+
+    /**
+     * Name of the system property that specifies the maximum number of cache
+     * entries.
+     */
+    public static final String MAX_ENTRIES_PROPERTY = "org.opengis.cite.gml32.data.schemaCache.maxEntries";
+    /**
+     * The default maximum number of cache entries.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 32;
+    private static final SchemaCache INSTANCE = new SchemaCache(
+            Integer.getInteger(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES));
+    private final int maxEntries;
+    private final Map<String, Schema> entries;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Returns the shared cache instance.
+     *
+     * @return The process-wide SchemaCache.
+     */
+    public static SchemaCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Constructs a cache that holds up to the given number of entries.
+     *
+     * @param maxEntries
+     *            The maximum number of entries (a value less than 1 disables
+     *            caching).
+     */
+    SchemaCache(int maxEntries) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.entries = new LinkedHashMap<String, Schema>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Schema> eldest) {
+                boolean evict = size() > SchemaCache.this.maxEntries;
+                if (evict) {
+                    evictionCount.incrementAndGet();
+                    TestSuiteLogger.log(Level.FINE, "Evicted compiled schema from cache: " + eldest.getKey());
+                    ValidatorPool.getInstance().unregister(eldest.getValue());
+                }
+                return evict;
+            }
+        };
+    }
+
+    /**
+     * Creates a cache key from a set of schema references and the entity
+     * catalog used to resolve them. Each URI is normalized; the order of the
+     * references is not significant. If a reference identifies an entry in a
+     * local archive (see {@link ArchiveCatalog}), the length and modification
+     * time of the archive file are included as well, so that a schema in an
+     * archive that was replaced is compiled again.
+     *
+     * @param schemaRefs
+     *            A collection of absolute URIs that refer to XML Schema
+     *            resources.
+     * @param catalog
+     *            The location of an OASIS entity catalog (may be null).
+     * @return A String that uniquely identifies the schema set.
+     */
+    public static String createKey(Collection<URI> schemaRefs, URL catalog) {
+        Set<String> uriSet = new TreeSet<String>();
+        for (URI uri : schemaRefs) {
+            uriSet.add(uri.normalize().toString());
+        }
+        StringBuilder key = new StringBuilder();
+        key.append((null != catalog) ? catalog.toString() : "");
+        Set<String> archives = new TreeSet<String>();
+        for (String uri : uriSet) {
+            key.append(' ').append(uri);
+            int entrySeparator = uri.indexOf("!/");
+            if (entrySeparator > 0 && uri.startsWith("file:")) {
+                archives.add(uri.substring(0, entrySeparator));
+            }
+        }
+        for (String archive : archives) {
+            File archiveFile;
+            try {
+                archiveFile = new File(URI.create(archive));
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            key.append(' ').append(archive).append('[').append(archiveFile.length()).append(' ')
+                    .append(archiveFile.lastModified()).append(']');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Gets the compiled schema associated with the given key.
+     *
+     * @param key
+     *            A cache key (see {@link #createKey(Collection, URL)}).
+     * @return A Schema object, or {@code null} if no entry exists.
+     */
+    public Schema get(String key) {
+        Schema schema;
+        synchronized (entries) {
+            schema = entries.get(key);
+        }
+        if (null != schema) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return schema;
+    }
+
+    /**
+     * Adds a compiled schema to the cache and registers it with the
+     * {@link ValidatorPool}. The least recently used entry may be evicted as a
+     * result.
+     *
+     * @param key
+     *            A cache key (see {@link #createKey(Collection, URL)}).
+     * @param schema
+     *            A compiled schema that is free of errors.
+     */
+    public void put(String key, Schema schema) {
+        if (maxEntries == 0 || null == schema) {
+            return;
+        }
+        Schema replaced;
+        synchronized (entries) {
+            ValidatorPool.getInstance().register(schema);
+            replaced = entries.put(key, schema);
+        }
+        if (null != replaced && replaced != schema) {
+            ValidatorPool.getInstance().unregister(replaced);
+        }
+    }
+
+    /**
+     * Removes all entries from the cache and discards the pooled validators
+     * for them. The hit and miss counters are not affected.
+     */
+    public void clear() {
+        synchronized (entries) {
+            for (Schema schema : entries.values()) {
+                ValidatorPool.getInstance().unregister(schema);
+            }
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns the number of entries currently in the cache.
+     *
+     * @return The current cache size.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of successful lookups.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of failed lookups.
+     *
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of entries that have been evicted.
+     *
+     * @return The eviction count.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("SchemaCache[");
+        sb.append("size=").append(size()).append(", maxEntries=").append(maxEntries);
+        sb.append(", hits=").append(hitCount.get()).append(", misses=").append(missCount.get());
+        sb.append(", evictions=").append(evictionCount.get()).append(']');
+        return sb.toString();
+    }
+}
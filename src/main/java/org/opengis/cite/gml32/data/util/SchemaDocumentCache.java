@@ -0,0 +1,525 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+
+/**
+ * A persistent cache of schema documents retrieved from remote (http or https)
+ * locations. Document content is stored under its SHA-256 digest, so identical
+ * documents obtained from different locations share a single file; a small
+ * metadata file records the location, the content digest, and the validators
+ * (ETag, Last-Modified) supplied by the origin server.
+ *
+ * <p>
+ * A cached document is used as-is until it is older than the maximum age,
+ * after which it is revalidated using a conditional GET request. If the
+ * origin server cannot be reached a stale copy is used. When the total size
+ * of the cached documents exceeds the quota, the least recently used documents
+ * are removed (never the one that was just stored, even if it alone exceeds
+ * the quota).
+ * </p>
+ *
+ * <p>
+ * The cache is configured using the following system properties:
+ * </p>
+ * <ul>
+ * <li>{@value #CACHE_DIR_PROPERTY}: cache directory (default:
+ * <code>${java.io.tmpdir}/ets-gml32-data/schemas</code>)</li>
+ * <li>{@value #MAX_AGE_PROPERTY}: maximum age in seconds (default:
+ * {@value #DEFAULT_MAX_AGE})</li>
+ * <li>{@value #QUOTA_PROPERTY}: disk quota in bytes (default:
+ * {@value #DEFAULT_QUOTA}); a value of zero disables the cache</li>
+ * </ul>
+ */
+public class SchemaDocumentCache {
+
+    /**
+     * Name of the system property that specifies the cache directory.
+     */
+    public static final String CACHE_DIR_PROPERTY = "org.opengis.cite.gml32.data.docCache.dir";
+    /**
+     * Name of the system property that specifies the maximum age (in seconds)
+     * of a cached document before it must be revalidated.
+     */
+    public static final String MAX_AGE_PROPERTY = "org.opengis.cite.gml32.data.docCache.maxAge";
+    /**
+     * Name of the system property that specifies the disk quota (in bytes).
+     */
+    public static final String QUOTA_PROPERTY = "org.opengis.cite.gml32.data.docCache.quota";
+    /**
+     * The default maximum age: one day.
+     */
+    public static final long DEFAULT_MAX_AGE = 86400;
+    /**
+     * The default disk quota: 128 MiB.
+     */
+    public static final long DEFAULT_QUOTA = 134217728;
+    private static final int MAX_REDIRECTS = 5;
+    private static final String CONTENT_SUFFIX = ".dat";
+    private static final String METADATA_SUFFIX = ".properties";
+    private static final SchemaDocumentCache INSTANCE = new SchemaDocumentCache(
+            new File(System.getProperty(CACHE_DIR_PROPERTY,
+                    new File(System.getProperty("java.io.tmpdir"), "ets-gml32-data/schemas").getPath())),
+            Long.getLong(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE) * 1000, Long.getLong(QUOTA_PROPERTY, DEFAULT_QUOTA));
+    private final File cacheDir;
+    private final long maxAge;
+    private final long quota;
+    private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+    private final ReadWriteLock evictionLock = new ReentrantReadWriteLock();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong revalidationCount = new AtomicLong();
+    private final AtomicLong fetchCount = new AtomicLong();
+
+    /**
+     * Returns the shared cache instance.
+     *
+     * @return The process-wide SchemaDocumentCache.
+     */
+    public static SchemaDocumentCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Constructs a cache that stores documents in the given directory.
+     *
+     * @param cacheDir
+     *            The cache directory; it will be created if it does not exist.
+     * @param maxAge
+     *            The maximum age (ms) of a document before it is revalidated.
+     * @param quota
+     *            The maximum total size (bytes) of all cached documents.
+     */
+    SchemaDocumentCache(File cacheDir, long maxAge, long quota) {
+        this.cacheDir = cacheDir;
+        this.maxAge = maxAge;
+        this.quota = Math.max(0, quota);
+    }
+
+    /**
+     * Indicates whether or not a document at the given location can be cached.
+     *
+     * @param uri
+     *            An absolute URI.
+     * @return {@code true} if caching is enabled and the URI is an http or
+     *         https URI; {@code false} otherwise.
+     */
+    public boolean isCacheable(URI uri) {
+        String scheme = uri.getScheme();
+        return this.quota > 0 && ("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme));
+    }
+
+    /**
+     * Obtains a local copy of the document at the given location. The
+     * document is retrieved from the origin server if it is not in the cache
+     * or if the cached copy is no longer fresh and has been modified.
+     *
+     * <p>
+     * The file may be evicted by a concurrent fetch at any time after this
+     * method returns; use {@link #openStream(URI)} to read the content.
+     * </p>
+     *
+     * @param uri
+     *            An absolute http or https URI.
+     * @return A File containing the document content.
+     * @throws IOException
+     *             If the document cannot be retrieved and no cached copy
+     *             exists.
+     */
+    public File fetch(URI uri) throws IOException {
+        return fetch(uri, null);
+    }
+
+    /**
+     * Opens a stream for reading the document at the given location, which is
+     * obtained as described for {@link #fetch(URI)}. The cached copy is opened
+     * before any document can be evicted, so the stream remains readable even
+     * if the file is subsequently removed.
+     *
+     * @param uri
+     *            An absolute http or https URI.
+     * @return An InputStream for reading the document content.
+     * @throws IOException
+     *             If the document cannot be retrieved and no cached copy
+     *             exists.
+     */
+    public InputStream openStream(URI uri) throws IOException {
+        InputStream[] input = new InputStream[1];
+        fetch(uri, input);
+        return input[0];
+    }
+
+    /**
+     * Obtains a local copy of a document, optionally opening it while
+     * eviction is excluded.
+     */
+    private File fetch(URI uri, InputStream[] input) throws IOException {
+        String key = sha256Hex(uri.toString().getBytes(StandardCharsets.UTF_8));
+        Object lock = this.locks.putIfAbsent(key, new Object());
+        if (null == lock) {
+            lock = this.locks.get(key);
+        }
+        boolean[] stored = new boolean[1];
+        File content;
+        this.evictionLock.readLock().lock();
+        try {
+            synchronized (lock) {
+                content = fetch(uri, new File(this.cacheDir, key + METADATA_SUFFIX), stored);
+            }
+            if (null != input) {
+                input[0] = new FileInputStream(content);
+            }
+        } finally {
+            this.evictionLock.readLock().unlock();
+        }
+        if (stored[0]) {
+            enforceQuota(content);
+        }
+        return content;
+    }
+
+    private File fetch(URI uri, File metadataFile, boolean[] stored) throws IOException {
+        Properties metadata = readMetadata(metadataFile);
+        File content = (null != metadata) ? contentFile(metadata.getProperty("content")) : null;
+        if (null == content || !content.isFile()) {
+            // incomplete or dangling entry
+            metadata = null;
+            content = null;
+        }
+        long now = System.currentTimeMillis();
+        if (null != metadata && now - Long.parseLong(metadata.getProperty("fetched", "0")) < this.maxAge) {
+            hitCount.incrementAndGet();
+            content.setLastModified(now);
+            return content;
+        }
+        HttpURLConnection conn = null;
+        try {
+            conn = openConnection(uri, metadata);
+            int status = conn.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && null != metadata) {
+                revalidationCount.incrementAndGet();
+                metadata.setProperty("fetched", Long.toString(now));
+                writeMetadata(metadata, metadataFile);
+                content.setLastModified(now);
+                return content;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException(String.format("Unexpected response status %d from %s", status, uri));
+            }
+            fetchCount.incrementAndGet();
+            content = store(conn.getInputStream());
+            metadata = new Properties();
+            metadata.setProperty("uri", uri.toString());
+            metadata.setProperty("fetched", Long.toString(now));
+            metadata.setProperty("content", content.getName().replace(CONTENT_SUFFIX, ""));
+            setProperty(metadata, "etag", conn.getHeaderField("ETag"));
+            setProperty(metadata, "lastModified", conn.getHeaderField("Last-Modified"));
+            writeMetadata(metadata, metadataFile);
+            stored[0] = true;
+        } catch (IOException e) {
+            if (null == metadata) {
+                throw e;
+            }
+            TestSuiteLogger.log(Level.WARNING,
+                    String.format("Failed to revalidate %s, using cached copy: %s", uri, e.getMessage()));
+            return content;
+        } finally {
+            ClientUtils.release(conn);
+        }
+        return content;
+    }
+
+    /**
+     * Opens a connection to the given location, following redirects (including
+     * those that switch from http to https). A conditional request is made if
+     * a cached copy exists.
+     */
+    private HttpURLConnection openConnection(URI uri, Properties metadata) throws IOException {
+        URI location = uri;
+        for (int i = 0; i <= MAX_REDIRECTS; i++) {
+            HttpURLConnection conn = ClientUtils.openConnection(location);
+            conn.setInstanceFollowRedirects(false);
+            if (null != metadata) {
+                if (null != metadata.getProperty("etag")) {
+                    conn.setRequestProperty("If-None-Match", metadata.getProperty("etag"));
+                }
+                if (null != metadata.getProperty("lastModified")) {
+                    conn.setRequestProperty("If-Modified-Since", metadata.getProperty("lastModified"));
+                }
+            }
+            int status;
+            try {
+                status = conn.getResponseCode();
+            } catch (IOException e) {
+                ClientUtils.disconnect(conn);
+                throw e;
+            }
+            String redirect = conn.getHeaderField("Location");
+            if (status < 300 || status > 308 || status == HttpURLConnection.HTTP_NOT_MODIFIED || null == redirect) {
+                return conn;
+            }
+            ClientUtils.release(conn);
+            location = location.resolve(redirect);
+        }
+        throw new IOException("Too many redirects: " + uri);
+    }
+
+    /**
+     * Writes the content of the given stream to the cache directory, using its
+     * SHA-256 digest as the file name.
+     */
+    private File store(InputStream body) throws IOException {
+        if (!this.cacheDir.isDirectory() && !this.cacheDir.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + this.cacheDir);
+        }
+        File tempFile = File.createTempFile("fetch-", ".tmp", this.cacheDir);
+        MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(body, digest);
+                OutputStream out = new FileOutputStream(tempFile)) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+        File content = contentFile(toHex(digest.digest()));
+        try {
+            if (content.isFile()) {
+                // same digest, same content
+                content.setLastModified(System.currentTimeMillis());
+            } else {
+                moveIntoPlace(tempFile, content);
+            }
+        } catch (IOException e) {
+            if (!content.isFile()) {
+                throw e;
+            }
+            // stored concurrently (e.g. by another process)
+        } finally {
+            tempFile.delete();
+        }
+        return content;
+    }
+
+    /**
+     * Moves a temporary file into place. An atomic rename never exposes a
+     * missing or partial file; if the target already exists the outcome of
+     * an atomic move depends on the file system, in which case the target is
+     * replaced by an ordinary move.
+     */
+    private static void moveIntoPlace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException | FileAlreadyExistsException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Removes the least recently used documents until their total size does
+     * not exceed the quota. A content file is removed together with the
+     * metadata files that refer to it (the metadata first, so that an entry
+     * never refers to a missing file). Eviction excludes concurrent fetches.
+     *
+     * @param keep
+     *            A content file that must not be removed (the one just stored);
+     *            it may be {@code null}.
+     */
+    void enforceQuota(File keep) {
+        this.evictionLock.writeLock().lock();
+        try {
+            File[] files = this.cacheDir.listFiles();
+            if (null == files) {
+                return;
+            }
+            long totalSize = 0;
+            for (File file : files) {
+                if (file.getName().endsWith(CONTENT_SUFFIX)) {
+                    totalSize += file.length();
+                }
+            }
+            if (totalSize <= this.quota) {
+                return;
+            }
+            Map<String, List<File>> referrers = new HashMap<String, List<File>>();
+            for (File file : files) {
+                if (!file.getName().endsWith(METADATA_SUFFIX)) {
+                    continue;
+                }
+                Properties metadata = readMetadata(file);
+                String digest = (null != metadata) ? metadata.getProperty("content") : null;
+                if (null == digest) {
+                    file.delete();
+                    continue;
+                }
+                List<File> entries = referrers.get(digest);
+                if (null == entries) {
+                    entries = new ArrayList<File>();
+                    referrers.put(digest, entries);
+                }
+                entries.add(file);
+            }
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File f1, File f2) {
+                    return Long.compare(f1.lastModified(), f2.lastModified());
+                }
+            });
+            for (File file : files) {
+                if (totalSize <= this.quota) {
+                    break;
+                }
+                String name = file.getName();
+                if (!name.endsWith(CONTENT_SUFFIX) || file.equals(keep)) {
+                    continue;
+                }
+                List<File> entries = referrers.get(name.substring(0, name.length() - CONTENT_SUFFIX.length()));
+                if (null != entries) {
+                    for (File metadataFile : entries) {
+                        metadataFile.delete();
+                    }
+                }
+                long length = file.length();
+                if (file.delete()) {
+                    totalSize -= length;
+                    TestSuiteLogger.log(Level.FINE, "Evicted cached schema document " + name);
+                }
+            }
+        } finally {
+            this.evictionLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the maximum age of a cached document before it is revalidated.
+     *
+     * @return The maximum age (ms).
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Returns the number of requests satisfied from the cache without
+     * contacting the origin server.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of cached documents that were successfully
+     * revalidated (the origin server responded with status 304).
+     *
+     * @return The revalidation count.
+     */
+    public long getRevalidationCount() {
+        return revalidationCount.get();
+    }
+
+    /**
+     * Returns the number of documents retrieved in full from an origin
+     * server.
+     *
+     * @return The fetch count.
+     */
+    public long getFetchCount() {
+        return fetchCount.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("SchemaDocumentCache[");
+        sb.append("dir=").append(this.cacheDir).append(", hits=").append(hitCount.get());
+        sb.append(", revalidations=").append(revalidationCount.get()).append(", fetches=").append(fetchCount.get());
+        sb.append(']');
+        return sb.toString();
+    }
+
+    private File contentFile(String digest) {
+        return (null != digest) ? new File(this.cacheDir, digest + CONTENT_SUFFIX) : null;
+    }
+
+    private static Properties readMetadata(File metadataFile) {
+        if (!metadataFile.isFile()) {
+            return null;
+        }
+        Properties metadata = new Properties();
+        try (InputStream in = new FileInputStream(metadataFile)) {
+            metadata.load(in);
+        } catch (IOException e) {
+            TestSuiteLogger.log(Level.FINE, "Failed to read cache metadata from " + metadataFile, e);
+            return null;
+        }
+        return metadata;
+    }
+
+    private static void writeMetadata(Properties metadata, File metadataFile) throws IOException {
+        File tempFile = File.createTempFile("meta-", ".tmp", metadataFile.getParentFile());
+        try (OutputStream out = new FileOutputStream(tempFile)) {
+            metadata.store(out, metadata.getProperty("uri"));
+        }
+        try {
+            moveIntoPlace(tempFile, metadataFile);
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private static void setProperty(Properties props, String name, String value) {
+        if (null != value) {
+            props.setProperty(name, value);
+        }
+    }
+
+    static String sha256Hex(byte[] data) {
+        return toHex(newDigest().digest(data));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,349 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.xerces.util.XMLCatalogResolver;
+
+/**
+ * Discovers the import/include graph of a set of schema documents and
+ * retrieves all remote documents in the graph concurrently, one level of the
+ * graph at a time. The retrieved documents are held in memory so that schema
+ * compilation does not have to wait on the network for each reference in turn.
+ * References that are resolved by the entity catalog are not retrieved.
+ *
+ * <p>
+ * The following system properties apply:
+ * </p>
+ * <ul>
+ * <li>{@value #THREADS_PROPERTY}: size of the shared thread pool (default:
+ * {@value #DEFAULT_THREADS})</li>
+ * <li>{@value #MAX_PER_HOST_PROPERTY}: maximum number of concurrent requests
+ * to a single host (default: {@value #DEFAULT_MAX_PER_HOST})</li>
+ * <li>{@value #TIMEOUT_PROPERTY}: time limit in seconds for retrieving one
+ * level of the graph (default: {@value #DEFAULT_TIMEOUT})</li>
+ * </ul>
+ */
+public class SchemaPrefetcher {
+
+    /**
+     * Name of the system property that specifies the number of fetcher
+     * threads.
+     */
+    public static final String THREADS_PROPERTY = "org.opengis.cite.gml32.data.prefetch.threads";
+    /**
+     * Name of the system property that specifies the per-host concurrency
+     * limit.
+     */
+    public static final String MAX_PER_HOST_PROPERTY = "org.opengis.cite.gml32.data.prefetch.maxPerHost";
+    /**
+     * Name of the system property that specifies the time limit (s) per level.
+     */
+    public static final String TIMEOUT_PROPERTY = "org.opengis.cite.gml32.data.prefetch.timeout";
+    /**
+     * The default number of fetcher threads.
+     */
+    public static final int DEFAULT_THREADS = 8;
+    /**
+     * The default per-host concurrency limit.
+     */
+    public static final int DEFAULT_MAX_PER_HOST = 4;
+    /**
+     * The default time limit (s) for retrieving one level of the graph.
+     */
+    public static final int DEFAULT_TIMEOUT = 60;
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS), new ThreadFactory() {
+                private final AtomicInteger threadCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "schema-prefetch-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    private static final ConcurrentMap<String, Semaphore> HOST_PERMITS = new ConcurrentHashMap<String, Semaphore>();
+    private static final Set<String> SCHEMA_REFS = new HashSet<String>(
+            Arrays.asList("import", "include", "redefine", "override"));
+    private final XMLCatalogResolver catalogResolver;
+    private final SchemaDocumentCache docCache;
+    private final SharedGrammarPool grammarPool;
+    private final XMLInputFactory staxFactory;
+    private final int maxPerHost;
+    private final long timeout;
+    private final ArchiveCatalog archive;
+
+    /**
+     * Constructs a prefetcher that uses the given catalog resolver and
+     * document cache.
+     *
+     * @param catalogResolver
+     *            A resolver that uses an entity catalog.
+     * @param docCache
+     *            A cache of remote schema documents.
+     * @param grammarPool
+     *            A pool of reusable grammars; an import that will be satisfied
+     *            from this pool is not retrieved.
+     */
+    public SchemaPrefetcher(XMLCatalogResolver catalogResolver, SchemaDocumentCache docCache,
+            SharedGrammarPool grammarPool) {
+        this(catalogResolver, docCache, grammarPool, null);
+    }
+
+    /**
+     * Constructs a prefetcher that also reads schema documents packaged in an
+     * archive.
+     *
+     * @param catalogResolver
+     *            A resolver that uses an entity catalog.
+     * @param docCache
+     *            A cache of remote schema documents.
+     * @param grammarPool
+     *            A pool of reusable grammars.
+     * @param archive
+     *            An archive that contains some schema documents (may be null);
+     *            its documents are included in the result.
+     */
+    public SchemaPrefetcher(XMLCatalogResolver catalogResolver, SchemaDocumentCache docCache,
+            SharedGrammarPool grammarPool, ArchiveCatalog archive) {
+        this.archive = archive;
+        this.catalogResolver = catalogResolver;
+        this.docCache = docCache;
+        this.grammarPool = grammarPool;
+        this.staxFactory = StaxFactories.getSchemaInputFactory();
+        this.maxPerHost = Math.max(1, Integer.getInteger(MAX_PER_HOST_PROPERTY, DEFAULT_MAX_PER_HOST));
+        this.timeout = Integer.getInteger(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Retrieves all schema documents reachable from the given references.
+     * Documents that cannot be retrieved or parsed are skipped; any problem
+     * will be reported when the schema is compiled.
+     *
+     * @param schemaRefs
+     *            A collection of absolute URIs that refer to schema documents.
+     * @return A map containing the content of each remote (or archived)
+     *         document, keyed by its (normalized) location.
+     */
+    public Map<String, byte[]> prefetch(Collection<URI> schemaRefs) {
+        return prefetch(schemaRefs, false);
+    }
+
+    /**
+     * Retrieves all schema documents reachable from the given references in
+     * order to determine their content. Unlike {@link #prefetch(Collection)},
+     * local documents are included in the result and imports are never
+     * skipped because the grammar pool can satisfy them, so the result does
+     * not depend on what the pool currently holds.
+     *
+     * @param schemaRefs
+     *            A collection of absolute URIs that refer to schema documents.
+     * @return A map containing the content of each document that is not
+     *         bundled with the test suite, keyed by its (normalized) location.
+     */
+    public Map<String, byte[]> collect(Collection<URI> schemaRefs) {
+        return prefetch(schemaRefs, true);
+    }
+
+    private Map<String, byte[]> prefetch(Collection<URI> schemaRefs, final boolean collectAll) {
+        final ConcurrentMap<String, byte[]> documents = new ConcurrentHashMap<String, byte[]>();
+        Set<URI> visited = new HashSet<URI>();
+        List<URI> level = new ArrayList<URI>();
+        for (URI schemaRef : schemaRefs) {
+            URI uri = schemaRef.normalize();
+            if (visited.add(uri) && !isBundled(uri.toString(), null)) {
+                level.add(uri);
+            }
+        }
+        while (!level.isEmpty()) {
+            List<Callable<List<URI>>> tasks = new ArrayList<Callable<List<URI>>>();
+            for (final URI uri : level) {
+                tasks.add(new Callable<List<URI>>() {
+                    @Override
+                    public List<URI> call() throws Exception {
+                        return retrieve(uri, documents, collectAll);
+                    }
+                });
+            }
+            List<Future<List<URI>>> results;
+            try {
+                results = EXECUTOR.invokeAll(tasks, this.timeout, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            List<URI> nextLevel = new ArrayList<URI>();
+            for (Future<List<URI>> result : results) {
+                if (result.isCancelled()) {
+                    TestSuiteLogger.log(Level.FINE, "Schema prefetch timed out after " + this.timeout + " s");
+                    continue;
+                }
+                try {
+                    for (URI ref : result.get()) {
+                        if (visited.add(ref)) {
+                            nextLevel.add(ref);
+                        }
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    TestSuiteLogger.log(Level.FINE, "Schema prefetch failed: " + e.getCause());
+                }
+            }
+            level = nextLevel;
+        }
+        return documents;
+    }
+
+    /**
+     * Retrieves a schema document and extracts the references it contains.
+     *
+     * @param uri
+     *            The location of a schema document.
+     * @param documents
+     *            The collection of retrieved (remote) documents.
+     * @param collectAll
+     *            Whether or not to include local documents and imports that
+     *            the grammar pool can satisfy.
+     * @return A list of absolute URIs referring to other schema documents that
+     *         are not bundled.
+     */
+    List<URI> retrieve(URI uri, Map<String, byte[]> documents, boolean collectAll) {
+        byte[] content;
+        try {
+            if (null != this.archive && this.archive.contains(uri)) {
+                content = this.archive.read(uri);
+                documents.put(uri.toString(), content);
+            } else if (this.docCache.isCacheable(uri)) {
+                Semaphore permits = hostPermits(uri.getHost());
+                permits.acquire();
+                try (InputStream in = this.docCache.openStream(uri)) {
+                    content = readAll(in);
+                } finally {
+                    permits.release();
+                }
+                documents.put(uri.toString(), content);
+            } else if ("file".equalsIgnoreCase(uri.getScheme())) {
+                content = Files.readAllBytes(Paths.get(uri));
+                if (collectAll) {
+                    documents.put(uri.toString(), content);
+                }
+            } else {
+                return new ArrayList<URI>();
+            }
+        } catch (IOException | RuntimeException e) {
+            TestSuiteLogger.log(Level.FINE, String.format("Failed to prefetch %s: %s", uri, e.getMessage()));
+            return new ArrayList<URI>();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ArrayList<URI>();
+        }
+        try {
+            return findSchemaReferences(uri, content, collectAll);
+        } catch (XMLStreamException e) {
+            TestSuiteLogger.log(Level.FINE, String.format("Failed to parse %s: %s", uri, e.getMessage()));
+            return new ArrayList<URI>();
+        }
+    }
+
+    /**
+     * Finds the schema documents referenced by import, include, redefine, or
+     * override elements. An import that will be satisfied from the grammar
+     * pool is omitted unless all references are wanted.
+     */
+    private List<URI> findSchemaReferences(URI baseUri, byte[] content, boolean collectAll)
+            throws XMLStreamException {
+        List<URI> refs = new ArrayList<URI>();
+        XMLStreamReader reader = this.staxFactory.createXMLStreamReader(baseUri.toString(),
+                new ByteArrayInputStream(content));
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT
+                        || !XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(reader.getNamespaceURI())
+                        || !SCHEMA_REFS.contains(reader.getLocalName())) {
+                    continue;
+                }
+                String location = reader.getAttributeValue(null, "schemaLocation");
+                if (null == location || isBundled(location, reader.getAttributeValue(null, "namespace"))) {
+                    continue;
+                }
+                try {
+                    URI ref = baseUri.resolve(location.trim()).normalize();
+                    String namespace = reader.getAttributeValue(null, "namespace");
+                    boolean pooled = "import".equals(reader.getLocalName())
+                            && this.grammarPool.contains(namespace, ref.toString());
+                    if (!isBundled(ref.toString(), null) && (collectAll || !pooled)) {
+                        refs.add(ref);
+                    }
+                } catch (IllegalArgumentException e) {
+                    TestSuiteLogger.log(Level.FINE, "Invalid schema location: " + location);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return refs;
+    }
+
+    /**
+     * Indicates whether a schema reference is resolved by the entity catalog,
+     * either by location or by (imported) namespace name.
+     */
+    private boolean isBundled(String location, String namespace) {
+        try {
+            return null != this.catalogResolver.resolveSystem(location)
+                    || (null != namespace && null != this.catalogResolver.resolveURI(namespace));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            content.write(buffer, 0, n);
+        }
+        return content.toByteArray();
+    }
+
+    private Semaphore hostPermits(String host) {
+        String key = (null != host) ? host.toLowerCase() : "";
+        Semaphore permits = HOST_PERMITS.get(key);
+        if (null == permits) {
+            HOST_PERMITS.putIfAbsent(key, new Semaphore(this.maxPerHost));
+            permits = HOST_PERMITS.get(key);
+        }
+        return permits;
+    }
+}
@@ -0,0 +1,332 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.SAXException;
+
+/**
+ * A process-wide cache of compiled Schematron schemas. An entry is keyed by
+ * the schema location, the phase, and a SHA-256 digest of the schema content,
+ * so a schema that changes is recompiled even if its location does not. A
+ * schema requested by location is first looked up by location and phase (and,
+ * for a local file, its length and modification time); it is read only if no
+ * compiled schema was previously obtained from that location. A
+ * {@link CompiledSchematron} object is immutable and thread-safe, so it may be
+ * shared by concurrent test runs; each run obtains its own validator from it.
+ *
+ * <p>
+ * The number of entries is bounded; the least recently used entry is evicted
+ * when the limit is exceeded. The limit is set using the system property
+ * {@value #MAX_ENTRIES_PROPERTY} (default: {@value #DEFAULT_MAX_ENTRIES}); a
+ * value of zero disables caching.
+ * </p>
+ */
+public class SchematronCache {
+
+    /**
+     * Name of the system property that specifies the maximum number of cache
+     * entries.
+     */
+    public static final String MAX_ENTRIES_PROPERTY = "org.opengis.cite.gml32.data.schematronCache.maxEntries";
+    /**
+     * The default maximum number of cache entries.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 16;
+    private static final SchematronCache INSTANCE = new SchematronCache(
+            Integer.getInteger(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES));
+    private final int maxEntries;
+    private final Map<String, CompiledSchematron> entries;
+    /**
+     * Maps a location key to the key of the entry compiled from it.
+     */
+    private final Map<String, String> locations;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Returns the shared cache instance.
+     *
+     * @return The process-wide SchematronCache.
+     */
+    public static SchematronCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Constructs a cache that holds up to the given number of entries.
+     *
+     * @param maxEntries
+     *            The maximum number of entries (a value less than 1 disables
+     *            caching).
+     */
+    SchematronCache(int maxEntries) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.entries = new LinkedHashMap<String, CompiledSchematron>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledSchematron> eldest) {
+                boolean evict = size() > SchematronCache.this.maxEntries;
+                if (evict) {
+                    evictionCount.incrementAndGet();
+                    TestSuiteLogger.log(Level.FINE, "Evicted compiled Schematron schema from cache: " + eldest.getKey());
+                }
+                return evict;
+            }
+        };
+        this.locations = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > SchematronCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Gets a compiled Schematron schema, reading and compiling it if necessary.
+     * The schema is not read if a schema previously obtained from the same
+     * location (for the same phase) is still cached. A local file is read
+     * again if its length or modification time has changed.
+     *
+     * @param schemaURI
+     *            An absolute URI that specifies the location of the schema.
+     * @param phase
+     *            The phase to invoke (if null or empty, the default phase
+     *            applies).
+     * @return A CompiledSchematron object.
+     * @throws SAXException
+     *             If the schema cannot be read or compiled.
+     */
+    public CompiledSchematron get(URI schemaURI, String phase) throws SAXException {
+        String location = createLocationKey(schemaURI, phase);
+        CompiledSchematron schema = null;
+        synchronized (entries) {
+            String key = locations.get(location);
+            if (null != key) {
+                schema = entries.get(key);
+            }
+        }
+        if (null != schema) {
+            hitCount.incrementAndGet();
+            return schema;
+        }
+        byte[] content;
+        try (InputStream input = ClientUtils.openStream(schemaURI)) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] bytes = new byte[8192];
+            int n;
+            while ((n = input.read(bytes)) > 0) {
+                buffer.write(bytes, 0, n);
+            }
+            content = buffer.toByteArray();
+        } catch (IOException | IllegalArgumentException e) {
+            throw new SAXException("Failed to read Schematron schema at " + schemaURI + ": " + e.getMessage(), e);
+        }
+        String systemId = schemaURI.toString();
+        schema = get(systemId, content, phase);
+        if (maxEntries > 0) {
+            synchronized (entries) {
+                locations.put(location, createKey(systemId, content, phase));
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Gets a compiled Schematron schema, compiling the given content if no
+     * matching entry exists. Compilation takes place outside of any lock, so
+     * concurrent requests for a new schema may compile it more than once.
+     *
+     * @param systemId
+     *            The system identifier of the schema (used to resolve relative
+     *            references).
+     * @param content
+     *            The schema content.
+     * @param phase
+     *            The phase to invoke (if null or empty, the default phase
+     *            applies).
+     * @return A CompiledSchematron object.
+     * @throws SAXException
+     *             If the schema cannot be compiled.
+     */
+    public CompiledSchematron get(String systemId, byte[] content, String phase) throws SAXException {
+        String key = createKey(systemId, content, phase);
+        CompiledSchematron schema;
+        synchronized (entries) {
+            schema = entries.get(key);
+        }
+        if (null != schema) {
+            hitCount.incrementAndGet();
+            return schema;
+        }
+        missCount.incrementAndGet();
+        StreamSource source = new StreamSource(new ByteArrayInputStream(content), systemId);
+        schema = new CompiledSchematron(source, phase);
+        if (maxEntries > 0) {
+            synchronized (entries) {
+                entries.put(key, schema);
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Gets a compiled Schematron schema from a precompiled stylesheet (see
+     * {@link SchematronCompiler}). Such stylesheets are bundled with the test
+     * suite and do not change, so the entry is keyed by location alone.
+     *
+     * @param stylesheetURI
+     *            An absolute URI that specifies the location of the
+     *            stylesheet.
+     * @param phase
+     *            The phase for which the stylesheet was generated.
+     * @return A CompiledSchematron object.
+     * @throws SAXException
+     *             If the stylesheet cannot be read or compiled.
+     */
+    public CompiledSchematron getPrecompiled(URI stylesheetURI, String phase) throws SAXException {
+        String key = "xslt " + stylesheetURI + ' ' + ((null != phase) ? phase : "");
+        CompiledSchematron schema;
+        synchronized (entries) {
+            schema = entries.get(key);
+        }
+        if (null != schema) {
+            hitCount.incrementAndGet();
+            return schema;
+        }
+        missCount.incrementAndGet();
+        schema = CompiledSchematron.fromStylesheet(new StreamSource(stylesheetURI.toString()), phase);
+        if (maxEntries > 0) {
+            synchronized (entries) {
+                entries.put(key, schema);
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Creates a cache key for a Schematron schema.
+     *
+     * @param systemId
+     *            The schema location (may be null).
+     * @param content
+     *            The schema content.
+     * @param phase
+     *            The phase to invoke (may be null).
+     * @return A String that identifies the compiled schema.
+     */
+    static String createKey(String systemId, byte[] content, String phase) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder key = new StringBuilder();
+        key.append((null != systemId) ? systemId : "").append(' ');
+        key.append((null != phase) ? phase : "").append(' ');
+        for (byte b : digest.digest(content)) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Creates a key that identifies a schema by location and phase. The key
+     * for a local file also includes its length and modification time.
+     *
+     * @param schemaURI
+     *            The schema location.
+     * @param phase
+     *            The phase to invoke (may be null).
+     * @return A String that identifies the schema location.
+     */
+    static String createLocationKey(URI schemaURI, String phase) {
+        StringBuilder key = new StringBuilder(schemaURI.toString());
+        key.append(' ').append((null != phase) ? phase : "");
+        if ("file".equalsIgnoreCase(schemaURI.getScheme())) {
+            try {
+                File file = new File(schemaURI);
+                key.append(' ').append(file.length()).append(' ').append(file.lastModified());
+            } catch (IllegalArgumentException e) {
+                // not a hierarchical file URI; read it every time
+                key.append(' ').append(System.nanoTime());
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Removes all entries from the cache. The hit and miss counters are not
+     * affected.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            locations.clear();
+        }
+    }
+
+    /**
+     * Returns the number of entries currently in the cache.
+     *
+     * @return The current cache size.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of successful lookups.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of failed lookups.
+     *
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of entries that have been evicted.
+     *
+     * @return The eviction count.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("SchematronCache[");
+        sb.append("size=").append(size()).append(", maxEntries=").append(maxEntries);
+        sb.append(", hits=").append(hitCount.get()).append(", misses=").append(missCount.get());
+        sb.append(", evictions=").append(evictionCount.get()).append(']');
+        return sb.toString();
+    }
+}
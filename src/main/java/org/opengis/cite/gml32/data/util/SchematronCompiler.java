@@ -0,0 +1,69 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.File;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Generates an XSLT stylesheet from a Schematron schema. It is run during the
+ * build in order to precompile the bundled Schematron schemas; the resulting
+ * stylesheets are registered in the Schematron entity catalog so that they
+ * need not be generated at run time (see
+ * {@link ValidationUtils#buildCompiledSchematronValidator(String, String)}).
+ */
+public class SchematronCompiler {
+
+    private SchematronCompiler() {
+    }
+
+    /**
+     * Generates a stylesheet from a Schematron schema.
+     *
+     * <p>
+     * <strong>Synopsis</strong>
+     * </p>
+     *
+     * <pre>
+     * SchematronCompiler schema.sch stylesheet.xsl [phase]
+     * </pre>
+     *
+     * @param args
+     *            The location of the Schematron schema, the location of the
+     *            output file, and (optionally) the phase to invoke.
+     * @throws SAXException
+     *             If the schema cannot be compiled or the stylesheet cannot be
+     *             written.
+     */
+    public static void main(String[] args) throws SAXException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: SchematronCompiler schema.sch stylesheet.xsl [phase]");
+        }
+        String phase = (args.length > 2) ? args[2] : null;
+        compile(new File(args[0]), new File(args[1]), phase);
+    }
+
+    /**
+     * Generates a stylesheet from a Schematron schema and writes it to a file.
+     *
+     * @param schemaFile
+     *            A file containing a Schematron schema.
+     * @param outputFile
+     *            The file to which the stylesheet is written.
+     * @param phase
+     *            The phase to invoke (if null or empty, the default phase
+     *            applies).
+     * @throws SAXException
+     *             If the schema cannot be compiled or the stylesheet cannot be
+     *             written.
+     */
+    public static void compile(File schemaFile, File outputFile, String phase) throws SAXException {
+        File parent = outputFile.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new SAXException("Failed to create directory " + parent);
+        }
+        CompiledSchematron.writeStylesheet(
+                CompiledSchematron.generateStylesheet(new StreamSource(schemaFile), phase), outputFile);
+    }
+}
@@ -0,0 +1,291 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.apache.xerces.impl.XMLEntityManager;
+import org.apache.xerces.impl.xs.XSDDescription;
+import org.apache.xerces.util.XMLCatalogResolver;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
+import org.apache.xerces.xni.grammars.XMLSchemaDescription;
+
+/**
+ * A thread-safe grammar pool that is shared by all application schema
+ * compilations. It holds two kinds of grammars:
+ * <ul>
+ * <li>the base grammars for the bundled standard schemas (see
+ * {@link BaseGrammarPool}), which are retrieved by namespace name;</li>
+ * <li>grammars for remote schemas imported by an application schema, which
+ * are retrieved by namespace name <em>and</em> resolved document location.</li>
+ * </ul>
+ *
+ * <p>
+ * A grammar of the second kind is added ("promoted") only after an
+ * application schema that imports it has been compiled without error. It is
+ * discarded once it is older than the maximum age of the
+ * {@link SchemaDocumentCache}, or when it is the least recently used entry
+ * and the limit set by the system property {@value #MAX_ENTRIES_PROPERTY}
+ * (default: {@value #DEFAULT_MAX_ENTRIES}) is exceeded.
+ * </p>
+ */
+public class SharedGrammarPool implements XMLGrammarPool {
+
+    /**
+     * Name of the system property that specifies the maximum number of
+     * promoted grammars.
+     */
+    public static final String MAX_ENTRIES_PROPERTY = "org.opengis.cite.gml32.data.grammarPool.maxEntries";
+    /**
+     * The default maximum number of promoted grammars.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+    private static final SharedGrammarPool INSTANCE = new SharedGrammarPool(BaseGrammarPool.getInstance(),
+            SharedGrammarPool.class.getResource(BaseGrammarPool.SCHEMA_CATALOG),
+            Integer.getInteger(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES),
+            SchemaDocumentCache.getInstance().getMaxAge());
+    private final BaseGrammarPool basePool;
+    private final XMLCatalogResolver resolver;
+    private final int maxEntries;
+    private final long maxAge;
+    private final Map<String, Entry> entries;
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * Returns the shared grammar pool.
+     *
+     * @return The process-wide SharedGrammarPool.
+     */
+    public static SharedGrammarPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Constructs a grammar pool.
+     *
+     * @param basePool
+     *            A pool of preparsed base grammars.
+     * @param catalog
+     *            The location of the entity catalog used to resolve schema
+     *            references.
+     * @param maxEntries
+     *            The maximum number of promoted grammars (a value less than 1
+     *            disables promotion).
+     * @param maxAge
+     *            The maximum age (ms) of a promoted grammar.
+     */
+    SharedGrammarPool(BaseGrammarPool basePool, URL catalog, int maxEntries, long maxAge) {
+        this.basePool = basePool;
+        this.resolver = new XMLCatalogResolver(new String[] { catalog.toString() });
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxAge = maxAge;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > SharedGrammarPool.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the pool of base grammars.
+     *
+     * @return The BaseGrammarPool.
+     */
+    public BaseGrammarPool getBaseGrammars() {
+        return basePool;
+    }
+
+    @Override
+    public Grammar[] retrieveInitialGrammarSet(String grammarType) {
+        return this.basePool.getGrammarPool().retrieveInitialGrammarSet(grammarType);
+    }
+
+    @Override
+    public Grammar retrieveGrammar(XMLGrammarDescription desc) {
+        Grammar grammar = this.basePool.getGrammarPool().retrieveGrammar(desc);
+        if (null != grammar || !(desc instanceof XMLSchemaDescription)) {
+            return grammar;
+        }
+        grammar = lookup(createKey((XMLSchemaDescription) desc));
+        if (null != grammar) {
+            hitCount.incrementAndGet();
+        }
+        return grammar;
+    }
+
+    /**
+     * Gets the promoted grammar with the given key, discarding it if it has
+     * expired.
+     */
+    private Grammar lookup(String key) {
+        if (null == key) {
+            return null;
+        }
+        synchronized (this.entries) {
+            Entry entry = this.entries.get(key);
+            if (null == entry) {
+                return null;
+            }
+            if (System.currentTimeMillis() - entry.created >= this.maxAge) {
+                this.entries.remove(key);
+                return null;
+            }
+            return entry.grammar;
+        }
+    }
+
+    /**
+     * Indicates whether or not the pool contains a grammar for the given
+     * imported namespace and schema location.
+     *
+     * @param namespace
+     *            A namespace name (may be null).
+     * @param location
+     *            The absolute location of a schema document.
+     * @return {@code true} if a grammar is available; {@code false} otherwise.
+     */
+    public boolean contains(String namespace, String location) {
+        XSDDescription desc = new XSDDescription();
+        desc.setNamespace(namespace);
+        desc.setTargetNamespace(namespace);
+        desc.setLiteralSystemId(location);
+        return null != this.basePool.getGrammarPool().retrieveGrammar(desc) || null != lookup(createKey(desc));
+    }
+
+    /**
+     * Adds grammars for remote schemas that were imported by a successfully
+     * compiled application schema. Other grammars (base grammars, the grammars
+     * for the application schema itself, or those read from local files) are
+     * ignored.
+     *
+     * @param grammars
+     *            The grammars produced by compiling an application schema.
+     */
+    public void promote(Grammar[] grammars) {
+        if (this.maxEntries == 0) {
+            return;
+        }
+        for (Grammar grammar : grammars) {
+            XMLGrammarDescription desc = grammar.getGrammarDescription();
+            if (!(desc instanceof XSDDescription)
+                    || ((XSDDescription) desc).getContextType() != XSDDescription.CONTEXT_IMPORT
+                    || null != this.basePool.getGrammarPool().retrieveGrammar(desc)) {
+                continue;
+            }
+            String document = resolveDocument((XSDDescription) desc);
+            if (null == document || !(document.startsWith("http:") || document.startsWith("https:"))) {
+                continue;
+            }
+            String key = createKey(((XSDDescription) desc).getTargetNamespace(), document);
+            synchronized (this.entries) {
+                if (!this.entries.containsKey(key)) {
+                    this.entries.put(key, new Entry(grammar));
+                    TestSuiteLogger.log(Level.FINE, "Promoted grammar to shared pool: " + key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a key from the namespace name and resolved document location of
+     * a grammar description.
+     *
+     * @return A key of the form "namespace location", or {@code null} if the
+     *         description does not identify a schema document.
+     */
+    private String createKey(XMLSchemaDescription desc) {
+        String document = resolveDocument(desc);
+        return (null != document) ? createKey(desc.getTargetNamespace(), document) : null;
+    }
+
+    private static String createKey(String namespace, String document) {
+        return ((null != namespace) ? namespace : "") + ' ' + document;
+    }
+
+    /**
+     * Resolves the location of the schema document identified by a grammar
+     * description, using the entity catalog if possible.
+     *
+     * @return An absolute URI, or {@code null} if no location is given.
+     */
+    private String resolveDocument(XMLSchemaDescription desc) {
+        String location = desc.getLiteralSystemId();
+        if (null == location && null != desc.getLocationHints() && desc.getLocationHints().length > 0) {
+            location = desc.getLocationHints()[0];
+        }
+        if (null == location) {
+            return null;
+        }
+        try {
+            String document = this.resolver.resolveSystem(location);
+            return XMLEntityManager.expandSystemId((null != document) ? document : location,
+                    desc.getBaseSystemId(), false);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void cacheGrammars(String grammarType, Grammar[] grammars) {
+        // grammars are only added by promotion
+    }
+
+    @Override
+    public void lockPool() {
+        // always locked
+    }
+
+    @Override
+    public void unlockPool() {
+        // always locked
+    }
+
+    /**
+     * Removes all promoted grammars; the base grammars are retained.
+     */
+    @Override
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    /**
+     * Returns the number of promoted grammars.
+     *
+     * @return The number of grammars added by promotion.
+     */
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of successful lookups of promoted grammars.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    private static class Entry {
+
+        final Grammar grammar;
+        final long created;
+
+        Entry(Grammar grammar) {
+            this.grammar = grammar;
+            this.created = System.currentTimeMillis();
+        }
+    }
+}
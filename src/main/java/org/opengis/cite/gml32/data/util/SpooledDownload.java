@@ -0,0 +1,330 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Retrieves a remote resource in the background, spooling the response body
+ * to a temporary file. The content can be read while it is still being
+ * retrieved (see {@link #openStream()}), so that processing the resource
+ * overlaps with the network transfer; a reader blocks until more data arrive
+ * or the transfer is complete. An interrupted transfer is resumed if possible
+ * (see {@link RangeDownloader}).
+ *
+ * <p>
+ * Tee mode is used for http and https resources unless the system property
+ * {@value #TEE_PROPERTY} is set to "false", in which case the resource is
+ * retrieved in full before any test starts (see
+ * {@link URIUtils#dereferenceURI(URI)}).
+ * </p>
+ */
+public class SpooledDownload implements Closeable {
+
+    /**
+     * Name of the system property that enables or disables tee mode.
+     */
+    public static final String TEE_PROPERTY = "org.opengis.cite.gml32.data.download.tee";
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    /**
+     * Resources that were retrieved in full before the test run started (see
+     * {@link ResultCache#createKey(String, java.util.Map, java.net.URL)}).
+     */
+    private static final ConcurrentMap<URI, File> RETRIEVED = new ConcurrentHashMap<URI, File>();
+    private final URI uri;
+    private final File file;
+    private final Object lock = new Object();
+    private long length;
+    private boolean complete;
+    private IOException failure;
+    private volatile boolean cancelled;
+    private Thread spooler;
+
+    /**
+     * Indicates whether or not the given resource should be retrieved in tee
+     * mode.
+     *
+     * @param uri
+     *            An absolute URI.
+     * @return {@code true} if tee mode is enabled and the URI is an http or
+     *         https URI; {@code false} otherwise.
+     */
+    public static boolean isTeeEnabled(URI uri) {
+        String scheme = uri.getScheme();
+        return Boolean.parseBoolean(System.getProperty(TEE_PROPERTY, "true"))
+                && ("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme));
+    }
+
+    /**
+     * Makes a copy of a resource that was retrieved in full available to the
+     * next download of it, which then completes immediately without sending a
+     * request. The copy is deleted on exit if it is never used.
+     *
+     * @param uri
+     *            An absolute http or https URI.
+     * @param file
+     *            A File containing the (possibly compressed) response body.
+     */
+    static void offer(URI uri, File file) {
+        file.deleteOnExit();
+        File previous = RETRIEVED.put(uri, file);
+        if (null != previous && !previous.equals(file)) {
+            previous.delete();
+        }
+    }
+
+    /**
+     * Discards a previously retrieved copy of a resource (see
+     * {@link #start(URI)}) that is no longer needed.
+     *
+     * @param uri
+     *            An absolute URI.
+     */
+    public static void discard(URI uri) {
+        File retrieved = RETRIEVED.remove(uri);
+        if (null != retrieved) {
+            retrieved.delete();
+        }
+    }
+
+    /**
+     * Starts retrieving a resource. The request is sent and the response
+     * status is checked before this method returns; the response body is read
+     * by a background thread. If a copy of the resource was already retrieved
+     * in full before the test run started, it is used instead.
+     *
+     * @param uri
+     *            An absolute http or https URI.
+     * @return A SpooledDownload that is in progress.
+     * @throws IOException
+     *             If the request fails or the spool file cannot be created.
+     */
+    public static SpooledDownload start(URI uri) throws IOException {
+        File retrieved = RETRIEVED.remove(uri);
+        if (null != retrieved && retrieved.isFile()) {
+            SpooledDownload download = new SpooledDownload(uri, retrieved);
+            download.length = retrieved.length();
+            download.complete = true;
+            TestSuiteLogger.log(Level.FINE, "Using previously retrieved copy of " + uri);
+            return download;
+        }
+        RangeDownloader downloader = new RangeDownloader(uri);
+        downloader.setRestartAllowed(false);
+        String contentType = downloader.connect();
+        String suffix = (null != contentType && contentType.endsWith("xml")) ? ".xml" : null;
+        SpooledDownload download;
+        try {
+            download = new SpooledDownload(uri, File.createTempFile("entity-", suffix));
+        } catch (IOException e) {
+            downloader.close();
+            throw e;
+        }
+        download.spool(downloader);
+        return download;
+    }
+
+    SpooledDownload(URI uri, File file) {
+        this.uri = uri;
+        this.file = file;
+    }
+
+    /**
+     * Transfers the resource to the spool file on a new (daemon) thread.
+     */
+    void spool(final RangeDownloader downloader) {
+        this.spooler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                transfer(downloader);
+            }
+        }, "spooled-download-" + THREAD_COUNT.incrementAndGet());
+        this.spooler.setDaemon(true);
+        this.spooler.start();
+    }
+
+    private void transfer(RangeDownloader downloader) {
+        IOException error = null;
+        try {
+            downloader.transferTo(this.file, new RangeDownloader.Listener() {
+                @Override
+                public void transferred(long total) throws IOException {
+                    if (cancelled) {
+                        throw new IOException("Transfer was cancelled: " + uri);
+                    }
+                    synchronized (lock) {
+                        length = total;
+                        lock.notifyAll();
+                    }
+                }
+            });
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            downloader.close();
+        }
+        synchronized (this.lock) {
+            this.failure = error;
+            this.complete = true;
+            this.lock.notifyAll();
+        }
+        TestSuiteLogger.log(Level.FINE, String.format("Wrote %d bytes from %s to %s%s", this.length, this.uri,
+                this.file.getAbsolutePath(), (null != error) ? " (failed: " + error.getMessage() + ")" : ""));
+    }
+
+    /**
+     * Returns the spool file. Its content is incomplete until the transfer is
+     * complete (see {@link #await()}).
+     *
+     * @return The File to which the resource is written.
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns the location of the resource.
+     *
+     * @return An absolute URI.
+     */
+    public URI getURI() {
+        return this.uri;
+    }
+
+    /**
+     * Opens a stream for reading the content of the resource from the
+     * beginning, while it is being retrieved. Reading blocks until more data
+     * are available; an IOException is thrown if the transfer fails.
+     *
+     * @return An InputStream.
+     * @throws IOException
+     *             If the spool file cannot be opened.
+     */
+    public InputStream openStream() throws IOException {
+        return new SpoolInputStream();
+    }
+
+    /**
+     * Waits until the transfer is complete.
+     *
+     * @return The File containing the entire resource.
+     * @throws IOException
+     *             If the transfer failed or was interrupted.
+     */
+    public File await() throws IOException {
+        synchronized (this.lock) {
+            while (!this.complete) {
+                try {
+                    this.lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while retrieving " + this.uri);
+                }
+            }
+            if (null != this.failure) {
+                throw this.failure;
+            }
+        }
+        return this.file;
+    }
+
+    /**
+     * Indicates whether or not the transfer is complete (successfully or not).
+     *
+     * @return {@code true} if no more data will be written to the spool file.
+     */
+    public boolean isComplete() {
+        synchronized (this.lock) {
+            return this.complete;
+        }
+    }
+
+    /**
+     * Cancels the transfer if it is still in progress. The spool file is not
+     * deleted.
+     */
+    @Override
+    public void close() {
+        this.cancelled = true;
+    }
+
+    /**
+     * Reads the spool file as it grows.
+     */
+    private class SpoolInputStream extends InputStream {
+
+        private final InputStream input;
+        private long position;
+
+        SpoolInputStream() throws IOException {
+            this.input = new FileInputStream(file);
+        }
+
+        /**
+         * Waits until data beyond the current position are available.
+         *
+         * @return The number of bytes that can be read without blocking, or -1
+         *         at the end of the resource.
+         */
+        private long awaitData() throws IOException {
+            synchronized (lock) {
+                while (this.position >= length && !complete) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while retrieving " + uri);
+                    }
+                }
+                if (this.position < length) {
+                    return length - this.position;
+                }
+                if (null != failure) {
+                    throw new IOException("Failed to retrieve " + uri + ": " + failure.getMessage(), failure);
+                }
+                return -1;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            long available = awaitData();
+            if (available < 0) {
+                return -1;
+            }
+            int n = this.input.read(b, off, (int) Math.min(len, available));
+            if (n > 0) {
+                this.position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            synchronized (lock) {
+                return (int) Math.min(Integer.MAX_VALUE, Math.max(0, length - this.position));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.input.close();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+import javax.xml.stream.XMLInputFactory;
+
+/**
+ * Provides shared StAX input factories. A configured factory is thread-safe
+ * for the purpose of creating readers, so a single instance is used for all
+ * documents of a given kind rather than creating a new factory for each one.
+ *
+ * <p>
+ * The StAX implementation is selected using the system property
+ * {@value #INPUT_FACTORY_PROPERTY}. Its value is either the name of a class
+ * that extends {@link XMLInputFactory} or one of the following aliases:
+ * </p>
+ * <ul>
+ * <li>"default": the implementation found by the standard lookup procedure
+ * (usually the one included in the JDK); this is the default;</li>
+ * <li>"woodstox": Woodstox (<code>com.ctc.wstx.stax.WstxInputFactory</code>);
+ * </li>
+ * <li>"aalto": Aalto XML (<code>com.fasterxml.aalto.stax.InputFactoryImpl</code>).
+ * </li>
+ * </ul>
+ * <p>
+ * If the selected implementation is not available the default one is used.
+ * Woodstox and Aalto are not deployed with the test suite by default; build it
+ * with the Maven profile <code>stax-alternatives</code> to include them in the
+ * runtime dependencies, or add their JAR files to the class path.
+ * </p>
+ */
+public class StaxFactories {
+
+    /**
+     * Name of the system property that specifies the StAX implementation.
+     */
+    public static final String INPUT_FACTORY_PROPERTY = "org.opengis.cite.gml32.data.stax.inputFactory";
+    /**
+     * The default StAX implementation.
+     */
+    public static final String DEFAULT_INPUT_FACTORY = "default";
+    private static final Map<String, String> ALIASES = new HashMap<String, String>();
+    static {
+        ALIASES.put("woodstox", "com.ctc.wstx.stax.WstxInputFactory");
+        ALIASES.put("aalto", "com.fasterxml.aalto.stax.InputFactoryImpl");
+    }
+    private static final XMLInputFactory INPUT_FACTORY = initInputFactory();
+    private static final XMLInputFactory SCHEMA_INPUT_FACTORY = initSchemaInputFactory();
+
+    private StaxFactories() {
+    }
+
+    private static XMLInputFactory initInputFactory() {
+        XMLInputFactory factory = newInputFactory(System.getProperty(INPUT_FACTORY_PROPERTY, DEFAULT_INPUT_FACTORY));
+        TestSuiteLogger.log(Level.CONFIG, "Using StAX input factory " + factory.getClass().getName());
+        return configure(factory);
+    }
+
+    private static XMLInputFactory initSchemaInputFactory() {
+        XMLInputFactory factory = newInputFactory(System.getProperty(INPUT_FACTORY_PROPERTY, DEFAULT_INPUT_FACTORY));
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Returns the shared factory for reading instance documents. Readers are
+     * namespace-aware and coalesce adjacent character data; entity references
+     * are replaced, but external entities are not resolved.
+     *
+     * @return A configured XMLInputFactory.
+     */
+    public static XMLInputFactory getInputFactory() {
+        return INPUT_FACTORY;
+    }
+
+    /**
+     * Returns the shared factory for reading schema documents. DTDs are not
+     * processed.
+     *
+     * @return A configured XMLInputFactory.
+     */
+    public static XMLInputFactory getSchemaInputFactory() {
+        return SCHEMA_INPUT_FACTORY;
+    }
+
+    /**
+     * Creates a new (unconfigured) factory using the given StAX
+     * implementation.
+     *
+     * @param backend
+     *            The name of an XMLInputFactory class or an alias ("default",
+     *            "woodstox", "aalto").
+     * @return A new XMLInputFactory; the default implementation is used if the
+     *         requested one is not available.
+     */
+    public static XMLInputFactory newInputFactory(String backend) {
+        if (null == backend || backend.isEmpty() || backend.equals(DEFAULT_INPUT_FACTORY)) {
+            return XMLInputFactory.newInstance();
+        }
+        String className = ALIASES.containsKey(backend) ? ALIASES.get(backend) : backend;
+        try {
+            return Class.forName(className).asSubclass(XMLInputFactory.class).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            TestSuiteLogger.log(Level.WARNING,
+                    String.format("StAX implementation %s is not available, using default: %s", backend, e));
+            return XMLInputFactory.newInstance();
+        }
+    }
+
+    /**
+     * Indicates whether or not the given StAX implementation is available.
+     *
+     * @param backend
+     *            The name of an XMLInputFactory class or an alias.
+     * @return {@code true} if the implementation can be loaded; {@code false}
+     *         otherwise.
+     */
+    public static boolean isAvailable(String backend) {
+        if (null == backend || backend.equals(DEFAULT_INPUT_FACTORY)) {
+            return true;
+        }
+        String className = ALIASES.containsKey(backend) ? ALIASES.get(backend) : backend;
+        try {
+            Class.forName(className);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Configures a factory for reading instance documents (see
+     * {@link #getInputFactory()}).
+     *
+     * @param factory
+     *            An XMLInputFactory.
+     * @return The configured factory.
+     */
+    public static XMLInputFactory configure(XMLInputFactory factory) {
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+}
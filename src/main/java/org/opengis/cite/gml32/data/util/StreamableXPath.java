@@ -0,0 +1,457 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Determines whether an XPath expression can be evaluated against a bounded
+ * fragment of a document: the context element and its descendants down to
+ * some fixed depth. Such an expression may only navigate along the child,
+ * attribute, self, and parent axes, and it may not ascend above the context
+ * element. Furthermore, the string value of an element may only be used if it
+ * is entirely contained in the fragment; an element that appears as the result
+ * of a location path must therefore occur in a boolean or node-set context
+ * (e.g. as the argument of count() or name()).
+ *
+ * <p>
+ * The analysis is lexical and deliberately conservative: any construct that
+ * is not recognized renders the expression non-streamable.
+ * </p>
+ */
+final class StreamableXPath {
+
+    /** Indicates that an expression is not streamable. */
+    static final int NOT_STREAMABLE = -1;
+    private static final Set<String> OPERATORS = new HashSet<String>(Arrays.asList("and", "or", "div", "mod",
+            "idiv", "eq", "ne", "lt", "le", "gt", "ge", "is", "to", "union", "intersect", "except", "instance", "of",
+            "cast", "castable", "treat", "as", "then", "else"));
+    private static final Set<String> NODE_TESTS = new HashSet<String>(Arrays.asList("text", "node", "comment",
+            "processing-instruction", "element"));
+    private static final Set<String> NODESET_FUNCTIONS = new HashSet<String>(Arrays.asList("count", "name",
+            "local-name", "namespace-uri", "not", "boolean", "exists", "empty", "if"));
+    private static final Set<String> UNSUPPORTED_FUNCTIONS = new HashSet<String>(Arrays.asList("document", "doc",
+            "doc-available", "collection", "uri-collection", "key", "id", "idref", "current", "root", "lang",
+            "base-uri", "document-uri", "generate-id", "path", "unparsed-text", "unparsed-text-lines",
+            "unparsed-text-available", "unparsed-entity-uri", "position", "last", "document-node",
+            "schema-element", "schema-attribute", "attribute"));
+    private static final Set<String> UNSUPPORTED_NAMES = new HashSet<String>(Arrays.asList("for", "some",
+            "every", "let"));
+
+    private enum Type {
+        NAME, OPERATOR, BOOLEAN_OPERATOR, FUNCTION, NODE_TEST, AXIS, STAR, AT, DOT, DOTDOT, SLASH, DOUBLE_SLASH,
+        LPAREN, RPAREN, LBRACKET, RBRACKET, COMMA, PIPE, LITERAL, NUMBER, END
+    }
+
+    private enum Kind {
+        NONE, ELEMENT, ATTRIBUTE, TEXT
+    }
+
+    private StreamableXPath() {
+    }
+
+    /**
+     * Determines the depth of the fragment (relative to the context element)
+     * that is required to evaluate an expression.
+     *
+     * @param expr
+     *            An XPath expression.
+     * @param booleanContext
+     *            {@code true} if only the effective boolean value (or the name)
+     *            of the result is used; {@code false} if its string value is
+     *            required.
+     * @return The maximum depth of any node that is accessed (0 = context
+     *         element), or {@value #NOT_STREAMABLE} if the expression is not
+     *         streamable.
+     */
+    static int requiredDepth(String expr, boolean booleanContext) {
+        List<Token> tokens;
+        try {
+            tokens = tokenize(expr);
+        } catch (IllegalArgumentException e) {
+            return NOT_STREAMABLE;
+        }
+        return new Analyzer(booleanContext).analyze(tokens);
+    }
+
+    private static final class Token {
+        final Type type;
+        final String text;
+
+        Token(Type type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+    }
+
+    private static List<Token> tokenize(String expr) {
+        List<Token> tokens = new ArrayList<Token>();
+        int i = 0;
+        int len = expr.length();
+        while (i < len) {
+            char c = expr.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            boolean afterOperand = !tokens.isEmpty() && isOperand(tokens.get(tokens.size() - 1).type);
+            if (c == '"' || c == '\'') {
+                int end = expr.indexOf(c, i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unterminated literal");
+                }
+                tokens.add(new Token(Type.LITERAL, expr.substring(i, end + 1)));
+                i = end + 1;
+            } else if (Character.isDigit(c) || (c == '.' && i + 1 < len && Character.isDigit(expr.charAt(i + 1)))) {
+                int start = i;
+                while (i < len && (Character.isDigit(expr.charAt(i)) || expr.charAt(i) == '.')) {
+                    i++;
+                }
+                tokens.add(new Token(Type.NUMBER, expr.substring(start, i)));
+            } else if (expr.startsWith("..", i)) {
+                tokens.add(new Token(Type.DOTDOT, ".."));
+                i += 2;
+            } else if (c == '.') {
+                tokens.add(new Token(Type.DOT, "."));
+                i++;
+            } else if (expr.startsWith("//", i)) {
+                tokens.add(new Token(Type.DOUBLE_SLASH, "//"));
+                i += 2;
+            } else if (c == '/') {
+                tokens.add(new Token(Type.SLASH, "/"));
+                i++;
+            } else if (c == '@') {
+                tokens.add(new Token(Type.AT, "@"));
+                i++;
+            } else if (c == '*') {
+                tokens.add(new Token(afterOperand ? Type.OPERATOR : Type.STAR, "*"));
+                i++;
+            } else if (c == '(') {
+                tokens.add(new Token(Type.LPAREN, "("));
+                i++;
+            } else if (c == ')') {
+                tokens.add(new Token(Type.RPAREN, ")"));
+                i++;
+            } else if (c == '[') {
+                tokens.add(new Token(Type.LBRACKET, "["));
+                i++;
+            } else if (c == ']') {
+                tokens.add(new Token(Type.RBRACKET, "]"));
+                i++;
+            } else if (c == ',') {
+                tokens.add(new Token(Type.COMMA, ","));
+                i++;
+            } else if (c == '|') {
+                tokens.add(new Token(Type.PIPE, "|"));
+                i++;
+            } else if ("=!<>+-".indexOf(c) >= 0) {
+                int start = i++;
+                if (i < len && expr.charAt(i) == '=') {
+                    i++;
+                }
+                tokens.add(new Token(Type.OPERATOR, expr.substring(start, i)));
+            } else if (Character.isLetter(c) || c == '_') {
+                int start = i;
+                i = scanNCName(expr, i);
+                if (i + 1 < len && expr.charAt(i) == ':' && expr.charAt(i + 1) != ':') {
+                    i = (expr.charAt(i + 1) == '*') ? i + 2 : scanNCName(expr, i + 1);
+                }
+                String name = expr.substring(start, i);
+                int next = skipWhitespace(expr, i);
+                if (afterOperand && OPERATORS.contains(name)) {
+                    tokens.add(new Token((name.equals("and") || name.equals("or")) ? Type.BOOLEAN_OPERATOR
+                            : name.equals("union") ? Type.PIPE : Type.OPERATOR, name));
+                } else if (UNSUPPORTED_NAMES.contains(name)) {
+                    throw new IllegalArgumentException("Unsupported expression: " + name);
+                } else if (expr.startsWith("::", next)) {
+                    tokens.add(new Token(Type.AXIS, name));
+                    i = next + 2;
+                } else if (next < len && expr.charAt(next) == '(') {
+                    if (NODE_TESTS.contains(name)) {
+                        int end = expr.indexOf(')', next);
+                        if (end < 0) {
+                            throw new IllegalArgumentException("Unterminated node test");
+                        }
+                        tokens.add(new Token(Type.NODE_TEST, name));
+                        i = end + 1;
+                    } else {
+                        tokens.add(new Token(Type.FUNCTION, name));
+                        i = next;
+                    }
+                } else {
+                    tokens.add(new Token(Type.NAME, name));
+                }
+            } else {
+                // variable references and anything else
+                throw new IllegalArgumentException("Unsupported character: " + c);
+            }
+        }
+        tokens.add(new Token(Type.END, ""));
+        return tokens;
+    }
+
+    private static boolean isOperand(Type type) {
+        switch (type) {
+        case NAME:
+        case NODE_TEST:
+        case STAR:
+        case DOT:
+        case DOTDOT:
+        case RPAREN:
+        case RBRACKET:
+        case LITERAL:
+        case NUMBER:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private static int scanNCName(String expr, int start) {
+        int i = start;
+        while (i < expr.length()) {
+            char c = expr.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.')) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipWhitespace(String expr, int start) {
+        int i = start;
+        while (i < expr.length() && Character.isWhitespace(expr.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * An enclosing predicate, function call, or parenthesized expression.
+     */
+    private static final class Frame {
+        final int base;
+        final boolean safe;
+        final boolean predicate;
+        final boolean grouping;
+        final Type beforeGroup;
+        int savedDepth;
+        Kind savedKind;
+        Type savedBeforePath;
+        boolean hasElementResult;
+
+        Frame(int base, boolean safe, boolean predicate, boolean grouping, Type beforeGroup) {
+            this.base = base;
+            this.safe = safe;
+            this.predicate = predicate;
+            this.grouping = grouping;
+            this.beforeGroup = beforeGroup;
+        }
+    }
+
+    private static final class Analyzer {
+
+        private final Deque<Frame> frames = new ArrayDeque<Frame>();
+        private boolean inPath;
+        private boolean afterSlash;
+        private int depth;
+        private int maxDepth;
+        private Kind kind = Kind.NONE;
+        private Type beforePath;
+        private String pendingAxis;
+        private String pendingFunction;
+
+        Analyzer(boolean booleanContext) {
+            this.frames.push(new Frame(0, booleanContext, false, false, null));
+        }
+
+        int analyze(List<Token> tokens) {
+            Type prev = null;
+            for (int i = 0; i < tokens.size(); i++) {
+                Token token = tokens.get(i);
+                Type next = (i + 1 < tokens.size()) ? tokens.get(i + 1).type : Type.END;
+                if (!process(token, prev, next)) {
+                    return NOT_STREAMABLE;
+                }
+                prev = token.type;
+            }
+            return (this.frames.size() == 1) ? this.maxDepth : NOT_STREAMABLE;
+        }
+
+        private boolean process(Token token, Type prev, Type next) {
+            switch (token.type) {
+            case AT:
+            case AXIS:
+            case NAME:
+            case STAR:
+            case NODE_TEST:
+            case DOT:
+            case DOTDOT:
+                return step(token, prev);
+            case SLASH:
+                if (!this.inPath || null != this.pendingAxis) {
+                    // absolute path or filter expression
+                    return false;
+                }
+                this.afterSlash = true;
+                return true;
+            case DOUBLE_SLASH:
+                return false;
+            case LBRACKET:
+                if (!this.inPath) {
+                    return false;
+                }
+                Frame predicate = new Frame(this.depth, true, true, false, null);
+                predicate.savedDepth = this.depth;
+                predicate.savedKind = this.kind;
+                predicate.savedBeforePath = this.beforePath;
+                this.frames.push(predicate);
+                this.inPath = false;
+                this.kind = Kind.NONE;
+                return true;
+            case RBRACKET:
+                if (!endPath(token.type) || !this.frames.peek().predicate) {
+                    return false;
+                }
+                Frame closed = this.frames.pop();
+                this.inPath = true;
+                this.afterSlash = false;
+                this.depth = closed.savedDepth;
+                this.kind = closed.savedKind;
+                this.beforePath = closed.savedBeforePath;
+                return true;
+            case FUNCTION:
+                if (this.inPath || UNSUPPORTED_FUNCTIONS.contains(localName(token.text))) {
+                    return false;
+                }
+                this.pendingFunction = localName(token.text);
+                return true;
+            case LPAREN:
+                if (!endPath(token.type)) {
+                    return false;
+                }
+                Frame outer = this.frames.peek();
+                if (null != this.pendingFunction) {
+                    this.frames.push(new Frame(outer.base, NODESET_FUNCTIONS.contains(this.pendingFunction), false,
+                            false, null));
+                    this.pendingFunction = null;
+                } else {
+                    this.frames.push(new Frame(outer.base, outer.safe && isSafeBefore(prev), false, true, prev));
+                }
+                return true;
+            case RPAREN:
+                if (!endPath(token.type) || this.frames.size() < 2 || this.frames.peek().predicate) {
+                    return false;
+                }
+                Frame group = this.frames.pop();
+                if (group.grouping && group.hasElementResult) {
+                    // the group as a whole is the operand
+                    if (!(group.safe && isSafeAfter(next))) {
+                        return false;
+                    }
+                    if (this.frames.peek().grouping) {
+                        this.frames.peek().hasElementResult = true;
+                    }
+                }
+                return next != Type.SLASH && next != Type.LBRACKET;
+            default:
+                return endPath(token.type);
+            }
+        }
+
+        private boolean step(Token token, Type prev) {
+            if (!this.inPath) {
+                this.inPath = true;
+                this.depth = this.frames.peek().base;
+                this.beforePath = prev;
+            } else if (!this.afterSlash && null == this.pendingAxis) {
+                return false;
+            }
+            switch (token.type) {
+            case AT:
+                this.pendingAxis = "attribute";
+                return true;
+            case AXIS:
+                if (null != this.pendingAxis) {
+                    return false;
+                }
+                this.pendingAxis = token.text;
+                return true;
+            case DOT:
+                this.kind = Kind.ELEMENT;
+                break;
+            case DOTDOT:
+                this.depth--;
+                this.kind = Kind.ELEMENT;
+                break;
+            default:
+                String axis = (null != this.pendingAxis) ? this.pendingAxis : "child";
+                this.pendingAxis = null;
+                if (axis.equals("child")) {
+                    this.depth++;
+                    this.kind = (token.type == Type.NODE_TEST && !token.text.equals("node")
+                            && !token.text.equals("element")) ? Kind.TEXT : Kind.ELEMENT;
+                } else if (axis.equals("attribute")) {
+                    this.kind = Kind.ATTRIBUTE;
+                } else if (axis.equals("self")) {
+                    this.kind = Kind.ELEMENT;
+                } else if (axis.equals("parent")) {
+                    this.depth--;
+                    this.kind = Kind.ELEMENT;
+                } else {
+                    return false;
+                }
+            }
+            if (null != this.pendingAxis || this.depth < 0) {
+                return false;
+            }
+            this.afterSlash = false;
+            this.maxDepth = Math.max(this.maxDepth, this.depth);
+            return true;
+        }
+
+        /**
+         * Ends the current location path (if any) when the given token is
+         * encountered.
+         */
+        private boolean endPath(Type next) {
+            if (!this.inPath) {
+                return true;
+            }
+            if (this.afterSlash || null != this.pendingAxis) {
+                return false;
+            }
+            this.inPath = false;
+            Frame frame = this.frames.peek();
+            if (this.kind == Kind.ELEMENT) {
+                if (!(frame.safe && isSafeBefore(this.beforePath) && isSafeAfter(next))) {
+                    // requires the string value of an element
+                    return false;
+                }
+                frame.hasElementResult = true;
+            }
+            this.kind = Kind.NONE;
+            return true;
+        }
+
+        private static boolean isSafeBefore(Type prev) {
+            return null == prev || prev == Type.LPAREN || prev == Type.LBRACKET || prev == Type.BOOLEAN_OPERATOR
+                    || prev == Type.PIPE || prev == Type.COMMA;
+        }
+
+        private static boolean isSafeAfter(Type next) {
+            return next == Type.END || next == Type.RPAREN || next == Type.RBRACKET || next == Type.BOOLEAN_OPERATOR
+                    || next == Type.PIPE || next == Type.COMMA;
+        }
+
+        private static String localName(String name) {
+            int colon = name.indexOf(':');
+            return (colon < 0) ? name : name.substring(colon + 1);
+        }
+    }
+}
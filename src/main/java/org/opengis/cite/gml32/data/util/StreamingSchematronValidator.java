@@ -0,0 +1,848 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XPathCompiler;
+import net.sf.saxon.s9api.XPathExecutable;
+import net.sf.saxon.s9api.XPathSelector;
+import net.sf.saxon.s9api.XdmItem;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XdmValue;
+
+import org.opengis.cite.gml32.data.Namespaces;
+import org.opengis.cite.validation.SchematronValidator;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Checks an XML document against the rules defined in a Schematron (ISO
+ * 19757-3) schema while the document is being read. It is intended to be
+ * registered as a listener with a {@link TeeStreamReader}.
+ *
+ * <p>
+ * A pattern is evaluated in streaming mode if every rule in it has a context
+ * consisting of one or more element names, and every assertion only refers to
+ * the context element and its descendants down to some fixed depth (see
+ * {@link StreamableXPath}). The rules in {@code sch/gml-3.2.1.sch} are all of
+ * this kind. For each matching element a DOM fragment is built that contains
+ * only the nodes up to that depth; it is discarded as soon as the end tag has
+ * been read, so the memory required is bounded by the size of the fragments for
+ * the open elements.
+ * </p>
+ *
+ * <p>
+ * All other patterns are checked afterwards by the XSLT engine (see
+ * {@link CompiledSchematron}) using a copy of the schema from which the streamable rules
+ * have been removed; in this case a DOM Document must be supplied when
+ * completing validation. The results are reported in SVRL, except that
+ * <code>svrl:fired-rule</code> elements are not included for streamed rules and
+ * every step in a location path is positional.
+ * </p>
+ */
+public class StreamingSchematronValidator implements XMLStreamListener {
+
+    private static final String SCH_NS = Namespaces.SCH.toString();
+    private static final String SVRL_NS = SchematronValidator.ISO_SCHEMATRON_SVRL_NS;
+    private static final Pattern QNAME = Pattern.compile("(?:([\\p{L}_][\\w.\\-]*):)?([\\p{L}_][\\w.\\-]*)");
+    private static final Processor PROCESSOR = SaxonCache.getProcessor();
+    private final boolean xslt2;
+    private final String title;
+    private final String schemaVersion;
+    private final String phase;
+    private final Map<String, String> namespaces = new LinkedHashMap<String, String>();
+    private final List<RulePattern> patterns = new ArrayList<RulePattern>();
+    private final Map<String, List<Rule>> rulesByName = new HashMap<String, List<Rule>>();
+    private final CompiledSchematronValidator fallback;
+    private final javax.xml.parsers.DocumentBuilder domBuilder;
+    private final net.sf.saxon.s9api.DocumentBuilder xdmBuilder;
+    private final Document results;
+    private final List<Capture> captures = new ArrayList<Capture>();
+    private final List<LocationStep> openElements = new ArrayList<LocationStep>();
+    private final LocationStep documentNode = new LocationStep("");
+    private String documentURI;
+    private int ruleViolations;
+    private SaxonApiException evaluationError;
+    private DOMResult result;
+
+    /**
+     * Constructs a validator for the given Schematron schema and phase.
+     *
+     * @param schema
+     *            A Source for reading the Schematron schema.
+     * @param phase
+     *            The phase to invoke: "#ALL" activates all patterns; if the
+     *            value is null or "#DEFAULT" the default phase applies.
+     * @throws SAXException
+     *             If the schema cannot be read or compiled.
+     */
+    public StreamingSchematronValidator(Source schema, String phase) throws SAXException {
+        this(schema, phase, null);
+    }
+
+    /**
+     * Constructs a validator for the given Schematron schema and phase. If
+     * some pattern cannot be evaluated in streaming mode and a stylesheet
+     * generated from the same schema and phase is supplied (see
+     * {@link ValidationUtils#findPrecompiledSchematron(String, String)}), the
+     * stylesheet is used to check all patterns instead of compiling a reduced
+     * copy of the schema.
+     *
+     * @param schema
+     *            A Source for reading the Schematron schema.
+     * @param phase
+     *            The phase to invoke: "#ALL" activates all patterns; if the
+     *            value is null or "#DEFAULT" the default phase applies.
+     * @param precompiled
+     *            A compiled stylesheet generated from the schema (may be
+     *            null).
+     * @throws SAXException
+     *             If the schema cannot be read or compiled.
+     */
+    public StreamingSchematronValidator(Source schema, String phase, CompiledSchematron precompiled)
+            throws SAXException {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        try {
+            this.domBuilder = factory.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+        this.xdmBuilder = PROCESSOR.newDocumentBuilder();
+        this.results = this.domBuilder.newDocument();
+        Document schemaDoc = readSchema(schema);
+        Element schemaElem = schemaDoc.getDocumentElement();
+        if (!SCH_NS.equals(schemaElem.getNamespaceURI()) || !schemaElem.getLocalName().equals("schema")) {
+            throw new SAXException("Not a Schematron schema: " + schema.getSystemId());
+        }
+        String queryBinding = schemaElem.getAttribute("queryBinding");
+        this.xslt2 = queryBinding.equals("xslt2") || queryBinding.equals("xslt3") || queryBinding.equals("xpath2");
+        this.schemaVersion = schemaElem.getAttribute("schemaVersion");
+        Element titleElem = firstChild(schemaElem, "title");
+        this.title = (null != titleElem) ? titleElem.getTextContent() : null;
+        for (Element nsElem : children(schemaElem, "ns")) {
+            this.namespaces.put(nsElem.getAttribute("prefix"), nsElem.getAttribute("uri"));
+        }
+        String phaseId = (null == phase || phase.isEmpty() || phase.equals("#DEFAULT"))
+                ? schemaElem.getAttribute("defaultPhase") : phase;
+        this.phase = phaseId.isEmpty() ? "#ALL" : phaseId;
+        Set<String> activePatterns = findActivePatterns(schemaElem, this.phase);
+        Map<String, Element> diagnostics = new HashMap<String, Element>();
+        for (Element diagnosticsElem : children(schemaElem, "diagnostics")) {
+            for (Element diagnostic : children(diagnosticsElem, "diagnostic")) {
+                diagnostics.put(diagnostic.getAttribute("id"), diagnostic);
+            }
+        }
+        boolean streamable = schemaDoc.getElementsByTagNameNS(SCH_NS, "include").getLength() == 0
+                && schemaDoc.getElementsByTagNameNS(SCH_NS, "extends").getLength() == 0;
+        XPathCompiler compiler = PROCESSOR.newXPathCompiler();
+        compiler.setBackwardsCompatible(!this.xslt2);
+        for (Map.Entry<String, String> ns : this.namespaces.entrySet()) {
+            compiler.declareNamespace(ns.getKey(), ns.getValue());
+        }
+        boolean requiresFallback = false;
+        for (Element patternElem : children(schemaElem, "pattern")) {
+            if (patternElem.getAttribute("abstract").equals("true")
+                    || (null != activePatterns && !activePatterns.contains(patternElem.getAttribute("id")))) {
+                continue;
+            }
+            RulePattern pattern = new RulePattern(patternElem);
+            if (streamable) {
+                pattern.rules = compileRules(pattern, compiler, diagnostics);
+            }
+            if (null == pattern.rules) {
+                requiresFallback = true;
+            }
+            this.patterns.add(pattern);
+        }
+        if (requiresFallback && null != precompiled) {
+            // the stylesheet checks every pattern
+            this.patterns.clear();
+        }
+        for (RulePattern pattern : this.patterns) {
+            if (null == pattern.rules) {
+                continue;
+            }
+            Set<String> matched = new HashSet<String>();
+            for (Rule rule : pattern.rules) {
+                for (String name : rule.names) {
+                    // only the first matching rule in a pattern fires
+                    if (matched.add(name)) {
+                        List<Rule> rules = this.rulesByName.get(name);
+                        if (null == rules) {
+                            rules = new ArrayList<Rule>();
+                            this.rulesByName.put(name, rules);
+                        }
+                        rules.add(rule);
+                    }
+                }
+            }
+            if (requiresFallback) {
+                for (Element ruleElem : children(pattern.element, "rule")) {
+                    pattern.element.removeChild(ruleElem);
+                }
+            }
+        }
+        if (!requiresFallback) {
+            this.fallback = null;
+        } else if (null != precompiled) {
+            this.fallback = precompiled.newValidator();
+        } else {
+            this.fallback = createFallback(schemaDoc, schema.getSystemId(), phase);
+        }
+        TestSuiteLogger.log(Level.FINE, String.format("Schematron schema %s: %d streamable rule contexts, %s",
+                schema.getSystemId(), this.rulesByName.size(),
+                requiresFallback ? "XSLT required for other patterns" : "no XSLT required"));
+    }
+
+    /**
+     * Indicates whether or not some patterns must be checked by the XSLT
+     * engine, in which case a DOM representation of the document is needed to
+     * complete validation.
+     *
+     * @return {@code true} if a Document is required; {@code false} otherwise.
+     */
+    public boolean requiresDocument() {
+        return null != this.fallback;
+    }
+
+    /**
+     * Returns the total number of rule violations (failed assertions and
+     * successful reports) that were detected.
+     *
+     * @return The number of rule violations.
+     */
+    public int getRuleViolationCount() {
+        return ruleViolations;
+    }
+
+    /**
+     * Indicates whether or not any rule violations were detected.
+     *
+     * @return {@code true} if at least one rule was violated; {@code false}
+     *         otherwise.
+     */
+    public boolean ruleViolationsDetected() {
+        return this.ruleViolations > 0;
+    }
+
+    /**
+     * Reads the remainder of a document and checks it against the schema.
+     *
+     * @param reader
+     *            A stream reader positioned at the start of the document or at
+     *            the start tag of the document element.
+     * @return A DOMResult containing the validation results (SVRL).
+     * @throws XMLStreamException
+     *             If the document cannot be read.
+     * @throws SAXException
+     *             If the rules cannot be evaluated.
+     */
+    public DOMResult validate(XMLStreamReader reader) throws XMLStreamException, SAXException {
+        List<XMLStreamListener> listeners = new ArrayList<XMLStreamListener>();
+        listeners.add(this);
+        XdmStreamBuilder treeBuilder = null;
+        if (requiresDocument()) {
+            treeBuilder = new XdmStreamBuilder(reader.getLocation().getSystemId());
+            listeners.add(treeBuilder);
+        }
+        TeeStreamReader teeReader = new TeeStreamReader(reader, listeners);
+        teeReader.notifyListeners();
+        while (teeReader.hasNext()) {
+            teeReader.next();
+        }
+        return complete((null != treeBuilder) ? XdmStreamBuilder.asDocument(treeBuilder.getNode()) : null);
+    }
+
+    /**
+     * Completes validation once the entire document has been read. Any
+     * patterns that could not be evaluated in streaming mode are checked now.
+     *
+     * @param document
+     *            A DOM representation of the document; this is required only
+     *            if {@link #requiresDocument()} returns {@code true}. A
+     *            read-only view of a Saxon tree (see
+     *            {@link XdmStreamBuilder#asDocument(net.sf.saxon.s9api.XdmNode)})
+     *            is processed without being copied.
+     * @return A DOMResult containing the validation results (SVRL).
+     * @throws SAXException
+     *             If the rules could not be evaluated.
+     */
+    public DOMResult complete(Document document) throws SAXException {
+        if (null != this.evaluationError) {
+            throw new SAXException("Failed to evaluate Schematron rules: " + this.evaluationError.getMessage(),
+                    this.evaluationError);
+        }
+        if (null != this.result) {
+            return result;
+        }
+        if (null != this.fallback) {
+            if (null == document) {
+                throw new IllegalArgumentException("A Document is required to evaluate non-streamable rules.");
+            }
+            DOMResult svrlResult = this.fallback.validate(new DOMSource(document, this.documentURI));
+            Node node = svrlResult.getNode();
+            Element svrlElem = (node instanceof Document) ? ((Document) node).getDocumentElement() : (Element) node;
+            // the result tree is immutable, so copy it
+            Element output = (Element) this.results.importNode(svrlElem, true);
+            for (RulePattern pattern : this.patterns) {
+                for (Element resultElem : pattern.results) {
+                    output.appendChild(resultElem);
+                }
+            }
+            this.results.appendChild(output);
+            this.ruleViolations += this.fallback.getRuleViolationCount();
+            this.result = new DOMResult(this.results, this.documentURI);
+            return result;
+        }
+        Element output = this.results.createElementNS(SVRL_NS, "svrl:schematron-output");
+        if (null != this.title) {
+            output.setAttribute("title", this.title);
+        }
+        output.setAttribute("schemaVersion", this.schemaVersion);
+        if (!this.phase.equals("#ALL")) {
+            output.setAttribute("phase", this.phase);
+        }
+        for (Map.Entry<String, String> ns : this.namespaces.entrySet()) {
+            Element nsElem = this.results.createElementNS(SVRL_NS, "svrl:ns-prefix-in-attribute-values");
+            nsElem.setAttribute("uri", ns.getValue());
+            nsElem.setAttribute("prefix", ns.getKey());
+            output.appendChild(nsElem);
+        }
+        for (RulePattern pattern : this.patterns) {
+            Element activePattern = this.results.createElementNS(SVRL_NS, "svrl:active-pattern");
+            if (null != this.documentURI) {
+                activePattern.setAttribute("document", this.documentURI);
+            }
+            if (pattern.element.hasAttribute("id")) {
+                activePattern.setAttribute("id", pattern.element.getAttribute("id"));
+            }
+            Element titleElem = firstChild(pattern.element, "title");
+            if (null != titleElem) {
+                activePattern.setAttribute("name", titleElem.getTextContent());
+            }
+            output.appendChild(activePattern);
+            for (Element resultElem : pattern.results) {
+                output.appendChild(resultElem);
+            }
+        }
+        this.results.appendChild(output);
+        this.result = new DOMResult(this.results, this.documentURI);
+        return result;
+    }
+
+    @Override
+    public void handleEvent(XMLStreamReader reader) throws XMLStreamException {
+        if (null == this.documentURI) {
+            this.documentURI = reader.getLocation().getSystemId();
+        }
+        int depth = this.openElements.size();
+        switch (reader.getEventType()) {
+        case XMLStreamConstants.START_ELEMENT:
+            LocationStep parent = (depth > 0) ? this.openElements.get(depth - 1) : this.documentNode;
+            String nsURI = (null != reader.getNamespaceURI()) ? reader.getNamespaceURI() : "";
+            this.openElements.add(new LocationStep(parent.childStep(nsURI, reader.getLocalName())));
+            depth++;
+            for (Capture capture : this.captures) {
+                if (depth - capture.depth <= capture.maxDepth) {
+                    capture.builder.handleEvent(reader);
+                }
+            }
+            List<Rule> rules = this.rulesByName.get('{' + nsURI + '}' + reader.getLocalName());
+            if (null != rules && null == this.evaluationError) {
+                Capture capture = new Capture(depth, rules, this.domBuilder.newDocument());
+                capture.builder.handleEvent(reader);
+                this.captures.add(capture);
+            }
+            break;
+        case XMLStreamConstants.END_ELEMENT:
+            Capture completed = null;
+            for (Iterator<Capture> itr = this.captures.iterator(); itr.hasNext();) {
+                Capture capture = itr.next();
+                if (depth - capture.depth <= capture.maxDepth) {
+                    capture.builder.handleEvent(reader);
+                }
+                if (depth == capture.depth) {
+                    itr.remove();
+                    completed = capture;
+                }
+            }
+            if (null != completed) {
+                evaluate(completed);
+            }
+            this.openElements.remove(depth - 1);
+            break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+        case XMLStreamConstants.COMMENT:
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            for (Capture capture : this.captures) {
+                if (depth - capture.depth + 1 <= capture.maxDepth) {
+                    capture.builder.handleEvent(reader);
+                }
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Evaluates the rules that apply to a captured element.
+     */
+    private void evaluate(Capture capture) {
+        if (null != this.evaluationError) {
+            return;
+        }
+        XdmNode contextNode = this.xdmBuilder.wrap(capture.document.getDocumentElement());
+        try {
+            for (Rule rule : capture.rules) {
+                for (Assertion assertion : rule.assertions) {
+                    XPathSelector selector = assertion.test.load();
+                    selector.setContextItem(contextNode);
+                    if (selector.effectiveBooleanValue() == assertion.report) {
+                        rule.pattern.results.add(createResult(assertion, contextNode));
+                        this.ruleViolations++;
+                    }
+                }
+            }
+        } catch (SaxonApiException e) {
+            TestSuiteLogger.log(Level.WARNING, "Failed to evaluate Schematron rule at " + location(), e);
+            this.evaluationError = e;
+            this.captures.clear();
+        }
+    }
+
+    /**
+     * Creates an svrl:failed-assert or svrl:successful-report element.
+     */
+    private Element createResult(Assertion assertion, XdmNode contextNode) throws SaxonApiException {
+        Element resultElem = this.results.createElementNS(SVRL_NS,
+                assertion.report ? "svrl:successful-report" : "svrl:failed-assert");
+        resultElem.setAttribute("test", assertion.element.getAttribute("test"));
+        for (String attrName : new String[] { "id", "role", "flag" }) {
+            if (assertion.element.hasAttribute(attrName)) {
+                resultElem.setAttribute(attrName, assertion.element.getAttribute(attrName));
+            }
+        }
+        resultElem.setAttribute("location", location());
+        Element text = this.results.createElementNS(SVRL_NS, "svrl:text");
+        text.setTextContent(assertion.message.render(contextNode));
+        resultElem.appendChild(text);
+        for (Map.Entry<String, Message> diagnostic : assertion.diagnostics.entrySet()) {
+            Element ref = this.results.createElementNS(SVRL_NS, "svrl:diagnostic-reference");
+            ref.setAttribute("diagnostic", diagnostic.getKey());
+            if (null != diagnostic.getValue().language) {
+                ref.setAttributeNS(XMLConstants.XML_NS_URI, "xml:lang", diagnostic.getValue().language);
+            }
+            ref.setTextContent(diagnostic.getValue().render(contextNode));
+            resultElem.appendChild(ref);
+        }
+        return resultElem;
+    }
+
+    /**
+     * Returns an XPath expression that identifies the current element.
+     */
+    private String location() {
+        StringBuilder path = new StringBuilder();
+        for (LocationStep step : this.openElements) {
+            path.append(step.step);
+        }
+        return path.toString();
+    }
+
+    /**
+     * Compiles the rules in a pattern.
+     *
+     * @return A list of rules, or {@code null} if the pattern is not
+     *         streamable.
+     */
+    private List<Rule> compileRules(RulePattern pattern, XPathCompiler compiler, Map<String, Element> diagnostics) {
+        Element patternElem = pattern.element;
+        if (patternElem.hasAttribute("is-a") || patternElem.hasAttribute("documents")
+                || null != firstChild(patternElem, "let")) {
+            return null;
+        }
+        List<Rule> rules = new ArrayList<Rule>();
+        for (Element ruleElem : children(patternElem, "rule")) {
+            if (ruleElem.getAttribute("abstract").equals("true")) {
+                continue;
+            }
+            if (null != firstChild(ruleElem, "let")) {
+                return null;
+            }
+            List<String> names = parseContext(ruleElem.getAttribute("context"));
+            if (null == names) {
+                return null;
+            }
+            Rule rule = new Rule(pattern, names);
+            for (Element assertElem : children(ruleElem, null)) {
+                if (!assertElem.getLocalName().equals("assert") && !assertElem.getLocalName().equals("report")) {
+                    continue;
+                }
+                Assertion assertion = compileAssertion(assertElem, compiler, diagnostics);
+                if (null == assertion) {
+                    return null;
+                }
+                rule.assertions.add(assertion);
+                rule.maxDepth = Math.max(rule.maxDepth, assertion.maxDepth);
+            }
+            rules.add(rule);
+        }
+        return rules;
+    }
+
+    /**
+     * Parses a rule context that consists of a union of element names.
+     *
+     * @return A list of expanded names of the form "{namespace}local-name", or
+     *         {@code null} if the context is not of this kind.
+     */
+    private List<String> parseContext(String context) {
+        List<String> names = new ArrayList<String>();
+        for (String step : context.split("\\|")) {
+            Matcher matcher = QNAME.matcher(step.trim());
+            if (!matcher.matches()) {
+                return null;
+            }
+            String nsURI = "";
+            if (null != matcher.group(1)) {
+                nsURI = this.namespaces.get(matcher.group(1));
+                if (null == nsURI) {
+                    return null;
+                }
+            }
+            names.add('{' + nsURI + '}' + matcher.group(2));
+        }
+        return names;
+    }
+
+    private Assertion compileAssertion(Element assertElem, XPathCompiler compiler, Map<String, Element> diagnostics) {
+        String test = assertElem.getAttribute("test");
+        int maxDepth = StreamableXPath.requiredDepth(test, true);
+        if (maxDepth < 0) {
+            return null;
+        }
+        Assertion assertion = new Assertion(assertElem);
+        try {
+            assertion.test = compiler.compile(test);
+        } catch (SaxonApiException e) {
+            // let the XSLT engine report the error
+            return null;
+        }
+        assertion.message = compileMessage(assertElem, compiler);
+        if (null == assertion.message) {
+            return null;
+        }
+        maxDepth = Math.max(maxDepth, assertion.message.maxDepth);
+        String diagnosticRefs = assertElem.getAttribute("diagnostics").trim();
+        for (String diagnosticId : diagnosticRefs.isEmpty() ? new String[0] : diagnosticRefs.split("\\s+")) {
+            Element diagnostic = diagnostics.get(diagnosticId);
+            Message message = (null != diagnostic) ? compileMessage(diagnostic, compiler) : null;
+            if (null == message) {
+                return null;
+            }
+            assertion.diagnostics.put(diagnosticId, message);
+            maxDepth = Math.max(maxDepth, message.maxDepth);
+        }
+        assertion.maxDepth = maxDepth;
+        return assertion;
+    }
+
+    /**
+     * Compiles the content of an assertion or diagnostic.
+     *
+     * @return A Message, or {@code null} if it cannot be rendered in
+     *         streaming mode.
+     */
+    private Message compileMessage(Element elem, XPathCompiler compiler) {
+        Message message = new Message(!this.xslt2);
+        if (elem.hasAttributeNS(XMLConstants.XML_NS_URI, "lang")) {
+            message.language = elem.getAttributeNS(XMLConstants.XML_NS_URI, "lang");
+        }
+        for (Node child = elem.getFirstChild(); null != child; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+                message.parts.add(child.getNodeValue());
+                continue;
+            }
+            if (child.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            Element childElem = (Element) child;
+            String expr = null;
+            int depth = 0;
+            if (SCH_NS.equals(childElem.getNamespaceURI()) && childElem.getLocalName().equals("value-of")) {
+                expr = childElem.getAttribute("select");
+                depth = StreamableXPath.requiredDepth(expr, false);
+            } else if (SCH_NS.equals(childElem.getNamespaceURI()) && childElem.getLocalName().equals("name")) {
+                String path = childElem.getAttribute("path");
+                expr = path.isEmpty() ? "name()" : "name(" + path + ")";
+                depth = StreamableXPath.requiredDepth(expr, true);
+            } else {
+                message.parts.add(childElem.getTextContent());
+                continue;
+            }
+            if (depth < 0) {
+                return null;
+            }
+            try {
+                message.parts.add(compiler.compile(expr));
+            } catch (SaxonApiException e) {
+                return null;
+            }
+            message.maxDepth = Math.max(message.maxDepth, depth);
+        }
+        return message;
+    }
+
+    private static Set<String> findActivePatterns(Element schemaElem, String phaseId) throws SAXException {
+        if (phaseId.equals("#ALL")) {
+            return null;
+        }
+        for (Element phaseElem : children(schemaElem, "phase")) {
+            if (phaseElem.getAttribute("id").equals(phaseId)) {
+                Set<String> patternIds = new HashSet<String>();
+                for (Element active : children(phaseElem, "active")) {
+                    patternIds.add(active.getAttribute("pattern"));
+                }
+                return patternIds;
+            }
+        }
+        throw new SAXException("Phase not defined in Schematron schema: " + phaseId);
+    }
+
+    /**
+     * Reads a Schematron schema. If only the location is given, the schema is
+     * retrieved using the configured timeouts (see
+     * {@link ClientUtils#openStream(URI)}).
+     */
+    private static Document readSchema(Source schema) throws SAXException {
+        DOMResult result = new DOMResult();
+        InputStream input = null;
+        try {
+            if (schema instanceof StreamSource) {
+                StreamSource streamSource = (StreamSource) schema;
+                if (null == streamSource.getInputStream() && null == streamSource.getReader()
+                        && null != streamSource.getSystemId()) {
+                    input = ClientUtils.openStream(URI.create(streamSource.getSystemId()));
+                    schema = new StreamSource(input, streamSource.getSystemId());
+                }
+            }
+            TransformerFactory.newInstance().newTransformer().transform(schema, result);
+        } catch (TransformerException | IOException | IllegalArgumentException e) {
+            throw new SAXException("Failed to read Schematron schema: " + e.getMessage(), e);
+        } finally {
+            if (null != input) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    TestSuiteLogger.log(Level.FINEST, "Failed to close stream: " + e.getMessage());
+                }
+            }
+        }
+        return (Document) result.getNode();
+    }
+
+    /**
+     * Obtains a validator for the patterns that cannot be streamed. The
+     * reduced schema is compiled only if the shared {@link SchematronCache}
+     * does not already contain it.
+     */
+    private static CompiledSchematronValidator createFallback(Document schemaDoc, String systemId, String phase)
+            throws SAXException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try {
+            TransformerFactory.newInstance().newTransformer().transform(new DOMSource(schemaDoc),
+                    new StreamResult(content));
+        } catch (TransformerException e) {
+            throw new SAXException("Failed to serialize Schematron schema: " + e.getMessage(), e);
+        }
+        return SchematronCache.getInstance().get(systemId, content.toByteArray(), phase).newValidator();
+    }
+
+    /**
+     * Returns the child elements (in the Schematron namespace) with the given
+     * local name, or all of them if the name is {@code null}.
+     */
+    private static List<Element> children(Element parent, String localName) {
+        List<Element> elements = new ArrayList<Element>();
+        for (Node child = parent.getFirstChild(); null != child; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && SCH_NS.equals(child.getNamespaceURI())
+                    && (null == localName || localName.equals(child.getLocalName()))) {
+                elements.add((Element) child);
+            }
+        }
+        return elements;
+    }
+
+    private static Element firstChild(Element parent, String localName) {
+        List<Element> elements = children(parent, localName);
+        return elements.isEmpty() ? null : elements.get(0);
+    }
+
+    /**
+     * An active pattern and the results produced by its (streamable) rules.
+     */
+    private static class RulePattern {
+
+        final Element element;
+        final List<Element> results = new ArrayList<Element>();
+        List<Rule> rules;
+
+        RulePattern(Element element) {
+            this.element = element;
+        }
+    }
+
+    private static class Rule {
+
+        final RulePattern pattern;
+        final List<String> names;
+        final List<Assertion> assertions = new ArrayList<Assertion>();
+        int maxDepth;
+
+        Rule(RulePattern pattern, List<String> names) {
+            this.pattern = pattern;
+            this.names = names;
+        }
+    }
+
+    private static class Assertion {
+
+        final Element element;
+        final boolean report;
+        final Map<String, Message> diagnostics = new LinkedHashMap<String, Message>();
+        XPathExecutable test;
+        Message message;
+        int maxDepth;
+
+        Assertion(Element element) {
+            this.element = element;
+            this.report = element.getLocalName().equals("report");
+        }
+    }
+
+    /**
+     * The content of an assertion or diagnostic: a sequence of text strings
+     * and expressions.
+     */
+    private static class Message {
+
+        final boolean firstItemOnly;
+        final List<Object> parts = new ArrayList<Object>();
+        String language;
+        int maxDepth;
+
+        Message(boolean firstItemOnly) {
+            this.firstItemOnly = firstItemOnly;
+        }
+
+        String render(XdmNode contextNode) throws SaxonApiException {
+            StringBuilder text = new StringBuilder();
+            for (Object part : this.parts) {
+                if (part instanceof String) {
+                    text.append((String) part);
+                    continue;
+                }
+                XPathSelector selector = ((XPathExecutable) part).load();
+                selector.setContextItem(contextNode);
+                XdmValue value = selector.evaluate();
+                for (int i = 0; i < value.size(); i++) {
+                    XdmItem item = value.itemAt(i);
+                    if (i > 0) {
+                        if (this.firstItemOnly) {
+                            break;
+                        }
+                        text.append(' ');
+                    }
+                    text.append(item.getStringValue());
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * A fragment of the document that is being built for an element to which
+     * some rules apply.
+     */
+    private static class Capture {
+
+        final int depth;
+        final int maxDepth;
+        final List<Rule> rules;
+        final Document document;
+        final DOMStreamBuilder builder;
+
+        Capture(int depth, List<Rule> rules, Document document) {
+            this.depth = depth;
+            this.rules = rules;
+            int max = 0;
+            for (Rule rule : rules) {
+                max = Math.max(max, rule.maxDepth);
+            }
+            this.maxDepth = max;
+            this.document = document;
+            this.builder = new DOMStreamBuilder(document);
+        }
+    }
+
+    /**
+     * A step in the location path of an open element; it keeps track of the
+     * number of child elements with each name.
+     */
+    private class LocationStep {
+
+        final String step;
+        Map<String, Integer> childCounts;
+
+        LocationStep(String step) {
+            this.step = step;
+        }
+
+        String childStep(String nsURI, String localName) {
+            if (null == this.childCounts) {
+                this.childCounts = new HashMap<String, Integer>();
+            }
+            String key = xslt2 ? '{' + nsURI + '}' + localName : localName;
+            Integer count = this.childCounts.get(key);
+            int position = (null != count) ? count + 1 : 1;
+            this.childCounts.put(key, position);
+            return xslt2 ? String.format("/*:%s[namespace-uri()='%s'][%d]", localName, nsURI, position)
+                    : String.format("/*[local-name()='%s'][%d]", localName, position);
+        }
+    }
+}
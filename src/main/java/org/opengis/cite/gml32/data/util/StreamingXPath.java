@@ -0,0 +1,788 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.xpath.XPathConstants;
+
+/**
+ * Evaluates an XPath 1.0 expression in a single pass over a stream of parsing
+ * events, so that a document of any size can be checked without building a
+ * tree: apart from a small bit set for each open element, the memory required
+ * does not depend on the size of the document. The context node is the
+ * document node.
+ *
+ * <p>
+ * The supported subset covers the common kinds of assertions about GML data:
+ * </p>
+ * <ul>
+ * <li>location paths along the child, descendant, and attribute axes, in
+ * abbreviated (e.g. <code>//gml:featureMember/*&#47;@gml:id</code>) or
+ * unabbreviated form; a name test may be a QName or a wildcard;</li>
+ * <li>predicates on element steps that test attributes (e.g.
+ * <code>[@srsName = 'urn:ogc:def:crs:EPSG::4326']</code>), combined using
+ * <code>and</code>, <code>or</code>, and <code>not()</code>;</li>
+ * <li>the XPath 1.0 functions <code>count()</code>, <code>boolean()</code>,
+ * and <code>not()</code>; a count may be compared to a number;</li>
+ * <li>boolean combinations of the above.</li>
+ * </ul>
+ * <p>
+ * Any other expression is rejected when it is compiled; this includes XPath
+ * 2.0 functions such as <code>exists()</code> and <code>empty()</code>, which
+ * are not recognized by the XPath 1.0 engine used otherwise. Several location
+ * paths may occur in one expression; they are evaluated concurrently. If only
+ * the existence of nodes matters, reading stops as soon as the result is
+ * known.
+ * </p>
+ */
+public final class StreamingXPath {
+
+    private final String expr;
+    private final Term term;
+    private final List<Path> paths;
+    private final int[] offsets;
+    private final boolean existenceOnly;
+
+    private StreamingXPath(String expr, Term term, List<Path> paths) {
+        this.expr = expr;
+        this.term = term;
+        this.paths = paths;
+        this.offsets = new int[paths.size()];
+        boolean existence = true;
+        int offset = 0;
+        for (int i = 0; i < paths.size(); i++) {
+            this.offsets[i] = offset;
+            offset += paths.get(i).steps.length + 1;
+            existence &= paths.get(i).existenceOnly;
+        }
+        this.existenceOnly = existence;
+    }
+
+    /**
+     * Compiles an expression if it belongs to the supported subset.
+     *
+     * @param expr
+     *            An XPath 1.0 expression.
+     * @param namespaceBindings
+     *            A collection of namespace bindings for the XPath expression,
+     *            where each entry maps a namespace URI (key) to a prefix
+     *            (value). Standard bindings do not need to be declared (see
+     *            {@link NamespaceBindings#withStandardBindings()}). It may be
+     *            {@code null}.
+     * @return A compiled expression that is safe for use by multiple threads,
+     *         or {@code null} if the expression cannot be evaluated in
+     *         streaming mode (or uses an undeclared prefix).
+     */
+    public static StreamingXPath compile(String expr, Map<String, String> namespaceBindings) {
+        NamespaceBindings bindings = NamespaceBindings.withStandardBindings();
+        bindings.addAllBindings(namespaceBindings);
+        Parser parser = new Parser(expr, bindings);
+        try {
+            Term term = parser.parseExpression();
+            return new StreamingXPath(expr, term, parser.paths);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Indicates whether or not the result can be converted to the given type.
+     * A boolean result is always available; a numeric result is available
+     * unless the expression is a location path (since its numeric value would
+     * depend on the string value of a node).
+     *
+     * @param returnType
+     *            The desired return type (as declared in {@link XPathConstants}
+     *            ).
+     * @return {@code true} if the return type is supported; {@code false}
+     *         otherwise.
+     */
+    public boolean supportsReturnType(QName returnType) {
+        if (XPathConstants.BOOLEAN.equals(returnType)) {
+            return true;
+        }
+        return XPathConstants.NUMBER.equals(returnType) && !(this.term instanceof Exists && ((Exists) this.term).path);
+    }
+
+    /**
+     * Evaluates the expression against the document supplied by the given
+     * reader, which must be positioned at the start of the document. The
+     * reader is advanced until the result is known (usually to the end of the
+     * document) but is not closed.
+     *
+     * @param reader
+     *            An XMLStreamReader.
+     * @param returnType
+     *            The desired return type (BOOLEAN or NUMBER).
+     * @return The result converted to the desired type.
+     * @throws XMLStreamException
+     *             If the document cannot be read.
+     */
+    public Object evaluate(XMLStreamReader reader, QName returnType) throws XMLStreamException {
+        Evaluator evaluator = newEvaluator();
+        while (true) {
+            evaluator.handleEvent(reader);
+            if (evaluator.isDetermined() || !reader.hasNext()) {
+                break;
+            }
+            reader.next();
+        }
+        return evaluator.getResult(returnType);
+    }
+
+    /**
+     * Creates an evaluator that receives the parsing events from some other
+     * reader (see {@link TeeStreamReader}).
+     *
+     * @return A new Evaluator.
+     */
+    public Evaluator newEvaluator() {
+        return new Evaluator();
+    }
+
+    @Override
+    public String toString() {
+        return "StreamingXPath[" + this.expr + "]";
+    }
+
+    /**
+     * Evaluates the expression as parsing events are received. An evaluator is
+     * not thread-safe and is used only once.
+     */
+    public final class Evaluator implements XMLStreamListener {
+
+        private final long[] counts = new long[paths.size()];
+        private final List<BitSet> frames = new ArrayList<BitSet>();
+        private int depth;
+
+        Evaluator() {
+            BitSet root = new BitSet();
+            for (int offset : offsets) {
+                root.set(offset);
+            }
+            this.frames.add(root);
+        }
+
+        @Override
+        public void handleEvent(XMLStreamReader reader) throws XMLStreamException {
+            switch (reader.getEventType()) {
+            case XMLStreamConstants.START_ELEMENT:
+                startElement(reader);
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                this.depth--;
+                break;
+            default:
+                break;
+            }
+        }
+
+        private void startElement(XMLStreamReader reader) {
+            BitSet parent = this.frames.get(this.depth);
+            this.depth++;
+            if (this.frames.size() == this.depth) {
+                this.frames.add(new BitSet());
+            }
+            BitSet current = this.frames.get(this.depth);
+            current.clear();
+            if (parent.isEmpty()) {
+                return;
+            }
+            for (int i = 0; i < paths.size(); i++) {
+                Path path = paths.get(i);
+                int offset = offsets[i];
+                int last = path.steps.length;
+                boolean selected = false;
+                for (int p = parent.nextSetBit(offset); p >= 0 && p <= offset + last; p = parent.nextSetBit(p + 1)) {
+                    int k = p - offset;
+                    if (k == last) {
+                        if (null != path.attribute && path.attribute.descendant) {
+                            current.set(p);
+                        }
+                        continue;
+                    }
+                    Step step = path.steps[k];
+                    if (step.descendant) {
+                        current.set(p);
+                    }
+                    if (step.matches(reader)) {
+                        current.set(p + 1);
+                        selected |= (k + 1 == last);
+                    }
+                }
+                if (null == path.attribute) {
+                    if (selected) {
+                        this.counts[i]++;
+                    }
+                } else if (current.get(offset + last)) {
+                    for (int a = 0; a < reader.getAttributeCount(); a++) {
+                        if (path.attribute.name.matches(reader.getAttributeNamespace(a),
+                                reader.getAttributeLocalName(a))) {
+                            this.counts[i]++;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Indicates whether or not the result is already known, so that the
+         * remaining events need not be read. This is the case if only the
+         * existence of nodes matters and all location paths have selected
+         * some node.
+         *
+         * @return {@code true} if the result cannot change; {@code false}
+         *         otherwise.
+         */
+        public boolean isDetermined() {
+            if (!existenceOnly) {
+                return false;
+            }
+            for (long count : this.counts) {
+                if (count == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the result of evaluating the expression against the events
+         * received so far.
+         *
+         * @param returnType
+         *            The desired return type (BOOLEAN or NUMBER).
+         * @return The result converted to the desired type.
+         * @throws IllegalArgumentException
+         *             If the return type is not supported (see
+         *             {@link StreamingXPath#supportsReturnType(QName)}).
+         */
+        public Object getResult(QName returnType) {
+            if (!supportsReturnType(returnType)) {
+                throw new IllegalArgumentException("Unsupported return type: " + returnType);
+            }
+            if (XPathConstants.BOOLEAN.equals(returnType)) {
+                return Boolean.valueOf(term.value(this.counts));
+            }
+            if (term instanceof Count) {
+                return Double.valueOf(this.counts[((Count) term).index]);
+            }
+            return Double.valueOf(term.value(this.counts) ? 1 : 0);
+        }
+    }
+
+    private static final class NameTest {
+        final String namespaceURI;
+        final String localName;
+
+        NameTest(String namespaceURI, String localName) {
+            this.namespaceURI = namespaceURI;
+            this.localName = localName;
+        }
+
+        boolean matches(String nsURI, String name) {
+            if (null != this.namespaceURI && !this.namespaceURI.equals((null != nsURI) ? nsURI : "")) {
+                return false;
+            }
+            return null == this.localName || this.localName.equals(name);
+        }
+    }
+
+    private static final class Step {
+        final NameTest name;
+        final boolean descendant;
+        final List<Condition> predicates = new ArrayList<Condition>();
+
+        Step(NameTest name, boolean descendant) {
+            this.name = name;
+            this.descendant = descendant;
+        }
+
+        boolean matches(XMLStreamReader reader) {
+            if (!this.name.matches(reader.getNamespaceURI(), reader.getLocalName())) {
+                return false;
+            }
+            for (Condition predicate : this.predicates) {
+                if (!predicate.test(reader)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Path {
+        Step[] steps;
+        Step attribute;
+        boolean existenceOnly = true;
+    }
+
+    /**
+     * A predicate on the attributes of an element.
+     */
+    private interface Condition {
+        boolean test(XMLStreamReader reader);
+    }
+
+    private static final class AttributeTest implements Condition {
+        final NameTest name;
+        final String value;
+        final boolean equal;
+
+        AttributeTest(NameTest name, String value, boolean equal) {
+            this.name = name;
+            this.value = value;
+            this.equal = equal;
+        }
+
+        @Override
+        public boolean test(XMLStreamReader reader) {
+            for (int a = 0; a < reader.getAttributeCount(); a++) {
+                if (this.name.matches(reader.getAttributeNamespace(a), reader.getAttributeLocalName(a))
+                        && (null == this.value || this.equal == this.value.equals(reader.getAttributeValue(a)))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Combination implements Condition {
+        final Condition left;
+        final Condition right;
+        final boolean and;
+
+        Combination(Condition left, Condition right, boolean and) {
+            this.left = left;
+            this.right = right;
+            this.and = and;
+        }
+
+        @Override
+        public boolean test(XMLStreamReader reader) {
+            return this.and ? this.left.test(reader) && this.right.test(reader)
+                    : this.left.test(reader) || this.right.test(reader);
+        }
+    }
+
+    private static final class Negation implements Condition {
+        final Condition operand;
+
+        Negation(Condition operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        public boolean test(XMLStreamReader reader) {
+            return !this.operand.test(reader);
+        }
+    }
+
+    /**
+     * A boolean expression over the number of nodes selected by each location
+     * path.
+     */
+    private interface Term {
+        boolean value(long[] counts);
+    }
+
+    private static final class Exists implements Term {
+        final int index;
+        final boolean path;
+
+        Exists(int index, boolean path) {
+            this.index = index;
+            this.path = path;
+        }
+
+        @Override
+        public boolean value(long[] counts) {
+            return counts[this.index] > 0;
+        }
+    }
+
+    private static final class Count implements Term {
+        final int index;
+
+        Count(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public boolean value(long[] counts) {
+            return counts[this.index] != 0;
+        }
+    }
+
+    private static final class Comparison implements Term {
+        final int index;
+        final String operator;
+        final double number;
+
+        Comparison(int index, String operator, double number) {
+            this.index = index;
+            this.operator = operator;
+            this.number = number;
+        }
+
+        @Override
+        public boolean value(long[] counts) {
+            long count = counts[this.index];
+            switch (this.operator) {
+            case "=":
+                return count == this.number;
+            case "!=":
+                return count != this.number;
+            case "<":
+                return count < this.number;
+            case "<=":
+                return count <= this.number;
+            case ">":
+                return count > this.number;
+            default:
+                return count >= this.number;
+            }
+        }
+    }
+
+    private static final class Junction implements Term {
+        final Term left;
+        final Term right;
+        final boolean and;
+
+        Junction(Term left, Term right, boolean and) {
+            this.left = left;
+            this.right = right;
+            this.and = and;
+        }
+
+        @Override
+        public boolean value(long[] counts) {
+            return this.and ? this.left.value(counts) && this.right.value(counts)
+                    : this.left.value(counts) || this.right.value(counts);
+        }
+    }
+
+    private static final class Not implements Term {
+        final Term operand;
+
+        Not(Term operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        public boolean value(long[] counts) {
+            return !this.operand.value(counts);
+        }
+    }
+
+    /**
+     * A recursive descent parser for the supported subset. An
+     * IllegalArgumentException is thrown if the expression does not belong to
+     * it.
+     */
+    private static final class Parser {
+
+        private final String expr;
+        private final NamespaceContext nsContext;
+        final List<Path> paths = new ArrayList<Path>();
+        private int pos;
+
+        Parser(String expr, NamespaceContext nsContext) {
+            this.expr = expr;
+            this.nsContext = nsContext;
+        }
+
+        Term parseExpression() {
+            if (null == this.expr) {
+                throw new IllegalArgumentException("No expression.");
+            }
+            Term term = parseOr();
+            skipWhitespace();
+            if (this.pos != this.expr.length()) {
+                throw unsupported();
+            }
+            return term;
+        }
+
+        private Term parseOr() {
+            Term term = parseAnd();
+            while (consumeKeyword("or")) {
+                term = new Junction(term, parseAnd(), false);
+            }
+            return term;
+        }
+
+        private Term parseAnd() {
+            Term term = parsePrimary();
+            while (consumeKeyword("and")) {
+                term = new Junction(term, parsePrimary(), true);
+            }
+            return term;
+        }
+
+        private Term parsePrimary() {
+            skipWhitespace();
+            if (consume("(")) {
+                Term term = parseOr();
+                expect(")");
+                return term;
+            }
+            int start = this.pos;
+            String name = scanName();
+            skipWhitespace();
+            if (!name.isEmpty() && peek() == '(') {
+                this.pos++;
+                Term term;
+                switch (name) {
+                case "not":
+                    term = new Not(parseOr());
+                    break;
+                case "boolean":
+                    term = new Exists(parsePath(true), false);
+                    break;
+                case "count":
+                    int index = parsePath(false);
+                    expect(")");
+                    return parseComparison(index);
+                default:
+                    throw unsupported();
+                }
+                expect(")");
+                return term;
+            }
+            this.pos = start;
+            return new Exists(parsePath(true), true);
+        }
+
+        private Term parseComparison(int index) {
+            skipWhitespace();
+            String operator = null;
+            for (String op : new String[] { "!=", "<=", ">=", "=", "<", ">" }) {
+                if (consume(op)) {
+                    operator = op;
+                    break;
+                }
+            }
+            if (null == operator) {
+                return new Count(index);
+            }
+            skipWhitespace();
+            int start = this.pos;
+            while (this.pos < this.expr.length()
+                    && (Character.isDigit(this.expr.charAt(this.pos)) || this.expr.charAt(this.pos) == '.')) {
+                this.pos++;
+            }
+            try {
+                return new Comparison(index, operator, Double.parseDouble(this.expr.substring(start, this.pos)));
+            } catch (NumberFormatException e) {
+                throw unsupported();
+            }
+        }
+
+        /**
+         * Parses a location path and returns its index.
+         */
+        private int parsePath(boolean existenceOnly) {
+            skipWhitespace();
+            boolean descendant = false;
+            if (consume(".//") || consume("//")) {
+                descendant = true;
+            } else if (!consume("./")) {
+                consume("/");
+            }
+            List<Step> steps = new ArrayList<Step>();
+            Path path = new Path();
+            while (true) {
+                skipWhitespace();
+                boolean attribute = consume("@");
+                if (!attribute) {
+                    int start = this.pos;
+                    String axis = scanName();
+                    skipWhitespace();
+                    if (consume("::")) {
+                        if (axis.equals("attribute")) {
+                            attribute = true;
+                        } else if (axis.equals("descendant")) {
+                            descendant = true;
+                        } else if (!axis.equals("child")) {
+                            throw unsupported();
+                        }
+                    } else {
+                        this.pos = start;
+                    }
+                }
+                skipWhitespace();
+                Step step = new Step(parseNameTest(attribute), descendant);
+                skipWhitespace();
+                if (attribute) {
+                    path.attribute = step;
+                    break;
+                }
+                while (consume("[")) {
+                    step.predicates.add(parseCondition());
+                    expect("]");
+                    skipWhitespace();
+                }
+                steps.add(step);
+                if (consume("//")) {
+                    descendant = true;
+                } else if (consume("/")) {
+                    descendant = false;
+                } else {
+                    break;
+                }
+            }
+            path.steps = steps.toArray(new Step[steps.size()]);
+            path.existenceOnly = existenceOnly;
+            this.paths.add(path);
+            return this.paths.size() - 1;
+        }
+
+        private Condition parseCondition() {
+            Condition condition = parseConjunction();
+            while (consumeKeyword("or")) {
+                condition = new Combination(condition, parseConjunction(), false);
+            }
+            return condition;
+        }
+
+        private Condition parseConjunction() {
+            Condition condition = parseTest();
+            while (consumeKeyword("and")) {
+                condition = new Combination(condition, parseTest(), true);
+            }
+            return condition;
+        }
+
+        private Condition parseTest() {
+            skipWhitespace();
+            if (consume("(")) {
+                Condition condition = parseCondition();
+                expect(")");
+                return condition;
+            }
+            if (consume("@") || consume("attribute::")) {
+                NameTest name = parseNameTest(true);
+                skipWhitespace();
+                boolean equal = consume("=");
+                if (equal || consume("!=")) {
+                    return new AttributeTest(name, parseLiteral(), equal);
+                }
+                return new AttributeTest(name, null, true);
+            }
+            if (scanName().equals("not")) {
+                expect("(");
+                Condition condition = new Negation(parseCondition());
+                expect(")");
+                return condition;
+            }
+            throw unsupported();
+        }
+
+        private String parseLiteral() {
+            skipWhitespace();
+            char quote = peek();
+            if (quote != '\'' && quote != '"') {
+                throw unsupported();
+            }
+            int end = this.expr.indexOf(quote, this.pos + 1);
+            if (end < 0) {
+                throw unsupported();
+            }
+            String literal = this.expr.substring(this.pos + 1, end);
+            this.pos = end + 1;
+            return literal;
+        }
+
+        private NameTest parseNameTest(boolean attribute) {
+            if (consume("*")) {
+                return new NameTest(null, null);
+            }
+            String prefix = scanName();
+            if (prefix.isEmpty()) {
+                throw unsupported();
+            }
+            String localName = prefix;
+            String nsURI = "";
+            if (peek() == ':' && !this.expr.startsWith("::", this.pos)) {
+                this.pos++;
+                nsURI = this.nsContext.getNamespaceURI(prefix);
+                if (null == nsURI) {
+                    throw new IllegalArgumentException("Undeclared prefix: " + prefix);
+                }
+                localName = consume("*") ? null : scanName();
+                if ("".equals(localName)) {
+                    throw unsupported();
+                }
+            }
+            skipWhitespace();
+            if (!attribute && peek() == '(') {
+                // node type test or function call
+                throw unsupported();
+            }
+            return new NameTest(nsURI, localName);
+        }
+
+        private String scanName() {
+            int start = this.pos;
+            while (this.pos < this.expr.length()) {
+                char c = this.expr.charAt(this.pos);
+                boolean nameChar = Character.isLetter(c) || c == '_'
+                        || (this.pos > start && (Character.isDigit(c) || c == '-' || c == '.'));
+                if (!nameChar) {
+                    break;
+                }
+                this.pos++;
+            }
+            return this.expr.substring(start, this.pos);
+        }
+
+        private boolean consumeKeyword(String keyword) {
+            skipWhitespace();
+            int start = this.pos;
+            if (scanName().equals(keyword)) {
+                return true;
+            }
+            this.pos = start;
+            return false;
+        }
+
+        private boolean consume(String token) {
+            if (this.expr.startsWith(token, this.pos)) {
+                this.pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            skipWhitespace();
+            if (!consume(token)) {
+                throw unsupported();
+            }
+        }
+
+        private char peek() {
+            return (this.pos < this.expr.length()) ? this.expr.charAt(this.pos) : 0;
+        }
+
+        private void skipWhitespace() {
+            while (this.pos < this.expr.length() && Character.isWhitespace(this.expr.charAt(this.pos))) {
+                this.pos++;
+            }
+        }
+
+        private IllegalArgumentException unsupported() {
+            return new IllegalArgumentException(
+                    String.format("Unsupported expression at offset %d: %s", this.pos, this.expr));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+/**
+ * A stream reader that reports every parsing event to a list of listeners as
+ * the underlying reader is advanced by its consumer. In effect, a single pass
+ * over a document serves several independent consumers.
+ */
+public class TeeStreamReader extends StreamReaderDelegate {
+
+    private final List<XMLStreamListener> listeners;
+
+    /**
+     * Constructs a reader that wraps the given stream reader.
+     *
+     * @param reader
+     *            The underlying stream reader.
+     * @param listeners
+     *            A list of listeners to notify (may be empty).
+     */
+    public TeeStreamReader(XMLStreamReader reader, List<XMLStreamListener> listeners) {
+        super(reader);
+        this.listeners = new ArrayList<XMLStreamListener>(listeners);
+    }
+
+    /**
+     * Reports the current event to all listeners. This is useful if the
+     * underlying reader was advanced before it was wrapped.
+     *
+     * @throws XMLStreamException
+     *             If a listener fails to handle the event.
+     */
+    public void notifyListeners() throws XMLStreamException {
+        for (XMLStreamListener listener : this.listeners) {
+            listener.handleEvent(this);
+        }
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        int event = super.next();
+        notifyListeners();
+        return event;
+    }
+
+    /**
+     * Skips any insignificant events until a start or end tag is reached. Each
+     * skipped event is reported to the listeners.
+     */
+    @Override
+    public int nextTag() throws XMLStreamException {
+        int event = next();
+        while ((event == XMLStreamConstants.CHARACTERS && isWhiteSpace())
+                || (event == XMLStreamConstants.CDATA && isWhiteSpace()) || event == XMLStreamConstants.SPACE
+                || event == XMLStreamConstants.PROCESSING_INSTRUCTION || event == XMLStreamConstants.COMMENT) {
+            event = next();
+        }
+        if (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+            throw new XMLStreamException("Expected start or end tag", getLocation());
+        }
+        return event;
+    }
+
+    /**
+     * Reads the content of a text-only element. Each event is reported to the
+     * listeners.
+     */
+    @Override
+    public String getElementText() throws XMLStreamException {
+        if (getEventType() != XMLStreamConstants.START_ELEMENT) {
+            throw new XMLStreamException("Current event is not START_ELEMENT", getLocation());
+        }
+        StringBuilder text = new StringBuilder();
+        int event = next();
+        while (event != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE || event == XMLStreamConstants.ENTITY_REFERENCE) {
+                text.append(getText());
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                throw new XMLStreamException("Element content is not text-only", getLocation());
+            } else if (event == XMLStreamConstants.END_DOCUMENT) {
+                throw new XMLStreamException("Unexpected end of document", getLocation());
+            }
+            event = next();
+        }
+        return text.toString();
+    }
+}
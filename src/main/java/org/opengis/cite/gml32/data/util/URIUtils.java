@@ -1,14 +1,10 @@
 package org.opengis.cite.gml32.data.util;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.URI;
 import java.util.logging.Level;
 
-import javax.ws.rs.core.HttpHeaders;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -16,10 +12,6 @@ import javax.xml.parsers.ParserConfigurationException;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
-import com.sun.jersey.api.client.Client;
-import com.sun.jersey.api.client.ClientResponse;
-import com.sun.jersey.api.client.WebResource;
-
 /**
  * Provides a collection of utility methods for manipulating or resolving URI
  * references.
@@ -71,7 +63,8 @@ public class URIUtils {
     /**
      * Dereferences the given URI and stores the resulting resource
      * representation in a local file. The file will be located in the default
-     * temporary file directory.
+     * temporary file directory. An interrupted transfer is resumed if possible
+     * (see {@link RangeDownloader}).
      * 
      * @param uriRef
      *            An absolute URI specifying the location of some resource.
@@ -88,25 +81,15 @@ public class URIUtils {
         if (uriRef.getScheme().equalsIgnoreCase("file")) {
             return new File(uriRef);
         }
-        Client client = Client.create();
-        WebResource webRes = client.resource(uriRef);
-        ClientResponse rsp = webRes.get(ClientResponse.class);
-        String suffix = null;
-        if (rsp.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE).endsWith("xml")) {
-            suffix = ".xml";
-        }
-        File destFile = File.createTempFile("entity-", suffix);
-        if (rsp.hasEntity()) {
-            InputStream is = rsp.getEntityInputStream();
-            OutputStream os = new FileOutputStream(destFile);
-            byte[] buffer = new byte[8 * 1024];
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                os.write(buffer, 0, bytesRead);
+        File destFile;
+        try (RangeDownloader downloader = new RangeDownloader(uriRef)) {
+            String contentType = downloader.connect();
+            String suffix = null;
+            if (null != contentType && contentType.endsWith("xml")) {
+                suffix = ".xml";
             }
-            is.close();
-            os.flush();
-            os.close();
+            destFile = File.createTempFile("entity-", suffix);
+            downloader.transferTo(destFile, null);
         }
         TestSuiteLogger.log(Level.FINE, "Wrote " + destFile.length()
                 + " bytes to file at " + destFile.getAbsolutePath());
@@ -5,17 +5,17 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.xml.XMLConstants;
-import javax.xml.namespace.QName;
-import javax.xml.stream.XMLEventReader;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.Attribute;
-import javax.xml.stream.events.StartElement;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 
@@ -23,6 +23,7 @@ import org.apache.xerces.util.XMLCatalogResolver;
 import org.opengis.cite.gml32.data.Namespaces;
 import org.opengis.cite.validation.SchematronValidator;
 import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.SAXException;
 
 /**
  * A utility class that provides convenience methods to support schema
@@ -32,6 +33,7 @@ public class ValidationUtils {
 
     static final String ROOT_PKG = "/org/opengis/cite/gml32/data/";
     private static final XMLCatalogResolver SCH_RESOLVER = initCatalogResolver();
+    private static final Pattern PSEUDO_ATTR = Pattern.compile("(\\w+)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
 
     private static XMLCatalogResolver initCatalogResolver() {
         return (XMLCatalogResolver) createSchemaResolver(Namespaces.SCH);
@@ -97,6 +99,115 @@ public class ValidationUtils {
         return validator;
     }
 
+    /**
+     * Constructs a validator that will check an XML resource against the rules
+     * defined in a Schematron schema. An attempt is made to resolve the schema
+     * reference using an entity catalog; if this fails the reference is used
+     * as given. The compiled schema is obtained from the shared
+     * {@link SchematronCache}.
+     * 
+     * <p>
+     * If the catalog contains a <code>uri</code> entry for the schema
+     * reference and phase (e.g. "http://example.org/rules.sch#ALL"), it refers
+     * to a stylesheet that was generated from the schema at build time (see
+     * {@link SchematronCompiler}); this is used instead. A null or empty phase
+     * is designated as "#DEFAULT".
+     * </p>
+     * 
+     * @param schemaRef
+     *            A reference to a Schematron schema; this is expected to be a
+     *            relative or absolute URI value, possibly matching the system
+     *            identifier for some entry in an entity catalog.
+     * @param phase
+     *            The name of the phase to invoke.
+     * @return A CompiledSchematronValidator instance, or {@code null} if the
+     *         validator cannot be constructed (e.g. invalid schema reference
+     *         or phase name).
+     */
+    public static CompiledSchematronValidator buildCompiledSchematronValidator(String schemaRef, String phase) {
+        URI schemaURI = null;
+        try {
+            String catalogRef = SCH_RESOLVER.resolveSystem(schemaRef.toString());
+            schemaURI = URI.create((null != catalogRef) ? catalogRef : schemaRef);
+        } catch (IOException x) {
+            TestSuiteLogger.log(Level.WARNING, "Error reading Schematron schema catalog.", x);
+        }
+        CompiledSchematronValidator validator = findPrecompiledValidator(schemaRef, phase);
+        if (null != validator) {
+            return validator;
+        }
+        try {
+            validator = SchematronCache.getInstance().get(schemaURI, phase).newValidator();
+        } catch (Exception e) {
+            TestSuiteLogger.log(Level.WARNING, "Error creating Schematron validator.", e);
+        }
+        return validator;
+    }
+
+    /**
+     * Looks for a precompiled stylesheet for the given Schematron schema and
+     * phase. A stylesheet that cannot be loaded (for example, because the
+     * build step that generates it was skipped) is ignored.
+     */
+    private static CompiledSchematronValidator findPrecompiledValidator(String schemaRef, String phase) {
+        CompiledSchematron schema = findPrecompiledSchematron(schemaRef, phase);
+        return (null != schema) ? schema.newValidator() : null;
+    }
+
+    /**
+     * Looks for a stylesheet that was generated from a Schematron schema at
+     * build time (see {@link SchematronCompiler}). The Schematron entity
+     * catalog contains a <code>uri</code> entry for each such stylesheet, whose
+     * name is the schema reference followed by a fragment identifier that
+     * designates the phase (a null or empty phase is designated as
+     * "#DEFAULT"). A stylesheet that cannot be loaded (for example, because
+     * the build step that generates it was skipped) is ignored.
+     * 
+     * @param schemaRef
+     *            A reference to a Schematron schema (an absolute URI).
+     * @param phase
+     *            The name of the phase to invoke.
+     * @return A CompiledSchematron object obtained from the shared
+     *         {@link SchematronCache}, or {@code null} if no precompiled
+     *         stylesheet is available.
+     */
+    public static CompiledSchematron findPrecompiledSchematron(String schemaRef, String phase) {
+        String phaseId = (null == phase || phase.isEmpty()) ? "#DEFAULT" : phase;
+        String name = schemaRef + (phaseId.startsWith("#") ? phaseId : "#" + phaseId);
+        CompiledSchematron schema = null;
+        try {
+            String stylesheetRef = SCH_RESOLVER.resolveURI(name);
+            if (null != stylesheetRef) {
+                schema = SchematronCache.getInstance().getPrecompiled(URI.create(stylesheetRef), phase);
+            }
+        } catch (IOException | SAXException e) {
+            TestSuiteLogger.log(Level.FINE, "Precompiled Schematron stylesheet not available for " + name, e);
+        }
+        return schema;
+    }
+
+    /**
+     * Resolves a reference to a Schematron schema using the Schematron entity
+     * catalog. In effect, a local copy of a standard schema is used instead of
+     * retrieving it from an external repository.
+     * 
+     * @param schemaRef
+     *            An absolute URI that refers to a Schematron schema.
+     * @return The URI of the local copy, or the given reference if the catalog
+     *         has no matching entry.
+     */
+    public static URI resolveSchematronReference(URI schemaRef) {
+        try {
+            String catalogRef = SCH_RESOLVER.resolveSystem(schemaRef.toString());
+            if (null != catalogRef) {
+                return URI.create(catalogRef);
+            }
+        } catch (IOException x) {
+            TestSuiteLogger.log(Level.WARNING, "Error reading Schematron schema catalog.", x);
+        }
+        return schemaRef;
+    }
+
     /**
      * Extracts a set of XML Schema references from a source XML document. The
      * document element is expected to include the standard xsi:schemaLocation
@@ -116,16 +227,38 @@ public class ValidationUtils {
      *             If an error occurs while reading the source instance.
      */
     public static Set<URI> extractSchemaReferences(Source source, String baseURI) throws XMLStreamException {
-        XMLInputFactory factory = XMLInputFactory.newInstance();
-        XMLEventReader reader = factory.createXMLEventReader(source);
-        // advance to document element
-        StartElement docElem = reader.nextTag().asStartElement();
-        Attribute schemaLoc = docElem
-                .getAttributeByName(new QName(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "schemaLocation"));
+        XMLStreamReader reader = StaxFactories.getInputFactory().createXMLStreamReader(source);
+        try {
+            // advance to document element
+            reader.nextTag();
+            return extractSchemaReferences(reader, source.getSystemId(), baseURI);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Extracts a set of XML Schema references from the xsi:schemaLocation
+     * attribute of the current element. This allows the references to be
+     * obtained while the document is being read for some other purpose.
+     *
+     * @param reader
+     *            A stream reader positioned at the document element.
+     * @param systemId
+     *            The system identifier (base URI) of the document (may be
+     *            null).
+     * @param baseURI
+     *            An alternative base URI to use if the system id is null or if
+     *            it is a {@code file} URI (may be null).
+     * @return A Set containing absolute URI references that specify the
+     *         locations of XML Schema resources, or null if none are found.
+     */
+    public static Set<URI> extractSchemaReferences(XMLStreamReader reader, String systemId, String baseURI) {
+        String schemaLoc = reader.getAttributeValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "schemaLocation");
         if (null == schemaLoc) {
             return null;
         }
-        String[] uriValues = schemaLoc.getValue().split("\\s+");
+        String[] uriValues = schemaLoc.split("\\s+");
         if (uriValues.length % 2 != 0) {
             throw new RuntimeException("xsi:schemaLocation attribute contains an odd number of URI values:\n"
                     + Arrays.toString(uriValues));
@@ -134,8 +267,8 @@ public class ValidationUtils {
         // one or more pairs of [namespace name] [schema location]
         for (int i = 0; i < uriValues.length; i += 2) {
             URI schemaURI = null;
-            if (!URI.create(uriValues[i + 1]).isAbsolute() && (null != source.getSystemId())) {
-                String schemaRef = URIUtils.resolveRelativeURI(source.getSystemId(), uriValues[i + 1]).toString();
+            if (!URI.create(uriValues[i + 1]).isAbsolute() && (null != systemId)) {
+                String schemaRef = URIUtils.resolveRelativeURI(systemId, uriValues[i + 1]).toString();
                 if (schemaRef.startsWith("file") && !new File(schemaRef).exists() && (null != baseURI)) {
                     schemaRef = URIUtils.resolveRelativeURI(baseURI, uriValues[i + 1]).toString();
                 }
@@ -148,4 +281,48 @@ public class ValidationUtils {
         return schemaURIs;
     }
 
+    /**
+     * Parses the content of a processing instruction that consists of
+     * pseudo-attributes.
+     *
+     * @param piData
+     *            The PI data.
+     * @return A Map containing the pseudo-attributes (name-value pairs).
+     */
+    public static Map<String, String> parsePseudoAttributes(String piData) {
+        Map<String, String> attrs = new HashMap<String, String>();
+        Matcher matcher = PSEUDO_ATTR.matcher(piData);
+        while (matcher.find()) {
+            attrs.put(matcher.group(1), (null != matcher.group(2)) ? matcher.group(2) : matcher.group(3));
+        }
+        return attrs;
+    }
+
+    /**
+     * Obtains a reference to a Schematron schema from the data of an
+     * <code>xml-model</code> processing instruction (see <a href=
+     * "http://www.w3.org/TR/xml-model/">Associating Schemas with XML documents
+     * 1.0</a>).
+     *
+     * @param piData
+     *            The PI data.
+     * @param baseURI
+     *            The base URI used to resolve a relative reference (may be
+     *            null).
+     * @return An absolute URI (if the base URI is given), or {@code null} if
+     *         the instruction does not refer to a Schematron schema.
+     */
+    public static URI getSchematronReference(String piData, URI baseURI) {
+        Map<String, String> piAttrs = parsePseudoAttributes(piData);
+        String href = piAttrs.get("href");
+        if (null == href || !Namespaces.SCH.toString().equals(piAttrs.get("schematypens"))) {
+            return null;
+        }
+        URI schURI = URI.create(href);
+        if (!schURI.isAbsolute() && null != baseURI) {
+            schURI = baseURI.resolve(schURI);
+        }
+        return schURI;
+    }
+
 }
@@ -0,0 +1,210 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+
+/**
+ * A process-wide pool of reusable {@link Validator} objects. Creating a
+ * validator for a large application schema is costly, and a Validator is not
+ * thread-safe, so each thread keeps (at most) one idle validator for every
+ * registered schema. A validator is reset when it is returned to the pool.
+ *
+ * <p>
+ * Only schemas that are held by the {@link SchemaCache} are registered; the
+ * pooled validators are discarded when the schema is evicted from the cache.
+ * Validators for any other schema are simply created on demand.
+ * </p>
+ *
+ * <p>
+ * The idle validators of a schema are kept in a registry keyed by (weakly
+ * referenced) thread rather than in thread-local variables: a value held by a
+ * thread's own map would keep the validator, and hence the evicted schema and
+ * its grammars, reachable for as long as the thread lives.
+ * </p>
+ */
+public class ValidatorPool {
+
+    private static final ValidatorPool INSTANCE = new ValidatorPool();
+    private final Map<Schema, Map<Thread, Validator>> entries = new IdentityHashMap<Schema, Map<Thread, Validator>>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong allocationCount = new AtomicLong();
+    private final AtomicLong removalCount = new AtomicLong();
+
+    /**
+     * Returns the shared pool instance.
+     *
+     * @return The process-wide ValidatorPool.
+     */
+    public static ValidatorPool getInstance() {
+        return INSTANCE;
+    }
+
+    ValidatorPool() {
+    }
+
+    /**
+     * Registers a schema so that validators created from it are pooled.
+     *
+     * @param schema
+     *            A compiled schema.
+     */
+    public void register(Schema schema) {
+        synchronized (entries) {
+            if (!entries.containsKey(schema)) {
+                entries.put(schema, new WeakHashMap<Thread, Validator>());
+            }
+        }
+    }
+
+    /**
+     * Unregisters a schema. The idle validators of all threads are discarded
+     * at once, so the schema may be garbage collected when no longer in use.
+     *
+     * @param schema
+     *            A compiled schema.
+     */
+    public void unregister(Schema schema) {
+        Map<Thread, Validator> pooled;
+        synchronized (entries) {
+            pooled = entries.remove(schema);
+        }
+        if (null != pooled) {
+            synchronized (pooled) {
+                pooled.clear();
+            }
+            removalCount.incrementAndGet();
+            TestSuiteLogger.log(Level.FINE, "Discarded pooled validators for evicted schema: " + schema);
+        }
+    }
+
+    /**
+     * Indicates whether or not validators for the given schema are pooled.
+     *
+     * @param schema
+     *            A compiled schema.
+     * @return {@code true} if the schema is registered; {@code false}
+     *         otherwise.
+     */
+    public boolean isRegistered(Schema schema) {
+        synchronized (entries) {
+            return entries.containsKey(schema);
+        }
+    }
+
+    /**
+     * Obtains a validator for the given schema. The idle validator of the
+     * current thread is returned if there is one; otherwise a new validator is
+     * created. It should be returned using {@link #release(Schema, Validator)}
+     * when no longer needed.
+     *
+     * @param schema
+     *            A compiled schema.
+     * @return A Validator that is used exclusively by the caller.
+     */
+    public Validator acquire(Schema schema) {
+        Map<Thread, Validator> pooled;
+        synchronized (entries) {
+            pooled = entries.get(schema);
+        }
+        if (null != pooled) {
+            Validator validator;
+            synchronized (pooled) {
+                validator = pooled.remove(Thread.currentThread());
+            }
+            if (null != validator) {
+                hitCount.incrementAndGet();
+                return validator;
+            }
+        }
+        allocationCount.incrementAndGet();
+        return schema.newValidator();
+    }
+
+    /**
+     * Returns a validator to the pool. It is reset to its original
+     * configuration; the error handler is cleared so that it does not retain
+     * any reported errors. The validator is discarded if the schema is not
+     * registered or if the current thread already holds an idle validator.
+     *
+     * @param schema
+     *            The schema from which the validator was created.
+     * @param validator
+     *            A Validator obtained using {@link #acquire(Schema)}.
+     */
+    public void release(Schema schema, Validator validator) {
+        Map<Thread, Validator> pooled;
+        synchronized (entries) {
+            pooled = entries.get(schema);
+        }
+        if (null == pooled) {
+            return;
+        }
+        Thread owner = Thread.currentThread();
+        synchronized (pooled) {
+            if (pooled.containsKey(owner)) {
+                return;
+            }
+        }
+        validator.reset();
+        validator.setErrorHandler(null);
+        synchronized (pooled) {
+            if (!pooled.containsKey(owner)) {
+                pooled.put(owner, validator);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of registered schemas.
+     *
+     * @return The number of schemas for which validators are pooled.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of requests that were satisfied by a pooled
+     * validator (that is, the number of allocations saved).
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of validators that have been created.
+     *
+     * @return The allocation count.
+     */
+    public long getAllocationCount() {
+        return allocationCount.get();
+    }
+
+    /**
+     * Returns the number of schemas that have been unregistered.
+     *
+     * @return The removal count.
+     */
+    public long getRemovalCount() {
+        return removalCount.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ValidatorPool[");
+        sb.append("schemas=").append(size()).append(", hits=").append(hitCount.get());
+        sb.append(", allocations=").append(allocationCount.get());
+        sb.append(", removals=").append(removalCount.get()).append(']');
+        return sb.toString();
+    }
+}
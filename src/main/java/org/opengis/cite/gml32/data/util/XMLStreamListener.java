@@ -0,0 +1,22 @@
+package org.opengis.cite.gml32.data.util;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Receives notification of the parsing events reported by a
+ * {@link TeeStreamReader}.
+ */
+public interface XMLStreamListener {
+
+    /**
+     * Handles the current parsing event. The reader is positioned at the event
+     * and must not be advanced by the listener.
+     *
+     * @param reader
+     *            The stream reader that reported the event.
+     * @throws XMLStreamException
+     *             If the event cannot be processed.
+     */
+    void handleEvent(XMLStreamReader reader) throws XMLStreamException;
+}
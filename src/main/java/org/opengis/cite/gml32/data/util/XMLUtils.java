@@ -1,10 +1,13 @@
 package org.opengis.cite.gml32.data.util;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -15,7 +18,6 @@ import java.util.logging.Logger;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.OutputKeys;
@@ -25,23 +27,16 @@ import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.xpath.XPath;
+import javax.xml.transform.stream.StreamSource;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 import net.sf.saxon.s9api.DOMDestination;
-import net.sf.saxon.s9api.DocumentBuilder;
-import net.sf.saxon.s9api.Processor;
 import net.sf.saxon.s9api.SaxonApiException;
-import net.sf.saxon.s9api.XPathCompiler;
 import net.sf.saxon.s9api.XPathSelector;
-import net.sf.saxon.s9api.XQueryCompiler;
 import net.sf.saxon.s9api.XQueryEvaluator;
-import net.sf.saxon.s9api.XQueryExecutable;
 import net.sf.saxon.s9api.XdmNode;
 import net.sf.saxon.s9api.XdmValue;
-import net.sf.saxon.s9api.XsltCompiler;
 import net.sf.saxon.s9api.XsltExecutable;
 import net.sf.saxon.s9api.XsltTransformer;
 
@@ -57,47 +52,79 @@ import org.w3c.dom.NodeList;
 public class XMLUtils {
 
     private static final Logger LOGR = Logger.getLogger(XMLUtils.class.getPackage().getName());
-    private static final XMLInputFactory STAX_FACTORY = initXMLInputFactory();
-    private static final XPathFactory XPATH_FACTORY = initXPathFactory();
-
-    private static XPathFactory initXPathFactory() {
-        XPathFactory factory = XPathFactory.newInstance();
-        return factory;
-    }
-
-    private static XMLInputFactory initXMLInputFactory() {
-        XMLInputFactory factory = XMLInputFactory.newInstance();
-        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
-        return factory;
-    }
+    /**
+     * Name of the system property that specifies the maximum number of
+     * characters produced when a node is written to a string.
+     */
+    public static final String MAX_OUTPUT_PROPERTY = "org.opengis.cite.gml32.data.xml.maxOutputLength";
+    /**
+     * The default maximum length of a serialized node (1 MiB).
+     */
+    public static final int DEFAULT_MAX_OUTPUT = 1048576;
+    private static final TransformerFactory IDENTITY_FACTORY = TransformerFactory.newInstance();
+    private static final ThreadLocal<Transformer> TEXT_SERIALIZER = new ThreadLocal<Transformer>();
+    private static final ThreadLocal<Transformer> UTF8_SERIALIZER = new ThreadLocal<Transformer>();
 
     /**
      * Writes the content of a DOM Node to a string. The XML declaration is
      * omitted and the character encoding is set to "US-ASCII" (any character
      * outside of this set is serialized as a numeric character reference).
+     * The output is truncated if it exceeds the length given by the system
+     * property {@value #MAX_OUTPUT_PROPERTY} (default:
+     * {@value #DEFAULT_MAX_OUTPUT} characters).
      *
      * @param node
      *            The DOM Node to be serialized.
      * @return A String representing the content of the given node.
      */
     public static String writeNodeToString(Node node) {
+        return writeNodeToString(node, Integer.getInteger(MAX_OUTPUT_PROPERTY, DEFAULT_MAX_OUTPUT));
+    }
+
+    /**
+     * Writes the content of a DOM Node to a string of limited length. If the
+     * limit is exceeded, serialization stops and a truncation marker is
+     * appended (see {@link BoundedWriter#TRUNCATION_MARKER}).
+     *
+     * @param node
+     *            The DOM Node to be serialized.
+     * @param maxLength
+     *            The maximum number of characters to produce.
+     * @return A String representing the (possibly truncated) content of the
+     *         given node.
+     */
+    public static String writeNodeToString(Node node, int maxLength) {
         if (null == node) {
             return "";
         }
-        Writer writer = null;
+        StringWriter writer = new StringWriter();
+        writeNode(node, writer, maxLength);
+        return writer.toString();
+    }
+
+    /**
+     * Writes the content of a DOM Node to a character stream, as for
+     * {@link #writeNodeToString(Node, int)}. The writer is not closed.
+     *
+     * @param node
+     *            The DOM Node to be serialized.
+     * @param writer
+     *            The destination Writer.
+     * @param maxLength
+     *            The maximum number of characters to write.
+     * @return {@code true} if the entire node was written; {@code false} if
+     *         the output was truncated.
+     */
+    public static boolean writeNode(Node node, Writer writer, int maxLength) {
+        BoundedWriter output = new BoundedWriter(writer, maxLength);
         try {
-            Transformer idTransformer = TransformerFactory.newInstance().newTransformer();
-            Properties outProps = new Properties();
-            outProps.setProperty(OutputKeys.ENCODING, "US-ASCII");
-            outProps.setProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-            outProps.setProperty(OutputKeys.INDENT, "yes");
-            idTransformer.setOutputProperties(outProps);
-            writer = new StringWriter();
-            idTransformer.transform(new DOMSource(node), new StreamResult(writer));
+            serialize(TEXT_SERIALIZER, "US-ASCII", node, new StreamResult(output));
         } catch (TransformerException ex) {
-            TestSuiteLogger.log(Level.WARNING, "Failed to serialize node " + node.getNodeName(), ex);
+            if (!output.isTruncated()) {
+                TestSuiteLogger.log(Level.WARNING, "Failed to serialize node " + node.getNodeName(), ex);
+            }
         }
-        return writer.toString();
+        return !output.isTruncated();
     }
 
     /**
@@ -110,20 +137,61 @@ public class XMLUtils {
      *            The destination OutputStream reference.
      */
     public static void writeNode(Node node, OutputStream outputStream) {
+        writeNode(node, outputStream, Long.MAX_VALUE);
+    }
+
+    /**
+     * Writes the content of a DOM Node to a byte stream (using the UTF-8
+     * encoding), stopping when the given number of bytes has been written (see
+     * {@link BoundedOutputStream}). An XML declaration is always omitted. The
+     * stream is not closed.
+     *
+     * @param node
+     *            The DOM Node to be serialized.
+     * @param outputStream
+     *            The destination OutputStream reference.
+     * @param maxLength
+     *            The maximum number of bytes to write.
+     * @return {@code true} if the entire node was written; {@code false} if
+     *         the output was truncated.
+     */
+    public static boolean writeNode(Node node, OutputStream outputStream, long maxLength) {
+        BoundedOutputStream output = new BoundedOutputStream(outputStream, maxLength);
         try {
-            Transformer idTransformer = TransformerFactory.newInstance().newTransformer();
+            serialize(UTF8_SERIALIZER, "UTF-8", node, new StreamResult(output));
+        } catch (TransformerException ex) {
+            if (!output.isTruncated()) {
+                String nodeName = (node.getNodeType() == Node.DOCUMENT_NODE)
+                        ? Document.class.cast(node).getDocumentElement().getNodeName() : node.getNodeName();
+                TestSuiteLogger.log(Level.WARNING, "Failed to serialize DOM node: " + nodeName, ex);
+            }
+        }
+        return !output.isTruncated();
+    }
+
+    /**
+     * Serializes a node using an identity transformer that is cached for reuse
+     * by the calling thread. The transformer is removed from the cache while
+     * in use (so nested invocations get their own) and is only put back if it
+     * completed normally.
+     */
+    private static void serialize(ThreadLocal<Transformer> cache, String encoding, Node node, StreamResult result)
+            throws TransformerException {
+        Transformer serializer = cache.get();
+        cache.remove();
+        if (null == serializer) {
+            synchronized (IDENTITY_FACTORY) {
+                serializer = IDENTITY_FACTORY.newTransformer();
+            }
             Properties outProps = new Properties();
             outProps.setProperty(OutputKeys.METHOD, "xml");
-            outProps.setProperty(OutputKeys.ENCODING, "UTF-8");
+            outProps.setProperty(OutputKeys.ENCODING, encoding);
             outProps.setProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
             outProps.setProperty(OutputKeys.INDENT, "yes");
-            idTransformer.setOutputProperties(outProps);
-            idTransformer.transform(new DOMSource(node), new StreamResult(outputStream));
-        } catch (TransformerException ex) {
-            String nodeName = (node.getNodeType() == Node.DOCUMENT_NODE)
-                    ? Document.class.cast(node).getDocumentElement().getNodeName() : node.getNodeName();
-            TestSuiteLogger.log(Level.WARNING, "Failed to serialize DOM node: " + nodeName, ex);
+            serializer.setOutputProperties(outProps);
         }
+        serializer.transform(new DOMSource(node), result);
+        cache.set(serializer);
     }
 
     /**
@@ -162,6 +230,10 @@ public class XMLUtils {
      * expressions when using the JAXP XPath APIs (the default implementation
      * will throw an exception).
      * </p>
+     * <p>
+     * Compiled expressions are cached for reuse by the calling thread (see
+     * {@link XPathCache}).
+     * </p>
      * 
      * @param context
      *            The context node.
@@ -181,17 +253,127 @@ public class XMLUtils {
      */
     public static Object evaluateXPath(Node context, String expr, Map<String, String> namespaceBindings,
             QName returnType) throws XPathExpressionException {
-        NamespaceBindings bindings = NamespaceBindings.withStandardBindings();
-        bindings.addAllBindings(namespaceBindings);
-        XPathFactory factory = XPATH_FACTORY;
-        // WARNING: If context node is Saxon NodeOverNodeInfo, the factory must
-        // use the same Configuration object to avoid IllegalArgumentException
-        XPath xpath = factory.newXPath();
-        xpath.setNamespaceContext(bindings);
-        Object result = xpath.evaluate(expr, context, returnType);
+        Object result = XPathCache.compile(expr, namespaceBindings).evaluate(context, returnType);
         return result;
     }
 
+    /**
+     * Evaluates an XPath 1.0 expression against an XML resource and returns the
+     * result as the specified type. If the expression can be evaluated in
+     * streaming mode (see {@link StreamingXPath}) and the source is a
+     * StreamSource, the resource is read in a single pass without building a
+     * tree; otherwise a compact read-only tree is built and queried.
+     *
+     * @param source
+     *            The XML Source; an InputStream supplied by a StreamSource is
+     *            read (and decompressed if necessary) but not closed.
+     * @param expr
+     *            An XPath expression.
+     * @param namespaceBindings
+     *            A collection of namespace bindings for the XPath expression,
+     *            where each entry maps a namespace URI (key) to a prefix
+     *            (value). Standard bindings do not need to be declared (see
+     *            {@link NamespaceBindings#withStandardBindings()}.
+     * @param returnType
+     *            The desired return type (as declared in {@link XPathConstants}
+     *            ).
+     * @return The result converted to the desired returnType.
+     * @throws XPathExpressionException
+     *             If the expression cannot be evaluated for any reason.
+     */
+    public static Object evaluateXPath(Source source, String expr, Map<String, String> namespaceBindings,
+            QName returnType) throws XPathExpressionException {
+        if (source instanceof DOMSource) {
+            return evaluateXPath(((DOMSource) source).getNode(), expr, namespaceBindings, returnType);
+        }
+        StreamingXPath streamingXPath = StreamingXPath.compile(expr, namespaceBindings);
+        if (source instanceof StreamSource && null != streamingXPath && streamingXPath.supportsReturnType(returnType)) {
+            StreamSource streamSource = (StreamSource) source;
+            try {
+                if (null != streamSource.getInputStream()) {
+                    return evaluateXPath(streamingXPath, ContentEncoding.decode(streamSource.getInputStream()),
+                            streamSource.getSystemId(), returnType);
+                }
+                if (null != streamSource.getReader()) {
+                    XMLStreamReader reader = StaxFactories.getInputFactory()
+                            .createXMLStreamReader(streamSource.getSystemId(), streamSource.getReader());
+                    try {
+                        return streamingXPath.evaluate(reader, returnType);
+                    } finally {
+                        reader.close();
+                    }
+                }
+                try (InputStream input = ContentEncoding
+                        .decode(ClientUtils.openStream(URI.create(streamSource.getSystemId())))) {
+                    return evaluateXPath(streamingXPath, input, streamSource.getSystemId(), returnType);
+                }
+            } catch (IOException | XMLStreamException | IllegalArgumentException e) {
+                throw new XPathExpressionException(e);
+            }
+        }
+        Document doc;
+        try {
+            doc = XdmStreamBuilder.asDocument(SaxonCache.buildNode(source));
+        } catch (SaxonApiException e) {
+            throw new XPathExpressionException(e);
+        }
+        return evaluateXPath(doc, expr, namespaceBindings, returnType);
+    }
+
+    /**
+     * Evaluates an XPath 1.0 expression against the shared test subject and
+     * returns the result as the specified type. If the tree has not been built
+     * and the expression can be evaluated in streaming mode (see
+     * {@link StreamingXPath}), the document is read in a single pass and the
+     * tree is not built; otherwise the tree is used (and built if necessary).
+     *
+     * @param subject
+     *            The tree representing the test subject.
+     * @param expr
+     *            An XPath expression.
+     * @param namespaceBindings
+     *            A collection of namespace bindings for the XPath expression,
+     *            where each entry maps a namespace URI (key) to a prefix
+     *            (value). Standard bindings do not need to be declared.
+     * @param returnType
+     *            The desired return type (as declared in {@link XPathConstants}
+     *            ).
+     * @return The result converted to the desired returnType.
+     * @throws XPathExpressionException
+     *             If the expression cannot be evaluated for any reason.
+     */
+    public static Object evaluateXPath(DocumentTree subject, String expr, Map<String, String> namespaceBindings,
+            QName returnType) throws XPathExpressionException {
+        if (!subject.isBuilt()) {
+            StreamingXPath streamingXPath = StreamingXPath.compile(expr, namespaceBindings);
+            if (null != streamingXPath && streamingXPath.supportsReturnType(returnType)) {
+                try (InputStream input = subject.openStream()) {
+                    return evaluateXPath(streamingXPath, input, subject.getSystemId().toString(), returnType);
+                } catch (IOException | XMLStreamException e) {
+                    throw new XPathExpressionException(e);
+                }
+            }
+        }
+        Document doc;
+        try {
+            doc = subject.getDocument();
+        } catch (SaxonApiException e) {
+            throw new XPathExpressionException(e);
+        }
+        return evaluateXPath(doc, expr, namespaceBindings, returnType);
+    }
+
+    private static Object evaluateXPath(StreamingXPath streamingXPath, InputStream input, String systemId,
+            QName returnType) throws XMLStreamException {
+        TestSuiteLogger.log(Level.FINE, String.format("Evaluating %s over %s", streamingXPath, systemId));
+        XMLStreamReader reader = StaxFactories.getInputFactory().createXMLStreamReader(systemId, input);
+        try {
+            return streamingXPath.evaluate(reader, returnType);
+        } finally {
+            reader.close();
+        }
+    }
+
     /**
      * Evaluates an XPath 2.0 expression using the Saxon s9api interfaces.
      * 
@@ -212,23 +394,30 @@ public class XMLUtils {
      */
     public static XdmValue evaluateXPath2(Source xmlSource, String expr, Map<String, String> nsBindings)
             throws SaxonApiException {
-        Processor proc = new Processor(false);
-        XPathCompiler compiler = proc.newXPathCompiler();
-        if (null != nsBindings) {
-            for (String nsURI : nsBindings.keySet()) {
-                compiler.declareNamespace(nsBindings.get(nsURI), nsURI);
-            }
-        }
-        XPathSelector xpath = compiler.compile(expr).load();
-        DocumentBuilder builder = proc.newDocumentBuilder();
-        XdmNode node = null;
-        if (DOMSource.class.isInstance(xmlSource)) {
-            DOMSource domSource = (DOMSource) xmlSource;
-            node = builder.wrap(domSource.getNode());
-        } else {
-            node = builder.build(xmlSource);
-        }
-        xpath.setContextItem(node);
+        return evaluateXPath2(SaxonCache.buildNode(xmlSource), expr, nsBindings);
+    }
+
+    /**
+     * Evaluates an XPath 2.0 expression against a node that has already been
+     * built (see {@link SaxonCache#buildNode(Source)}), so that the same tree
+     * can be queried repeatedly. The compiled expression is cached.
+     *
+     * @param context
+     *            The context node.
+     * @param expr
+     *            The XPath expression to be evaluated.
+     * @param nsBindings
+     *            A collection of namespace bindings required to evaluate the
+     *            XPath expression, where each entry maps a namespace URI (key)
+     *            to a prefix (value); this may be {@code null} if not needed.
+     * @return An XdmValue object representing a value in the XDM data model.
+     * @throws SaxonApiException
+     *             If an error occurs while evaluating the expression.
+     */
+    public static XdmValue evaluateXPath2(XdmNode context, String expr, Map<String, String> nsBindings)
+            throws SaxonApiException {
+        XPathSelector xpath = SaxonCache.getInstance().getXPath(expr, nsBindings).load();
+        xpath.setContextItem(context);
         return xpath.evaluate();
     }
 
@@ -250,16 +439,8 @@ public class XMLUtils {
      */
     public static XdmValue evaluateXQuery(Source source, String query, Map<String, String> nsBindings)
             throws SaxonApiException {
-        Processor proc = new Processor(false);
-        XQueryCompiler xqCompiler = proc.newXQueryCompiler();
-        if (null != nsBindings) {
-            for (String nsURI : nsBindings.keySet()) {
-                xqCompiler.declareNamespace(nsBindings.get(nsURI), nsURI);
-            }
-        }
-        XQueryExecutable xqExec = xqCompiler.compile(query);
-        XQueryEvaluator xqEval = xqExec.load();
-        xqEval.setSource(source);
+        XQueryEvaluator xqEval = SaxonCache.getInstance().getXQuery(query, nsBindings).load();
+        xqEval.setContextItem(SaxonCache.buildNode(source));
         return xqEval.evaluate();
     }
 
@@ -309,6 +490,8 @@ public class XMLUtils {
 
     /**
      * Transforms the content of a DOM Node using a specified XSLT stylesheet.
+     * A stylesheet that is identified by its location is compiled only once
+     * (see {@link SaxonCache}).
      * 
      * @param xslt
      *            A Source object representing a stylesheet (XSLT 1.0 or 2.0).
@@ -331,12 +514,11 @@ public class XMLUtils {
         } catch (ParserConfigurationException pce) {
             throw new RuntimeException(pce);
         }
-        Processor processor = new Processor(false);
-        XsltCompiler compiler = processor.newXsltCompiler();
         try {
-            XsltExecutable exec = compiler.compile(xslt);
+            XsltExecutable exec = SaxonCache.getInstance().getXslt(xslt);
             XsltTransformer transformer = exec.load();
-            transformer.setSource(new DOMSource(sourceDoc));
+            // wrap the DOM rather than copying it to a Saxon tree
+            transformer.setInitialContextNode(SaxonCache.buildNode(new DOMSource(sourceDoc)));
             transformer.setDestination(new DOMDestination(resultDoc));
             transformer.transform();
         } catch (SaxonApiException e) {
@@ -361,7 +543,7 @@ public class XMLUtils {
         Reader reader = new StringReader(wrapper.toString());
         String str = null;
         try {
-            XMLStreamReader xsr = STAX_FACTORY.createXMLStreamReader(reader);
+            XMLStreamReader xsr = StaxFactories.getInputFactory().createXMLStreamReader(reader);
             xsr.nextTag(); // document element
             str = xsr.getElementText();
         } catch (XMLStreamException xse) {
@@ -0,0 +1,172 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import net.sf.saxon.xpath.XPathFactoryImpl;
+
+/**
+ * A cache of compiled XPath 1.0 expressions. An entry is keyed by the
+ * expression text and the effective namespace bindings (the standard bindings
+ * declared by {@link NamespaceBindings#withStandardBindings()} plus any others
+ * supplied).
+ *
+ * <p>
+ * Neither the JAXP XPath factory nor compiled expressions are thread-safe, so
+ * each thread has its own factory and cache; a compiled expression must only
+ * be evaluated by the thread that obtained it. The factory is thus looked up
+ * only once per thread rather than for every evaluation.
+ * </p>
+ *
+ * <p>
+ * The number of entries (per thread) is bounded; the least recently used
+ * entry is evicted when the limit is exceeded. The limit is set using the
+ * system property {@value #MAX_ENTRIES_PROPERTY} (default:
+ * {@value #DEFAULT_MAX_ENTRIES}); a value of zero disables caching.
+ * </p>
+ */
+public class XPathCache {
+
+    /**
+     * Name of the system property that specifies the maximum number of cache
+     * entries per thread.
+     */
+    public static final String MAX_ENTRIES_PROPERTY = "org.opengis.cite.gml32.data.xpathCache.maxEntries";
+    /**
+     * The default maximum number of cache entries per thread.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    private static final int MAX_ENTRIES = Math.max(0, Integer.getInteger(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES));
+    private static final ThreadLocal<XPathCache> CACHE = new ThreadLocal<XPathCache>() {
+        @Override
+        protected XPathCache initialValue() {
+            return new XPathCache(MAX_ENTRIES);
+        }
+    };
+    private final XPathFactory factory = newXPathFactory();
+    private final Map<Key, XPathExpression> entries;
+
+    /**
+     * Creates an XPath factory. If the Saxon implementation is used, it shares
+     * the configuration of the Saxon processor (see {@link SaxonCache}), so
+     * that trees built by other components (such as a {@link DocumentTree})
+     * can be used as context nodes.
+     */
+    private static XPathFactory newXPathFactory() {
+        XPathFactory factory = XPathFactory.newInstance();
+        if (factory instanceof XPathFactoryImpl) {
+            ((XPathFactoryImpl) factory).setConfiguration(SaxonCache.getProcessor().getUnderlyingConfiguration());
+        }
+        return factory;
+    }
+
+    /**
+     * Returns the cache belonging to the current thread.
+     *
+     * @return A thread-confined XPathCache.
+     */
+    public static XPathCache getInstance() {
+        return CACHE.get();
+    }
+
+    XPathCache(final int maxEntries) {
+        this.entries = new LinkedHashMap<Key, XPathExpression>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, XPathExpression> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Compiles an XPath expression using the current thread's cache.
+     *
+     * @param expr
+     *            An XPath 1.0 expression.
+     * @param namespaceBindings
+     *            A collection of namespace bindings for the expression, where
+     *            each entry maps a namespace URI (key) to a prefix (value). It
+     *            may be {@code null}.
+     * @return A compiled expression that must be evaluated only by the current
+     *         thread.
+     * @throws XPathExpressionException
+     *             If the expression cannot be compiled.
+     */
+    public static XPathExpression compile(String expr, Map<String, String> namespaceBindings)
+            throws XPathExpressionException {
+        return getInstance().getExpression(expr, namespaceBindings);
+    }
+
+    /**
+     * Returns a compiled expression, compiling it if it is not already in the
+     * cache.
+     *
+     * @param expr
+     *            An XPath 1.0 expression.
+     * @param namespaceBindings
+     *            Additional namespace bindings (may be {@code null}).
+     * @return A compiled expression.
+     * @throws XPathExpressionException
+     *             If the expression cannot be compiled.
+     */
+    public XPathExpression getExpression(String expr, Map<String, String> namespaceBindings)
+            throws XPathExpressionException {
+        NamespaceBindings bindings = NamespaceBindings.withStandardBindings();
+        bindings.addAllBindings(namespaceBindings);
+        Key key = new Key(expr, bindings.getAllBindings());
+        XPathExpression compiledExpr = this.entries.get(key);
+        if (null == compiledExpr) {
+            XPath xpath = this.factory.newXPath();
+            xpath.setNamespaceContext(bindings);
+            compiledExpr = xpath.compile(expr);
+            this.entries.put(key, compiledExpr);
+        }
+        return compiledExpr;
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return The number of compiled expressions.
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Identifies a compiled expression.
+     */
+    private static class Key {
+
+        private final String expr;
+        private final Map<String, String> bindings;
+        private final int hash;
+
+        Key(String expr, Map<String, String> bindings) {
+            this.expr = expr;
+            this.bindings = bindings;
+            this.hash = 31 * expr.hashCode() + bindings.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.expr.equals(other.expr) && this.bindings.equals(other.bindings);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.net.URI;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.sf.saxon.dom.NodeOverNodeInfo;
+import net.sf.saxon.s9api.BuildingStreamWriter;
+import net.sf.saxon.s9api.DocumentBuilder;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+
+import org.w3c.dom.Document;
+
+/**
+ * A listener that builds a compact, immutable Saxon tree (TinyTree) from the
+ * events reported by a stream reader. The tree takes up a fraction of the
+ * memory required by a W3C DOM Document; a read-only DOM view of it is
+ * available if needed (see {@link #asDocument(XdmNode)}).
+ */
+public class XdmStreamBuilder implements XMLStreamListener {
+
+    private final BuildingStreamWriter writer;
+    private XdmNode node;
+    private int depth;
+
+    /**
+     * Constructs a builder for a new document.
+     *
+     * @param documentURI
+     *            The location of the document (may be null).
+     */
+    public XdmStreamBuilder(String documentURI) {
+        DocumentBuilder builder = SaxonCache.getProcessor().newDocumentBuilder();
+        if (null != documentURI) {
+            builder.setBaseURI(URI.create(documentURI));
+        }
+        try {
+            this.writer = builder.newBuildingStreamWriter();
+            this.writer.setCheckValues(false);
+            this.writer.writeStartDocument();
+        } catch (SaxonApiException | XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns a read-only DOM view of a Saxon tree. The nodes can be passed
+     * to other Saxon components (such as the XSLT engine) without being
+     * copied.
+     *
+     * @param tree
+     *            A document node.
+     * @return An immutable DOM Document.
+     */
+    public static Document asDocument(XdmNode tree) {
+        return (Document) NodeOverNodeInfo.wrap(tree.getUnderlyingNode());
+    }
+
+    /**
+     * Returns the tree once the document element has been read.
+     *
+     * @return A document node.
+     * @throws XMLStreamException
+     *             If the tree cannot be completed.
+     */
+    public XdmNode getNode() throws XMLStreamException {
+        if (null == this.node) {
+            try {
+                this.writer.writeEndDocument();
+                this.node = this.writer.getDocumentNode();
+            } catch (SaxonApiException e) {
+                throw new XMLStreamException(e);
+            }
+        }
+        return this.node;
+    }
+
+    @Override
+    public void handleEvent(XMLStreamReader reader) throws XMLStreamException {
+        switch (reader.getEventType()) {
+        case XMLStreamConstants.START_ELEMENT:
+            this.depth++;
+            this.writer.writeStartElement(emptyIfNull(reader.getPrefix()), reader.getLocalName(),
+                    emptyIfNull(reader.getNamespaceURI()));
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                this.writer.writeNamespace(emptyIfNull(reader.getNamespacePrefix(i)),
+                        emptyIfNull(reader.getNamespaceURI(i)));
+            }
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                this.writer.writeAttribute(emptyIfNull(reader.getAttributePrefix(i)),
+                        emptyIfNull(reader.getAttributeNamespace(i)), reader.getAttributeLocalName(i),
+                        reader.getAttributeValue(i));
+            }
+            break;
+        case XMLStreamConstants.END_ELEMENT:
+            this.depth--;
+            this.writer.writeEndElement();
+            break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.SPACE:
+        case XMLStreamConstants.CDATA:
+            if (this.depth > 0) {
+                this.writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(),
+                        reader.getTextLength());
+            }
+            break;
+        case XMLStreamConstants.COMMENT:
+            this.writer.writeComment(reader.getText());
+            break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+            this.writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+            break;
+        default:
+            break;
+        }
+    }
+
+    private static String emptyIfNull(String value) {
+        return (null != value) ? value : "";
+    }
+}
@@ -1,10 +1,14 @@
 package org.opengis.cite.gml32.data;
 
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -16,6 +20,7 @@ import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.opengis.cite.gml32.data.util.DocumentTree;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
@@ -70,4 +75,42 @@ public class VerifyETSAssert {
         String xpath = "//ows:OperationsMetadata/ows:Constraint[@name='XMLEncoding']/ows:DefaultValue = 'TRUE'";
         ETSAssert.assertXPath(xpath, doc, null);
     }
+
+    @Test
+    public void assertXPath2AgainstDocumentTree() throws Exception {
+        URL url = this.getClass().getResource("/capabilities-simple.xml");
+        DocumentTree tree = new DocumentTree(new File(url.toURI()), null);
+        Map<String, String> nsBindings = new HashMap<String, String>();
+        nsBindings.put(WADL_NS, "ns1");
+        ETSAssert.assertXPath2("exists(//ns1:resources)", tree.getNode(), nsBindings);
+        ETSAssert.assertXPath("//ns1:resources", tree.getDocument(), nsBindings);
+    }
+
+    @Test
+    public void assertXPath2_expectFalse() throws Exception {
+        thrown.expect(AssertionError.class);
+        thrown.expectMessage("Unexpected result evaluating XPath expression");
+        URL url = this.getClass().getResource("/capabilities-simple.xml");
+        DocumentTree tree = new DocumentTree(new File(url.toURI()), null);
+        ETSAssert.assertXPath2("//ows:OperationsMetadata/ows:Constraint[@name='XMLEncoding']/ows:DefaultValue = 'TRUE'",
+                tree.getNode(), null);
+    }
+
+    @Test
+    public void assertXPathAgainstTestSubject() throws Exception {
+        URL url = this.getClass().getResource("/SimpleFeatureCollection-1.xml");
+        DocumentTree subject = new DocumentTree(new File(url.toURI()), null);
+        ETSAssert.assertXPath("count(//gml:featureMember[@xlink:href]) = 1", subject, null);
+        ETSAssert.assertDescendantElementCount(subject, new QName(Namespaces.GML, "featureMember"), 4);
+        assertFalse("Tree should not be built.", subject.isBuilt());
+    }
+
+    @Test
+    public void assertDescendantElementCount_unexpected() throws Exception {
+        thrown.expect(AssertionError.class);
+        thrown.expectMessage("Unexpected number of");
+        URL url = this.getClass().getResource("/SimpleFeatureCollection-1.xml");
+        DocumentTree subject = new DocumentTree(new File(url.toURI()), null);
+        ETSAssert.assertDescendantElementCount(subject, new QName("http://example.org/ns1", "SimpleFeature"), 2);
+    }
 }
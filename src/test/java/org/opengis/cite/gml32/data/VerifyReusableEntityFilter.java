@@ -0,0 +1,79 @@
+package org.opengis.cite.gml32.data;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Verifies the behavior of the ReusableEntityFilter class.
+ */
+public class VerifyReusableEntityFilter {
+
+    private static final byte[] ENTITY = "<data>0123456789</data>".getBytes(StandardCharsets.UTF_8);
+
+    public VerifyReusableEntityFilter() {
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[5];
+        int n;
+        while ((n = input.read(buffer)) != -1) {
+            content.write(buffer, 0, n);
+        }
+        input.close();
+        return new String(content.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void bufferSmallEntityInMemory() throws IOException {
+        ReusableEntityFilter iut = new ReusableEntityFilter(ENTITY.length);
+        InputStream entity = iut.bufferEntity(new ByteArrayInputStream(ENTITY), -1);
+        assertTrue(entity instanceof ByteArrayInputStream);
+        assertEquals(new String(ENTITY, StandardCharsets.UTF_8), read(entity));
+    }
+
+    @Test
+    public void spillLargeEntityToFile() throws IOException {
+        ReusableEntityFilter iut = new ReusableEntityFilter(ENTITY.length - 1);
+        InputStream entity = iut.bufferEntity(new ByteArrayInputStream(ENTITY), -1);
+        assertTrue(entity instanceof ReusableEntityFilter.FileEntityInputStream);
+        assertTrue(entity.markSupported());
+        entity.mark(0);
+        assertEquals(new String(ENTITY, StandardCharsets.UTF_8), read(entity));
+        entity.reset();
+        assertEquals(ENTITY.length, entity.available());
+        assertEquals(new String(ENTITY, StandardCharsets.UTF_8), read(entity));
+    }
+
+    @Test
+    public void spillEntityWithDeclaredLength() throws IOException {
+        ReusableEntityFilter iut = new ReusableEntityFilter(4);
+        InputStream entity = iut.bufferEntity(new ByteArrayInputStream(ENTITY), ENTITY.length);
+        assertTrue(entity instanceof ReusableEntityFilter.FileEntityInputStream);
+        entity.mark(0);
+        assertEquals(6, entity.skip(6));
+        assertEquals('0', entity.read());
+        entity.reset();
+        assertEquals('<', entity.read());
+        entity.close();
+    }
+
+    @Test
+    public void deleteTempFiles() throws IOException {
+        ReusableEntityFilter iut = new ReusableEntityFilter(0);
+        InputStream entity = iut.bufferEntity(new ByteArrayInputStream(ENTITY), -1);
+        entity.close();
+        File file = ((ReusableEntityFilter.FileEntityInputStream) entity).getFile();
+        assertEquals(ENTITY.length, file.length());
+        iut.deleteTempFiles();
+        assertFalse("Temp file still exists.", file.exists());
+    }
+}
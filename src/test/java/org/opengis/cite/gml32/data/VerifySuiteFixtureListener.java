@@ -6,10 +6,14 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -67,13 +71,19 @@ public class VerifySuiteFixtureListener {
     }
 
     @Test
-    public void getXmlModelPI() throws URISyntaxException {
-        URL url = this.getClass().getResource("/SimpleFeature-xml-model.xml");
-        File dataFile = new File(url.toURI());
+    public void deleteRegisteredTempFiles() throws IOException {
+        ISuite testSuite = mock(ISuite.class);
+        File subjectFile = File.createTempFile("subject-", ".xml");
+        File spillFile = File.createTempFile("validation-errors-", ".txt");
+        File otherFile = File.createTempFile("validation-errors-", ".txt");
+        Set<File> tempFiles = new HashSet<File>(Arrays.asList(spillFile, otherFile));
+        when(testSuite.getAttribute(SuiteAttribute.TEST_SUBJ_FILE.getName())).thenReturn(subjectFile);
+        when(testSuite.getAttribute(SuiteAttribute.TEMP_FILES.getName())).thenReturn(tempFiles);
         SuiteFixtureListener iut = new SuiteFixtureListener();
-        Map<String, String> piData = iut.getXmlModelPIData(dataFile);
-        assertNotNull("No PI found.", piData);
-        assertEquals("Unexpected href value.", "./sch/simple.sch", piData.get("href"));
+        iut.deleteTempFiles(testSuite);
+        subjectFile.delete();
+        assertFalse("Registered file was not deleted.", spillFile.exists());
+        assertFalse("Registered file was not deleted.", otherFile.exists());
+        assertTrue(tempFiles.isEmpty());
     }
-
 }
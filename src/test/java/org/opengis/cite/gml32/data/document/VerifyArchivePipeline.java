@@ -0,0 +1,72 @@
+package org.opengis.cite.gml32.data.document;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Verifies the behavior of the ArchivePipeline class. The test archive contains
+ * two GML documents that refer to a schema packaged with them.
+ */
+public class VerifyArchivePipeline {
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    public VerifyArchivePipeline() {
+    }
+
+    /**
+     * Creates a ZIP archive containing copies of the given test resources.
+     */
+    static File createArchive(File zipFile, String... resources) throws IOException, URISyntaxException {
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(zipFile))) {
+            for (String resource : resources) {
+                zip.putNextEntry(new ZipEntry(resource));
+                zip.write(Files.readAllBytes(
+                        Paths.get(VerifyArchivePipeline.class.getResource("/" + resource).toURI())));
+                zip.closeEntry();
+            }
+        }
+        return zipFile;
+    }
+
+    @Test
+    public void validateEntries() throws Exception {
+        File zipFile = createArchive(tempDir.newFile("data.zip"), "SimpleFeature-1.xml", "SimpleFeature-2.xml",
+                "xsd/simple.xsd");
+        ArchivePipeline iut = new ArchivePipeline(zipFile, null);
+        iut.run();
+        assertNull(iut.getReadFailure());
+        Map<String, DocumentPipeline> pipelines = iut.getEntryPipelines();
+        assertEquals("Unexpected number of entries.", 2, pipelines.size());
+        DocumentPipeline valid = pipelines.get("SimpleFeature-1.xml");
+        assertNull(valid.getCompileFailure());
+        assertTrue(valid.getSchemaReferences().iterator().next().toString().endsWith("data.zip!/xsd/simple.xsd"));
+        assertFalse(valid.getValidationErrors().toString(), valid.getValidationErrors().errorsDetected());
+        assertEquals("Unexpected number of validation errors.", 2,
+                pipelines.get("SimpleFeature-2.xml").getValidationErrors().getErrorCount());
+    }
+
+    @Test
+    public void readInvalidArchive() throws IOException {
+        File zipFile = tempDir.newFile("broken.zip");
+        Files.write(zipFile.toPath(), new byte[] { 'P', 'K', 3, 4, 0, 0 });
+        ArchivePipeline iut = new ArchivePipeline(zipFile, null);
+        iut.run();
+        assertNotNull("Expected read failure.", iut.getReadFailure());
+        assertTrue(iut.getEntryPipelines().isEmpty());
+    }
+}
@@ -0,0 +1,180 @@
+package org.opengis.cite.gml32.data.document;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.cite.gml32.data.util.BoundedErrorHandler;
+
+public class VerifyDocumentPipeline {
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void parseXmlModelPseudoAttributes() {
+        Map<String, String> piData = DocumentPipeline
+                .parsePseudoAttributes("href=\"./sch/simple.sch\" schematypens='http://purl.oclc.org/dsdl/schematron'");
+        assertEquals("Unexpected href value.", "./sch/simple.sch", piData.get("href"));
+        assertEquals("Unexpected schematypens value.", "http://purl.oclc.org/dsdl/schematron",
+                piData.get("schematypens"));
+    }
+
+    @Test
+    public void getXmlModelPI() throws URISyntaxException {
+        URL url = this.getClass().getResource("/SimpleFeature-xml-model.xml");
+        File dataFile = new File(url.toURI());
+        URI baseURI = dataFile.getParentFile().toURI();
+        DocumentPipeline iut = new DocumentPipeline(dataFile, baseURI, null);
+        iut.run();
+        assertNull(iut.getReadFailure());
+        assertEquals("Unexpected Schematron reference.", baseURI.resolve("./sch/simple.sch"),
+                iut.getSchematronReference());
+        assertNull("Unexpected DOM Document (all rules are streamable).", iut.getDocument());
+        assertNotNull("No Schematron result.", iut.getSchematronResult());
+        assertEquals("Unexpected number of rule violations.", 1,
+                iut.getSchematronValidator().getRuleViolationCount());
+    }
+
+    @Test
+    public void validateWithoutSchematron() throws URISyntaxException {
+        URL url = this.getClass().getResource("/SimpleFeature-1.xml");
+        File dataFile = new File(url.toURI());
+        DocumentPipeline iut = new DocumentPipeline(dataFile, dataFile.getParentFile().toURI(), null);
+        iut.run();
+        assertNull(iut.getReadFailure());
+        assertEquals("Unexpected number of schema references.", 1, iut.getSchemaReferences().size());
+        assertNotNull("Schema not compiled.", iut.getAppSchema());
+        assertFalse(iut.getValidationErrors().toString(), iut.getValidationErrors().errorsDetected());
+        assertNull("Unexpected DOM Document.", iut.getDocument());
+    }
+
+    @Test
+    public void reportInvalidContent() throws URISyntaxException {
+        URL url = this.getClass().getResource("/SimpleFeature-2.xml");
+        File dataFile = new File(url.toURI());
+        DocumentPipeline iut = new DocumentPipeline(dataFile, dataFile.getParentFile().toURI(), null);
+        iut.run();
+        iut.run();
+        assertEquals("Unexpected number of validation errors.", 2, iut.getValidationErrors().getErrorCount());
+    }
+
+    @Test
+    public void stopAtFirstValidationError() throws URISyntaxException {
+        URL url = this.getClass().getResource("/SimpleFeature-2.xml");
+        File dataFile = new File(url.toURI());
+        DocumentPipeline iut = new DocumentPipeline(dataFile, dataFile.getParentFile().toURI(), null);
+        System.setProperty(BoundedErrorHandler.MAX_ERRORS_PROPERTY, "1");
+        try {
+            iut.run();
+        } finally {
+            System.clearProperty(BoundedErrorHandler.MAX_ERRORS_PROPERTY);
+        }
+        assertNull(iut.getReadFailure());
+        BoundedErrorHandler errHandler = (BoundedErrorHandler) iut.getValidationErrors();
+        assertTrue("Expected validation to stop.", errHandler.isLimitReached());
+        assertEquals("Unexpected number of validation errors.", 1, errHandler.getErrorCount());
+    }
+
+    @Test
+    public void validateCompressedDocument() throws URISyntaxException, IOException {
+        URL url = this.getClass().getResource("/SimpleFeature-2.xml");
+        File xmlFile = new File(url.toURI());
+        File dataFile = tempDir.newFile("SimpleFeature-2.gml.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(dataFile.toPath()))) {
+            Files.copy(xmlFile.toPath(), out);
+        }
+        DocumentPipeline iut = new DocumentPipeline(dataFile, xmlFile.getParentFile().toURI(), null);
+        iut.run();
+        assertNull(iut.getReadFailure());
+        assertEquals("Unexpected number of validation errors.", 2, iut.getValidationErrors().getErrorCount());
+    }
+
+    /**
+     * Writes a copy of SimpleFeature-1.xml into which the given PI is inserted
+     * before (or after) the document element.
+     */
+    private File writeDocumentWithPI(String pi, boolean beforeDocElement) throws URISyntaxException, IOException {
+        File xmlFile = new File(this.getClass().getResource("/SimpleFeature-1.xml").toURI());
+        String xml = new String(Files.readAllBytes(xmlFile.toPath()), StandardCharsets.UTF_8);
+        int docElemStart = xml.indexOf("<SimpleFeature");
+        int docElemEnd = xml.indexOf('>', docElemStart) + 1;
+        String content = beforeDocElement ? xml.substring(0, docElemStart) + pi + "\n" + xml.substring(docElemStart)
+                : xml.substring(0, docElemEnd) + pi + xml.substring(docElemEnd);
+        File dataFile = tempDir.newFile("SimpleFeature-pi.xml");
+        Files.write(dataFile.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return dataFile;
+    }
+
+    @Test
+    public void resolveStandardSchematronSchema() throws URISyntaxException {
+        File dataFile = new File(this.getClass().getResource("/gml-sch-violations.xml").toURI());
+        URI schRef = URI.create("http://schemas.opengis.net/gml/3.2.1/SchematronConstraints.xml");
+        DocumentPipeline iut = new DocumentPipeline(dataFile, dataFile.getParentFile().toURI(), schRef);
+        iut.run();
+        assertNull(iut.getSchematronFailure());
+        assertEquals("Unexpected number of rule violations.", 8,
+                iut.getSchematronValidator().getRuleViolationCount());
+    }
+
+    @Test
+    public void xmlModelPITakesPrecedence() throws URISyntaxException, IOException {
+        File dataFile = writeDocumentWithPI(
+                "<?xml-model href='./sch/simple.sch' schematypens='http://purl.oclc.org/dsdl/schematron'?>", true);
+        URI baseURI = new File(this.getClass().getResource("/SimpleFeature-1.xml").toURI()).getParentFile().toURI();
+        DocumentPipeline iut = new DocumentPipeline(dataFile, baseURI, baseURI.resolve("sch/mixed.sch"));
+        iut.run();
+        assertEquals("Unexpected Schematron reference.", baseURI.resolve("sch/simple.sch"),
+                iut.getSchematronReference());
+    }
+
+    @Test
+    public void xmlModelPIWithoutXmlDeclaration() throws URISyntaxException, IOException {
+        File dataFile = tempDir.newFile("no-declaration.xml");
+        Files.write(dataFile.toPath(), ("<?xml-model href='./sch/simple.sch' "
+                + "schematypens='http://purl.oclc.org/dsdl/schematron'?>\n<data/>").getBytes(StandardCharsets.UTF_8));
+        URI baseURI = new File(this.getClass().getResource("/SimpleFeature-1.xml").toURI()).getParentFile().toURI();
+        DocumentPipeline iut = new DocumentPipeline(dataFile, baseURI, null);
+        iut.run();
+        assertEquals("Unexpected Schematron reference.", baseURI.resolve("sch/simple.sch"),
+                iut.getSchematronReference());
+    }
+
+    @Test
+    public void ignoreOtherSchemaLanguage() throws URISyntaxException, IOException {
+        File dataFile = writeDocumentWithPI(
+                "<?xml-model href='./xsd/simple.rnc' schematypens='http://relaxng.org/ns/structure/1.0'?>", true);
+        URI baseURI = new File(this.getClass().getResource("/SimpleFeature-1.xml").toURI()).getParentFile().toURI();
+        DocumentPipeline iut = new DocumentPipeline(dataFile, baseURI, null);
+        iut.run();
+        assertNull(iut.getReadFailure());
+        assertNull("Unexpected Schematron reference.", iut.getSchematronReference());
+        URI schRef = baseURI.resolve("sch/simple.sch");
+        iut = new DocumentPipeline(dataFile, baseURI, schRef);
+        iut.run();
+        assertEquals("Expected Schematron reference from argument.", schRef, iut.getSchematronReference());
+    }
+
+    @Test
+    public void ignoreXmlModelPIAfterDocumentElement() throws URISyntaxException, IOException {
+        File dataFile = writeDocumentWithPI(
+                "<?xml-model href='./sch/simple.sch' schematypens='http://purl.oclc.org/dsdl/schematron'?>", false);
+        URI baseURI = new File(this.getClass().getResource("/SimpleFeature-1.xml").toURI()).getParentFile().toURI();
+        DocumentPipeline iut = new DocumentPipeline(dataFile, baseURI, null);
+        iut.run();
+        assertNull(iut.getReadFailure());
+        assertNull("PI must precede the document element.", iut.getSchematronReference());
+    }
+}
@@ -12,6 +12,7 @@ import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.testng.ISuite;
 import org.testng.ITestContext;
 import org.xml.sax.SAXException;
@@ -27,6 +28,8 @@ public class VerifyGmlDocumentTests {
     private static ISuite suite;
     @Rule
     public ExpectedException thrown = ExpectedException.none();
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
 
     public VerifyGmlDocumentTests() {
     }
@@ -89,4 +92,17 @@ public class VerifyGmlDocumentTests {
         iut.initFixture(testContext);
         iut.checkSchematronConstraints(testContext);
     }
+
+    @Test
+    public void archiveNotXMLSchemaValid() throws Exception {
+        thrown.expect(AssertionError.class);
+        thrown.expectMessage("1 of 2 GML documents in archive failed:\n[SimpleFeature-2.xml] "
+                + "2 schema validation error(s) detected");
+        File zipFile = VerifyArchivePipeline.createArchive(tempDir.newFile("data.zip"), "SimpleFeature-1.xml",
+                "SimpleFeature-2.xml", "xsd/simple.xsd");
+        GmlDocumentTests iut = new GmlDocumentTests();
+        iut.setTestSubject(zipFile);
+        iut.hasAppSchemaReference();
+        iut.checkXMLSchemaValidity();
+    }
 }
@@ -0,0 +1,91 @@
+package org.opengis.cite.gml32.data.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+
+import org.opengis.cite.validation.ValidationErrorHandler;
+
+/**
+ * Compares the parse and validation throughput of the available StAX
+ * implementations (see {@link StaxFactories}) on a (large) GML document. The
+ * application schema is given by the xsi:schemaLocation attribute. The number
+ * of validation errors is also reported; it should be the same for every
+ * implementation. Usage: {@code StaxBenchmark data.xml [iterations]}
+ */
+public class StaxBenchmark {
+
+    private static final String[] BACKENDS = { StaxFactories.DEFAULT_INPUT_FACTORY, "woodstox", "aalto" };
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: StaxBenchmark data.xml [iterations]");
+        }
+        File dataFile = new File(args[0]);
+        int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        double size = dataFile.length() / 1e6;
+        Set<URI> schemaRefs = ValidationUtils.extractSchemaReferences(new StreamSource(dataFile),
+                dataFile.toURI().toString());
+        URL catalog = StaxBenchmark.class.getResource(BaseGrammarPool.SCHEMA_CATALOG);
+        Schema schema = new AppSchemaCompiler(catalog).compileXmlSchema(schemaRefs.toArray(new URI[0]));
+        System.out.printf("%s: %.1f MB, %d iteration(s)%n", dataFile, size, iterations);
+        for (String backend : BACKENDS) {
+            if (!StaxFactories.isAvailable(backend)) {
+                System.out.printf("%-10s not available%n", backend);
+                continue;
+            }
+            XMLInputFactory factory = StaxFactories.configure(StaxFactories.newInputFactory(backend));
+            // warm up
+            parse(factory, dataFile);
+            long startTime = System.nanoTime();
+            long events = 0;
+            for (int i = 0; i < iterations; i++) {
+                events = parse(factory, dataFile);
+            }
+            double parseTime = (System.nanoTime() - startTime) / 1e9 / iterations;
+            startTime = System.nanoTime();
+            int errors = 0;
+            for (int i = 0; i < iterations; i++) {
+                errors = validate(factory, schema, dataFile);
+            }
+            double validateTime = (System.nanoTime() - startTime) / 1e9 / iterations;
+            System.out.printf("%-10s parse: %.1f MB/s (%d events)  validate: %.1f MB/s (%d errors)%n", backend,
+                    size / parseTime, events, size / validateTime, errors);
+        }
+    }
+
+    private static long parse(XMLInputFactory factory, File dataFile) throws Exception {
+        long events = 0;
+        try (InputStream input = new FileInputStream(dataFile)) {
+            XMLStreamReader reader = factory.createXMLStreamReader(dataFile.toURI().toString(), input);
+            while (reader.hasNext()) {
+                reader.next();
+                events++;
+            }
+            reader.close();
+        }
+        return events;
+    }
+
+    private static int validate(XMLInputFactory factory, Schema schema, File dataFile) throws Exception {
+        ValidationErrorHandler errHandler = new ValidationErrorHandler();
+        try (InputStream input = new FileInputStream(dataFile)) {
+            XMLStreamReader reader = factory.createXMLStreamReader(dataFile.toURI().toString(), input);
+            Validator validator = schema.newValidator();
+            validator.setErrorHandler(errHandler);
+            validator.validate(new StAXSource(reader));
+            reader.close();
+        }
+        return errHandler.getErrorCount();
+    }
+}
@@ -0,0 +1,90 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.net.URL;
+
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+
+import org.junit.Test;
+import org.opengis.cite.validation.ValidationErrorHandler;
+
+/**
+ * Verifies the behavior of the AppSchemaCompiler class.
+ */
+public class VerifyAppSchemaCompiler {
+
+    private static final String GML_SCHEMA = "http://schemas.opengis.net/gml/3.2.1/gml.xsd";
+
+    public VerifyAppSchemaCompiler() {
+    }
+
+    @Test
+    public void preparseBaseGrammars() {
+        BaseGrammarPool basePool = BaseGrammarPool.getInstance();
+        assertFalse("Base grammar pool is empty.", basePool.isEmpty());
+    }
+
+    @Test
+    public void skipBaseSchemaReference() throws Exception {
+        URL catalog = getClass().getResource(BaseGrammarPool.SCHEMA_CATALOG);
+        AppSchemaCompiler compiler = new AppSchemaCompiler(catalog);
+        String location = compiler.resolveLocation(URI.create(GML_SCHEMA));
+        assertTrue("Expected bundled GML schema: " + location, BaseGrammarPool.getInstance().contains(location));
+    }
+
+    @Test
+    public void compileAndValidateSimpleFeature() throws Exception {
+        URL catalog = getClass().getResource(BaseGrammarPool.SCHEMA_CATALOG);
+        AppSchemaCompiler compiler = new AppSchemaCompiler(catalog);
+        URI schemaRef = getClass().getResource("/xsd/simple.xsd").toURI();
+        Schema schema = compiler.compileXmlSchema(schemaRef, URI.create(GML_SCHEMA));
+        assertFalse(compiler.getErrorHandler().toString(), compiler.getErrorHandler().errorsDetected());
+        Validator validator = schema.newValidator();
+        ValidationErrorHandler errHandler = new ValidationErrorHandler();
+        validator.setErrorHandler(errHandler);
+        validator.validate(new StreamSource(getClass().getResource("/SimpleFeature-1.xml").toString()));
+        assertFalse(errHandler.toString(), errHandler.errorsDetected());
+    }
+
+    @Test
+    public void compileWithoutBaseGrammars() throws Exception {
+        URL catalog = getClass().getResource(BaseGrammarPool.SCHEMA_CATALOG);
+        AppSchemaCompiler compiler = new AppSchemaCompiler(catalog,
+                new SharedGrammarPool(new BaseGrammarPool(null), catalog, 0, 0));
+        URI schemaRef = getClass().getResource("/xsd/simple.xsd").toURI();
+        Schema schema = compiler.compileXmlSchema(schemaRef);
+        assertFalse(compiler.getErrorHandler().toString(), compiler.getErrorHandler().errorsDetected());
+        assertNotNull(schema);
+    }
+
+    @Test
+    public void compileFasterWithBaseGrammars() throws Exception {
+        URL catalog = getClass().getResource(BaseGrammarPool.SCHEMA_CATALOG);
+        URI schemaRef = getClass().getResource("/xsd/simple.xsd").toURI();
+        AppSchemaCompiler sourceCompiler = new AppSchemaCompiler(catalog,
+                new SharedGrammarPool(new BaseGrammarPool(null), catalog, 0, 0));
+        AppSchemaCompiler pooledCompiler = new AppSchemaCompiler(catalog,
+                new SharedGrammarPool(BaseGrammarPool.getInstance(), catalog, 0, 0));
+        // warm up
+        sourceCompiler.compileXmlSchema(schemaRef);
+        pooledCompiler.compileXmlSchema(schemaRef);
+        int iterations = 3;
+        long startTime = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sourceCompiler.compileXmlSchema(schemaRef);
+        }
+        long sourceTime = System.nanoTime() - startTime;
+        startTime = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            pooledCompiler.compileXmlSchema(schemaRef);
+        }
+        long pooledTime = System.nanoTime() - startTime;
+        assertFalse(pooledCompiler.getErrorHandler().toString(), pooledCompiler.getErrorHandler().errorsDetected());
+        assertTrue(String.format("Expected faster compilation with base grammars (%d ms vs %d ms from source).",
+                pooledTime / 1000000, sourceTime / 1000000), pooledTime < sourceTime);
+    }
+}
@@ -0,0 +1,84 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Verifies the behavior of the ArchiveCatalog class.
+ */
+public class VerifyArchiveCatalog {
+
+    private File zipFile;
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    public VerifyArchiveCatalog() {
+    }
+
+    @Before
+    public void createArchive() throws IOException {
+        zipFile = tempDir.newFile("data.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(zipFile))) {
+            for (String name : new String[] { "data/", "data/b.gml", "data/a b.xml", "data/c.gml.gz", "xsd/app.xsd",
+                    "catalog.xml", "readme.txt", "__MACOSX/data/._a.xml", "data/.hidden.xml" }) {
+                zip.putNextEntry(new ZipEntry(name));
+                if (!name.endsWith("/")) {
+                    zip.write(("<entry name=\"" + name + "\"/>").getBytes(StandardCharsets.UTF_8));
+                }
+                zip.closeEntry();
+            }
+        }
+    }
+
+    @Test
+    public void detectArchive() throws IOException {
+        assertTrue(ArchiveCatalog.isArchive(zipFile));
+        assertFalse(ArchiveCatalog.isArchive(new ByteArrayInputStream("<data/>".getBytes(StandardCharsets.UTF_8))));
+        assertFalse(ArchiveCatalog.isArchive(new ByteArrayInputStream(new byte[0])));
+    }
+
+    @Test
+    public void listDataEntries() throws IOException {
+        try (ArchiveCatalog iut = new ArchiveCatalog(zipFile)) {
+            assertEquals(Arrays.asList("data/a b.xml", "data/b.gml", "data/c.gml.gz"), iut.getDataEntries());
+        }
+    }
+
+    @Test
+    public void resolveRelativeReference() throws IOException {
+        try (ArchiveCatalog iut = new ArchiveCatalog(zipFile)) {
+            URI entryURI = iut.getEntryURI("data/a b.xml");
+            assertTrue(entryURI.toString().endsWith("data.zip!/data/a%20b.xml"));
+            assertEquals("data/a b.xml", iut.getEntryName(entryURI));
+            URI schemaURI = entryURI.resolve("../xsd/app.xsd");
+            assertTrue(iut.contains(schemaURI));
+            assertEquals("<entry name=\"xsd/app.xsd\"/>", new String(iut.read(schemaURI), StandardCharsets.UTF_8));
+            assertFalse(iut.contains(entryURI.resolve("../xsd/other.xsd")));
+            assertFalse(iut.contains(URI.create("http://www.example.org/xsd/app.xsd")));
+            assertFalse(iut.contains(iut.getEntryURI("data/")));
+        }
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void openMissingEntry() throws IOException {
+        try (ArchiveCatalog iut = new ArchiveCatalog(zipFile)) {
+            iut.openStream(iut.getEntryURI("data/missing.xml"));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Verifies the behavior of the BoundedErrorHandler class.
+ */
+public class VerifyBoundedErrorHandler {
+
+    public VerifyBoundedErrorHandler() {
+    }
+
+    @Test
+    public void retainFewErrors() {
+        BoundedErrorHandler iut = new BoundedErrorHandler(0, 5);
+        iut.error(parseException("Error 1", 10));
+        iut.warning(parseException("Warning 1", 12));
+        iut.close();
+        assertEquals(2, iut.getErrorCount());
+        assertNull("Unexpected spill file.", iut.getSpillFile());
+        assertTrue(iut.toString().contains("Error 1"));
+    }
+
+    @Test
+    public void spillManyErrors() throws Exception {
+        BoundedErrorHandler iut = new BoundedErrorHandler(0, 2);
+        for (int i = 1; i <= 5; i++) {
+            iut.error(parseException("Error " + i, i));
+        }
+        iut.close();
+        assertEquals("Unexpected error count.", 5, iut.getErrorCount());
+        File spillFile = iut.getSpillFile();
+        assertNotNull("No spill file.", spillFile);
+        try {
+            int count = 0;
+            for (String line : Files.readAllLines(spillFile.toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith("Message:")) {
+                    count++;
+                }
+            }
+            assertEquals("Unexpected number of spilled errors.", 5, count);
+            String summary = iut.toString();
+            assertFalse("Summary should omit Error 3.", summary.contains("Error 3"));
+            assertTrue(summary.contains(spillFile.getAbsolutePath()));
+        } finally {
+            spillFile.delete();
+        }
+    }
+
+    @Test
+    public void stopAtFirstError() {
+        BoundedErrorHandler iut = new BoundedErrorHandler(1, 5);
+        iut.warning(parseException("Warning 1", 1));
+        try {
+            iut.error(parseException("Error 1", 2));
+            fail("Expected ErrorLimitException.");
+        } catch (BoundedErrorHandler.ErrorLimitException e) {
+            assertTrue(iut.isLimitReached());
+        }
+        assertEquals(2, iut.getErrorCount());
+        assertTrue(iut.toString().contains("stopped after 1 error"));
+    }
+
+    private static SAXParseException parseException(String msg, int line) {
+        return new SAXParseException(msg, null, "file:/tmp/data.xml", line, 1);
+    }
+}
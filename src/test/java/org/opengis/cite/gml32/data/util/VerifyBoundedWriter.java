@@ -0,0 +1,64 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Verifies the behavior of the BoundedWriter and BoundedOutputStream classes.
+ */
+public class VerifyBoundedWriter {
+
+    public VerifyBoundedWriter() {
+    }
+
+    @Test
+    public void writeWithinLimit() throws IOException {
+        StringWriter out = new StringWriter();
+        BoundedWriter iut = new BoundedWriter(out, 10);
+        iut.write("0123456789");
+        iut.close();
+        assertFalse(iut.isTruncated());
+        assertEquals("0123456789", out.toString());
+    }
+
+    @Test
+    public void truncateOutput() throws IOException {
+        StringWriter out = new StringWriter();
+        BoundedWriter iut = new BoundedWriter(out, 8);
+        iut.write("01234");
+        try {
+            iut.write("56789");
+            fail("Expected IOException (limit exceeded).");
+        } catch (IOException e) {
+            assertTrue(iut.isTruncated());
+        }
+        try {
+            iut.write('x');
+            fail("Expected IOException (limit exceeded).");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals("01234567" + String.format(BoundedWriter.TRUNCATION_MARKER, 8), out.toString());
+    }
+
+    @Test
+    public void truncateByteStream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BoundedOutputStream iut = new BoundedOutputStream(out, 4);
+        iut.write('a');
+        try {
+            iut.write("bcdef".getBytes(StandardCharsets.US_ASCII));
+            fail("Expected IOException (limit exceeded).");
+        } catch (IOException e) {
+            assertTrue(iut.isTruncated());
+        }
+        assertEquals("abcd" + String.format(BoundedOutputStream.TRUNCATION_MARKER, 4),
+                new String(out.toByteArray(), StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,164 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.cite.gml32.data.ReusableEntityFilter;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Verifies the behavior of the ClientUtils class. An embedded HTTP server
+ * (on a different port for each test) records the client port of each request
+ * in order to detect whether or not connections are reused.
+ */
+public class VerifyClientUtils {
+
+    private static final byte[] CONTENT = "<data/>".getBytes(StandardCharsets.UTF_8);
+    private HttpServer server;
+    private final Set<Integer> clientPorts = new HashSet<Integer>();
+
+    public VerifyClientUtils() {
+    }
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                synchronized (clientPorts) {
+                    clientPorts.add(exchange.getRemoteAddress().getPort());
+                }
+                int status = exchange.getRequestURI().getPath().startsWith("/missing") ? 404 : 200;
+                exchange.getResponseHeaders().set("Content-Type", "application/xml");
+                exchange.sendResponseHeaders(status, CONTENT.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(CONTENT);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private static int drain(InputStream input) throws IOException {
+        int total = 0;
+        while (input.read() != -1) {
+            total++;
+        }
+        return total;
+    }
+
+    @Test
+    public void reuseConnection() throws IOException {
+        Client client = ClientUtils.buildClient();
+        for (int i = 0; i < 3; i++) {
+            try (InputStream input = ClientUtils.openStream(uri("/a.xml"))) {
+                assertEquals(CONTENT.length, drain(input));
+            }
+            ClientResponse rsp = client.resource(uri("/b.xml")).get(ClientResponse.class);
+            assertEquals(CONTENT.length, drain(rsp.getEntityInputStream()));
+            rsp.close();
+        }
+        assertEquals("Number of connections", 1, clientPorts.size());
+        ClientUtils.deleteTempFiles(client);
+    }
+
+    @Test
+    public void releaseErrorResponse() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            HttpURLConnection conn = ClientUtils.openConnection(uri("/missing.xml"));
+            assertEquals(404, conn.getResponseCode());
+            ClientUtils.release(conn);
+        }
+        assertEquals("Number of connections", 1, clientPorts.size());
+    }
+
+    @Test
+    public void configuredTimeouts() throws IOException {
+        System.setProperty(ClientUtils.READ_TIMEOUT_PROPERTY, "1234");
+        try {
+            HttpURLConnection conn = ClientUtils.openConnection(uri("/a.xml"));
+            assertEquals(1234, conn.getReadTimeout());
+            assertEquals(ClientUtils.DEFAULT_CONNECT_TIMEOUT, conn.getConnectTimeout());
+            ClientUtils.release(conn);
+        } finally {
+            System.clearProperty(ClientUtils.READ_TIMEOUT_PROPERTY);
+        }
+    }
+
+    @Test
+    public void limitConnectionsPerHost() throws IOException {
+        System.setProperty(ClientUtils.MAX_CONNECTIONS_PROPERTY, "2");
+        System.setProperty(ClientUtils.CONNECT_TIMEOUT_PROPERTY, "200");
+        try {
+            HttpURLConnection conn = ClientUtils.openConnection(uri("/a.xml"));
+            InputStream input = ClientUtils.openStream(uri("/b.xml"));
+            try {
+                ClientUtils.openConnection(uri("/c.xml"));
+                fail("Expected IOException (per-host limit reached).");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("No connection"));
+            }
+            ClientUtils.release(conn);
+            conn = ClientUtils.openConnection(uri("/c.xml"));
+            assertEquals(200, conn.getResponseCode());
+            ClientUtils.disconnect(conn);
+            input.close();
+            for (int i = 0; i < 3; i++) {
+                try (InputStream in = ClientUtils.openStream(uri("/d.xml"))) {
+                    assertEquals(CONTENT.length, drain(in));
+                }
+            }
+        } finally {
+            System.clearProperty(ClientUtils.MAX_CONNECTIONS_PROPERTY);
+            System.clearProperty(ClientUtils.CONNECT_TIMEOUT_PROPERTY);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void openConnectionToFile() throws IOException {
+        ClientUtils.openConnection(URI.create("file:/tmp/data.xml"));
+    }
+
+    @Test
+    public void rereadSpilledEntity() {
+        System.setProperty(ReusableEntityFilter.THRESHOLD_PROPERTY, "2");
+        try {
+            Client client = ClientUtils.buildClient();
+            ClientResponse rsp = client.resource(uri("/a.xml")).get(ClientResponse.class);
+            assertEquals("data",
+                    ClientUtils.getResponseEntityAsDocument(rsp, null).getDocumentElement().getLocalName());
+            assertEquals("data",
+                    ClientUtils.getResponseEntityAsDocument(rsp, null).getDocumentElement().getLocalName());
+            ClientUtils.deleteTempFiles(client);
+        } finally {
+            System.clearProperty(ReusableEntityFilter.THRESHOLD_PROPERTY);
+        }
+    }
+}
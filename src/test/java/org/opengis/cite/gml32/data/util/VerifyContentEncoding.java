@@ -0,0 +1,83 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+/**
+ * Verifies the behavior of the ContentEncoding class.
+ */
+public class VerifyContentEncoding {
+
+    private static final String XML = "<?xml version=\"1.0\"?>\n<data xmlns=\"http://www.example.org/ns\">"
+            + "<pos>1.0 2.0 1.0 2.0 1.0 2.0 1.0 2.0</pos></data>";
+
+    public VerifyContentEncoding() {
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = input.read(buffer)) != -1) {
+            content.write(buffer, 0, n);
+        }
+        input.close();
+        return new String(content.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] compress(OutputStream out, ByteArrayOutputStream bytes) throws IOException {
+        out.write(XML.getBytes(StandardCharsets.UTF_8));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void decodeGzip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] gzip = compress(new GZIPOutputStream(bytes), bytes);
+        InputStream input = ContentEncoding.decode(new ByteArrayInputStream(gzip));
+        assertTrue(input instanceof GZIPInputStream);
+        assertEquals(XML, read(input));
+    }
+
+    @Test
+    public void decodeDeflate() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] zlib = compress(new DeflaterOutputStream(bytes), bytes);
+        assertEquals(XML, read(ContentEncoding.decode(new ByteArrayInputStream(zlib))));
+    }
+
+    @Test
+    public void passThroughXml() throws IOException {
+        byte[] xml = XML.getBytes(StandardCharsets.UTF_8);
+        assertEquals(XML, read(ContentEncoding.decode(new ByteArrayInputStream(xml))));
+        byte[] utf16 = "<data/>".getBytes(StandardCharsets.UTF_16);
+        assertEquals("<data/>", new String(readBytes(ContentEncoding.decode(new ByteArrayInputStream(utf16))),
+                StandardCharsets.UTF_16));
+    }
+
+    @Test
+    public void decodeEmptyStream() throws IOException {
+        assertEquals(-1, ContentEncoding.decode(new ByteArrayInputStream(new byte[0])).read());
+    }
+
+    private static byte[] readBytes(InputStream input) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        int b;
+        while ((b = input.read()) != -1) {
+            content.write(b);
+        }
+        return content.toByteArray();
+    }
+}
@@ -0,0 +1,124 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.xpath.XPathConstants;
+
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmNode;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+
+/**
+ * Verifies the behavior of the DocumentTree and XdmStreamBuilder classes.
+ */
+public class VerifyDocumentTree {
+
+    private static final String NS1 = "http://example.org/ns1";
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    public VerifyDocumentTree() {
+    }
+
+    private File resource(String name) throws Exception {
+        return new File(getClass().getResource(name).toURI());
+    }
+
+    @Test
+    public void buildOnce() throws Exception {
+        File dataFile = resource("/SimpleFeature-1.xml");
+        URI systemId = URI.create("http://www.example.org/data/SimpleFeature-1.xml");
+        DocumentTree iut = new DocumentTree(dataFile, systemId);
+        assertFalse(iut.isBuilt());
+        XdmNode node = iut.getNode();
+        assertTrue(iut.isBuilt());
+        assertSame(node, iut.getNode());
+        assertEquals(systemId, node.getDocumentURI());
+        assertEquals("20121024",
+                XMLUtils.evaluateXPath2(node, "string(//ns1:intProperty)", Collections.singletonMap(NS1, "ns1"))
+                        .toString());
+    }
+
+    @Test
+    public void buildFromCompressedFile() throws Exception {
+        File gzFile = tempDir.newFile("SimpleFeature-1.xml.gz");
+        try (OutputStream out = new GZIPOutputStream(new java.io.FileOutputStream(gzFile))) {
+            Files.copy(resource("/SimpleFeature-1.xml").toPath(), out);
+        }
+        DocumentTree iut = new DocumentTree(gzFile, null);
+        assertEquals("SimpleFeature", iut.getDocument().getDocumentElement().getLocalName());
+    }
+
+    @Test
+    public void rememberFailure() throws Exception {
+        File file = tempDir.newFile("broken.xml");
+        Files.write(file.toPath(), "<data>".getBytes("UTF-8"));
+        DocumentTree iut = new DocumentTree(file, null);
+        SaxonApiException failure = null;
+        try {
+            iut.getNode();
+            fail("Expected SaxonApiException (not well-formed).");
+        } catch (SaxonApiException e) {
+            failure = e;
+        }
+        try {
+            iut.getNode();
+            fail("Expected SaxonApiException.");
+        } catch (SaxonApiException e) {
+            assertSame(failure, e);
+        }
+        assertFalse(iut.offer(null));
+    }
+
+    @Test
+    public void offerStreamedTree() throws Exception {
+        File dataFile = resource("/SimpleFeature-1.xml");
+        DocumentTree iut = new DocumentTree(dataFile, null);
+        XdmStreamBuilder builder = new XdmStreamBuilder(dataFile.toURI().toString());
+        try (InputStream input = new FileInputStream(dataFile)) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(input);
+            while (reader.hasNext()) {
+                reader.next();
+                builder.handleEvent(reader);
+            }
+        }
+        XdmNode tree = builder.getNode();
+        assertTrue(iut.offer(tree));
+        assertSame(tree, iut.getNode());
+        assertFalse("Tree already built.", iut.offer(tree));
+        assertEquals(Double.valueOf(2), XMLUtils.evaluateXPath(iut.getDocument(), "count(//gml:pos)", null,
+                XPathConstants.NUMBER));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void readOnlyDocument() throws Exception {
+        Document doc = new DocumentTree(resource("/SimpleFeature-1.xml"), null).getDocument();
+        doc.getDocumentElement().setAttribute("gml:id", "changed");
+    }
+
+    @Test(expected = IOException.class)
+    public void missingFile() throws Throwable {
+        try {
+            new DocumentTree(new File(tempDir.getRoot(), "missing.xml"), null).getNode();
+        } catch (SaxonApiException e) {
+            throw e.getCause();
+        }
+    }
+}
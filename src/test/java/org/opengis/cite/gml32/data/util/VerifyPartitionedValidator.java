@@ -0,0 +1,103 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opengis.cite.validation.ValidationError;
+import org.opengis.cite.validation.ValidationErrorHandler;
+
+/**
+ * Verifies the behavior of the PartitionedValidator class.
+ */
+public class VerifyPartitionedValidator {
+
+    private static final String COLLECTION = "/SimpleFeatureCollection-1.xml";
+    private static Schema schema;
+    private static ForkJoinPool pool;
+
+    public VerifyPartitionedValidator() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        URL catalog = VerifyPartitionedValidator.class.getResource(BaseGrammarPool.SCHEMA_CATALOG);
+        AppSchemaCompiler compiler = new AppSchemaCompiler(catalog);
+        URI schemaRef = VerifyPartitionedValidator.class.getResource("/xsd/collection.xsd").toURI();
+        schema = compiler.compileXmlSchema(schemaRef);
+        assertFalse(compiler.getErrorHandler().toString(), compiler.getErrorHandler().errorsDetected());
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void reportErrorsInDocumentOrder() throws Exception {
+        ValidationErrorHandler errHandler = new ValidationErrorHandler();
+        PartitionedValidator iut = new PartitionedValidator(schema, pool);
+        URL url = getClass().getResource(COLLECTION);
+        try (InputStream input = url.openStream()) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(url.toString(), input);
+            reader.nextTag();
+            iut.validate(reader, errHandler);
+        }
+        List<Integer> lines = new ArrayList<Integer>();
+        for (ValidationError error : errHandler) {
+            lines.add(error.getLineNumber());
+        }
+        assertEquals("Unexpected error locations.", Arrays.asList(21, 21, 27, 27, 34, 34), lines);
+        assertTrue(errHandler.toString().contains("'sf-1'"));
+    }
+
+    @Test
+    public void agreeWithSequentialValidation() throws Exception {
+        URL url = getClass().getResource(COLLECTION);
+        ValidationErrorHandler expected = new ValidationErrorHandler();
+        Validator validator = schema.newValidator();
+        validator.setErrorHandler(expected);
+        validator.validate(new StreamSource(url.toString()));
+        ValidationErrorHandler errHandler = new ValidationErrorHandler();
+        try (InputStream input = url.openStream()) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(url.toString(), input);
+            reader.nextTag();
+            new PartitionedValidator(schema, pool).validate(reader, errHandler);
+            assertEquals(XMLStreamConstants.END_ELEMENT, reader.getEventType());
+        }
+        assertEquals(expected.getErrorCount(), errHandler.getErrorCount());
+    }
+
+    @Test
+    public void stopAtErrorLimit() throws Exception {
+        BoundedErrorHandler errHandler = new BoundedErrorHandler(2, 10);
+        URL url = getClass().getResource(COLLECTION);
+        try (InputStream input = url.openStream()) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(url.toString(), input);
+            reader.nextTag();
+            new PartitionedValidator(schema, pool).validate(reader, errHandler);
+            fail("Expected ErrorLimitException.");
+        } catch (BoundedErrorHandler.ErrorLimitException e) {
+            assertTrue(errHandler.isLimitReached());
+        }
+        assertEquals(2, errHandler.getErrorCount());
+        assertEquals(21, errHandler.iterator().next().getLineNumber());
+    }
+}
@@ -0,0 +1,223 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Verifies the behavior of the RangeDownloader class. A minimal HTTP server
+ * (which supports range requests) stands in for an unreliable remote endpoint:
+ * the first response for a "flaky" resource is cut off half way through the
+ * body. An "unsized" resource is also cut off in the first partial response,
+ * which has no Content-Length header.
+ */
+public class VerifyRangeDownloader {
+
+    private static final byte[] CONTENT = createContent(300000);
+    private static final String ETAG = "\"v1\"";
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-");
+    private ServerSocket server;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final List<String> ranges = new ArrayList<String>();
+    private volatile String acceptEncoding;
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    public VerifyRangeDownloader() {
+    }
+
+    private static byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31 + i / 256);
+        }
+        return content;
+    }
+
+    @Before
+    public void startServer() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!server.isClosed()) {
+                    try (Socket socket = server.accept()) {
+                        respond(socket);
+                    } catch (IOException e) {
+                        // server closed
+                    }
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Writes a response and closes the connection. The body is cut off half
+     * way through if the resource is flaky (first request) or broken, and in the
+     * first partial response for an unsized resource.
+     */
+    void respond(Socket socket) throws IOException {
+        int count = requestCount.incrementAndGet();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+        String path = reader.readLine().split(" ")[1];
+        Map<String, String> headers = new HashMap<String, String>();
+        String line;
+        while (null != (line = reader.readLine()) && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+        }
+        acceptEncoding = headers.get("accept-encoding");
+        String range = headers.get("range");
+        synchronized (ranges) {
+            ranges.add(range);
+        }
+        int start = 0;
+        Matcher matcher = (null != range) ? RANGE.matcher(range) : null;
+        if (null != matcher && matcher.matches() && !path.startsWith("/norange")
+                && ETAG.equals(headers.get("if-range"))) {
+            start = Integer.parseInt(matcher.group(1));
+        }
+        StringBuilder head = new StringBuilder();
+        head.append((start > 0) ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+        head.append("Content-Type: application/gml+xml\r\n");
+        head.append("ETag: ").append(ETAG).append("\r\n");
+        head.append("Connection: close\r\n");
+        if (start == 0 || !path.startsWith("/unsized")) {
+            head.append("Content-Length: ").append(CONTENT.length - start).append("\r\n");
+        }
+        if (start > 0) {
+            head.append(String.format("Content-Range: bytes %d-%d/%d\r\n", start, CONTENT.length - 1,
+                    CONTENT.length));
+        }
+        head.append("\r\n");
+        OutputStream out = socket.getOutputStream();
+        out.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+        boolean drop = path.startsWith("/broken") || (count == 1 && !path.startsWith("/stable"))
+                || (count == 2 && path.startsWith("/unsized"));
+        out.write(CONTENT, start, drop ? (CONTENT.length - start) / 2 : CONTENT.length - start);
+        out.flush();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        server.close();
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getLocalPort() + path);
+    }
+
+    @Test
+    public void transferWithoutFailure() throws Exception {
+        File file = tempDir.newFile();
+        RangeDownloader iut = new RangeDownloader(uri("/stable.xml"));
+        assertEquals("application/gml+xml", iut.connect());
+        assertEquals(CONTENT.length, iut.transferTo(file, null));
+        assertEquals(0, iut.getRetryCount());
+        assertEquals(ContentEncoding.ACCEPT_ENCODING, acceptEncoding);
+        assertTrue(Arrays.equals(CONTENT, Files.readAllBytes(file.toPath())));
+        assertTrue(Arrays.equals(MessageDigest.getInstance("SHA-256").digest(CONTENT), iut.getDigest()));
+    }
+
+    @Test
+    public void resumeAfterDroppedConnection() throws Exception {
+        File file = tempDir.newFile();
+        RangeDownloader iut = new RangeDownloader(uri("/flaky.xml"));
+        iut.transferTo(file, null);
+        assertEquals(1, iut.getRetryCount());
+        assertTrue(Arrays.equals(CONTENT, Files.readAllBytes(file.toPath())));
+        assertTrue(Arrays.equals(MessageDigest.getInstance("SHA-256").digest(CONTENT), iut.getDigest()));
+        assertNull(ranges.get(0));
+        assertNotNull("Expected range request", ranges.get(1));
+    }
+
+    @Test
+    public void resumeAfterTruncatedPartialResponse() throws Exception {
+        File file = tempDir.newFile();
+        RangeDownloader iut = new RangeDownloader(uri("/unsized.xml"));
+        iut.transferTo(file, null);
+        assertEquals("Truncated partial response accepted.", 2, iut.getRetryCount());
+        assertTrue(Arrays.equals(CONTENT, Files.readAllBytes(file.toPath())));
+        assertTrue(Arrays.equals(MessageDigest.getInstance("SHA-256").digest(CONTENT), iut.getDigest()));
+    }
+
+    @Test
+    public void restartIfRangeNotHonored() throws Exception {
+        File file = tempDir.newFile();
+        final List<Long> restarts = new ArrayList<Long>();
+        RangeDownloader iut = new RangeDownloader(uri("/norange.xml"));
+        iut.transferTo(file, new RangeDownloader.Listener() {
+            private long previous;
+
+            @Override
+            public void transferred(long length) {
+                if (length < previous) {
+                    restarts.add(previous);
+                }
+                previous = length;
+            }
+        });
+        assertEquals(1, restarts.size());
+        assertTrue(Arrays.equals(CONTENT, Files.readAllBytes(file.toPath())));
+        assertTrue(Arrays.equals(MessageDigest.getInstance("SHA-256").digest(CONTENT), iut.getDigest()));
+    }
+
+    @Test(expected = IOException.class)
+    public void restartNotAllowed() throws IOException {
+        RangeDownloader iut = new RangeDownloader(uri("/norange.xml"));
+        iut.setRestartAllowed(false);
+        iut.transferTo(tempDir.newFile(), null);
+    }
+
+    @Test
+    public void retriesExhausted() throws IOException {
+        RangeDownloader iut = new RangeDownloader(uri("/broken.xml"), 2);
+        try {
+            iut.transferTo(tempDir.newFile(), null);
+            fail("Expected IOException (transfer never completes).");
+        } catch (IOException e) {
+            assertEquals(2, iut.getRetryCount());
+            assertEquals(3, requestCount.get());
+        }
+    }
+
+    @Test
+    public void dereferenceFlakyResource() throws IOException {
+        File file = URIUtils.dereferenceURI(uri("/flaky.xml"));
+        try {
+            assertTrue(file.getName().endsWith(".xml"));
+            assertTrue(Arrays.equals(CONTENT, Files.readAllBytes(file.toPath())));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Verifies the behavior of the ResultCache class.
+ */
+public class VerifyResultCache {
+
+    private static final URL CATALOG = VerifyResultCache.class
+            .getResource("/org/opengis/cite/gml32/data/schema-catalog.xml");
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    public VerifyResultCache() {
+    }
+
+    @Test
+    public void getCachedResults() throws IOException {
+        ResultCache iut = new ResultCache(tempDir.newFolder("cache"), 1024 * 1024);
+        File results = writeFile("earl-results.rdf", "<rdf:RDF/>");
+        iut.put("abc", results);
+        File outputDir = tempDir.newFolder("output");
+        File cached = iut.get("abc", outputDir);
+        assertNotNull(cached);
+        assertEquals("earl-results.rdf", cached.getName());
+        assertTrue("Not in output directory.", cached.getAbsolutePath().startsWith(outputDir.getAbsolutePath()));
+        assertEquals("<rdf:RDF/>", new String(Files.readAllBytes(cached.toPath()), StandardCharsets.UTF_8));
+        assertEquals("Unexpected hit count.", 1, iut.getHitCount());
+    }
+
+    @Test
+    public void missingEntry() throws IOException {
+        ResultCache iut = new ResultCache(tempDir.newFolder("cache"), 1024 * 1024);
+        assertNull(iut.get("abc", tempDir.newFolder("output")));
+        assertEquals("Unexpected miss count.", 1, iut.getMissCount());
+    }
+
+    @Test
+    public void evictWhenQuotaExceeded() throws IOException {
+        File cacheDir = tempDir.newFolder("cache");
+        ResultCache iut = new ResultCache(cacheDir, 15);
+        iut.put("first", writeFile("results-1.xml", "<results-1/>"));
+        new File(cacheDir, "first.dat").setLastModified(System.currentTimeMillis() - 60000);
+        iut.put("second", writeFile("results-2.xml", "<results-2/>"));
+        File outputDir = tempDir.newFolder("output");
+        assertNull(iut.get("first", outputDir));
+        assertNotNull(iut.get("second", outputDir));
+    }
+
+    @Test
+    public void cachingDisabled() throws IOException {
+        ResultCache iut = new ResultCache(tempDir.newFolder("cache"), 0);
+        assertFalse(iut.isEnabled());
+        iut.put("abc", writeFile("results.xml", "<results/>"));
+        assertNull(iut.get("abc", tempDir.newFolder("output")));
+    }
+
+    @Test
+    public void keyDependsOnSubjectContent() throws IOException {
+        ResultCache iut = new ResultCache(tempDir.newFolder("cache"), 1024 * 1024);
+        File subject = writeFile("subject.xml", "<data>1</data>");
+        Map<String, String> args = new HashMap<String, String>();
+        args.put("iut", subject.toURI().toString());
+        String key = iut.createKey("1.0", args, CATALOG);
+        assertEquals(key, iut.createKey("1.0", args, CATALOG));
+        writeFile("subject.xml", "<data>2</data>");
+        assertNotEquals(key, iut.createKey("1.0", args, CATALOG));
+        assertTrue("Subject was deleted.", subject.isFile());
+    }
+
+    @Test
+    public void keyDependsOnSchemaContent() throws IOException {
+        ResultCache iut = new ResultCache(tempDir.newFolder("cache"), 1024 * 1024);
+        File schema = writeFile("data.xsd", "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'/>");
+        File subject = writeFile("subject.xml",
+                "<data xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance' xsi:schemaLocation='urn:x-data "
+                        + schema.toURI() + "'/>");
+        Map<String, String> args = new HashMap<String, String>();
+        args.put("iut", subject.toURI().toString());
+        String key = iut.createKey("1.0", args, CATALOG);
+        writeFile("data.xsd", "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' version='2'/>");
+        assertNotEquals(key, iut.createKey("1.0", args, CATALOG));
+    }
+
+    @Test
+    public void keyDependsOnIncludedSchemaContent() throws IOException {
+        ResultCache iut = new ResultCache(tempDir.newFolder("cache"), 1024 * 1024);
+        writeFile("data.xsd", "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+                + "<xs:include schemaLocation='types.xsd'/></xs:schema>");
+        writeFile("types.xsd", "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'/>");
+        File subject = writeFile("subject.xml",
+                "<data xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance' xsi:schemaLocation='urn:x-data "
+                        + "data.xsd'/>");
+        Map<String, String> args = new HashMap<String, String>();
+        args.put("iut", subject.toURI().toString());
+        String key = iut.createKey("1.0", args, CATALOG);
+        assertEquals(key, iut.createKey("1.0", args, CATALOG));
+        writeFile("types.xsd", "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' version='2'/>");
+        assertNotEquals(key, iut.createKey("1.0", args, CATALOG));
+    }
+
+    @Test
+    public void keyDependsOnSchemaImportedByArchivedSchema() throws IOException {
+        ResultCache iut = new ResultCache(tempDir.newFolder("cache"), 1024 * 1024);
+        File imported = writeFile("imported.xsd", "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'/>");
+        File subject = new File(tempDir.getRoot(), "data.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(subject))) {
+            zip.putNextEntry(new ZipEntry("data.gml"));
+            zip.write(("<data xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance' "
+                    + "xsi:schemaLocation='urn:x-data xsd/data.xsd'/>").getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("xsd/data.xsd"));
+            zip.write(("<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'><xs:import namespace='urn:x-imp' "
+                    + "schemaLocation='" + imported.toURI() + "'/></xs:schema>").getBytes(StandardCharsets.UTF_8));
+        }
+        Map<String, String> args = new HashMap<String, String>();
+        args.put("iut", subject.toURI().toString());
+        String key = iut.createKey("1.0", args, CATALOG);
+        assertEquals(key, iut.createKey("1.0", args, CATALOG));
+        writeFile("imported.xsd", "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' version='2'/>");
+        assertNotEquals(key, iut.createKey("1.0", args, CATALOG));
+    }
+
+    @Test
+    public void keyDependsOnArguments() throws IOException {
+        ResultCache iut = new ResultCache(tempDir.newFolder("cache"), 1024 * 1024);
+        File subject = writeFile("subject.xml", "<data/>");
+        Map<String, String> args = new HashMap<String, String>();
+        args.put("iut", subject.toURI().toString());
+        String key = iut.createKey("1.0", args, CATALOG);
+        assertNotEquals(key, iut.createKey("1.1", args, CATALOG));
+        args.put("acceptMediaType", "application/rdf+xml");
+        assertNotEquals(key, iut.createKey("1.0", args, CATALOG));
+    }
+
+    @Test
+    public void keyDependsOnXmlModelSchematron() throws IOException {
+        ResultCache iut = new ResultCache(tempDir.newFolder("cache"), 1024 * 1024);
+        writeFile("rules.sch", "<schema xmlns='http://purl.oclc.org/dsdl/schematron'/>");
+        File subject = writeFile("subject.xml", "<?xml-model href='rules.sch' "
+                + "schematypens='http://purl.oclc.org/dsdl/schematron'?>\n<data/>");
+        Map<String, String> args = new HashMap<String, String>();
+        args.put("iut", subject.toURI().toString());
+        String key = iut.createKey("1.0", args, CATALOG);
+        assertEquals(key, iut.createKey("1.0", args, CATALOG));
+        writeFile("rules.sch", "<schema xmlns='http://purl.oclc.org/dsdl/schematron' schemaVersion='2'/>");
+        assertNotEquals(key, iut.createKey("1.0", args, CATALOG));
+    }
+
+    private File writeFile(String name, String content) throws IOException {
+        File file = new File(tempDir.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,92 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XPathExecutable;
+import net.sf.saxon.s9api.XdmNode;
+import net.sf.saxon.s9api.XsltExecutable;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+
+/**
+ * Verifies the behavior of the SaxonCache class.
+ */
+public class VerifySaxonCache {
+
+    private static final Map<String, String> NS1 = Collections.singletonMap("http://example.org/ns1", "ns1");
+    private static final String XSLT = "<xsl:stylesheet version='2.0' "
+            + "xmlns:xsl='http://www.w3.org/1999/XSL/Transform'><xsl:template match='/'><done/></xsl:template>"
+            + "</xsl:stylesheet>";
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    public VerifySaxonCache() {
+    }
+
+    @Test
+    public void reuseCompiledXPath() throws SaxonApiException {
+        SaxonCache iut = new SaxonCache(8);
+        XPathExecutable exec = iut.getXPath("//ns1:intProperty", NS1);
+        assertSame(exec, iut.getXPath("//ns1:intProperty", Collections.singletonMap("http://example.org/ns1", "ns1")));
+        assertNotSame(exec, iut.getXPath("//ns1:intProperty",
+                Collections.singletonMap("http://example.org/ns2", "ns1")));
+        assertEquals(1, iut.getHitCount());
+        assertEquals(2, iut.getMissCount());
+    }
+
+    @Test
+    public void reuseCompiledXQuery() throws SaxonApiException {
+        SaxonCache iut = new SaxonCache(8);
+        assertSame(iut.getXQuery("count(//ns1:*)", NS1), iut.getXQuery("count(//ns1:*)", NS1));
+        assertNotSame(iut.getXPath("count(//ns1:*)", NS1), iut.getXQuery("count(//ns1:*)", NS1));
+    }
+
+    @Test
+    public void cacheStylesheetByLocation() throws SaxonApiException, IOException {
+        File file = tempDir.newFile("test.xsl");
+        Files.write(file.toPath(), XSLT.getBytes(StandardCharsets.UTF_8));
+        SaxonCache iut = new SaxonCache(8);
+        XsltExecutable exec = iut.getXslt(new StreamSource(file.toURI().toString()));
+        assertSame(exec, iut.getXslt(new StreamSource(file.toURI().toString())));
+        assertNotSame(exec, iut.getXslt(new StreamSource(new StringReader(XSLT), file.toURI().toString())));
+        assertEquals(1, iut.size());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws SaxonApiException {
+        SaxonCache iut = new SaxonCache(2);
+        XPathExecutable first = iut.getXPath("1", null);
+        iut.getXPath("2", null);
+        iut.getXPath("1", null);
+        iut.getXPath("3", null);
+        assertEquals(2, iut.size());
+        assertSame(first, iut.getXPath("1", null));
+    }
+
+    @Test
+    public void wrapDomDocument() throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document doc = factory.newDocumentBuilder().parse(getClass().getResourceAsStream("/SimpleFeature-1.xml"));
+        XdmNode node = SaxonCache.buildNode(new DOMSource(doc));
+        assertSame("Expected wrapped DOM node.", doc, node.getExternalNode());
+        assertEquals("20121024", XMLUtils.evaluateXPath2(node, "string(//ns1:intProperty)", NS1).toString());
+    }
+}
@@ -0,0 +1,97 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Verifies the behavior of the SchemaCache class.
+ */
+public class VerifySchemaCache {
+
+    private static Schema schema;
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    public VerifySchemaCache() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        schema = factory.newSchema();
+    }
+
+    @Test
+    public void keyIgnoresOrderOfReferences() {
+        URL catalog = getClass().getResource("/org/opengis/cite/gml32/data/schema-catalog.xml");
+        List<URI> refs1 = Arrays.asList(URI.create("http://example.org/a.xsd"),
+                URI.create("http://example.org/xsd/../b.xsd"));
+        List<URI> refs2 = Arrays.asList(URI.create("http://example.org/b.xsd"),
+                URI.create("http://example.org/a.xsd"));
+        assertEquals(SchemaCache.createKey(refs1, catalog), SchemaCache.createKey(refs2, catalog));
+    }
+
+    @Test
+    public void keyDependsOnCatalog() throws Exception {
+        List<URI> refs = Arrays.asList(URI.create("http://example.org/a.xsd"));
+        assertNotEquals(SchemaCache.createKey(refs, new URL("file:/tmp/catalog-1.xml")),
+                SchemaCache.createKey(refs, new URL("file:/tmp/catalog-2.xml")));
+    }
+
+    @Test
+    public void keyDependsOnArchive() throws Exception {
+        File archive = tempDir.newFile("schemas.zip");
+        Files.write(archive.toPath(), new byte[] { 1, 2, 3 });
+        List<URI> refs = Arrays.asList(URI.create(archive.toURI() + "!/xsd/app.xsd"));
+        URL catalog = new URL("file:/tmp/catalog.xml");
+        String key = SchemaCache.createKey(refs, catalog);
+        assertEquals(key, SchemaCache.createKey(refs, catalog));
+        Files.write(archive.toPath(), new byte[] { 1, 2, 3, 4 });
+        assertNotEquals(key, SchemaCache.createKey(refs, catalog));
+    }
+
+    @Test
+    public void countHitsAndMisses() {
+        SchemaCache cache = new SchemaCache(4);
+        assertNull(cache.get("alpha"));
+        cache.put("alpha", schema);
+        assertSame(schema, cache.get("alpha"));
+        assertEquals("Unexpected hit count.", 1, cache.getHitCount());
+        assertEquals("Unexpected miss count.", 1, cache.getMissCount());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedEntry() {
+        SchemaCache cache = new SchemaCache(2);
+        cache.put("alpha", schema);
+        cache.put("beta", schema);
+        cache.get("alpha");
+        cache.put("gamma", schema);
+        assertEquals("Unexpected cache size.", 2, cache.size());
+        assertNull("Expected 'beta' to be evicted.", cache.get("beta"));
+        assertNotNull(cache.get("alpha"));
+        assertEquals("Unexpected eviction count.", 1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void cachingDisabled() {
+        SchemaCache cache = new SchemaCache(0);
+        cache.put("alpha", schema);
+        assertEquals("Unexpected cache size.", 0, cache.size());
+    }
+}
@@ -0,0 +1,196 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Verifies the behavior of the SchemaDocumentCache class. An embedded HTTP
+ * server stands in for a remote schema repository.
+ */
+public class VerifySchemaDocumentCache {
+
+    private static final String ETAG = "\"v1\"";
+    private HttpServer server;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger notModifiedCount = new AtomicInteger();
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    public VerifySchemaDocumentCache() {
+    }
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requestCount.incrementAndGet();
+                String path = exchange.getRequestURI().getPath();
+                if (path.startsWith("/redirect")) {
+                    exchange.getResponseHeaders().set("Location", "/schemas/a.xsd");
+                    exchange.sendResponseHeaders(302, -1);
+                    exchange.close();
+                    return;
+                }
+                if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModifiedCount.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                String body = path.startsWith("/other") ? "<schema id='other'/>" : "<schema id='a'/>";
+                byte[] content = body.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                exchange.sendResponseHeaders(200, content.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(content);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    public void fetchOnceWhileFresh() throws IOException {
+        SchemaDocumentCache cache = new SchemaDocumentCache(tempDir.getRoot(), 60000, 1024);
+        File content = cache.fetch(uri("/schemas/a.xsd"));
+        assertTrue(content.isFile());
+        assertEquals(content, cache.fetch(uri("/schemas/a.xsd")));
+        assertEquals("Unexpected number of requests.", 1, requestCount.get());
+        assertEquals("Unexpected hit count.", 1, cache.getHitCount());
+    }
+
+    @Test
+    public void revalidateStaleDocument() throws IOException {
+        SchemaDocumentCache cache = new SchemaDocumentCache(tempDir.getRoot(), 0, 1024);
+        File content = cache.fetch(uri("/schemas/a.xsd"));
+        assertEquals(content, cache.fetch(uri("/schemas/a.xsd")));
+        assertEquals("Unexpected number of conditional requests.", 1, notModifiedCount.get());
+        assertEquals("Unexpected revalidation count.", 1, cache.getRevalidationCount());
+    }
+
+    @Test
+    public void useStaleCopyIfServerUnavailable() throws IOException {
+        SchemaDocumentCache cache = new SchemaDocumentCache(tempDir.getRoot(), 0, 1024);
+        File content = cache.fetch(uri("/schemas/a.xsd"));
+        URI location = uri("/schemas/a.xsd");
+        server.stop(0);
+        assertEquals(content, cache.fetch(location));
+    }
+
+    @Test
+    public void identicalContentIsStoredOnce() throws IOException {
+        SchemaDocumentCache cache = new SchemaDocumentCache(tempDir.getRoot(), 60000, 1024);
+        File content = cache.fetch(uri("/schemas/a.xsd"));
+        assertEquals(content, cache.fetch(uri("/redirect/a.xsd")));
+        assertEquals("Unexpected fetch count.", 2, cache.getFetchCount());
+    }
+
+    @Test
+    public void identicalContentLeavesNoTempFiles() throws IOException {
+        SchemaDocumentCache cache = new SchemaDocumentCache(tempDir.getRoot(), 60000, 1024);
+        cache.fetch(uri("/schemas/a.xsd"));
+        cache.fetch(uri("/redirect/a.xsd"));
+        assertEquals("Unexpected temporary files.", 0, tempDir.getRoot().list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".tmp");
+            }
+        }).length);
+    }
+
+    @Test
+    public void readEvictedDocument() throws IOException {
+        SchemaDocumentCache cache = new SchemaDocumentCache(tempDir.getRoot(), 60000, 20);
+        File first = cache.fetch(uri("/schemas/a.xsd"));
+        try (InputStream input = cache.openStream(uri("/schemas/a.xsd"))) {
+            first.setLastModified(first.lastModified() - 10000);
+            cache.fetch(uri("/other/b.xsd"));
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            int b;
+            while ((b = input.read()) != -1) {
+                content.write(b);
+            }
+            assertEquals("<schema id='a'/>", new String(content.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void evictWhenQuotaExceeded() throws IOException {
+        SchemaDocumentCache cache = new SchemaDocumentCache(tempDir.getRoot(), 60000, 20);
+        File first = cache.fetch(uri("/schemas/a.xsd"));
+        first.setLastModified(first.lastModified() - 10000);
+        File second = cache.fetch(uri("/other/b.xsd"));
+        assertFalse("Expected least recently used document to be evicted.", first.exists());
+        assertTrue(second.exists());
+        cache.fetch(uri("/schemas/a.xsd"));
+        assertEquals("Unexpected fetch count.", 3, cache.getFetchCount());
+    }
+
+    @Test
+    public void evictMetadataWithContent() throws IOException {
+        SchemaDocumentCache cache = new SchemaDocumentCache(tempDir.getRoot(), 60000, 20);
+        File first = cache.fetch(uri("/schemas/a.xsd"));
+        first.setLastModified(first.lastModified() - 10000);
+        cache.fetch(uri("/other/b.xsd"));
+        assertFalse(first.exists());
+        assertEquals("Expected one metadata file.", 1, tempDir.getRoot().list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".properties");
+            }
+        }).length);
+    }
+
+    @Test
+    public void keepDocumentLargerThanQuota() throws IOException {
+        SchemaDocumentCache cache = new SchemaDocumentCache(tempDir.getRoot(), 60000, 8);
+        File content = cache.fetch(uri("/schemas/a.xsd"));
+        assertTrue("Expected document just stored to be kept.", content.isFile());
+    }
+
+    @Test
+    public void incompleteMetadataIsMiss() throws IOException {
+        SchemaDocumentCache cache = new SchemaDocumentCache(tempDir.getRoot(), 60000, 1024);
+        URI location = uri("/schemas/a.xsd");
+        String key = SchemaDocumentCache.sha256Hex(location.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(tempDir.getRoot(), key + ".properties").toPath(),
+                ("uri=" + location + "\nfetched=" + System.currentTimeMillis() + "\n")
+                        .getBytes(StandardCharsets.ISO_8859_1));
+        File content = cache.fetch(location);
+        assertTrue(content.isFile());
+        assertEquals("Unexpected fetch count.", 1, cache.getFetchCount());
+    }
+}
@@ -0,0 +1,162 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.xerces.util.XMLCatalogResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Verifies the behavior of the SchemaPrefetcher class. An embedded HTTP server
+ * stands in for a remote schema repository.
+ */
+public class VerifySchemaPrefetcher {
+
+    private static final String XSD_START = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>";
+    private final Map<String, String> schemas = new HashMap<String, String>();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final AtomicInteger maxActiveRequests = new AtomicInteger();
+    private HttpServer server;
+    private XMLCatalogResolver resolver;
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    public VerifySchemaPrefetcher() {
+    }
+
+    @Before
+    public void startServer() throws IOException {
+        URL catalog = getClass().getResource(BaseGrammarPool.SCHEMA_CATALOG);
+        resolver = new XMLCatalogResolver(new String[] { catalog.toString() });
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int active = activeRequests.incrementAndGet();
+                synchronized (maxActiveRequests) {
+                    maxActiveRequests.set(Math.max(active, maxActiveRequests.get()));
+                }
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                String body = schemas.get(exchange.getRequestURI().getPath());
+                activeRequests.decrementAndGet();
+                if (null == body) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] content = body.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, content.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(content);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    public void fetchImportIncludeGraph() {
+        schemas.put("/app/root.xsd", XSD_START + "<xs:import namespace='urn:a' schemaLocation='a.xsd'/>"
+                + "<xs:import namespace='http://www.opengis.net/gml/3.2' schemaLocation='gml.xsd'/>"
+                + "<xs:import namespace='urn:b' schemaLocation='../lib/b.xsd'/></xs:schema>");
+        schemas.put("/app/a.xsd", XSD_START + "<xs:include schemaLocation='c.xsd'/></xs:schema>");
+        schemas.put("/lib/b.xsd", XSD_START + "<xs:include schemaLocation='../app/c.xsd'/></xs:schema>");
+        schemas.put("/app/c.xsd", XSD_START + "</xs:schema>");
+        SchemaPrefetcher prefetcher = new SchemaPrefetcher(resolver,
+                new SchemaDocumentCache(tempDir.getRoot(), 60000, 1048576), SharedGrammarPool.getInstance());
+        Map<String, byte[]> docs = prefetcher.prefetch(Arrays.asList(uri("/app/root.xsd")));
+        assertEquals("Unexpected number of documents: " + docs.keySet(), 4, docs.size());
+        assertTrue(docs.containsKey(uri("/lib/b.xsd").toString()));
+        assertFalse("Bundled namespace should not be fetched.", docs.containsKey(uri("/app/gml.xsd").toString()));
+    }
+
+    @Test
+    public void limitConcurrentRequestsPerHost() {
+        StringBuilder root = new StringBuilder(XSD_START);
+        for (int i = 0; i < 12; i++) {
+            String path = "/mod/m" + i + ".xsd";
+            schemas.put(path, XSD_START + "</xs:schema>");
+            root.append("<xs:import namespace='urn:m").append(i).append("' schemaLocation='").append(path)
+                    .append("'/>");
+        }
+        schemas.put("/mod/root.xsd", root.append("</xs:schema>").toString());
+        SchemaPrefetcher prefetcher = new SchemaPrefetcher(resolver,
+                new SchemaDocumentCache(tempDir.getRoot(), 60000, 1048576), SharedGrammarPool.getInstance());
+        Map<String, byte[]> docs = prefetcher.prefetch(Arrays.asList(uri("/mod/root.xsd")));
+        assertEquals("Unexpected number of documents.", 13, docs.size());
+        assertTrue("Per-host limit exceeded: " + maxActiveRequests.get(),
+                maxActiveRequests.get() <= SchemaPrefetcher.DEFAULT_MAX_PER_HOST);
+        assertTrue("Expected concurrent requests.", maxActiveRequests.get() > 1);
+    }
+
+    @Test
+    public void collectIgnoresGrammarPool() {
+        schemas.put("/pool/root.xsd", XSD_START + "<xs:import namespace='urn:a' schemaLocation='a.xsd'/></xs:schema>");
+        schemas.put("/pool/a.xsd", XSD_START + "</xs:schema>");
+        // a pool that can satisfy any import
+        SharedGrammarPool pool = new SharedGrammarPool(BaseGrammarPool.getInstance(),
+                getClass().getResource(BaseGrammarPool.SCHEMA_CATALOG), 8, 60000) {
+            @Override
+            public boolean contains(String namespace, String location) {
+                return true;
+            }
+        };
+        SchemaPrefetcher prefetcher = new SchemaPrefetcher(resolver,
+                new SchemaDocumentCache(tempDir.getRoot(), 60000, 1048576), pool);
+        assertEquals("Import in pool should not be fetched.", 1,
+                prefetcher.prefetch(Arrays.asList(uri("/pool/root.xsd"))).size());
+        Map<String, byte[]> docs = prefetcher.collect(Arrays.asList(uri("/pool/root.xsd")));
+        assertTrue("Import in pool not collected: " + docs.keySet(), docs.containsKey(uri("/pool/a.xsd").toString()));
+    }
+
+    @Test
+    public void collectLocalDocuments() throws IOException {
+        File root = tempDir.newFile("root.xsd");
+        File included = tempDir.newFile("inc.xsd");
+        Files.write(root.toPath(), (XSD_START + "<xs:include schemaLocation='inc.xsd'/></xs:schema>")
+                .getBytes(StandardCharsets.UTF_8));
+        Files.write(included.toPath(), (XSD_START + "</xs:schema>").getBytes(StandardCharsets.UTF_8));
+        SchemaPrefetcher prefetcher = new SchemaPrefetcher(resolver,
+                new SchemaDocumentCache(tempDir.newFolder("cache"), 60000, 1048576), SharedGrammarPool.getInstance());
+        assertTrue(prefetcher.prefetch(Arrays.asList(root.toURI())).isEmpty());
+        Map<String, byte[]> docs = prefetcher.collect(Arrays.asList(root.toURI()));
+        assertEquals("Unexpected number of documents: " + docs.keySet(), 2, docs.size());
+        assertTrue(docs.containsKey(included.toURI().normalize().toString()));
+    }
+}
@@ -0,0 +1,114 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.cite.validation.SchematronValidator;
+import org.xml.sax.SAXException;
+
+/**
+ * Verifies the behavior of the SchematronCache class.
+ */
+public class VerifySchematronCache {
+
+    private static final String GML_SCH = "/org/opengis/cite/gml32/data/sch/gml-3.2.1.sch";
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    public VerifySchematronCache() {
+    }
+
+    @Test
+    public void keyDependsOnContent() {
+        String systemId = "http://example.org/rules.sch";
+        assertNotEquals(SchematronCache.createKey(systemId, "a".getBytes(StandardCharsets.UTF_8), null),
+                SchematronCache.createKey(systemId, "b".getBytes(StandardCharsets.UTF_8), null));
+    }
+
+    @Test
+    public void keyDependsOnPhase() {
+        String systemId = "http://example.org/rules.sch";
+        byte[] content = "a".getBytes(StandardCharsets.UTF_8);
+        assertNotEquals(SchematronCache.createKey(systemId, content, "#ALL"),
+                SchematronCache.createKey(systemId, content, "MainPhase"));
+    }
+
+    @Test
+    public void reuseCompiledSchema() throws Exception {
+        SchematronCache cache = new SchematronCache(4);
+        URI schURI = getClass().getResource("/sch/simple.sch").toURI();
+        CompiledSchematron schema = cache.get(schURI, null);
+        assertSame(schema, cache.get(schURI, null));
+        assertEquals("Unexpected hit count.", 1, cache.getHitCount());
+        assertEquals("Unexpected miss count.", 1, cache.getMissCount());
+        assertNotSame(schema, cache.get(schURI, "#ALL"));
+        assertEquals("Unexpected cache size.", 2, cache.size());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws Exception {
+        SchematronCache cache = new SchematronCache(1);
+        URI schURI = getClass().getResource("/sch/simple.sch").toURI();
+        cache.get(schURI, null);
+        cache.get(schURI, "#ALL");
+        assertEquals("Unexpected cache size.", 1, cache.size());
+        assertEquals("Unexpected eviction count.", 1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void cachingDisabled() throws Exception {
+        SchematronCache cache = new SchematronCache(0);
+        URI schURI = getClass().getResource("/sch/simple.sch").toURI();
+        assertNotNull(cache.get(schURI, null));
+        assertEquals("Unexpected cache size.", 0, cache.size());
+    }
+
+    @Test
+    public void recompileModifiedFile() throws Exception {
+        SchematronCache cache = new SchematronCache(4);
+        File schFile = tempDir.newFile("simple.sch");
+        Path simple = Paths.get(getClass().getResource("/sch/simple.sch").toURI());
+        Files.copy(simple, schFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        CompiledSchematron schema = cache.get(schFile.toURI(), null);
+        assertSame(schema, cache.get(schFile.toURI(), null));
+        Files.write(schFile.toPath(), "<!-- modified -->".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertNotSame(schema, cache.get(schFile.toURI(), null));
+        assertEquals("Unexpected miss count.", 2, cache.getMissCount());
+    }
+
+    @Test(expected = SAXException.class)
+    public void missingSchema() throws Exception {
+        SchematronCache cache = new SchematronCache(4);
+        cache.get(new File("src/test/resources/sch/missing.sch").toURI(), null);
+    }
+
+    @Test
+    public void agreeWithSchematronValidator() throws Exception {
+        URL schUrl = getClass().getResource(GML_SCH);
+        URL dataUrl = getClass().getResource("/gml-sch-violations.xml");
+        CompiledSchematronValidator iut = new SchematronCache(4).get(schUrl.toURI(), "#ALL").newValidator();
+        iut.validate(new StreamSource(dataUrl.toString()));
+        SchematronValidator validator = new SchematronValidator(new StreamSource(schUrl.toString()), "#ALL");
+        validator.validate(new StreamSource(dataUrl.toString()));
+        assertEquals(validator.getRuleViolationCount(), iut.getRuleViolationCount());
+        assertEquals("Unexpected number of rule violations.", 8, iut.getRuleViolationCount());
+        // validator can be reused
+        iut.validate(new StreamSource(dataUrl.toString()));
+        assertEquals(8, iut.getRuleViolationCount());
+    }
+}
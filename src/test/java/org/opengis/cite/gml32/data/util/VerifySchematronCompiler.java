@@ -0,0 +1,46 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.URL;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Verifies the behavior of the SchematronCompiler class.
+ */
+public class VerifySchematronCompiler {
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    public VerifySchematronCompiler() {
+    }
+
+    @Test
+    public void precompiledStylesheetAgreesWithSchema() throws Exception {
+        URL schUrl = getClass().getResource("/sch/simple.sch");
+        URL dataUrl = getClass().getResource("/SimpleFeature-xml-model.xml");
+        File xslFile = new File(tempDir.getRoot(), "sch/simple.xsl");
+        SchematronCompiler.main(new String[] { new File(schUrl.toURI()).getPath(), xslFile.getPath() });
+        assertTrue("Stylesheet not written.", xslFile.isFile());
+        CompiledSchematronValidator iut = CompiledSchematron.fromStylesheet(new StreamSource(xslFile), null)
+                .newValidator();
+        iut.validate(new StreamSource(dataUrl.toString()));
+        CompiledSchematronValidator validator = new CompiledSchematron(new StreamSource(schUrl.toString()), null)
+                .newValidator();
+        validator.validate(new StreamSource(dataUrl.toString()));
+        assertEquals("Unexpected number of rule violations.", 1, iut.getRuleViolationCount());
+        assertEquals(validator.getRuleViolationCount(), iut.getRuleViolationCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingArguments() throws Exception {
+        SchematronCompiler.main(new String[] { "simple.sch" });
+    }
+}
@@ -0,0 +1,92 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Verifies the behavior of the SharedGrammarPool class. An embedded HTTP server
+ * stands in for a remote schema repository.
+ */
+public class VerifySharedGrammarPool {
+
+    private static final String LIB_SCHEMA = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' "
+            + "targetNamespace='urn:lib'><xs:simpleType name='Code'><xs:restriction base='xs:string'/>"
+            + "</xs:simpleType></xs:schema>";
+    private HttpServer server;
+    private URL catalog;
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    public VerifySharedGrammarPool() {
+    }
+
+    @Before
+    public void startServer() throws IOException {
+        catalog = getClass().getResource(BaseGrammarPool.SCHEMA_CATALOG);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] content = LIB_SCHEMA.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, content.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(content);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private File createAppSchema(String name, String namespace) throws IOException {
+        String libLocation = "http://localhost:" + server.getAddress().getPort() + "/lib/lib.xsd";
+        String schema = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='" + namespace
+                + "' xmlns:lib='urn:lib'><xs:import namespace='urn:lib' schemaLocation='" + libLocation
+                + "'/><xs:element name='code' type='lib:Code'/></xs:schema>";
+        File file = tempDir.newFile(name);
+        Files.write(file.toPath(), schema.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void reuseImportedRemoteGrammar() throws Exception {
+        SharedGrammarPool pool = new SharedGrammarPool(BaseGrammarPool.getInstance(), catalog, 8, 60000);
+        AppSchemaCompiler compiler = new AppSchemaCompiler(catalog, pool);
+        compiler.compileXmlSchema(createAppSchema("app1.xsd", "urn:app1").toURI());
+        assertFalse(compiler.getErrorHandler().toString(), compiler.getErrorHandler().errorsDetected());
+        assertEquals("Unexpected number of promoted grammars.", 1, pool.size());
+        compiler.compileXmlSchema(createAppSchema("app2.xsd", "urn:app2").toURI());
+        assertFalse(compiler.getErrorHandler().toString(), compiler.getErrorHandler().errorsDetected());
+        assertEquals("Unexpected hit count.", 1, pool.getHitCount());
+    }
+
+    @Test
+    public void promotionDisabled() throws Exception {
+        SharedGrammarPool pool = new SharedGrammarPool(BaseGrammarPool.getInstance(), catalog, 0, 60000);
+        AppSchemaCompiler compiler = new AppSchemaCompiler(catalog, pool);
+        compiler.compileXmlSchema(createAppSchema("app1.xsd", "urn:app1").toURI());
+        assertEquals("Unexpected number of promoted grammars.", 0, pool.size());
+    }
+}
@@ -0,0 +1,167 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Verifies the behavior of the SpooledDownload class. An embedded HTTP server
+ * stands in for a slow remote endpoint: it sends the first half of a response
+ * and waits for the test to release the rest.
+ */
+public class VerifySpooledDownload {
+
+    private static final byte[] CONTENT = createContent(100000);
+    private HttpServer server;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    public VerifySpooledDownload() {
+    }
+
+    private static byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) ('a' + i % 26);
+        }
+        return content;
+    }
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (exchange.getRequestURI().getPath().startsWith("/missing")) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/gml+xml");
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    int half = CONTENT.length / 2;
+                    out.write(CONTENT, 0, half);
+                    out.flush();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    out.write(CONTENT, half, CONTENT.length - half);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    public void readWhileTransferring() throws IOException {
+        SpooledDownload iut = SpooledDownload.start(uri("/data.xml"));
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        try (InputStream input = iut.openStream()) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while (received.size() < CONTENT.length / 2 && (n = input.read(buffer)) != -1) {
+                received.write(buffer, 0, n);
+            }
+            assertFalse("Transfer should still be in progress.", iut.isComplete());
+            release.countDown();
+            while ((n = input.read(buffer)) != -1) {
+                received.write(buffer, 0, n);
+            }
+        }
+        assertTrue(Arrays.equals(CONTENT, received.toByteArray()));
+        assertTrue(Arrays.equals(CONTENT, Files.readAllBytes(iut.await().toPath())));
+        assertTrue(iut.getFile().getName().endsWith(".xml"));
+        iut.getFile().delete();
+    }
+
+    @Test(expected = IOException.class)
+    public void missingResource() throws IOException {
+        SpooledDownload.start(uri("/missing.xml"));
+    }
+
+    @Test
+    public void cancelTransfer() throws IOException, InterruptedException {
+        SpooledDownload iut = SpooledDownload.start(uri("/data.xml"));
+        try (InputStream input = iut.openStream()) {
+            assertTrue(input.read(new byte[100]) > 0);
+            iut.close();
+            release.countDown();
+            try {
+                iut.await();
+                fail("Expected IOException (transfer was cancelled).");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("cancelled"));
+            }
+        }
+        iut.getFile().delete();
+    }
+
+    @Test
+    public void usePreviouslyRetrievedCopy() throws IOException {
+        File copy = File.createTempFile("entity-", null);
+        Files.write(copy.toPath(), CONTENT);
+        // the server would respond with status 404
+        SpooledDownload.offer(uri("/missing.xml"), copy);
+        SpooledDownload iut = SpooledDownload.start(uri("/missing.xml"));
+        assertTrue("Expected transfer to be complete.", iut.isComplete());
+        assertEquals(copy, iut.await());
+        try {
+            SpooledDownload.start(uri("/missing.xml"));
+            fail("Expected IOException (copy should be used only once).");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("404"));
+        }
+        copy.delete();
+    }
+
+    @Test
+    public void discardPreviouslyRetrievedCopy() throws IOException {
+        File copy = File.createTempFile("entity-", null);
+        SpooledDownload.offer(uri("/data.xml"), copy);
+        SpooledDownload.discard(uri("/data.xml"));
+        assertFalse("Copy was not deleted.", copy.exists());
+    }
+
+    @Test
+    public void teeModeForHttpOnly() {
+        assertTrue(SpooledDownload.isTeeEnabled(URI.create("https://example.org/data.xml")));
+        assertFalse(SpooledDownload.isTeeEnabled(URI.create("file:/tmp/data.xml")));
+        System.setProperty(SpooledDownload.TEE_PROPERTY, "false");
+        try {
+            assertFalse(SpooledDownload.isTeeEnabled(URI.create("https://example.org/data.xml")));
+        } finally {
+            System.clearProperty(SpooledDownload.TEE_PROPERTY);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import javax.xml.stream.XMLInputFactory;
+
+import org.junit.Test;
+
+/**
+ * Verifies the behavior of the StaxFactories class.
+ */
+public class VerifyStaxFactories {
+
+    public VerifyStaxFactories() {
+    }
+
+    @Test
+    public void sharedInputFactory() {
+        XMLInputFactory factory = StaxFactories.getInputFactory();
+        assertSame(factory, StaxFactories.getInputFactory());
+        assertEquals(Boolean.TRUE, factory.getProperty(XMLInputFactory.IS_COALESCING));
+        assertEquals(Boolean.FALSE, factory.getProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES));
+    }
+
+    @Test
+    public void schemaInputFactoryIgnoresDTD() {
+        assertEquals(Boolean.FALSE, StaxFactories.getSchemaInputFactory().getProperty(XMLInputFactory.SUPPORT_DTD));
+    }
+
+    @Test
+    public void unavailableBackendFallsBackToDefault() {
+        assertFalse(StaxFactories.isAvailable("org.example.NoSuchInputFactory"));
+        XMLInputFactory factory = StaxFactories.newInputFactory("org.example.NoSuchInputFactory");
+        assertEquals(XMLInputFactory.newInstance().getClass(), factory.getClass());
+    }
+
+    @Test
+    public void notAnInputFactory() {
+        XMLInputFactory factory = StaxFactories.newInputFactory("java.lang.String");
+        assertNotNull(factory);
+    }
+}
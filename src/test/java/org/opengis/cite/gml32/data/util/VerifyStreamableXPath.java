@@ -0,0 +1,66 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Verifies the behavior of the StreamableXPath class.
+ */
+public class VerifyStreamableXPath {
+
+    @Test
+    public void attributesOnly() {
+        assertEquals(0, StreamableXPath.requiredDepth("not(@srsDimension) or @srsName", true));
+    }
+
+    @Test
+    public void countGrandchildren() {
+        assertEquals(2,
+                StreamableXPath.requiredDepth("count(gml:patches/*)=count(gml:patches/gml:PolygonPatch)", true));
+    }
+
+    @Test
+    public void parentStepsInPredicate() {
+        assertEquals(2, StreamableXPath.requiredDepth(
+                "count(gml:valueComponent/*) = count(gml:valueComponent/*[name() = name(../../gml:valueComponent[1]/*[1])])",
+                true));
+    }
+
+    @Test
+    public void unionWithTextNodes() {
+        assertEquals(1, StreamableXPath.requiredDepth("@xlink:href | (*|text())", true));
+    }
+
+    @Test
+    public void ancestorAxis() {
+        assertEquals(StreamableXPath.NOT_STREAMABLE,
+                StreamableXPath.requiredDepth("ancestor::gml:FeatureCollection", true));
+    }
+
+    @Test
+    public void descendants() {
+        assertEquals(StreamableXPath.NOT_STREAMABLE, StreamableXPath.requiredDepth("count(.//gml:pos) > 0", true));
+    }
+
+    @Test
+    public void parentOfContext() {
+        assertEquals(StreamableXPath.NOT_STREAMABLE, StreamableXPath.requiredDepth("../@gml:id", true));
+    }
+
+    @Test
+    public void stringValueOfElement() {
+        assertEquals(StreamableXPath.NOT_STREAMABLE, StreamableXPath.requiredDepth("gml:name = 'x'", true));
+        assertEquals(StreamableXPath.NOT_STREAMABLE, StreamableXPath.requiredDepth(".", false));
+    }
+
+    @Test
+    public void variableReference() {
+        assertEquals(StreamableXPath.NOT_STREAMABLE, StreamableXPath.requiredDepth("@uom = $units", true));
+    }
+
+    @Test
+    public void documentFunction() {
+        assertEquals(StreamableXPath.NOT_STREAMABLE, StreamableXPath.requiredDepth("document(@href)", true));
+    }
+}
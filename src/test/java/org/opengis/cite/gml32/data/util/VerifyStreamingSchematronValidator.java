@@ -0,0 +1,139 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+import org.opengis.cite.validation.SchematronValidator;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Verifies the behavior of the StreamingSchematronValidator class.
+ */
+public class VerifyStreamingSchematronValidator {
+
+    private static final String SVRL_NS = SchematronValidator.ISO_SCHEMATRON_SVRL_NS;
+    private static final String GML_SCH = "/org/opengis/cite/gml32/data/sch/gml-3.2.1.sch";
+
+    @Test
+    public void gmlRulesAreStreamable() throws SAXException {
+        URL schUrl = getClass().getResource(GML_SCH);
+        StreamingSchematronValidator iut = new StreamingSchematronValidator(new StreamSource(schUrl.toString()),
+                "#ALL");
+        assertFalse("Expected all rules to be streamable.", iut.requiresDocument());
+    }
+
+    @Test
+    public void checkGmlRules() throws Exception {
+        URL schUrl = getClass().getResource(GML_SCH);
+        StreamingSchematronValidator iut = new StreamingSchematronValidator(new StreamSource(schUrl.toString()),
+                "#ALL");
+        DOMResult result = validate(iut, "/gml-sch-violations.xml");
+        assertEquals("Unexpected number of rule violations.", 8, iut.getRuleViolationCount());
+        Document svrl = (Document) result.getNode();
+        assertEquals(8, svrl.getElementsByTagNameNS(SVRL_NS, "failed-assert").getLength());
+        // must agree with XSLT implementation
+        SchematronValidator xsltValidator = new SchematronValidator(new StreamSource(schUrl.toString()), "#ALL");
+        xsltValidator.validate(new StreamSource(getClass().getResource("/gml-sch-violations.xml").toString()));
+        assertEquals(xsltValidator.getRuleViolationCount(), iut.getRuleViolationCount());
+    }
+
+    @Test
+    public void reportDiagnostics() throws Exception {
+        URL schUrl = getClass().getResource("/sch/simple.sch");
+        StreamingSchematronValidator iut = new StreamingSchematronValidator(new StreamSource(schUrl.toString()),
+                null);
+        assertFalse(iut.requiresDocument());
+        DOMResult result = validate(iut, "/SimpleFeature-xml-model.xml");
+        assertEquals("Unexpected number of rule violations.", 1, iut.getRuleViolationCount());
+        Document svrl = (Document) result.getNode();
+        assertEquals("MainPhase", svrl.getDocumentElement().getAttribute("phase"));
+        NodeList failures = svrl.getElementsByTagNameNS(SVRL_NS, "failed-assert");
+        assertEquals("/*:SimpleFeature[namespace-uri()='http://example.org/ns1'][1]",
+                ((Element) failures.item(0)).getAttribute("location"));
+        NodeList diagnostics = svrl.getElementsByTagNameNS(SVRL_NS, "diagnostic-reference");
+        assertEquals(1, diagnostics.getLength());
+        assertTrue(diagnostics.item(0).getTextContent().contains("'SimpleFeature-1'"));
+    }
+
+    @Test
+    public void fallBackToXslt() throws Exception {
+        URL schUrl = getClass().getResource("/sch/mixed.sch");
+        StreamingSchematronValidator iut = new StreamingSchematronValidator(new StreamSource(schUrl.toString()),
+                null);
+        assertTrue("Expected some rules to be non-streamable.", iut.requiresDocument());
+        DOMResult result = validate(iut, "/gml-sch-violations.xml");
+        assertEquals("Unexpected number of rule violations.", 3, iut.getRuleViolationCount());
+        Document svrl = (Document) result.getNode();
+        assertEquals(3, svrl.getElementsByTagNameNS(SVRL_NS, "failed-assert").getLength());
+    }
+
+    @Test
+    public void fallBackToPrecompiledStylesheet() throws Exception {
+        URL schUrl = getClass().getResource("/sch/mixed.sch");
+        CompiledSchematron precompiled = new CompiledSchematron(new StreamSource(schUrl.toString()), null);
+        StreamingSchematronValidator iut = new StreamingSchematronValidator(new StreamSource(schUrl.toString()),
+                null, precompiled);
+        assertTrue("Expected some rules to be non-streamable.", iut.requiresDocument());
+        DOMResult result = validate(iut, "/gml-sch-violations.xml");
+        assertEquals("Unexpected number of rule violations.", 3, iut.getRuleViolationCount());
+        Document svrl = (Document) result.getNode();
+        assertEquals(3, svrl.getElementsByTagNameNS(SVRL_NS, "failed-assert").getLength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void completeWithoutRequiredDocument() throws Exception {
+        URL schUrl = getClass().getResource("/sch/mixed.sch");
+        StreamingSchematronValidator iut = new StreamingSchematronValidator(new StreamSource(schUrl.toString()),
+                null);
+        iut.complete(null);
+    }
+
+    @Test
+    public void completeWithDocument() throws Exception {
+        URL schUrl = getClass().getResource("/sch/mixed.sch");
+        StreamingSchematronValidator iut = new StreamingSchematronValidator(new StreamSource(schUrl.toString()),
+                null);
+        File dataFile = new File(getClass().getResource("/gml-sch-violations.xml").toURI());
+        DOMStreamBuilder builder = new DOMStreamBuilder(dataFile.toURI().toString());
+        try (InputStream input = new FileInputStream(dataFile)) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(input);
+            while (reader.hasNext()) {
+                reader.next();
+                iut.handleEvent(reader);
+                builder.handleEvent(reader);
+            }
+        }
+        iut.complete(builder.getDocument());
+        assertEquals(3, iut.getRuleViolationCount());
+    }
+
+    @Test(expected = SAXException.class)
+    public void undefinedPhase() throws SAXException {
+        URL schUrl = getClass().getResource("/sch/simple.sch");
+        new StreamingSchematronValidator(new StreamSource(schUrl.toString()), "NoSuchPhase");
+    }
+
+    private DOMResult validate(StreamingSchematronValidator validator, String resource)
+            throws IOException, XMLStreamException, SAXException {
+        URL dataUrl = getClass().getResource(resource);
+        try (InputStream input = dataUrl.openStream()) {
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(dataUrl.toString(), input);
+            return validator.validate(reader);
+        }
+    }
+}
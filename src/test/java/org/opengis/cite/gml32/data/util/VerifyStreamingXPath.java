@@ -0,0 +1,174 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.xpath.XPathConstants;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opengis.cite.gml32.data.Namespaces;
+import org.w3c.dom.Document;
+
+/**
+ * Verifies the behavior of the StreamingXPath class. Results are compared with
+ * those obtained by evaluating the same expressions against a DOM Document.
+ */
+public class VerifyStreamingXPath {
+
+    private static final String NS1 = "http://example.org/ns1";
+    private static final String COLLECTION = "/SimpleFeatureCollection-1.xml";
+    private static DocumentBuilder docBuilder;
+    private static Map<String, String> nsBindings;
+
+    public VerifyStreamingXPath() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        docBuilder = dbf.newDocumentBuilder();
+        nsBindings = new HashMap<String, String>();
+        nsBindings.put(NS1, "ns1");
+        nsBindings.put(Namespaces.XLINK, "xlink");
+    }
+
+    private static Object evaluate(StreamingXPath xpath, String resource, javax.xml.namespace.QName returnType)
+            throws IOException, XMLStreamException {
+        URL url = VerifyStreamingXPath.class.getResource(resource);
+        try (InputStream input = url.openStream()) {
+            XMLStreamReader reader = StaxFactories.getInputFactory().createXMLStreamReader(url.toString(), input);
+            return xpath.evaluate(reader, returnType);
+        }
+    }
+
+    @Test
+    public void agreeWithDOM() throws Exception {
+        Document doc = docBuilder.parse(getClass().getResourceAsStream(COLLECTION));
+        String[] expressions = { "count(//gml:featureMember)", "count(//gml:featureMember/*)",
+                "count(//ns1:SimpleFeature/@gml:id)", "count(//@gml:id)",
+                "count(/ns1:SimpleFeatureCollection/gml:featureMember[@xlink:href])",
+                "//gml:Envelope[@srsName = 'urn:ogc:def:crs:EPSG::32610']",
+                "//gml:Envelope[@srsName != 'urn:ogc:def:crs:EPSG::4326' and not(@axisLabels)]",
+                "count(//gml:pos) = 2 and not(//gml:Point)", "count(descendant::ns1:intProperty) > 2",
+                "count(ns1:SimpleFeatureCollection/gml:featureMember//gml:pos)",
+                "count(//gml:featureMember[not(@xlink:href)]//ns1:*)", "count(//*[@gml:id = 'sf-1'])",
+                "boolean(//gml:featureMember//gml:featureMember)", "//gml:Point or count(//*) >= 30",
+                "count(child::*/child::gml:featureMember/attribute::*)", "count(//*[@gml:id or @xlink:href])",
+                "count(.//ns1:SimpleFeature//gml:pos)" };
+        for (String expr : expressions) {
+            StreamingXPath iut = StreamingXPath.compile(expr, nsBindings);
+            assertNotNull("Expected streamable expression: " + expr, iut);
+            assertEquals(expr, XMLUtils.evaluateXPath(doc, expr, nsBindings, XPathConstants.BOOLEAN),
+                    evaluate(iut, COLLECTION, XPathConstants.BOOLEAN));
+            if (expr.startsWith("count(")) {
+                assertEquals(expr, XMLUtils.evaluateXPath(doc, expr, nsBindings, XPathConstants.NUMBER),
+                        evaluate(iut, COLLECTION, XPathConstants.NUMBER));
+            }
+        }
+    }
+
+    @Test
+    public void countDescendants() throws Exception {
+        StreamingXPath iut = StreamingXPath.compile("count(//gml:featureMember/*/@gml:id)", null);
+        assertEquals(Double.valueOf(3), evaluate(iut, COLLECTION, XPathConstants.NUMBER));
+        iut = StreamingXPath.compile("not(//gml:featureMember[@xlink:href = '#sf-3'])", nsBindings);
+        assertEquals(Boolean.TRUE, evaluate(iut, COLLECTION, XPathConstants.BOOLEAN));
+    }
+
+    @Test
+    public void notStreamable() {
+        String[] expressions = { "//ns1:intProperty = 1", "//gml:pos[1]", "count(//gml:pos/text())",
+                "//gml:featureMember/..", "string(//ns1:count)", "//undeclared:foo", "/", "$var",
+                "count(//gml:pos) + 1", "//gml:Envelope[gml:pos]", "//@gml:id/..", "exists(//gml:pos)",
+                "empty(//gml:pos)" };
+        for (String expr : expressions) {
+            assertNull("Expected non-streamable expression: " + expr, StreamingXPath.compile(expr, nsBindings));
+        }
+    }
+
+    @Test
+    public void numericValueOfPath() {
+        StreamingXPath iut = StreamingXPath.compile("//gml:pos", null);
+        assertTrue(iut.supportsReturnType(XPathConstants.BOOLEAN));
+        assertFalse(iut.supportsReturnType(XPathConstants.NUMBER));
+        assertFalse(iut.supportsReturnType(XPathConstants.NODESET));
+    }
+
+    @Test
+    public void stopAtFirstMatch() throws Exception {
+        StreamingXPath iut = StreamingXPath.compile("//gml:featureMember and not(//ns1:SimpleFeature)",
+                nsBindings);
+        URL url = getClass().getResource(COLLECTION);
+        try (InputStream input = url.openStream()) {
+            XMLStreamReader reader = StaxFactories.getInputFactory().createXMLStreamReader(input);
+            assertEquals(Boolean.FALSE, iut.evaluate(reader, XPathConstants.BOOLEAN));
+            assertTrue("Expected remaining events.", reader.hasNext());
+        }
+        iut = StreamingXPath.compile("//gml:featureMember", null);
+        try (InputStream input = url.openStream()) {
+            XMLStreamReader reader = StaxFactories.getInputFactory().createXMLStreamReader(input);
+            assertEquals(Boolean.TRUE, iut.evaluate(reader, XPathConstants.BOOLEAN));
+            assertEquals("gml:featureMember", reader.getPrefix() + ":" + reader.getLocalName());
+        }
+    }
+
+    @Test
+    public void countLargeCollection() throws Exception {
+        int members = 200000;
+        StreamingXPath iut = StreamingXPath.compile("count(//gml:featureMember[@xlink:href])", nsBindings);
+        XMLStreamReader reader = StaxFactories.getInputFactory()
+                .createXMLStreamReader(new CollectionInputStream(members));
+        assertEquals(Double.valueOf(members / 2), iut.evaluate(reader, XPathConstants.NUMBER));
+    }
+
+    /**
+     * Generates a feature collection with the given number of members (every
+     * second one is a reference) as it is read.
+     */
+    static class CollectionInputStream extends InputStream {
+
+        private final int members;
+        private int index = -1;
+        private byte[] chunk = ("<ns1:Collection xmlns:ns1='" + NS1 + "' xmlns:gml='" + Namespaces.GML
+                + "' xmlns:xlink='" + Namespaces.XLINK + "'>").getBytes(StandardCharsets.UTF_8);
+        private int pos;
+
+        CollectionInputStream(int members) {
+            this.members = members;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos == chunk.length) {
+                if (index == members) {
+                    return -1;
+                }
+                index++;
+                String xml;
+                if (index == members) {
+                    xml = "</ns1:Collection>";
+                } else if (index % 2 == 0) {
+                    xml = "<gml:featureMember><ns1:Feature gml:id='f" + index
+                            + "'><gml:pos>1 2</gml:pos></ns1:Feature></gml:featureMember>";
+                } else {
+                    xml = "<gml:featureMember xlink:href='#f" + (index - 1) + "'/>";
+                }
+                chunk = xml.getBytes(StandardCharsets.UTF_8);
+                pos = 0;
+            }
+            return chunk[pos++] & 0xff;
+        }
+    }
+}
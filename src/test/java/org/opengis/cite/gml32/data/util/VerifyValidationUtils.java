@@ -30,6 +30,30 @@ public class VerifyValidationUtils {
         assertNotNull(result);
     }
 
+    @Test
+    public void buildCompiledSchematronValidator() {
+        String schemaRef = "http://schemas.opengis.net/gml/3.2.1/SchematronConstraints.xml";
+        CompiledSchematronValidator result = ValidationUtils.buildCompiledSchematronValidator(
+                schemaRef, "");
+        assertNotNull(result);
+    }
+
+    @Test
+    public void findPrecompiledSchematron() {
+        String schemaRef = "http://schemas.opengis.net/gml/3.2.1/SchematronConstraints.xml";
+        CompiledSchematron result = ValidationUtils.findPrecompiledSchematron(schemaRef, "#ALL");
+        assertNotNull("Precompiled stylesheet not found.", result);
+        assertTrue(result.getSystemId().endsWith("/sch/gml-3.2.1.xsl"));
+        assertNull(ValidationUtils.findPrecompiledSchematron("http://example.org/rules.sch", null));
+    }
+
+    @Test
+    public void resolveSchematronReference() {
+        URI schemaRef = URI.create("http://schemas.opengis.net/gml/3.2.1/SchematronConstraints.xml");
+        URI result = ValidationUtils.resolveSchematronReference(schemaRef);
+        assertTrue(result.toString().endsWith("/sch/gml-3.2.1.sch"));
+    }
+
     @Test
     public void extractRelativeSchemaReference() throws FileNotFoundException,
             XMLStreamException {
@@ -0,0 +1,142 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opengis.cite.validation.ValidationErrorHandler;
+
+/**
+ * Verifies the behavior of the ValidatorPool class.
+ */
+public class VerifyValidatorPool {
+
+    private static SchemaFactory factory;
+
+    public VerifyValidatorPool() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+    }
+
+    @Test
+    public void reuseValidatorOnSameThread() throws Exception {
+        ValidatorPool iut = new ValidatorPool();
+        Schema schema = factory.newSchema();
+        iut.register(schema);
+        Validator validator = iut.acquire(schema);
+        iut.release(schema, validator);
+        assertSame(validator, iut.acquire(schema));
+        assertNotSame("Validator is in use.", validator, iut.acquire(schema));
+        assertEquals("Unexpected hit count.", 1, iut.getHitCount());
+        assertEquals("Unexpected allocation count.", 2, iut.getAllocationCount());
+    }
+
+    @Test
+    public void noReuseAcrossThreads() throws Exception {
+        final ValidatorPool iut = new ValidatorPool();
+        final Schema schema = factory.newSchema();
+        iut.register(schema);
+        Validator validator = iut.acquire(schema);
+        iut.release(schema, validator);
+        final AtomicReference<Validator> other = new AtomicReference<Validator>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                other.set(iut.acquire(schema));
+            }
+        });
+        thread.start();
+        thread.join();
+        assertNotNull(other.get());
+        assertNotSame(validator, other.get());
+    }
+
+    @Test
+    public void unregisteredSchemaNotPooled() throws Exception {
+        ValidatorPool iut = new ValidatorPool();
+        Schema schema = factory.newSchema();
+        Validator validator = iut.acquire(schema);
+        iut.release(schema, validator);
+        assertNotSame(validator, iut.acquire(schema));
+        assertEquals("Unexpected hit count.", 0, iut.getHitCount());
+    }
+
+    @Test
+    public void unregisterDiscardsValidators() throws Exception {
+        ValidatorPool iut = new ValidatorPool();
+        Schema schema = factory.newSchema();
+        iut.register(schema);
+        Validator validator = iut.acquire(schema);
+        iut.release(schema, validator);
+        iut.unregister(schema);
+        assertFalse(iut.isRegistered(schema));
+        assertNotSame(validator, iut.acquire(schema));
+        assertEquals("Unexpected removal count.", 1, iut.getRemovalCount());
+    }
+
+    @Test
+    public void unregisteredSchemaIsCollectable() throws Exception {
+        ValidatorPool iut = new ValidatorPool();
+        Schema schema = factory.newSchema();
+        iut.register(schema);
+        Validator validator = iut.acquire(schema);
+        iut.release(schema, validator);
+        // a validator refers to the grammars of its schema
+        WeakReference<Validator> validatorRef = new WeakReference<Validator>(validator);
+        WeakReference<Schema> schemaRef = new WeakReference<Schema>(schema);
+        iut.unregister(schema);
+        validator = null;
+        schema = null;
+        for (int i = 0; i < 20 && (null != validatorRef.get() || null != schemaRef.get()); i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertNull("Pooled validator is still reachable.", validatorRef.get());
+        assertNull("Schema is still reachable.", schemaRef.get());
+    }
+
+    @Test
+    public void schemaCacheEvictionUnregistersSchema() throws Exception {
+        SchemaCache cache = new SchemaCache(1);
+        Schema schema1 = factory.newSchema();
+        Schema schema2 = factory.newSchema();
+        cache.put("1", schema1);
+        assertTrue(ValidatorPool.getInstance().isRegistered(schema1));
+        cache.put("2", schema2);
+        assertFalse(ValidatorPool.getInstance().isRegistered(schema1));
+        cache.clear();
+        assertFalse(ValidatorPool.getInstance().isRegistered(schema2));
+    }
+
+    @Test
+    public void pooledValidatorRetainsNoErrors() throws Exception {
+        ValidatorPool iut = new ValidatorPool();
+        Schema schema = factory.newSchema();
+        iut.register(schema);
+        URL url = getClass().getResource("/Gamma.xml");
+        ValidationErrorHandler errHandler = new ValidationErrorHandler();
+        Validator validator = iut.acquire(schema);
+        validator.setErrorHandler(errHandler);
+        validator.validate(new StreamSource(url.toString()));
+        iut.release(schema, validator);
+        assertNull(validator.getErrorHandler());
+        ValidationErrorHandler errHandler2 = new ValidationErrorHandler();
+        validator = iut.acquire(schema);
+        validator.setErrorHandler(errHandler2);
+        validator.validate(new StreamSource(url.toString()));
+        assertEquals("Unexpected error count.", errHandler.getErrorCount(), errHandler2.getErrorCount());
+    }
+}
@@ -1,12 +1,18 @@
 package org.opengis.cite.gml32.data.util;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 import net.sf.saxon.s9api.SaxonApiException;
 import net.sf.saxon.s9api.XdmValue;
@@ -144,4 +150,68 @@ public class VerifyXMLUtils {
         Assert.assertEquals("Expected result to contain character é (U+00E9)",
                 "Montréal", result);
     }
+
+    @Test
+    public void transformElement() throws SAXException, IOException {
+        Document doc = docBuilder.parse(this.getClass().getResourceAsStream(
+                "/atom-feed.xml"));
+        Node entry = doc.getElementsByTagNameNS(ATOM_NS, "entry").item(0);
+        String xslt = "<xsl:stylesheet version='2.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+                + "<xsl:template match='/'><root name='{local-name(*)}' count='{count(//*:title)}'/>"
+                + "</xsl:template></xsl:stylesheet>";
+        Document result = XMLUtils.transform(new StreamSource(new StringReader(xslt)), entry);
+        Assert.assertEquals("entry", result.getDocumentElement().getAttribute("name"));
+        Assert.assertEquals("1", result.getDocumentElement().getAttribute("count"));
+        Assert.assertEquals("Unexpected number of titles in source document.", 2,
+                doc.getElementsByTagNameNS(ATOM_NS, "title").getLength());
+    }
+
+    @Test
+    public void evaluateXPathOverSubjectInStreamingMode() throws Exception {
+        File file = new File(getClass().getResource("/SimpleFeatureCollection-1.xml").toURI());
+        DocumentTree subject = new DocumentTree(file, null);
+        Object count = XMLUtils.evaluateXPath(subject, "count(//gml:featureMember[not(@xlink:href)])", null,
+                XPathConstants.NUMBER);
+        Assert.assertEquals(Double.valueOf(3), count);
+        Assert.assertFalse("Tree should not be built.", subject.isBuilt());
+        Map<String, String> nsBindings = new HashMap<String, String>();
+        nsBindings.put(EX_NS, "ns1");
+        Object result = XMLUtils.evaluateXPath(subject, "//ns1:count = 'four'", nsBindings, XPathConstants.BOOLEAN);
+        Assert.assertEquals(Boolean.TRUE, result);
+        Assert.assertTrue("Tree should be built.", subject.isBuilt());
+    }
+
+    @Test
+    public void evaluateXPathOverStreamSource() throws Exception {
+        StreamSource source = new StreamSource(getClass().getResourceAsStream("/SimpleFeatureCollection-1.xml"));
+        Object result = XMLUtils.evaluateXPath(source, "count(//gml:pos) = 2", null, XPathConstants.BOOLEAN);
+        Assert.assertEquals(Boolean.TRUE, result);
+        source = new StreamSource(getClass().getResource("/SimpleFeatureCollection-1.xml").toString());
+        Assert.assertEquals(Boolean.FALSE,
+                XMLUtils.evaluateXPath(source, "//gml:pos[2] = '1 2'", null, XPathConstants.BOOLEAN));
+    }
+
+    @Test
+    public void writeNodeToStringWithLimit() throws SAXException, IOException {
+        Document doc = docBuilder.parse(this.getClass().getResourceAsStream("/atom-feed.xml"));
+        String complete = XMLUtils.writeNodeToString(doc);
+        String content = XMLUtils.writeNodeToString(doc, 100);
+        String marker = String.format(BoundedWriter.TRUNCATION_MARKER, 100);
+        Assert.assertEquals(complete.substring(0, 100) + marker, content);
+        Assert.assertEquals("Serializer should be reusable after truncation.", complete,
+                XMLUtils.writeNodeToString(doc));
+    }
+
+    @Test
+    public void writeNodeToStreamWithLimit() throws SAXException, IOException {
+        Document doc = docBuilder.parse(this.getClass().getResourceAsStream("/atom-feed.xml"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertFalse(XMLUtils.writeNode(doc, out, 64));
+        String content = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertTrue(content.startsWith("<feed"));
+        Assert.assertTrue(content.endsWith(String.format(BoundedOutputStream.TRUNCATION_MARKER, 64)));
+        out.reset();
+        XMLUtils.writeNode(doc, out);
+        Assert.assertTrue(new String(out.toByteArray(), StandardCharsets.UTF_8).trim().endsWith("</feed>"));
+    }
 }
@@ -0,0 +1,91 @@
+package org.opengis.cite.gml32.data.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.junit.Test;
+import org.opengis.cite.gml32.data.Namespaces;
+
+/**
+ * Verifies the behavior of the XPathCache class.
+ */
+public class VerifyXPathCache {
+
+    private static final Map<String, String> NS1 = Collections.singletonMap("http://example.org/ns1", "ns1");
+
+    public VerifyXPathCache() {
+    }
+
+    @Test
+    public void reuseCompiledExpression() throws XPathExpressionException {
+        XPathCache iut = new XPathCache(8);
+        XPathExpression expr = iut.getExpression("//ns1:intProperty", NS1);
+        assertSame(expr, iut.getExpression("//ns1:intProperty",
+                Collections.singletonMap("http://example.org/ns1", "ns1")));
+        assertNotSame(expr, iut.getExpression("//ns1:intProperty",
+                Collections.singletonMap("http://example.org/ns2", "ns1")));
+        assertEquals(2, iut.size());
+    }
+
+    @Test
+    public void standardBindingsAreImplicit() throws XPathExpressionException {
+        XPathCache iut = new XPathCache(8);
+        XPathExpression expr = iut.getExpression("count(//gml:pos)", null);
+        assertSame(expr, iut.getExpression("count(//gml:pos)", Collections.singletonMap(Namespaces.GML, "gml")));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws XPathExpressionException {
+        XPathCache iut = new XPathCache(2);
+        XPathExpression first = iut.getExpression("1", null);
+        iut.getExpression("2", null);
+        iut.getExpression("1", null);
+        iut.getExpression("3", null);
+        assertEquals(2, iut.size());
+        assertSame(first, iut.getExpression("1", null));
+    }
+
+    @Test
+    public void cachingDisabled() throws XPathExpressionException {
+        XPathCache iut = new XPathCache(0);
+        assertEquals(Boolean.TRUE, iut.getExpression("1 = 1", null).evaluate(null, XPathConstants.BOOLEAN));
+        assertEquals(0, iut.size());
+    }
+
+    @Test
+    public void threadConfinedCache() throws Exception {
+        final AtomicReference<XPathCache> otherCache = new AtomicReference<XPathCache>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                otherCache.set(XPathCache.getInstance());
+            }
+        });
+        thread.start();
+        thread.join();
+        assertSame(XPathCache.getInstance(), XPathCache.getInstance());
+        assertNotSame(XPathCache.getInstance(), otherCache.get());
+    }
+
+    @Test(expected = XPathExpressionException.class)
+    public void unboundPrefix() throws XPathExpressionException {
+        new XPathCache(8).getExpression("//ns2:intProperty", NS1).evaluate(null, XPathConstants.NODESET);
+    }
+
+    @Test
+    public void rebindNamespace() {
+        NamespaceBindings bindings = NamespaceBindings.withStandardBindings();
+        bindings.addNamespaceBinding(Namespaces.GML, "gml32");
+        assertEquals(Namespaces.GML, bindings.getNamespaceURI("gml32"));
+        assertNull(bindings.getNamespaceURI("gml"));
+        assertEquals(Namespaces.XLINK, bindings.getNamespaceURI("xlink"));
+        assertEquals("gml32", bindings.getPrefix(Namespaces.GML));
+    }
+}